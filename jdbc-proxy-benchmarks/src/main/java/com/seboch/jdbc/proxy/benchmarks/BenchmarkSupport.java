@@ -0,0 +1,53 @@
+package com.seboch.jdbc.proxy.benchmarks;
+
+import javax.sql.DataSource;
+
+import com.seboch.jdbc.proxy.JdbcProxyFactory;
+import com.seboch.jdbc.proxy.ProxyBackend;
+import com.seboch.jdbc.proxy.benchmarks.stub.StubDataSource;
+
+/**
+ * Setup shared by the benchmarks, which take the proxy backend as a
+ * parameter: either a {@link ProxyBackend} name, {@link #RAW} for the
+ * unproxied baseline or {@link #FAST_RESULT_SETS}.
+ */
+final class BenchmarkSupport {
+
+	static final String RAW = "RAW";
+
+	/**
+	 * {@link ProxyBackend#DYNAMIC_PROXY} backend with fast result sets, see
+	 * {@link JdbcProxyFactory#setFastResultSets(boolean)}.
+	 */
+	static final String FAST_RESULT_SETS = "FAST_RESULT_SETS";
+
+	static final String SQL = "select id, name from person where id = 1";
+
+	private BenchmarkSupport() {
+	}
+
+	/**
+	 * @return a new factory for backend, null for the {@link #RAW} baseline
+	 */
+	static JdbcProxyFactory newFactory(String backend) {
+		if (RAW.equals(backend)) {
+			return null;
+		} else if (FAST_RESULT_SETS.equals(backend)) {
+			JdbcProxyFactory factory = new JdbcProxyFactory(
+					ProxyBackend.DYNAMIC_PROXY);
+			factory.setFastResultSets(true);
+			return factory;
+		}
+		return new JdbcProxyFactory(ProxyBackend.valueOf(backend));
+	}
+
+	/**
+	 * @return a stub data source returning rowCount rows per query, proxied
+	 *         by factory unless it is null
+	 */
+	static DataSource dataSource(JdbcProxyFactory factory, int rowCount) {
+		DataSource dataSource = new StubDataSource(rowCount);
+		return factory == null ? dataSource : factory
+				.proxyDatasource(dataSource);
+	}
+}
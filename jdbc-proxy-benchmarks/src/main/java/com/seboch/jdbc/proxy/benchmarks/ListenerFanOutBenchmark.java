@@ -0,0 +1,108 @@
+package com.seboch.jdbc.proxy.benchmarks;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.DataSource;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.seboch.jdbc.proxy.JdbcProxyFactory;
+import com.seboch.jdbc.proxy.execution.ExecutionListener;
+import com.seboch.jdbc.proxy.lifecycle.ResourceLifecycleAdapter;
+
+/**
+ * Cost of dispatching the events of a statement lifecycle to 0, 1 or N
+ * listeners doing nothing.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ListenerFanOutBenchmark {
+
+	private static final class NoOpExecutionListener implements
+			ExecutionListener {
+
+		@Override
+		public void statementExecuted(Statement statement, String sql,
+				long elapsedNanos, Throwable failure) {
+		}
+
+		@Override
+		public void resultSetClosed(ResultSet resultSet, String sql,
+				long rowCount, long openNanos) {
+		}
+	}
+
+	@State(Scope.Benchmark)
+	public static class Factory {
+
+		@Param({ "WRAPPER", "DYNAMIC_PROXY" })
+		public String backend;
+
+		@Param({ "lifecycle", "execution" })
+		public String listenerType;
+
+		@Param({ "0", "1", "8" })
+		public int listenerCount;
+
+		DataSource dataSource;
+
+		@Setup
+		public void setup() {
+			JdbcProxyFactory factory = BenchmarkSupport.newFactory(backend);
+			for (int i = 0; i < listenerCount; i++) {
+				if (listenerType.equals("lifecycle")) {
+					factory.addResourceLifecycleListener(new ResourceLifecycleAdapter());
+				} else {
+					factory.addExecutionListener(new NoOpExecutionListener());
+				}
+			}
+			dataSource = BenchmarkSupport.dataSource(factory, 1);
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class ThreadConnection {
+
+		Connection connection;
+
+		@Setup
+		public void setup(Factory factory) throws SQLException {
+			connection = factory.dataSource.getConnection();
+		}
+
+		@TearDown
+		public void tearDown() throws SQLException {
+			connection.close();
+		}
+	}
+
+	@Benchmark
+	public int statement(ThreadConnection state) throws SQLException {
+		return StatementChurnBenchmark.executeStatement(state.connection);
+	}
+
+	@Benchmark
+	@Threads(4)
+	public int statement4Threads(ThreadConnection state) throws SQLException {
+		return StatementChurnBenchmark.executeStatement(state.connection);
+	}
+}
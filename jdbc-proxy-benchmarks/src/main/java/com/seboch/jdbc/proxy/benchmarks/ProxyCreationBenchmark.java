@@ -0,0 +1,66 @@
+package com.seboch.jdbc.proxy.benchmarks;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.seboch.jdbc.proxy.JdbcProxyFactory;
+import com.seboch.jdbc.proxy.benchmarks.stub.StubDataSource;
+
+/**
+ * Cost of wrapping a connection and of creating a statement proxy, without
+ * any listener.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ProxyCreationBenchmark {
+
+	@Param({ BenchmarkSupport.RAW, "WRAPPER", "DYNAMIC_PROXY" })
+	public String backend;
+
+	private JdbcProxyFactory factory;
+	private Connection rawConnection;
+	private Connection connection;
+
+	@Setup
+	public void setup() throws SQLException {
+		factory = BenchmarkSupport.newFactory(backend);
+		rawConnection = new StubDataSource(0).getConnection();
+		connection = factory == null ? rawConnection : factory
+				.proxyConnection(rawConnection);
+	}
+
+	@Benchmark
+	public Connection proxyConnection() {
+		return factory == null ? rawConnection : factory
+				.proxyConnection(rawConnection);
+	}
+
+	/**
+	 * The statement is closed so that the connection does not accumulate
+	 * open children.
+	 */
+	@Benchmark
+	public Statement createStatement() throws SQLException {
+		Statement statement = connection.createStatement();
+		statement.close();
+		return statement;
+	}
+}
@@ -0,0 +1,98 @@
+package com.seboch.jdbc.proxy.benchmarks;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of the calls forwarded by a result set proxy, the hot path of most
+ * applications.
+ * <p>
+ * Target: the getters of the WRAPPER backend and of fast result sets cost at
+ * most {@link ResultSetOverheadCheck#MAX_OVERHEAD_NANOS} more than the RAW
+ * ones, as checked by {@link ResultSetOverheadCheck}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ResultSetBenchmark {
+
+	@Param({ BenchmarkSupport.RAW, "WRAPPER", "DYNAMIC_PROXY",
+			BenchmarkSupport.FAST_RESULT_SETS })
+	public String backend;
+
+	private Connection connection;
+	private ResultSet resultSet;
+
+	@Setup
+	public void setup() throws SQLException {
+		connection = BenchmarkSupport.dataSource(
+				BenchmarkSupport.newFactory(backend), Integer.MAX_VALUE)
+				.getConnection();
+		resultSet = connection.createStatement().executeQuery(
+				BenchmarkSupport.SQL);
+		resultSet.next();
+	}
+
+	@TearDown
+	public void tearDown() throws SQLException {
+		connection.close();
+	}
+
+	@Benchmark
+	public boolean next() throws SQLException {
+		return resultSet.next();
+	}
+
+	@Benchmark
+	public int getInt() throws SQLException {
+		return resultSet.getInt(1);
+	}
+
+	@Benchmark
+	public long getLong() throws SQLException {
+		return resultSet.getLong(1);
+	}
+
+	@Benchmark
+	public double getDouble() throws SQLException {
+		return resultSet.getDouble(1);
+	}
+
+	@Benchmark
+	public Object getObject() throws SQLException {
+		return resultSet.getObject(2);
+	}
+
+	@Benchmark
+	public boolean wasNull() throws SQLException {
+		return resultSet.wasNull();
+	}
+
+	@Benchmark
+	public String getString() throws SQLException {
+		return resultSet.getString(2);
+	}
+
+	@Benchmark
+	public String getStringByLabel() throws SQLException {
+		return resultSet.getString("name");
+	}
+}
@@ -0,0 +1,66 @@
+package com.seboch.jdbc.proxy.benchmarks;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the getter benchmarks of {@link ResultSetBenchmark} and fails if the
+ * result set getters of the WRAPPER backend or of fast result sets cost more
+ * than {@link #MAX_OVERHEAD_NANOS} over the RAW driver ones. The arguments
+ * are JMH options, e.g. -f 3 for more forks.
+ */
+public final class ResultSetOverheadCheck {
+
+	/**
+	 * Overhead target of a forwarded getter, in nanoseconds.
+	 */
+	static final double MAX_OVERHEAD_NANOS = 2;
+
+	private ResultSetOverheadCheck() {
+	}
+
+	public static void main(String[] args) throws RunnerException,
+			CommandLineOptionException {
+		Options options = new OptionsBuilder()
+				.parent(new CommandLineOptions(args))
+				.include(ResultSetBenchmark.class.getName()
+						+ "\\.(get|wasNull)")
+				.param("backend", BenchmarkSupport.RAW, "WRAPPER",
+						BenchmarkSupport.FAST_RESULT_SETS)
+				.build();
+		Collection<RunResult> results = new Runner(options).run();
+
+		Map<String, Double> rawScores = new HashMap<String, Double>();
+		for (RunResult result : results) {
+			if (BenchmarkSupport.RAW.equals(result.getParams().getParam(
+					"backend"))) {
+				rawScores.put(result.getParams().getBenchmark(), result
+						.getPrimaryResult().getScore());
+			}
+		}
+		boolean failed = false;
+		for (RunResult result : results) {
+			String backend = result.getParams().getParam("backend");
+			String benchmark = result.getParams().getBenchmark();
+			Double raw = rawScores.get(benchmark);
+			if (BenchmarkSupport.RAW.equals(backend) || raw == null) {
+				continue;
+			}
+			double overhead = result.getPrimaryResult().getScore() - raw;
+			boolean exceeded = overhead > MAX_OVERHEAD_NANOS;
+			failed |= exceeded;
+			System.out.printf("%-60s %-16s %+.2f ns%s%n", benchmark, backend,
+					overhead, exceeded ? "  OVER TARGET" : "");
+		}
+		System.exit(failed ? 1 : 0);
+	}
+}
@@ -0,0 +1,114 @@
+package com.seboch.jdbc.proxy.benchmarks;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.DataSource;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Full statement lifecycle: create, execute, read one row, close. The
+ * factory is shared, each thread uses its own connection like a pool would
+ * hand out.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StatementChurnBenchmark {
+
+	@State(Scope.Benchmark)
+	public static class Factory {
+
+		@Param({ BenchmarkSupport.RAW, "WRAPPER", "DYNAMIC_PROXY" })
+		public String backend;
+
+		DataSource dataSource;
+
+		@Setup
+		public void setup() {
+			dataSource = BenchmarkSupport.dataSource(
+					BenchmarkSupport.newFactory(backend), 1);
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class ThreadConnection {
+
+		Connection connection;
+
+		@Setup
+		public void setup(Factory factory) throws SQLException {
+			connection = factory.dataSource.getConnection();
+		}
+
+		@TearDown
+		public void tearDown() throws SQLException {
+			connection.close();
+		}
+	}
+
+	@Benchmark
+	public int statement(ThreadConnection state) throws SQLException {
+		return executeStatement(state.connection);
+	}
+
+	@Benchmark
+	@Threads(4)
+	public int statement4Threads(ThreadConnection state) throws SQLException {
+		return executeStatement(state.connection);
+	}
+
+	@Benchmark
+	public int preparedStatement(ThreadConnection state) throws SQLException {
+		return executePreparedStatement(state.connection);
+	}
+
+	@Benchmark
+	@Threads(4)
+	public int preparedStatement4Threads(ThreadConnection state)
+			throws SQLException {
+		return executePreparedStatement(state.connection);
+	}
+
+	static int executeStatement(Connection connection) throws SQLException {
+		Statement statement = connection.createStatement();
+		ResultSet resultSet = statement.executeQuery(BenchmarkSupport.SQL);
+		resultSet.next();
+		int id = resultSet.getInt(1);
+		resultSet.close();
+		statement.close();
+		return id;
+	}
+
+	static int executePreparedStatement(Connection connection)
+			throws SQLException {
+		PreparedStatement statement = connection
+				.prepareStatement(BenchmarkSupport.SQL);
+		statement.setInt(1, 1);
+		ResultSet resultSet = statement.executeQuery();
+		resultSet.next();
+		int id = resultSet.getInt(1);
+		resultSet.close();
+		statement.close();
+		return id;
+	}
+}
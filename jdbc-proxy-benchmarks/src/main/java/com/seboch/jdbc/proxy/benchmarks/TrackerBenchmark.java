@@ -0,0 +1,98 @@
+package com.seboch.jdbc.proxy.benchmarks;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.seboch.jdbc.proxy.benchmarks.stub.StubDataSource;
+import com.seboch.jdbc.proxy.lifecycle.OpenResourceTracker;
+import com.seboch.jdbc.proxy.lifecycle.StackCapturePolicy;
+
+/**
+ * Cost of registering then unregistering a statement in
+ * {@link OpenResourceTracker}, for each {@link StackCapturePolicy}, with and
+ * without call site accounting.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TrackerBenchmark {
+
+	@State(Scope.Benchmark)
+	public static class Tracker {
+
+		@Param({ "never", "always", "lazy", "everyNth",
+				"perCallSiteRateLimit", "onCallSiteGrowth" })
+		public String policy;
+
+		@Param({ "false", "true" })
+		public boolean callSiteAccounting;
+
+		OpenResourceTracker tracker;
+
+		@Setup
+		public void setup() {
+			tracker = new OpenResourceTracker();
+			tracker.setCallSiteAccountingEnabled(callSiteAccounting);
+			tracker.setStackCapturePolicy(stackCapturePolicy(policy));
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class ThreadStatement {
+
+		Statement statement;
+
+		@Setup
+		public void setup() throws SQLException {
+			statement = new StubDataSource(0).getConnection()
+					.createStatement();
+		}
+	}
+
+	static StackCapturePolicy stackCapturePolicy(String name) {
+		if (name.equals("never")) {
+			return StackCapturePolicy.never();
+		} else if (name.equals("always")) {
+			return StackCapturePolicy.always();
+		} else if (name.equals("lazy")) {
+			return StackCapturePolicy.lazy();
+		} else if (name.equals("everyNth")) {
+			return StackCapturePolicy.everyNth(16);
+		} else if (name.equals("perCallSiteRateLimit")) {
+			return StackCapturePolicy.perCallSiteRateLimit(1, 1,
+					TimeUnit.SECONDS);
+		} else if (name.equals("onCallSiteGrowth")) {
+			return StackCapturePolicy.onCallSiteGrowth();
+		}
+		throw new IllegalArgumentException("Unknown policy " + name);
+	}
+
+	@Benchmark
+	public void createClose(Tracker tracker, ThreadStatement state) {
+		tracker.tracker.statementCreated(state.statement);
+		tracker.tracker.statementClosed(state.statement);
+	}
+
+	@Benchmark
+	@Threads(4)
+	public void createClose4Threads(Tracker tracker, ThreadStatement state) {
+		tracker.tracker.statementCreated(state.statement);
+		tracker.tracker.statementClosed(state.statement);
+	}
+}
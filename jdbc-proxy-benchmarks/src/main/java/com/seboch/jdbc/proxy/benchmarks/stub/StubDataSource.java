@@ -0,0 +1,73 @@
+package com.seboch.jdbc.proxy.benchmarks.stub;
+
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.logging.Logger;
+
+import javax.sql.DataSource;
+
+/**
+ * In-memory {@link DataSource} whose connections do no I/O, so that the
+ * benchmarks measure the proxies and not a driver. Queries return rowCount
+ * rows of generated values, unsupported methods throw
+ * {@link SQLFeatureNotSupportedException}.
+ */
+public final class StubDataSource implements DataSource {
+
+	private final int rowCount;
+
+	public StubDataSource(int rowCount) {
+		if (rowCount < 0) {
+			throw new IllegalArgumentException(
+					"rowCount must not be negative");
+		}
+		this.rowCount = rowCount;
+	}
+
+	@Override
+	public Connection getConnection() throws SQLException {
+		return new StubConnection(rowCount);
+	}
+
+	@Override
+	public Connection getConnection(String username, String password)
+			throws SQLException {
+		return getConnection();
+	}
+
+	@Override
+	public PrintWriter getLogWriter() throws SQLException {
+		return null;
+	}
+
+	@Override
+	public void setLogWriter(PrintWriter out) throws SQLException {
+	}
+
+	@Override
+	public void setLoginTimeout(int seconds) throws SQLException {
+	}
+
+	@Override
+	public int getLoginTimeout() throws SQLException {
+		return 0;
+	}
+
+	@Override
+	public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	@Override
+	public <T> T unwrap(Class<T> iface) throws SQLException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	@Override
+	public boolean isWrapperFor(Class<?> iface) throws SQLException {
+		return iface.isInstance(this);
+	}
+
+}
@@ -0,0 +1,327 @@
+package com.seboch.jdbc.proxy.benchmarks.stub;
+
+import java.io.InputStream;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.net.URL;
+import java.sql.Array;
+import java.sql.Blob;
+import java.sql.Clob;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.NClob;
+import java.sql.ParameterMetaData;
+import java.sql.PreparedStatement;
+import java.sql.Ref;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.RowId;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLXML;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.Calendar;
+
+final class StubPreparedStatement extends StubStatement implements
+		PreparedStatement {
+
+	StubPreparedStatement(Connection connection, int rowCount) {
+		super(connection, rowCount);
+	}
+
+	@Override
+	public ResultSet executeQuery() throws SQLException {
+		return new StubResultSet(this, rowCount);
+	}
+
+	@Override
+	public int executeUpdate() throws SQLException {
+		return 1;
+	}
+
+	@Override
+	public void setNull(int parameterIndex, int sqlType) throws SQLException {
+	}
+
+	@Override
+	public void setBoolean(int parameterIndex, boolean x) throws SQLException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	@Override
+	public void setByte(int parameterIndex, byte x) throws SQLException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	@Override
+	public void setShort(int parameterIndex, short x) throws SQLException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	@Override
+	public void setInt(int parameterIndex, int x) throws SQLException {
+	}
+
+	@Override
+	public void setLong(int parameterIndex, long x) throws SQLException {
+	}
+
+	@Override
+	public void setFloat(int parameterIndex, float x) throws SQLException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	@Override
+	public void setDouble(int parameterIndex, double x) throws SQLException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	@Override
+	public void setBigDecimal(int parameterIndex, BigDecimal x)
+			throws SQLException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	@Override
+	public void setString(int parameterIndex, String x) throws SQLException {
+	}
+
+	@Override
+	public void setBytes(int parameterIndex, byte[] x) throws SQLException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	@Override
+	public void setDate(int parameterIndex, Date x) throws SQLException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	@Override
+	public void setTime(int parameterIndex, Time x) throws SQLException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	@Override
+	public void setTimestamp(int parameterIndex, Timestamp x)
+			throws SQLException {
+	}
+
+	@Override
+	public void setAsciiStream(int parameterIndex, InputStream x, int length)
+			throws SQLException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	@Deprecated
+	@Override
+	public void setUnicodeStream(int parameterIndex, InputStream x, int length)
+			throws SQLException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	@Override
+	public void setBinaryStream(int parameterIndex, InputStream x, int length)
+			throws SQLException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	@Override
+	public void clearParameters() throws SQLException {
+	}
+
+	@Override
+	public void setObject(int parameterIndex, Object x, int targetSqlType)
+			throws SQLException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	@Override
+	public void setObject(int parameterIndex, Object x) throws SQLException {
+	}
+
+	@Override
+	public boolean execute() throws SQLException {
+		return execute(null);
+	}
+
+	@Override
+	public void addBatch() throws SQLException {
+		batchSize++;
+	}
+
+	@Override
+	public void setCharacterStream(int parameterIndex, Reader reader,
+			int length) throws SQLException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	@Override
+	public void setRef(int parameterIndex, Ref x) throws SQLException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	@Override
+	public void setBlob(int parameterIndex, Blob x) throws SQLException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	@Override
+	public void setClob(int parameterIndex, Clob x) throws SQLException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	@Override
+	public void setArray(int parameterIndex, Array x) throws SQLException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	@Override
+	public ResultSetMetaData getMetaData() throws SQLException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	@Override
+	public void setDate(int parameterIndex, Date x, Calendar cal)
+			throws SQLException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	@Override
+	public void setTime(int parameterIndex, Time x, Calendar cal)
+			throws SQLException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	@Override
+	public void setTimestamp(int parameterIndex, Timestamp x, Calendar cal)
+			throws SQLException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	@Override
+	public void setNull(int parameterIndex, int sqlType, String typeName)
+			throws SQLException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	@Override
+	public void setURL(int parameterIndex, URL x) throws SQLException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	@Override
+	public ParameterMetaData getParameterMetaData() throws SQLException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	@Override
+	public void setRowId(int parameterIndex, RowId x) throws SQLException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	@Override
+	public void setNString(int parameterIndex, String value) throws SQLException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	@Override
+	public void setNCharacterStream(int parameterIndex, Reader value,
+			long length) throws SQLException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	@Override
+	public void setNClob(int parameterIndex, NClob value) throws SQLException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	@Override
+	public void setClob(int parameterIndex, Reader reader, long length)
+			throws SQLException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	@Override
+	public void setBlob(int parameterIndex, InputStream inputStream,
+			long length) throws SQLException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	@Override
+	public void setNClob(int parameterIndex, Reader reader, long length)
+			throws SQLException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	@Override
+	public void setSQLXML(int parameterIndex, SQLXML xmlObject)
+			throws SQLException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	@Override
+	public void setObject(int parameterIndex, Object x, int targetSqlType,
+			int scaleOrLength) throws SQLException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	@Override
+	public void setAsciiStream(int parameterIndex, InputStream x, long length)
+			throws SQLException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	@Override
+	public void setBinaryStream(int parameterIndex, InputStream x, long length)
+			throws SQLException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	@Override
+	public void setCharacterStream(int parameterIndex, Reader reader,
+			long length) throws SQLException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	@Override
+	public void setAsciiStream(int parameterIndex, InputStream x)
+			throws SQLException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	@Override
+	public void setBinaryStream(int parameterIndex, InputStream x)
+			throws SQLException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	@Override
+	public void setCharacterStream(int parameterIndex, Reader reader)
+			throws SQLException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	@Override
+	public void setNCharacterStream(int parameterIndex, Reader value)
+			throws SQLException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	@Override
+	public void setClob(int parameterIndex, Reader reader) throws SQLException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	@Override
+	public void setBlob(int parameterIndex, InputStream inputStream)
+			throws SQLException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	@Override
+	public void setNClob(int parameterIndex, Reader reader) throws SQLException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+}
@@ -0,0 +1,252 @@
+package com.seboch.jdbc.proxy.benchmarks.stub;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLWarning;
+import java.sql.Statement;
+import java.util.Arrays;
+
+class StubStatement implements Statement {
+
+	private final Connection connection;
+	final int rowCount;
+	int batchSize;
+	private ResultSet resultSet;
+	private int fetchSize;
+	private boolean closed;
+
+	StubStatement(Connection connection, int rowCount) {
+		this.connection = connection;
+		this.rowCount = rowCount;
+	}
+
+	@Override
+	public ResultSet executeQuery(String sql) throws SQLException {
+		return new StubResultSet(this, rowCount);
+	}
+
+	@Override
+	public int executeUpdate(String sql) throws SQLException {
+		return 1;
+	}
+
+	@Override
+	public void close() throws SQLException {
+		closed = true;
+	}
+
+	@Override
+	public int getMaxFieldSize() throws SQLException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	@Override
+	public void setMaxFieldSize(int max) throws SQLException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	@Override
+	public int getMaxRows() throws SQLException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	@Override
+	public void setMaxRows(int max) throws SQLException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	@Override
+	public void setEscapeProcessing(boolean enable) throws SQLException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	@Override
+	public int getQueryTimeout() throws SQLException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	@Override
+	public void setQueryTimeout(int seconds) throws SQLException {
+	}
+
+	@Override
+	public void cancel() throws SQLException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	@Override
+	public SQLWarning getWarnings() throws SQLException {
+		return null;
+	}
+
+	@Override
+	public void clearWarnings() throws SQLException {
+	}
+
+	@Override
+	public void setCursorName(String name) throws SQLException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	@Override
+	public boolean execute(String sql) throws SQLException {
+		resultSet = new StubResultSet(this, rowCount);
+		return true;
+	}
+
+	@Override
+	public ResultSet getResultSet() throws SQLException {
+		return resultSet;
+	}
+
+	@Override
+	public int getUpdateCount() throws SQLException {
+		return resultSet == null ? 1 : -1;
+	}
+
+	@Override
+	public boolean getMoreResults() throws SQLException {
+		resultSet = null;
+		return false;
+	}
+
+	@Override
+	public void setFetchDirection(int direction) throws SQLException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	@Override
+	public int getFetchDirection() throws SQLException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	@Override
+	public void setFetchSize(int rows) throws SQLException {
+		fetchSize = rows;
+	}
+
+	@Override
+	public int getFetchSize() throws SQLException {
+		return fetchSize;
+	}
+
+	@Override
+	public int getResultSetConcurrency() throws SQLException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	@Override
+	public int getResultSetType() throws SQLException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	@Override
+	public void addBatch(String sql) throws SQLException {
+		batchSize++;
+	}
+
+	@Override
+	public void clearBatch() throws SQLException {
+		batchSize = 0;
+	}
+
+	@Override
+	public int[] executeBatch() throws SQLException {
+		int[] updateCounts = new int[batchSize];
+		Arrays.fill(updateCounts, 1);
+		batchSize = 0;
+		return updateCounts;
+	}
+
+	@Override
+	public Connection getConnection() throws SQLException {
+		return connection;
+	}
+
+	@Override
+	public boolean getMoreResults(int current) throws SQLException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	@Override
+	public ResultSet getGeneratedKeys() throws SQLException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	@Override
+	public int executeUpdate(String sql, int autoGeneratedKeys)
+			throws SQLException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	@Override
+	public int executeUpdate(String sql, int[] columnIndexes)
+			throws SQLException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	@Override
+	public int executeUpdate(String sql, String[] columnNames)
+			throws SQLException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	@Override
+	public boolean execute(String sql, int autoGeneratedKeys)
+			throws SQLException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	@Override
+	public boolean execute(String sql, int[] columnIndexes) throws SQLException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	@Override
+	public boolean execute(String sql, String[] columnNames) throws SQLException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	@Override
+	public int getResultSetHoldability() throws SQLException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	@Override
+	public boolean isClosed() throws SQLException {
+		return closed;
+	}
+
+	@Override
+	public void setPoolable(boolean poolable) throws SQLException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	@Override
+	public boolean isPoolable() throws SQLException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	@Override
+	public void closeOnCompletion() throws SQLException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	@Override
+	public boolean isCloseOnCompletion() throws SQLException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	@Override
+	public <T> T unwrap(Class<T> iface) throws SQLException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	@Override
+	public boolean isWrapperFor(Class<?> iface) throws SQLException {
+		return iface.isInstance(this);
+	}
+
+}
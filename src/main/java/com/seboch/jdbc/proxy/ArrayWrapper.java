@@ -0,0 +1,83 @@
+package com.seboch.jdbc.proxy;
+
+import java.sql.Array;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Map;
+
+/**
+ * Delegating {@link Array} used by the {@link ProxyBackend#WRAPPER} backend,
+ * so that its result sets are tracked.
+ */
+class ArrayWrapper implements Array {
+
+	private final JdbcProxyFactory factory;
+	private final Array array;
+
+	ArrayWrapper(JdbcProxyFactory factory, Array array) {
+		this.factory = factory;
+		this.array = array;
+	}
+
+	private ResultSet proxyResultSet(ResultSet resultSet) {
+		return factory.proxyResultSet(resultSet, null, null, null);
+	}
+
+	@Override
+	public String getBaseTypeName() throws SQLException {
+		return array.getBaseTypeName();
+	}
+
+	@Override
+	public int getBaseType() throws SQLException {
+		return array.getBaseType();
+	}
+
+	@Override
+	public Object getArray() throws SQLException {
+		return array.getArray();
+	}
+
+	@Override
+	public Object getArray(Map<String, Class<?>> map) throws SQLException {
+		return array.getArray(map);
+	}
+
+	@Override
+	public Object getArray(long index, int count) throws SQLException {
+		return array.getArray(index, count);
+	}
+
+	@Override
+	public Object getArray(long index, int count, Map<String, Class<?>> map)
+			throws SQLException {
+		return array.getArray(index, count, map);
+	}
+
+	@Override
+	public ResultSet getResultSet() throws SQLException {
+		return proxyResultSet(array.getResultSet());
+	}
+
+	@Override
+	public ResultSet getResultSet(Map<String, Class<?>> map) throws SQLException {
+		return proxyResultSet(array.getResultSet(map));
+	}
+
+	@Override
+	public ResultSet getResultSet(long index, int count) throws SQLException {
+		return proxyResultSet(array.getResultSet(index, count));
+	}
+
+	@Override
+	public ResultSet getResultSet(long index, int count,
+			Map<String, Class<?>> map) throws SQLException {
+		return proxyResultSet(array.getResultSet(index, count, map));
+	}
+
+	@Override
+	public void free() throws SQLException {
+		array.free();
+	}
+
+}
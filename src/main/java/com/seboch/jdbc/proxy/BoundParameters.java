@@ -0,0 +1,102 @@
+package com.seboch.jdbc.proxy;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Arrays;
+
+/**
+ * Values bound to the parameters of a prepared statement, recorded by the
+ * proxy as the application sets them.
+ * <p>
+ * Only immutable values such as numbers, strings and dates are recorded,
+ * binding a stream, a LOB or any other value makes the parameters
+ * unrecordable until they are cleared. Such values are still logged as a
+ * placeholder naming their type, see {@link #loggedValues()}.
+ * <p>
+ * Setting a parameter only stores a reference to the value in an array
+ * reused across executions. Byte arrays and dates, which the application
+ * may modify afterwards, are copied when the values are read, which only
+ * happens for a cache key or a slow query.
+ */
+final class BoundParameters {
+
+	/**
+	 * Logged in place of a value which is not recorded.
+	 */
+	private static final class Unrecorded {
+
+		private final String typeName;
+
+		Unrecorded(Object value) {
+			this.typeName = value.getClass().getSimpleName();
+		}
+
+		@Override
+		public String toString() {
+			return "<" + typeName + ">";
+		}
+	}
+
+	private static final Object[] NO_VALUES = new Object[0];
+
+	private Object[] values = NO_VALUES;
+	private int count;
+	private boolean recordable = true;
+
+	void set(int parameterIndex, Object value) {
+		if (parameterIndex < 1) {
+			return;
+		}
+		if (!isRecordable(value)) {
+			recordable = false;
+			value = new Unrecorded(value);
+		}
+		if (parameterIndex > values.length) {
+			values = Arrays.copyOf(values,
+					Math.max(parameterIndex, values.length << 1));
+		}
+		values[parameterIndex - 1] = value;
+		count = Math.max(count, parameterIndex);
+	}
+
+	void clear() {
+		Arrays.fill(values, 0, count, null);
+		count = 0;
+		recordable = true;
+	}
+
+	/**
+	 * @return a copy of the bound values, in parameter order, or null if a
+	 *         value could not be recorded
+	 */
+	Object[] values() {
+		return recordable ? copyValues() : null;
+	}
+
+	/**
+	 * @return a copy of the bound values, in parameter order, the values
+	 *         which could not be recorded being replaced by a placeholder
+	 */
+	Object[] loggedValues() {
+		return copyValues();
+	}
+
+	private Object[] copyValues() {
+		Object[] copy = new Object[count];
+		for (int i = 0; i < count; i++) {
+			// the application may modify an array or a date once bound
+			copy[i] = CachedRows.copy(values[i]);
+		}
+		return copy;
+	}
+
+	private static boolean isRecordable(Object value) {
+		return value == null || value instanceof String
+				|| value instanceof Integer || value instanceof Long
+				|| value instanceof Short || value instanceof Byte
+				|| value instanceof Double || value instanceof Float
+				|| value instanceof BigDecimal || value instanceof BigInteger
+				|| value instanceof Boolean || value instanceof Character
+				|| value instanceof java.util.Date || value instanceof byte[];
+	}
+}
@@ -0,0 +1,1317 @@
+package com.seboch.jdbc.proxy;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.sql.Array;
+import java.sql.Blob;
+import java.sql.Clob;
+import java.sql.Date;
+import java.sql.NClob;
+import java.sql.Ref;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.RowId;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLWarning;
+import java.sql.SQLXML;
+import java.sql.Statement;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.Calendar;
+import java.util.Map;
+
+import javax.sql.rowset.serial.SerialBlob;
+import javax.sql.rowset.serial.SerialClob;
+
+/**
+ * Read-only, scrollable {@link ResultSet} over {@link CachedRows}, returned
+ * by the query result cache and for detached results without using the
+ * connection. Values are converted like most drivers do, the LOB getters
+ * return serial copies.
+ * <p>
+ * Not thread safe, each execution gets its own instance over the shared
+ * rows.
+ */
+final class CachedResultSet implements ResultSet {
+
+	private final CachedRows rows;
+
+	/**
+	 * Current row, from 1, 0 before the first row and row count + 1 after
+	 * the last.
+	 */
+	private int row;
+	private boolean wasNull;
+	private int fetchDirection = FETCH_FORWARD;
+	private boolean closed;
+
+	CachedResultSet(CachedRows rows) {
+		this.rows = rows;
+	}
+
+	private void checkOpen() throws SQLException {
+		if (closed) {
+			throw new SQLException("ResultSet is closed");
+		}
+	}
+
+	/**
+	 * @return the column of the current row, whose null flag is recorded
+	 */
+	private CachedRows.Column column(int columnIndex) throws SQLException {
+		checkOpen();
+		if (row < 1 || row > rows.getRowCount()) {
+			throw new SQLException("No current row");
+		}
+		if (columnIndex < 1 || columnIndex > rows.getColumnCount()) {
+			throw new SQLException("Invalid column index: " + columnIndex);
+		}
+		CachedRows.Column column = rows.getColumn(columnIndex - 1);
+		wasNull = column.isNull(row - 1);
+		return column;
+	}
+
+	private Object value(int columnIndex) throws SQLException {
+		return column(columnIndex).get(row - 1);
+	}
+
+	/**
+	 * @return the value, copied if it is mutable as the cached rows are
+	 *         shared by all the result sets reading them
+	 */
+	private Object copiedValue(int columnIndex) throws SQLException {
+		return CachedRows.copy(value(columnIndex));
+	}
+
+	/**
+	 * Reads integral values without boxing them, from integral and floating
+	 * point columns.
+	 */
+	private long longValue(int columnIndex) throws SQLException {
+		CachedRows.Column column = column(columnIndex);
+		if (wasNull) {
+			return 0;
+		} else if (column instanceof CachedRows.IntegralColumn) {
+			return ((CachedRows.IntegralColumn) column).getLong(row - 1);
+		} else if (column instanceof CachedRows.FloatingColumn) {
+			return (long) ((CachedRows.FloatingColumn) column)
+					.getDouble(row - 1);
+		}
+		return number(columnIndex).longValue();
+	}
+
+	private double doubleValue(int columnIndex) throws SQLException {
+		CachedRows.Column column = column(columnIndex);
+		if (wasNull) {
+			return 0;
+		} else if (column instanceof CachedRows.FloatingColumn) {
+			return ((CachedRows.FloatingColumn) column).getDouble(row - 1);
+		} else if (column instanceof CachedRows.IntegralColumn) {
+			return ((CachedRows.IntegralColumn) column).getLong(row - 1);
+		}
+		return number(columnIndex).doubleValue();
+	}
+
+	private Number number(int columnIndex) throws SQLException {
+		Object value = value(columnIndex);
+		if (value == null || value instanceof Number) {
+			return (Number) value;
+		} else if (value instanceof Boolean) {
+			return ((Boolean) value) ? 1 : 0;
+		} else if (value instanceof String) {
+			try {
+				return new BigDecimal(((String) value).trim());
+			} catch (NumberFormatException e) {
+				// reported below
+			}
+		}
+		throw conversionFailed(columnIndex, value, "number");
+	}
+
+	private <T> T wasNull(T value) {
+		return wasNull ? null : value;
+	}
+
+	private SQLException conversionFailed(int columnIndex, Object value,
+			String type) {
+		return new SQLException("Can not convert the "
+				+ value.getClass().getName() + " of column " + columnIndex
+				+ " to " + type);
+	}
+
+	private static SQLException readOnly() {
+		return new SQLException("ResultSet is read only");
+	}
+
+	@Override
+	public boolean next() throws SQLException {
+		checkOpen();
+		if (row <= rows.getRowCount()) {
+			row++;
+		}
+		return row <= rows.getRowCount();
+	}
+
+	@Override
+	public void close() throws SQLException {
+		closed = true;
+	}
+
+	@Override
+	public boolean wasNull() throws SQLException {
+		checkOpen();
+		return wasNull;
+	}
+
+	@Override
+	public String getString(int columnIndex) throws SQLException {
+		CachedRows.Column column = column(columnIndex);
+		if (column instanceof CachedRows.StringColumn) {
+			return ((CachedRows.StringColumn) column).getString(row - 1);
+		}
+		Object value = column.get(row - 1);
+		if (value instanceof byte[]) {
+			return new String((byte[]) value);
+		}
+		return value == null ? null : value.toString();
+	}
+
+	@Override
+	public boolean getBoolean(int columnIndex) throws SQLException {
+		Object value = value(columnIndex);
+		if (value == null) {
+			return false;
+		} else if (value instanceof Boolean) {
+			return (Boolean) value;
+		} else if (value instanceof Number) {
+			return ((Number) value).intValue() != 0;
+		} else if (value instanceof String) {
+			String string = ((String) value).trim();
+			return string.equals("1") || string.equalsIgnoreCase("true")
+					|| string.equalsIgnoreCase("y");
+		}
+		throw conversionFailed(columnIndex, value, "boolean");
+	}
+
+	@Override
+	public byte getByte(int columnIndex) throws SQLException {
+		return (byte) longValue(columnIndex);
+	}
+
+	@Override
+	public short getShort(int columnIndex) throws SQLException {
+		return (short) longValue(columnIndex);
+	}
+
+	@Override
+	public int getInt(int columnIndex) throws SQLException {
+		return (int) longValue(columnIndex);
+	}
+
+	@Override
+	public long getLong(int columnIndex) throws SQLException {
+		return longValue(columnIndex);
+	}
+
+	@Override
+	public float getFloat(int columnIndex) throws SQLException {
+		return (float) doubleValue(columnIndex);
+	}
+
+	@Override
+	public double getDouble(int columnIndex) throws SQLException {
+		return doubleValue(columnIndex);
+	}
+
+	@Deprecated
+	@Override
+	public BigDecimal getBigDecimal(int columnIndex, int scale)
+			throws SQLException {
+		BigDecimal value = getBigDecimal(columnIndex);
+		return value == null ? null : value.setScale(scale,
+				RoundingMode.HALF_UP);
+	}
+
+	@Override
+	public byte[] getBytes(int columnIndex) throws SQLException {
+		Object value = copiedValue(columnIndex);
+		if (value == null || value instanceof byte[]) {
+			return (byte[]) value;
+		}
+		throw conversionFailed(columnIndex, value, "byte[]");
+	}
+
+	@Override
+	public Date getDate(int columnIndex) throws SQLException {
+		Object value = copiedValue(columnIndex);
+		if (value == null || value instanceof Date) {
+			return (Date) value;
+		} else if (value instanceof java.util.Date) {
+			return new Date(((java.util.Date) value).getTime());
+		} else if (value instanceof String) {
+			try {
+				return Date.valueOf((String) value);
+			} catch (IllegalArgumentException e) {
+				// reported below
+			}
+		}
+		throw conversionFailed(columnIndex, value, "Date");
+	}
+
+	@Override
+	public Time getTime(int columnIndex) throws SQLException {
+		Object value = copiedValue(columnIndex);
+		if (value == null || value instanceof Time) {
+			return (Time) value;
+		} else if (value instanceof java.util.Date) {
+			return new Time(((java.util.Date) value).getTime());
+		} else if (value instanceof String) {
+			try {
+				return Time.valueOf((String) value);
+			} catch (IllegalArgumentException e) {
+				// reported below
+			}
+		}
+		throw conversionFailed(columnIndex, value, "Time");
+	}
+
+	@Override
+	public Timestamp getTimestamp(int columnIndex) throws SQLException {
+		Object value = copiedValue(columnIndex);
+		if (value == null || value instanceof Timestamp) {
+			return (Timestamp) value;
+		} else if (value instanceof java.util.Date) {
+			return new Timestamp(((java.util.Date) value).getTime());
+		} else if (value instanceof String) {
+			try {
+				return Timestamp.valueOf((String) value);
+			} catch (IllegalArgumentException e) {
+				// reported below
+			}
+		}
+		throw conversionFailed(columnIndex, value, "Timestamp");
+	}
+
+	@Override
+	public InputStream getAsciiStream(int columnIndex) throws SQLException {
+		String value = getString(columnIndex);
+		return value == null ? null : new ByteArrayInputStream(
+				value.getBytes(Charset.forName("US-ASCII")));
+	}
+
+	@Deprecated
+	@Override
+	public InputStream getUnicodeStream(int columnIndex) throws SQLException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	@Override
+	public InputStream getBinaryStream(int columnIndex) throws SQLException {
+		byte[] value = getBytes(columnIndex);
+		return value == null ? null : new ByteArrayInputStream(value);
+	}
+
+	@Override
+	public String getString(String columnLabel) throws SQLException {
+		return getString(findColumn(columnLabel));
+	}
+
+	@Override
+	public boolean getBoolean(String columnLabel) throws SQLException {
+		return getBoolean(findColumn(columnLabel));
+	}
+
+	@Override
+	public byte getByte(String columnLabel) throws SQLException {
+		return getByte(findColumn(columnLabel));
+	}
+
+	@Override
+	public short getShort(String columnLabel) throws SQLException {
+		return getShort(findColumn(columnLabel));
+	}
+
+	@Override
+	public int getInt(String columnLabel) throws SQLException {
+		return getInt(findColumn(columnLabel));
+	}
+
+	@Override
+	public long getLong(String columnLabel) throws SQLException {
+		return getLong(findColumn(columnLabel));
+	}
+
+	@Override
+	public float getFloat(String columnLabel) throws SQLException {
+		return getFloat(findColumn(columnLabel));
+	}
+
+	@Override
+	public double getDouble(String columnLabel) throws SQLException {
+		return getDouble(findColumn(columnLabel));
+	}
+
+	@Deprecated
+	@Override
+	public BigDecimal getBigDecimal(String columnLabel, int scale)
+			throws SQLException {
+		return getBigDecimal(findColumn(columnLabel), scale);
+	}
+
+	@Override
+	public byte[] getBytes(String columnLabel) throws SQLException {
+		return getBytes(findColumn(columnLabel));
+	}
+
+	@Override
+	public Date getDate(String columnLabel) throws SQLException {
+		return getDate(findColumn(columnLabel));
+	}
+
+	@Override
+	public Time getTime(String columnLabel) throws SQLException {
+		return getTime(findColumn(columnLabel));
+	}
+
+	@Override
+	public Timestamp getTimestamp(String columnLabel) throws SQLException {
+		return getTimestamp(findColumn(columnLabel));
+	}
+
+	@Override
+	public InputStream getAsciiStream(String columnLabel) throws SQLException {
+		return getAsciiStream(findColumn(columnLabel));
+	}
+
+	@Deprecated
+	@Override
+	public InputStream getUnicodeStream(String columnLabel) throws SQLException {
+		return getUnicodeStream(findColumn(columnLabel));
+	}
+
+	@Override
+	public InputStream getBinaryStream(String columnLabel) throws SQLException {
+		return getBinaryStream(findColumn(columnLabel));
+	}
+
+	@Override
+	public SQLWarning getWarnings() throws SQLException {
+		checkOpen();
+		return null;
+	}
+
+	@Override
+	public void clearWarnings() throws SQLException {
+		checkOpen();
+	}
+
+	@Override
+	public String getCursorName() throws SQLException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	@Override
+	public ResultSetMetaData getMetaData() throws SQLException {
+		checkOpen();
+		return rows.getMetaData();
+	}
+
+	@Override
+	public Object getObject(int columnIndex) throws SQLException {
+		return copiedValue(columnIndex);
+	}
+
+	@Override
+	public Object getObject(String columnLabel) throws SQLException {
+		return getObject(findColumn(columnLabel));
+	}
+
+	@Override
+	public int findColumn(String columnLabel) throws SQLException {
+		checkOpen();
+		int column = rows.findColumn(columnLabel);
+		if (column == -1) {
+			throw new SQLException("Invalid column label: " + columnLabel);
+		}
+		return column;
+	}
+
+	@Override
+	public Reader getCharacterStream(int columnIndex) throws SQLException {
+		String value = getString(columnIndex);
+		return value == null ? null : new StringReader(value);
+	}
+
+	@Override
+	public Reader getCharacterStream(String columnLabel) throws SQLException {
+		return getCharacterStream(findColumn(columnLabel));
+	}
+
+	@Override
+	public BigDecimal getBigDecimal(int columnIndex) throws SQLException {
+		Object value = value(columnIndex);
+		if (value == null || value instanceof BigDecimal) {
+			return (BigDecimal) value;
+		} else if (value instanceof BigInteger) {
+			return new BigDecimal((BigInteger) value);
+		} else if (value instanceof Number || value instanceof String) {
+			try {
+				return new BigDecimal(value.toString().trim());
+			} catch (NumberFormatException e) {
+				// reported below
+			}
+		}
+		throw conversionFailed(columnIndex, value, "BigDecimal");
+	}
+
+	@Override
+	public BigDecimal getBigDecimal(String columnLabel) throws SQLException {
+		return getBigDecimal(findColumn(columnLabel));
+	}
+
+	@Override
+	public boolean isBeforeFirst() throws SQLException {
+		checkOpen();
+		return row == 0 && rows.getRowCount() > 0;
+	}
+
+	@Override
+	public boolean isAfterLast() throws SQLException {
+		checkOpen();
+		return row > rows.getRowCount() && rows.getRowCount() > 0;
+	}
+
+	@Override
+	public boolean isFirst() throws SQLException {
+		checkOpen();
+		return row == 1 && rows.getRowCount() > 0;
+	}
+
+	@Override
+	public boolean isLast() throws SQLException {
+		checkOpen();
+		return row == rows.getRowCount() && row > 0;
+	}
+
+	@Override
+	public void beforeFirst() throws SQLException {
+		checkOpen();
+		row = 0;
+	}
+
+	@Override
+	public void afterLast() throws SQLException {
+		checkOpen();
+		row = rows.getRowCount() + 1;
+	}
+
+	@Override
+	public boolean first() throws SQLException {
+		return absolute(1);
+	}
+
+	@Override
+	public boolean last() throws SQLException {
+		return absolute(-1);
+	}
+
+	@Override
+	public int getRow() throws SQLException {
+		checkOpen();
+		return row > rows.getRowCount() ? 0 : row;
+	}
+
+	@Override
+	public boolean absolute(int row) throws SQLException {
+		checkOpen();
+		int count = rows.getRowCount();
+		if (row >= 0) {
+			this.row = Math.min(row, count + 1);
+		} else {
+			this.row = Math.max(count + 1 + row, 0);
+		}
+		return this.row >= 1 && this.row <= count;
+	}
+
+	@Override
+	public boolean relative(int rows) throws SQLException {
+		checkOpen();
+		int count = this.rows.getRowCount();
+		row = (int) Math.max(0, Math.min((long) row + rows, count + 1));
+		return row >= 1 && row <= count;
+	}
+
+	@Override
+	public boolean previous() throws SQLException {
+		checkOpen();
+		if (row > 0) {
+			row--;
+		}
+		return row >= 1;
+	}
+
+	@Override
+	public void setFetchDirection(int direction) throws SQLException {
+		checkOpen();
+		fetchDirection = direction;
+	}
+
+	@Override
+	public int getFetchDirection() throws SQLException {
+		checkOpen();
+		return fetchDirection;
+	}
+
+	@Override
+	public void setFetchSize(int rows) throws SQLException {
+		checkOpen();
+		// all the rows are in memory
+	}
+
+	@Override
+	public int getFetchSize() throws SQLException {
+		checkOpen();
+		return 0;
+	}
+
+	@Override
+	public int getType() throws SQLException {
+		checkOpen();
+		return TYPE_SCROLL_INSENSITIVE;
+	}
+
+	@Override
+	public int getConcurrency() throws SQLException {
+		checkOpen();
+		return CONCUR_READ_ONLY;
+	}
+
+	@Override
+	public boolean rowUpdated() throws SQLException {
+		checkOpen();
+		return false;
+	}
+
+	@Override
+	public boolean rowInserted() throws SQLException {
+		checkOpen();
+		return false;
+	}
+
+	@Override
+	public boolean rowDeleted() throws SQLException {
+		checkOpen();
+		return false;
+	}
+
+	@Override
+	public void updateNull(int columnIndex) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateBoolean(int columnIndex, boolean x) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateByte(int columnIndex, byte x) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateShort(int columnIndex, short x) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateInt(int columnIndex, int x) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateLong(int columnIndex, long x) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateFloat(int columnIndex, float x) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateDouble(int columnIndex, double x) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateBigDecimal(int columnIndex, BigDecimal x)
+			throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateString(int columnIndex, String x) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateBytes(int columnIndex, byte[] x) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateDate(int columnIndex, Date x) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateTime(int columnIndex, Time x) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateTimestamp(int columnIndex, Timestamp x)
+			throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateAsciiStream(int columnIndex, InputStream x, int length)
+			throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateBinaryStream(int columnIndex, InputStream x, int length)
+			throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateCharacterStream(int columnIndex, Reader x, int length)
+			throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateObject(int columnIndex, Object x, int scaleOrLength)
+			throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateObject(int columnIndex, Object x) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateNull(String columnLabel) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateBoolean(String columnLabel, boolean x) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateByte(String columnLabel, byte x) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateShort(String columnLabel, short x) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateInt(String columnLabel, int x) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateLong(String columnLabel, long x) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateFloat(String columnLabel, float x) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateDouble(String columnLabel, double x) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateBigDecimal(String columnLabel, BigDecimal x)
+			throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateString(String columnLabel, String x) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateBytes(String columnLabel, byte[] x) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateDate(String columnLabel, Date x) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateTime(String columnLabel, Time x) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateTimestamp(String columnLabel, Timestamp x)
+			throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateAsciiStream(String columnLabel, InputStream x, int length)
+			throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateBinaryStream(String columnLabel, InputStream x,
+			int length) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateCharacterStream(String columnLabel, Reader reader,
+			int length) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateObject(String columnLabel, Object x, int scaleOrLength)
+			throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateObject(String columnLabel, Object x) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void insertRow() throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateRow() throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void deleteRow() throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void refreshRow() throws SQLException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	@Override
+	public void cancelRowUpdates() throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void moveToInsertRow() throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void moveToCurrentRow() throws SQLException {
+		checkOpen();
+	}
+
+	@Override
+	public Statement getStatement() throws SQLException {
+		checkOpen();
+		return null;
+	}
+
+	@Override
+	public Object getObject(int columnIndex, Map<String, Class<?>> map)
+			throws SQLException {
+		return copiedValue(columnIndex);
+	}
+
+	@Override
+	public Ref getRef(int columnIndex) throws SQLException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	@Override
+	public Blob getBlob(int columnIndex) throws SQLException {
+		byte[] value = getBytes(columnIndex);
+		return value == null ? null : new SerialBlob(value);
+	}
+
+	@Override
+	public Clob getClob(int columnIndex) throws SQLException {
+		String value = getString(columnIndex);
+		return value == null ? null : new SerialClob(value.toCharArray());
+	}
+
+	@Override
+	public Array getArray(int columnIndex) throws SQLException {
+		Object value = value(columnIndex);
+		if (value == null || value instanceof Array) {
+			return (Array) value;
+		}
+		throw conversionFailed(columnIndex, value, "Array");
+	}
+
+	@Override
+	public Object getObject(String columnLabel, Map<String, Class<?>> map)
+			throws SQLException {
+		return getObject(findColumn(columnLabel), map);
+	}
+
+	@Override
+	public Ref getRef(String columnLabel) throws SQLException {
+		return getRef(findColumn(columnLabel));
+	}
+
+	@Override
+	public Blob getBlob(String columnLabel) throws SQLException {
+		return getBlob(findColumn(columnLabel));
+	}
+
+	@Override
+	public Clob getClob(String columnLabel) throws SQLException {
+		return getClob(findColumn(columnLabel));
+	}
+
+	@Override
+	public Array getArray(String columnLabel) throws SQLException {
+		return getArray(findColumn(columnLabel));
+	}
+
+	@Override
+	public Date getDate(int columnIndex, Calendar cal) throws SQLException {
+		// values are read once, without calendar
+		return getDate(columnIndex);
+	}
+
+	@Override
+	public Date getDate(String columnLabel, Calendar cal) throws SQLException {
+		return getDate(findColumn(columnLabel), cal);
+	}
+
+	@Override
+	public Time getTime(int columnIndex, Calendar cal) throws SQLException {
+		return getTime(columnIndex);
+	}
+
+	@Override
+	public Time getTime(String columnLabel, Calendar cal) throws SQLException {
+		return getTime(findColumn(columnLabel), cal);
+	}
+
+	@Override
+	public Timestamp getTimestamp(int columnIndex, Calendar cal)
+			throws SQLException {
+		return getTimestamp(columnIndex);
+	}
+
+	@Override
+	public Timestamp getTimestamp(String columnLabel, Calendar cal)
+			throws SQLException {
+		return getTimestamp(findColumn(columnLabel), cal);
+	}
+
+	@Override
+	public URL getURL(int columnIndex) throws SQLException {
+		String value = getString(columnIndex);
+		try {
+			return value == null ? null : new URL(value);
+		} catch (MalformedURLException e) {
+			throw new SQLException("Invalid URL: " + value, e);
+		}
+	}
+
+	@Override
+	public URL getURL(String columnLabel) throws SQLException {
+		return getURL(findColumn(columnLabel));
+	}
+
+	@Override
+	public void updateRef(int columnIndex, Ref x) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateRef(String columnLabel, Ref x) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateBlob(int columnIndex, Blob x) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateBlob(String columnLabel, Blob x) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateClob(int columnIndex, Clob x) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateClob(String columnLabel, Clob x) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateArray(int columnIndex, Array x) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateArray(String columnLabel, Array x) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public RowId getRowId(int columnIndex) throws SQLException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	@Override
+	public RowId getRowId(String columnLabel) throws SQLException {
+		return getRowId(findColumn(columnLabel));
+	}
+
+	@Override
+	public void updateRowId(int columnIndex, RowId x) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateRowId(String columnLabel, RowId x) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public int getHoldability() throws SQLException {
+		checkOpen();
+		return HOLD_CURSORS_OVER_COMMIT;
+	}
+
+	@Override
+	public boolean isClosed() throws SQLException {
+		return closed;
+	}
+
+	@Override
+	public void updateNString(int columnIndex, String nString)
+			throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateNString(String columnLabel, String nString)
+			throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateNClob(int columnIndex, NClob nClob) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateNClob(String columnLabel, NClob nClob) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public NClob getNClob(int columnIndex) throws SQLException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	@Override
+	public NClob getNClob(String columnLabel) throws SQLException {
+		return getNClob(findColumn(columnLabel));
+	}
+
+	@Override
+	public SQLXML getSQLXML(int columnIndex) throws SQLException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	@Override
+	public SQLXML getSQLXML(String columnLabel) throws SQLException {
+		return getSQLXML(findColumn(columnLabel));
+	}
+
+	@Override
+	public void updateSQLXML(int columnIndex, SQLXML xmlObject)
+			throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateSQLXML(String columnLabel, SQLXML xmlObject)
+			throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public String getNString(int columnIndex) throws SQLException {
+		return getString(columnIndex);
+	}
+
+	@Override
+	public String getNString(String columnLabel) throws SQLException {
+		return getNString(findColumn(columnLabel));
+	}
+
+	@Override
+	public Reader getNCharacterStream(int columnIndex) throws SQLException {
+		return getCharacterStream(columnIndex);
+	}
+
+	@Override
+	public Reader getNCharacterStream(String columnLabel) throws SQLException {
+		return getNCharacterStream(findColumn(columnLabel));
+	}
+
+	@Override
+	public void updateNCharacterStream(int columnIndex, Reader x, long length)
+			throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateNCharacterStream(String columnLabel, Reader reader,
+			long length) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateAsciiStream(int columnIndex, InputStream x, long length)
+			throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateBinaryStream(int columnIndex, InputStream x, long length)
+			throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateCharacterStream(int columnIndex, Reader x, long length)
+			throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateAsciiStream(String columnLabel, InputStream x,
+			long length) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateBinaryStream(String columnLabel, InputStream x,
+			long length) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateCharacterStream(String columnLabel, Reader reader,
+			long length) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateBlob(int columnIndex, InputStream inputStream,
+			long length) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateBlob(String columnLabel, InputStream inputStream,
+			long length) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateClob(int columnIndex, Reader reader, long length)
+			throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateClob(String columnLabel, Reader reader, long length)
+			throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateNClob(int columnIndex, Reader reader, long length)
+			throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateNClob(String columnLabel, Reader reader, long length)
+			throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateNCharacterStream(int columnIndex, Reader x)
+			throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateNCharacterStream(String columnLabel, Reader reader)
+			throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateAsciiStream(int columnIndex, InputStream x)
+			throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateBinaryStream(int columnIndex, InputStream x)
+			throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateCharacterStream(int columnIndex, Reader x)
+			throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateAsciiStream(String columnLabel, InputStream x)
+			throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateBinaryStream(String columnLabel, InputStream x)
+			throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateCharacterStream(String columnLabel, Reader reader)
+			throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateBlob(int columnIndex, InputStream inputStream)
+			throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateBlob(String columnLabel, InputStream inputStream)
+			throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateClob(int columnIndex, Reader reader) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateClob(String columnLabel, Reader reader)
+			throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateNClob(int columnIndex, Reader reader) throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public void updateNClob(String columnLabel, Reader reader)
+			throws SQLException {
+		throw readOnly();
+	}
+
+	@Override
+	public <T> T getObject(int columnIndex, Class<T> type) throws SQLException {
+		if (type == String.class) {
+			return type.cast(getString(columnIndex));
+		} else if (type == Integer.class) {
+			return type.cast(wasNull(getInt(columnIndex)));
+		} else if (type == Long.class) {
+			return type.cast(wasNull(getLong(columnIndex)));
+		} else if (type == BigDecimal.class) {
+			return type.cast(getBigDecimal(columnIndex));
+		} else if (type == Date.class) {
+			return type.cast(getDate(columnIndex));
+		} else if (type == Timestamp.class) {
+			return type.cast(getTimestamp(columnIndex));
+		}
+		Object value = copiedValue(columnIndex);
+		if (value == null || type.isInstance(value)) {
+			return type.cast(value);
+		}
+		throw conversionFailed(columnIndex, value, type.getName());
+	}
+
+	@Override
+	public <T> T getObject(String columnLabel, Class<T> type)
+			throws SQLException {
+		return getObject(findColumn(columnLabel), type);
+	}
+
+	@Override
+	public <T> T unwrap(Class<T> iface) throws SQLException {
+		if (iface.isInstance(this)) {
+			return iface.cast(this);
+		}
+		throw new SQLException("Not a wrapper for " + iface.getName());
+	}
+
+	@Override
+	public boolean isWrapperFor(Class<?> iface) throws SQLException {
+		return iface.isInstance(this);
+	}
+
+}
@@ -0,0 +1,469 @@
+package com.seboch.jdbc.proxy;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.sql.Blob;
+import java.sql.Clob;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Rows of a result set read to the end, shared by the
+ * {@link CachedResultSet}s returned for the same query. Immutable once read.
+ * <p>
+ * Values are stored by column: integral and floating point columns unboxed
+ * in {@link ByteBuffer}s, allocated off-heap for large columns, string
+ * columns as codes into a dictionary of their distinct values, and other
+ * columns as objects. A column holding values of several classes, such as
+ * Integer and Long, is stored as objects so that getObject returns the
+ * values read from the driver.
+ */
+final class CachedRows {
+
+	/**
+	 * Size from which the buffer of a column is allocated off-heap, smaller
+	 * buffers are not worth the cost of a direct allocation.
+	 */
+	static final int OFF_HEAP_THRESHOLD = 64 * 1024;
+
+	private static final int INITIAL_CAPACITY = 16;
+
+	/**
+	 * Values of one column, with a bitmap of the rows holding null.
+	 */
+	abstract static class Column {
+
+		private long[] nulls;
+
+		boolean isNull(int row) {
+			return nulls != null
+					&& (nulls[row >>> 6] & (1L << (row & 63))) != 0;
+		}
+
+		void setNull(int row) {
+			int word = row >>> 6;
+			if (nulls == null) {
+				nulls = new long[Math.max(word + 1, INITIAL_CAPACITY)];
+			} else if (word >= nulls.length) {
+				long[] grown = new long[Math.max(word + 1, nulls.length * 2)];
+				System.arraycopy(nulls, 0, grown, 0, nulls.length);
+				nulls = grown;
+			}
+			nulls[word] |= 1L << (row & 63);
+		}
+
+		/**
+		 * @return the value of row, which may be boxed
+		 */
+		abstract Object get(int row);
+	}
+
+	/**
+	 * Column of Long, Integer, Short or Byte values, all of the same class.
+	 */
+	static final class IntegralColumn extends Column {
+
+		private final Class<?> type;
+		private ByteBuffer values;
+
+		IntegralColumn(Class<?> type, ByteBuffer values) {
+			this.type = type;
+			this.values = values;
+		}
+
+		long getLong(int row) {
+			return values.getLong(row << 3);
+		}
+
+		@Override
+		Object get(int row) {
+			if (isNull(row)) {
+				return null;
+			}
+			long value = getLong(row);
+			if (type == Integer.class) {
+				return (int) value;
+			} else if (type == Short.class) {
+				return (short) value;
+			} else if (type == Byte.class) {
+				return (byte) value;
+			}
+			return value;
+		}
+	}
+
+	/**
+	 * Column of Double or Float values, all of the same class.
+	 */
+	static final class FloatingColumn extends Column {
+
+		private final Class<?> type;
+		private ByteBuffer values;
+
+		FloatingColumn(Class<?> type, ByteBuffer values) {
+			this.type = type;
+			this.values = values;
+		}
+
+		double getDouble(int row) {
+			return values.getDouble(row << 3);
+		}
+
+		@Override
+		Object get(int row) {
+			if (isNull(row)) {
+				return null;
+			}
+			double value = getDouble(row);
+			return type == Float.class ? (Object) (float) value
+					: (Object) value;
+		}
+	}
+
+	/**
+	 * Column of strings, stored as int codes into the distinct values.
+	 */
+	static final class StringColumn extends Column {
+
+		private final List<String> dictionary = new ArrayList<String>();
+		private Map<String, Integer> codes = new HashMap<String, Integer>();
+		private ByteBuffer values;
+
+		StringColumn(ByteBuffer values) {
+			this.values = values;
+		}
+
+		String getString(int row) {
+			return isNull(row) ? null : dictionary.get(values.getInt(row << 2));
+		}
+
+		@Override
+		Object get(int row) {
+			return getString(row);
+		}
+	}
+
+	static final class ObjectColumn extends Column {
+
+		private Object[] values;
+
+		ObjectColumn(Object[] values) {
+			this.values = values;
+		}
+
+		@Override
+		Object get(int row) {
+			return values[row];
+		}
+	}
+
+	private final CachedResultSetMetaData metaData;
+	private final Column[] columns;
+	private final int rowCount;
+	private final Map<String, Integer> columnIndexes;
+	private final boolean cacheable;
+
+	private CachedRows(CachedResultSetMetaData metaData, Column[] columns,
+			int rowCount, boolean cacheable) throws SQLException {
+		this.metaData = metaData;
+		this.columns = columns;
+		this.rowCount = rowCount;
+		this.cacheable = cacheable;
+		int count = metaData.getColumnCount();
+		this.columnIndexes = new HashMap<String, Integer>(count * 2);
+		// the first column wins when several have the same label
+		for (int column = count; column >= 1; column--) {
+			columnIndexes.put(
+					metaData.getColumnLabel(column).toUpperCase(Locale.ROOT),
+					column);
+			String name = metaData.getColumnName(column);
+			if (name != null) {
+				String key = name.toUpperCase(Locale.ROOT);
+				if (!columnIndexes.containsKey(key)) {
+					columnIndexes.put(key, column);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads the remaining rows of resultSet, then closes it. LOB values are
+	 * read into strings and byte arrays.
+	 */
+	static CachedRows read(ResultSet resultSet) throws SQLException {
+		try {
+			CachedResultSetMetaData metaData = new CachedResultSetMetaData(
+					resultSet.getMetaData());
+			int count = metaData.getColumnCount();
+			Column[] columns = new Column[count];
+			int capacity = INITIAL_CAPACITY;
+			int rowCount = 0;
+			boolean cacheable = true;
+			while (resultSet.next()) {
+				if (rowCount == capacity) {
+					capacity *= 2;
+				}
+				for (int i = 0; i < count; i++) {
+					Object value = resultSet.getObject(i + 1);
+					if (value instanceof Clob) {
+						Clob clob = (Clob) value;
+						value = clob.getSubString(1, (int) clob.length());
+					} else if (value instanceof Blob) {
+						Blob blob = (Blob) value;
+						value = blob.getBytes(1, (int) blob.length());
+					} else if (value instanceof byte[]
+							|| value instanceof java.util.Date) {
+						// the driver may reuse the instances it returns
+						value = copy(value);
+					} else if (!isImmutable(value)) {
+						// arrays, structs and driver objects may depend on
+						// the connection, they are returned but not cached
+						cacheable = false;
+					}
+					columns[i] = append(columns[i], rowCount, capacity, value);
+				}
+				rowCount++;
+			}
+			for (int i = 0; i < count; i++) {
+				columns[i] = trim(columns[i], rowCount);
+			}
+			return new CachedRows(metaData, columns, rowCount, cacheable);
+		} finally {
+			resultSet.close();
+		}
+	}
+
+	/**
+	 * Stores value at row of column, growing it to capacity rows if needed.
+	 *
+	 * @param column
+	 *            null if only nulls were read so far
+	 * @return the column, or the one replacing it
+	 */
+	private static Column append(Column column, int row, int capacity,
+			Object value) {
+		if (column == null) {
+			if (value == null) {
+				return null;
+			}
+			column = newColumn(value, capacity);
+			for (int i = 0; i < row; i++) {
+				column.setNull(i);
+			}
+		}
+		if (value == null) {
+			column.setNull(row);
+			if (column instanceof ObjectColumn) {
+				grow((ObjectColumn) column, capacity);
+			}
+			return column;
+		}
+		if (column instanceof IntegralColumn) {
+			IntegralColumn integral = (IntegralColumn) column;
+			if (value.getClass() == integral.type) {
+				integral.values = grow(integral.values, capacity << 3);
+				integral.values.putLong(row << 3, ((Number) value).longValue());
+				return column;
+			}
+		} else if (column instanceof FloatingColumn) {
+			FloatingColumn floating = (FloatingColumn) column;
+			if (value.getClass() == floating.type) {
+				floating.values = grow(floating.values, capacity << 3);
+				floating.values.putDouble(row << 3,
+						((Number) value).doubleValue());
+				return column;
+			}
+		} else if (column instanceof StringColumn) {
+			if (value instanceof String) {
+				StringColumn strings = (StringColumn) column;
+				Integer code = strings.codes.get(value);
+				if (code == null) {
+					code = strings.dictionary.size();
+					strings.dictionary.add((String) value);
+					strings.codes.put((String) value, code);
+				}
+				strings.values = grow(strings.values, capacity << 2);
+				strings.values.putInt(row << 2, code);
+				return column;
+			}
+		}
+		if (!(column instanceof ObjectColumn)) {
+			column = toObjects(column, row, capacity);
+		}
+		ObjectColumn objects = (ObjectColumn) column;
+		grow(objects, capacity);
+		objects.values[row] = value;
+		return column;
+	}
+
+	private static Column newColumn(Object value, int capacity) {
+		Class<?> type = value.getClass();
+		if (type == Long.class || type == Integer.class
+				|| type == Short.class || type == Byte.class) {
+			return new IntegralColumn(type, allocate(capacity << 3));
+		} else if (type == Double.class || type == Float.class) {
+			return new FloatingColumn(type, allocate(capacity << 3));
+		} else if (type == String.class) {
+			return new StringColumn(allocate(capacity << 2));
+		}
+		return new ObjectColumn(new Object[capacity]);
+	}
+
+	/**
+	 * @return the values of the first rows of column, boxed
+	 */
+	private static ObjectColumn toObjects(Column column, int rows,
+			int capacity) {
+		Object[] values = new Object[capacity];
+		ObjectColumn objects = new ObjectColumn(values);
+		for (int i = 0; i < rows; i++) {
+			values[i] = column.get(i);
+			if (column.isNull(i)) {
+				objects.setNull(i);
+			}
+		}
+		return objects;
+	}
+
+	private static ByteBuffer allocate(int size) {
+		return size >= OFF_HEAP_THRESHOLD ? ByteBuffer.allocateDirect(size)
+				: ByteBuffer.allocate(size);
+	}
+
+	private static ByteBuffer grow(ByteBuffer buffer, int size) {
+		if (buffer.capacity() >= size) {
+			return buffer;
+		}
+		ByteBuffer grown = allocate(size);
+		buffer.clear();
+		grown.put(buffer);
+		return grown;
+	}
+
+	private static void grow(ObjectColumn column, int capacity) {
+		if (column.values.length < capacity) {
+			Object[] grown = new Object[capacity];
+			System.arraycopy(column.values, 0, grown, 0, column.values.length);
+			column.values = grown;
+		}
+	}
+
+	/**
+	 * @return column with its storage shrunk to rowCount rows, an object
+	 *         column if it only holds nulls
+	 */
+	private static Column trim(Column column, int rowCount) {
+		if (column == null) {
+			ObjectColumn nulls = new ObjectColumn(new Object[rowCount]);
+			for (int i = 0; i < rowCount; i++) {
+				nulls.setNull(i);
+			}
+			return nulls;
+		} else if (column instanceof IntegralColumn) {
+			IntegralColumn integral = (IntegralColumn) column;
+			integral.values = shrink(integral.values, rowCount << 3);
+		} else if (column instanceof FloatingColumn) {
+			FloatingColumn floating = (FloatingColumn) column;
+			floating.values = shrink(floating.values, rowCount << 3);
+		} else if (column instanceof StringColumn) {
+			StringColumn strings = (StringColumn) column;
+			strings.values = shrink(strings.values, rowCount << 2);
+			// only needed while reading
+			strings.codes = null;
+		} else {
+			ObjectColumn objects = (ObjectColumn) column;
+			if (objects.values.length > rowCount) {
+				Object[] values = new Object[rowCount];
+				System.arraycopy(objects.values, 0, values, 0, rowCount);
+				objects.values = values;
+			}
+		}
+		return column;
+	}
+
+	/**
+	 * @return a buffer of size bytes holding the first bytes of buffer,
+	 *         which is returned if it has no more than a quarter to spare
+	 */
+	private static ByteBuffer shrink(ByteBuffer buffer, int size) {
+		if (buffer.capacity() - size <= buffer.capacity() >> 2) {
+			return buffer;
+		}
+		ByteBuffer shrunk = allocate(size);
+		buffer.clear();
+		buffer.limit(size);
+		shrunk.put(buffer);
+		return shrunk;
+	}
+
+	private static boolean isImmutable(Object value) {
+		return value == null || value instanceof String
+				|| value instanceof Number && isImmutableNumber(value)
+				|| value instanceof Boolean;
+	}
+
+	/**
+	 * @return a copy of value if it is a byte array or a date, which the
+	 *         caller could modify, value otherwise
+	 */
+	static Object copy(Object value) {
+		if (value instanceof byte[]) {
+			return ((byte[]) value).clone();
+		} else if (value instanceof java.util.Date) {
+			// keeps the subclass and the nanoseconds of a Timestamp
+			return ((java.util.Date) value).clone();
+		}
+		return value;
+	}
+
+	private static boolean isImmutableNumber(Object value) {
+		return value instanceof Integer || value instanceof Long
+				|| value instanceof Short || value instanceof Byte
+				|| value instanceof Double || value instanceof Float
+				|| value instanceof BigDecimal || value instanceof BigInteger;
+	}
+
+	CachedResultSetMetaData getMetaData() {
+		return metaData;
+	}
+
+	int getRowCount() {
+		return rowCount;
+	}
+
+	int getColumnCount() {
+		return columns.length;
+	}
+
+	/**
+	 * @param column
+	 *            index of the column, from 0
+	 */
+	Column getColumn(int column) {
+		return columns[column];
+	}
+
+	/**
+	 * @return the index of the column of the given label or name, ignoring
+	 *         case, or -1
+	 */
+	int findColumn(String columnLabel) {
+		Integer column = columnIndexes.get(columnLabel
+				.toUpperCase(Locale.ROOT));
+		return column == null ? -1 : column;
+	}
+
+	/**
+	 * @return false if the rows hold values that must not be shared between
+	 *         connections
+	 */
+	boolean isCacheable() {
+		return cacheable;
+	}
+}
@@ -0,0 +1,517 @@
+package com.seboch.jdbc.proxy;
+
+import java.sql.Array;
+import java.sql.Blob;
+import java.sql.CallableStatement;
+import java.sql.Clob;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.NClob;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLClientInfoException;
+import java.sql.SQLException;
+import java.sql.SQLWarning;
+import java.sql.SQLXML;
+import java.sql.Savepoint;
+import java.sql.Statement;
+import java.sql.Struct;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Executor;
+
+/**
+ * Delegating {@link Connection} used by the {@link ProxyBackend#WRAPPER}
+ * backend.
+ */
+class ConnectionWrapper extends ResourceNode implements Connection {
+
+	private final JdbcProxyFactory factory;
+	private final Connection connection;
+
+	/**
+	 * Idle prepared and callable statements, null if not cached.
+	 */
+	private final StatementCache statementCache;
+
+	/**
+	 * Updates deferred on the prepared statements, null if not deferred.
+	 */
+	private final TransparentBatch transparentBatch;
+
+	/**
+	 * Session of the query result cache, null if results are not cached.
+	 */
+	private final QueryResultCache.Session queryCacheSession;
+
+	ConnectionWrapper(JdbcProxyFactory factory, Connection connection,
+			StatementCache statementCache, TransparentBatch transparentBatch,
+			QueryResultCache.Session queryCacheSession) {
+		this.factory = factory;
+		this.connection = connection;
+		this.statementCache = statementCache;
+		this.transparentBatch = transparentBatch;
+		this.queryCacheSession = queryCacheSession;
+	}
+
+	@Override
+	Object getResource() {
+		return connection;
+	}
+
+	@Override
+	void fireImplicitlyClosed() {
+		factory.fireConnectionClosed(connection);
+	}
+
+	/**
+	 * @return the cache key of a prepared or callable statement, null if
+	 *         statements are not cached
+	 */
+	private StatementCache.Key cacheKey(String sql, boolean callable,
+			int resultSetType, int resultSetConcurrency,
+			int resultSetHoldability) {
+		if (statementCache == null || sql == null) {
+			return null;
+		}
+		return new StatementCache.Key(sql, callable, resultSetType,
+				resultSetConcurrency, resultSetHoldability);
+	}
+
+	/**
+	 * Executes the updates deferred on the prepared statements, if any.
+	 */
+	private void flushBatch() throws SQLException {
+		if (transparentBatch != null) {
+			transparentBatch.flush();
+		}
+	}
+
+	/**
+	 * Closes the idle statements, which may depend on the catalog, schema or
+	 * holdability of the connection.
+	 */
+	private void clearStatementCache() throws SQLException {
+		if (statementCache != null) {
+			statementCache.clear();
+		}
+	}
+
+	/**
+	 * @param key
+	 *            cache key of the statement, null if it is not cached
+	 * @param deferUpdates
+	 *            true if executeUpdate() is deferred to the transparent batch
+	 */
+	private <T extends Statement> T proxyStatement(T statement, String sql,
+			StatementCache.Key key, boolean deferUpdates) {
+		return factory.proxyStatement(statement, this, sql, statementCache,
+				key, transparentBatch, deferUpdates, queryCacheSession);
+	}
+
+	@Override
+	public Statement createStatement() throws SQLException {
+		return proxyStatement(connection.createStatement(), null, null, false);
+	}
+
+	@Override
+	public PreparedStatement prepareStatement(String sql) throws SQLException {
+		StatementCache.Key key = cacheKey(sql, false,
+				ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY,
+				StatementCache.DEFAULT_HOLDABILITY);
+		PreparedStatement statement = key == null ? null : statementCache
+				.take(key);
+		if (statement == null) {
+			statement = connection.prepareStatement(sql);
+		}
+		return proxyStatement(statement, sql, key, true);
+	}
+
+	@Override
+	public CallableStatement prepareCall(String sql) throws SQLException {
+		StatementCache.Key key = cacheKey(sql, true,
+				ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY,
+				StatementCache.DEFAULT_HOLDABILITY);
+		CallableStatement statement = key == null ? null
+				: (CallableStatement) statementCache.take(key);
+		if (statement == null) {
+			statement = connection.prepareCall(sql);
+		}
+		return proxyStatement(statement, sql, key, false);
+	}
+
+	@Override
+	public String nativeSQL(String sql) throws SQLException {
+		return connection.nativeSQL(sql);
+	}
+
+	@Override
+	public void setAutoCommit(boolean autoCommit) throws SQLException {
+		flushBatch();
+		connection.setAutoCommit(autoCommit);
+		if (autoCommit && queryCacheSession != null) {
+			// enabling auto-commit commits the current transaction
+			queryCacheSession.committed();
+		}
+	}
+
+	@Override
+	public boolean getAutoCommit() throws SQLException {
+		return connection.getAutoCommit();
+	}
+
+	@Override
+	public void commit() throws SQLException {
+		flushBatch();
+		long start = factory.beforeCommit(connection);
+		try {
+			connection.commit();
+		} catch (SQLException e) {
+			throw factory.commitFailed(connection, start, e);
+		} catch (RuntimeException e) {
+			throw factory.commitFailed(connection, start, e);
+		}
+		factory.afterCommit(connection, start);
+		if (queryCacheSession != null) {
+			queryCacheSession.committed();
+		}
+	}
+
+	@Override
+	public void rollback() throws SQLException {
+		flushBatch();
+		long start = factory.beforeRollback(connection);
+		try {
+			connection.rollback();
+		} catch (SQLException e) {
+			throw factory.rollbackFailed(connection, start, e);
+		} catch (RuntimeException e) {
+			throw factory.rollbackFailed(connection, start, e);
+		}
+		factory.afterRollback(connection, start);
+		if (queryCacheSession != null) {
+			queryCacheSession.rolledBack();
+		}
+	}
+
+	@Override
+	public void close() throws SQLException {
+		try {
+			flushBatch();
+			if (statementCache != null) {
+				statementCache.close();
+			}
+		} finally {
+			connection.close();
+			if (queryCacheSession != null) {
+				// some drivers commit on close
+				queryCacheSession.committed();
+			}
+		}
+		if (markClosed()) {
+			closeChildren();
+			factory.fireConnectionClosed(connection);
+		}
+	}
+
+	@Override
+	public boolean isClosed() throws SQLException {
+		return connection.isClosed();
+	}
+
+	@Override
+	public DatabaseMetaData getMetaData() throws SQLException {
+		flushBatch();
+		return factory.proxyMetaData(connection.getMetaData(), this);
+	}
+
+	@Override
+	public void setReadOnly(boolean readOnly) throws SQLException {
+		flushBatch();
+		connection.setReadOnly(readOnly);
+	}
+
+	@Override
+	public boolean isReadOnly() throws SQLException {
+		return connection.isReadOnly();
+	}
+
+	@Override
+	public void setCatalog(String catalog) throws SQLException {
+		flushBatch();
+		connection.setCatalog(catalog);
+		clearStatementCache();
+	}
+
+	@Override
+	public String getCatalog() throws SQLException {
+		return connection.getCatalog();
+	}
+
+	@Override
+	public void setTransactionIsolation(int level) throws SQLException {
+		flushBatch();
+		connection.setTransactionIsolation(level);
+	}
+
+	@Override
+	public int getTransactionIsolation() throws SQLException {
+		return connection.getTransactionIsolation();
+	}
+
+	@Override
+	public SQLWarning getWarnings() throws SQLException {
+		return connection.getWarnings();
+	}
+
+	@Override
+	public void clearWarnings() throws SQLException {
+		connection.clearWarnings();
+	}
+
+	@Override
+	public Statement createStatement(int resultSetType,
+			int resultSetConcurrency) throws SQLException {
+		return proxyStatement(connection.createStatement(resultSetType,
+				resultSetConcurrency), null, null, false);
+	}
+
+	@Override
+	public PreparedStatement prepareStatement(String sql, int resultSetType,
+			int resultSetConcurrency) throws SQLException {
+		StatementCache.Key key = cacheKey(sql, false, resultSetType,
+				resultSetConcurrency, StatementCache.DEFAULT_HOLDABILITY);
+		PreparedStatement statement = key == null ? null : statementCache
+				.take(key);
+		if (statement == null) {
+			statement = connection.prepareStatement(sql, resultSetType,
+					resultSetConcurrency);
+		}
+		return proxyStatement(statement, sql, key, true);
+	}
+
+	@Override
+	public CallableStatement prepareCall(String sql, int resultSetType,
+			int resultSetConcurrency) throws SQLException {
+		StatementCache.Key key = cacheKey(sql, true, resultSetType,
+				resultSetConcurrency, StatementCache.DEFAULT_HOLDABILITY);
+		CallableStatement statement = key == null ? null
+				: (CallableStatement) statementCache.take(key);
+		if (statement == null) {
+			statement = connection.prepareCall(sql, resultSetType,
+					resultSetConcurrency);
+		}
+		return proxyStatement(statement, sql, key, false);
+	}
+
+	@Override
+	public Map<String, Class<?>> getTypeMap() throws SQLException {
+		return connection.getTypeMap();
+	}
+
+	@Override
+	public void setTypeMap(Map<String, Class<?>> map) throws SQLException {
+		connection.setTypeMap(map);
+	}
+
+	@Override
+	public void setHoldability(int holdability) throws SQLException {
+		flushBatch();
+		connection.setHoldability(holdability);
+		clearStatementCache();
+	}
+
+	@Override
+	public int getHoldability() throws SQLException {
+		return connection.getHoldability();
+	}
+
+	@Override
+	public Savepoint setSavepoint() throws SQLException {
+		flushBatch();
+		return connection.setSavepoint();
+	}
+
+	@Override
+	public Savepoint setSavepoint(String name) throws SQLException {
+		flushBatch();
+		return connection.setSavepoint(name);
+	}
+
+	@Override
+	public void rollback(Savepoint savepoint) throws SQLException {
+		flushBatch();
+		long start = factory.beforeRollback(connection);
+		try {
+			connection.rollback(savepoint);
+		} catch (SQLException e) {
+			throw factory.rollbackFailed(connection, start, e);
+		} catch (RuntimeException e) {
+			throw factory.rollbackFailed(connection, start, e);
+		}
+		factory.afterRollback(connection, start);
+	}
+
+	@Override
+	public void releaseSavepoint(Savepoint savepoint) throws SQLException {
+		flushBatch();
+		connection.releaseSavepoint(savepoint);
+	}
+
+	@Override
+	public Statement createStatement(int resultSetType,
+			int resultSetConcurrency, int resultSetHoldability)
+			throws SQLException {
+		return proxyStatement(connection.createStatement(resultSetType,
+				resultSetConcurrency, resultSetHoldability), null, null, false);
+	}
+
+	@Override
+	public PreparedStatement prepareStatement(String sql, int resultSetType,
+			int resultSetConcurrency, int resultSetHoldability)
+			throws SQLException {
+		StatementCache.Key key = cacheKey(sql, false, resultSetType,
+				resultSetConcurrency, resultSetHoldability);
+		PreparedStatement statement = key == null ? null : statementCache
+				.take(key);
+		if (statement == null) {
+			statement = connection.prepareStatement(sql, resultSetType,
+					resultSetConcurrency, resultSetHoldability);
+		}
+		return proxyStatement(statement, sql, key, true);
+	}
+
+	@Override
+	public CallableStatement prepareCall(String sql, int resultSetType,
+			int resultSetConcurrency, int resultSetHoldability)
+			throws SQLException {
+		StatementCache.Key key = cacheKey(sql, true, resultSetType,
+				resultSetConcurrency, resultSetHoldability);
+		CallableStatement statement = key == null ? null
+				: (CallableStatement) statementCache.take(key);
+		if (statement == null) {
+			statement = connection.prepareCall(sql, resultSetType,
+					resultSetConcurrency, resultSetHoldability);
+		}
+		return proxyStatement(statement, sql, key, false);
+	}
+
+	@Override
+	public PreparedStatement prepareStatement(String sql, int autoGeneratedKeys)
+			throws SQLException {
+		return proxyStatement(connection.prepareStatement(sql,
+				autoGeneratedKeys), sql, null, false);
+	}
+
+	@Override
+	public PreparedStatement prepareStatement(String sql, int[] columnIndexes)
+			throws SQLException {
+		return proxyStatement(connection.prepareStatement(sql,
+				columnIndexes), sql, null, false);
+	}
+
+	@Override
+	public PreparedStatement prepareStatement(String sql, String[] columnNames)
+			throws SQLException {
+		return proxyStatement(connection.prepareStatement(sql,
+				columnNames), sql, null, false);
+	}
+
+	@Override
+	public Clob createClob() throws SQLException {
+		return connection.createClob();
+	}
+
+	@Override
+	public Blob createBlob() throws SQLException {
+		return connection.createBlob();
+	}
+
+	@Override
+	public NClob createNClob() throws SQLException {
+		return connection.createNClob();
+	}
+
+	@Override
+	public SQLXML createSQLXML() throws SQLException {
+		return connection.createSQLXML();
+	}
+
+	@Override
+	public boolean isValid(int timeout) throws SQLException {
+		return connection.isValid(timeout);
+	}
+
+	@Override
+	public void setClientInfo(String name, String value)
+			throws SQLClientInfoException {
+		connection.setClientInfo(name, value);
+	}
+
+	@Override
+	public void setClientInfo(Properties properties)
+			throws SQLClientInfoException {
+		connection.setClientInfo(properties);
+	}
+
+	@Override
+	public String getClientInfo(String name) throws SQLException {
+		return connection.getClientInfo(name);
+	}
+
+	@Override
+	public Properties getClientInfo() throws SQLException {
+		return connection.getClientInfo();
+	}
+
+	@Override
+	public Array createArrayOf(String typeName, Object[] elements)
+			throws SQLException {
+		return factory.proxyArray(connection.createArrayOf(typeName, elements));
+	}
+
+	@Override
+	public Struct createStruct(String typeName, Object[] attributes)
+			throws SQLException {
+		return connection.createStruct(typeName, attributes);
+	}
+
+	@Override
+	public void setSchema(String schema) throws SQLException {
+		flushBatch();
+		connection.setSchema(schema);
+		clearStatementCache();
+	}
+
+	@Override
+	public String getSchema() throws SQLException {
+		return connection.getSchema();
+	}
+
+	@Override
+	public void abort(Executor executor) throws SQLException {
+		connection.abort(executor);
+	}
+
+	@Override
+	public void setNetworkTimeout(Executor executor, int milliseconds)
+			throws SQLException {
+		connection.setNetworkTimeout(executor, milliseconds);
+	}
+
+	@Override
+	public int getNetworkTimeout() throws SQLException {
+		return connection.getNetworkTimeout();
+	}
+
+	@Override
+	public <T> T unwrap(Class<T> iface) throws SQLException {
+		return connection.unwrap(iface);
+	}
+
+	@Override
+	public boolean isWrapperFor(Class<?> iface) throws SQLException {
+		return connection.isWrapperFor(iface);
+	}
+
+}
@@ -0,0 +1,37 @@
+package com.seboch.jdbc.proxy;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import javax.sql.DataSource;
+
+/**
+ * User and password passed to
+ * {@link DataSource#getConnection(String, String)}, kept to take the
+ * physical connections of the lazy and routed connections later on.
+ * <p>
+ * A null {@link Credentials} stands for {@link DataSource#getConnection()},
+ * while a null user is passed as is to the data source.
+ */
+final class Credentials {
+
+	private final String user;
+	private final String password;
+
+	Credentials(String user, String password) {
+		this.user = user;
+		this.password = password;
+	}
+
+	/**
+	 * @param credentials
+	 *            credentials of the connection, null to call
+	 *            {@link DataSource#getConnection()}
+	 * @return a connection of dataSource
+	 */
+	static Connection getConnection(DataSource dataSource,
+			Credentials credentials) throws SQLException {
+		return credentials == null ? dataSource.getConnection() : dataSource
+				.getConnection(credentials.user, credentials.password);
+	}
+}
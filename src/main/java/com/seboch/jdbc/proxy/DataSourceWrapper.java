@@ -0,0 +1,75 @@
+package com.seboch.jdbc.proxy;
+
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.logging.Logger;
+
+import javax.sql.DataSource;
+
+/**
+ * Delegating {@link DataSource} used by the {@link ProxyBackend#WRAPPER}
+ * backend.
+ */
+class DataSourceWrapper implements DataSource {
+
+	private final JdbcProxyFactory factory;
+	private final DataSource dataSource;
+	private final ReplicaSet replicaSet;
+
+	DataSourceWrapper(JdbcProxyFactory factory, DataSource dataSource,
+			ReplicaSet replicaSet) {
+		this.factory = factory;
+		this.dataSource = dataSource;
+		this.replicaSet = replicaSet;
+	}
+
+	@Override
+	public Connection getConnection() throws SQLException {
+		return factory.connect(dataSource, replicaSet, null);
+	}
+
+	@Override
+	public Connection getConnection(String username, String password)
+			throws SQLException {
+		return factory.connect(dataSource, replicaSet, new Credentials(
+				username, password));
+	}
+
+	@Override
+	public PrintWriter getLogWriter() throws SQLException {
+		return dataSource.getLogWriter();
+	}
+
+	@Override
+	public void setLogWriter(PrintWriter out) throws SQLException {
+		dataSource.setLogWriter(out);
+	}
+
+	@Override
+	public void setLoginTimeout(int seconds) throws SQLException {
+		dataSource.setLoginTimeout(seconds);
+	}
+
+	@Override
+	public int getLoginTimeout() throws SQLException {
+		return dataSource.getLoginTimeout();
+	}
+
+	@Override
+	public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+		return dataSource.getParentLogger();
+	}
+
+	@Override
+	public <T> T unwrap(Class<T> iface) throws SQLException {
+		return dataSource.unwrap(iface);
+	}
+
+	@Override
+	public boolean isWrapperFor(Class<?> iface) throws SQLException {
+		return dataSource.isWrapperFor(iface);
+	}
+
+}
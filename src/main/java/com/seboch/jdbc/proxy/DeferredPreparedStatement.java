@@ -0,0 +1,179 @@
+package com.seboch.jdbc.proxy;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Prepared statement of a {@link LazyConnection} which is only prepared on
+ * a physical connection when first needed, so that a query answered by the
+ * {@link QueryResultCache} takes no connection at all.
+ * <p>
+ * Until then, the last value bound to each parameter and the last value of
+ * each setting are recorded, and replayed on the physical statement once
+ * prepared. Closing, clearing and the connection are answered without it,
+ * any other call prepares it on the connection a statement created at that
+ * time would use.
+ * <p>
+ * Like its connection, it is only used by one thread at a time and is not
+ * synchronized.
+ */
+final class DeferredPreparedStatement implements InvocationHandler {
+
+	/**
+	 * A recorded setter call.
+	 */
+	private static final class Call {
+
+		private final Method method;
+		private final Object[] args;
+
+		Call(Method method, Object[] args) {
+			this.method = method;
+			this.args = args;
+		}
+	}
+
+	private final LazyConnection connection;
+	private final String sql;
+
+	/**
+	 * Result set type, concurrency and holdability passed to the connection,
+	 * null if not passed, holdability being optional.
+	 */
+	private final int[] resultSetOptions;
+
+	private final Map<Integer, Call> parameters = new HashMap<Integer, Call>();
+	private final Map<String, Call> settings = new LinkedHashMap<String, Call>();
+
+	/**
+	 * Physical statement, null until prepared.
+	 */
+	private PreparedStatement statement;
+	private boolean closed;
+
+	private DeferredPreparedStatement(LazyConnection connection, String sql,
+			int[] resultSetOptions) {
+		this.connection = connection;
+		this.sql = sql;
+		this.resultSetOptions = resultSetOptions;
+	}
+
+	/**
+	 * @param resultSetOptions
+	 *            result set type and concurrency, then holdability if passed
+	 *            to the connection, none to use the defaults
+	 */
+	static PreparedStatement create(LazyConnection connection, String sql,
+			int... resultSetOptions) {
+		DeferredPreparedStatement handler = new DeferredPreparedStatement(
+				connection, sql, resultSetOptions.length == 0 ? null
+						: resultSetOptions);
+		return (PreparedStatement) Proxy.newProxyInstance(
+				DeferredPreparedStatement.class.getClassLoader(),
+				new Class<?>[] { PreparedStatement.class }, handler);
+	}
+
+	@Override
+	public Object invoke(Object proxy, Method method, Object[] args)
+			throws Throwable {
+		String name = method.getName();
+		if (method.getDeclaringClass() == Object.class) {
+			if (name.equals("equals")) {
+				return proxy == args[0];
+			} else if (name.equals("hashCode")) {
+				return System.identityHashCode(proxy);
+			}
+			return "Deferred statement: " + sql;
+		}
+		if (statement != null) {
+			return forward(method, statement, args);
+		}
+		if (name.equals("close")) {
+			closed = true;
+			return null;
+		} else if (name.equals("isClosed")) {
+			return closed;
+		}
+		if (closed) {
+			throw new SQLException("Statement is closed");
+		}
+		if (name.startsWith("set")) {
+			if (method.getDeclaringClass() == PreparedStatement.class) {
+				parameters.put((Integer) args[0], new Call(method, args));
+				return null;
+			} else if (method.getDeclaringClass() == Statement.class) {
+				// the last call of each setting wins, replayed last
+				settings.remove(name);
+				settings.put(name, new Call(method, args));
+				return null;
+			}
+		} else if (name.equals("clearParameters")) {
+			parameters.clear();
+			return null;
+		} else if (name.equals("clearBatch")
+				|| name.equals("clearWarnings")) {
+			// nothing was added nor executed
+			return null;
+		} else if (name.equals("getWarnings")) {
+			return null;
+		} else if (name.equals("getConnection")) {
+			return connection;
+		}
+		return forward(method, prepare(), args);
+	}
+
+	/**
+	 * @return the physical statement, prepared with the recorded settings
+	 *         and parameters on the first call
+	 */
+	private PreparedStatement prepare() throws Throwable {
+		Connection target = connection.statementConnection(sql);
+		PreparedStatement prepared;
+		if (resultSetOptions == null) {
+			prepared = target.prepareStatement(sql);
+		} else if (resultSetOptions.length == 2) {
+			prepared = target.prepareStatement(sql, resultSetOptions[0],
+					resultSetOptions[1]);
+		} else {
+			prepared = target.prepareStatement(sql, resultSetOptions[0],
+					resultSetOptions[1], resultSetOptions[2]);
+		}
+		try {
+			for (Call call : settings.values()) {
+				forward(call.method, prepared, call.args);
+			}
+			for (Call call : parameters.values()) {
+				forward(call.method, prepared, call.args);
+			}
+		} catch (Throwable e) {
+			try {
+				prepared.close();
+			} catch (SQLException closeFailure) {
+				// the replay failure is reported instead
+			}
+			throw e;
+		}
+		settings.clear();
+		parameters.clear();
+		statement = prepared;
+		return prepared;
+	}
+
+	private static Object forward(Method method, Object target, Object[] args)
+			throws Throwable {
+		try {
+			return method.invoke(target, args);
+		} catch (InvocationTargetException e) {
+			throw e.getCause();
+		}
+	}
+}
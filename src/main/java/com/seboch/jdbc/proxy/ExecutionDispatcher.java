@@ -0,0 +1,254 @@
+package com.seboch.jdbc.proxy;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import com.seboch.jdbc.proxy.execution.ExecutionEvent;
+import com.seboch.jdbc.proxy.execution.ExecutionInterceptor;
+import com.seboch.jdbc.proxy.execution.ExecutionInterceptorAdapter;
+import com.seboch.jdbc.proxy.execution.ExecutionListener;
+
+/**
+ * Fans execution events out to the subscribed interceptors.
+ * <p>
+ * Subscribers are kept in one copy-on-write array per
+ * {@link ExecutionEvent}, rebuilt on registration, so that dispatching an
+ * event nobody subscribed to is a single array length check.
+ */
+final class ExecutionDispatcher implements ExecutionInterceptor {
+
+	private static final ExecutionEvent[] EVENTS = ExecutionEvent.values();
+
+	private static final ExecutionInterceptor[] NO_INTERCEPTORS = new ExecutionInterceptor[0];
+
+	private static final Set<ExecutionEvent> LISTENER_EVENTS = EnumSet.of(
+			ExecutionEvent.AFTER_EXECUTE, ExecutionEvent.AFTER_EXECUTE_BATCH,
+			ExecutionEvent.RESULT_SET_CLOSED);
+
+	private static final class Subscription {
+		private final ExecutionInterceptor interceptor;
+		private final ExecutionListener listener;
+		private final Set<ExecutionEvent> events;
+
+		Subscription(ExecutionInterceptor interceptor,
+				ExecutionListener listener, Set<ExecutionEvent> events) {
+			this.interceptor = interceptor;
+			this.listener = listener;
+			this.events = events;
+		}
+	}
+
+	/**
+	 * Adapts an {@link ExecutionListener} to the interceptor callbacks.
+	 */
+	private static final class ListenerInterceptor extends
+			ExecutionInterceptorAdapter {
+
+		private final ExecutionListener listener;
+
+		ListenerInterceptor(ExecutionListener listener) {
+			this.listener = listener;
+		}
+
+		@Override
+		public void afterExecute(Statement statement, String sql,
+				long elapsedNanos, long updateCount, Throwable failure) {
+			listener.statementExecuted(statement, sql, elapsedNanos, failure);
+		}
+
+		@Override
+		public void afterExecuteBatch(Statement statement, String sql,
+				int batchSize, int[] updateCounts, long elapsedNanos,
+				Throwable failure) {
+			listener.statementExecuted(statement, sql, elapsedNanos, failure);
+		}
+
+		@Override
+		public void resultSetClosed(ResultSet resultSet, String sql,
+				long rowCount, long openNanos) {
+			listener.resultSetClosed(resultSet, sql, rowCount, openNanos);
+		}
+	}
+
+	private final List<Subscription> subscriptions = new ArrayList<Subscription>();
+
+	private volatile ExecutionInterceptor[][] interceptors = newInterceptors();
+
+	private static ExecutionInterceptor[][] newInterceptors() {
+		ExecutionInterceptor[][] interceptors = new ExecutionInterceptor[EVENTS.length][];
+		for (int i = 0; i < interceptors.length; i++) {
+			interceptors[i] = NO_INTERCEPTORS;
+		}
+		return interceptors;
+	}
+
+	synchronized void addInterceptor(ExecutionInterceptor interceptor,
+			Set<ExecutionEvent> events) {
+		if (interceptor == null) {
+			throw new IllegalArgumentException("interceptor must not be null");
+		}
+		if (events == null) {
+			throw new IllegalArgumentException("events must not be null");
+		}
+		Set<ExecutionEvent> subscribed = EnumSet.noneOf(ExecutionEvent.class);
+		subscribed.addAll(events);
+		subscriptions.add(new Subscription(interceptor, null, subscribed));
+		rebuild();
+	}
+
+	synchronized void removeInterceptor(ExecutionInterceptor interceptor) {
+		for (Iterator<Subscription> it = subscriptions.iterator(); it
+				.hasNext();) {
+			Subscription subscription = it.next();
+			if (subscription.listener == null
+					&& subscription.interceptor.equals(interceptor)) {
+				it.remove();
+				rebuild();
+				return;
+			}
+		}
+	}
+
+	synchronized void addListener(ExecutionListener listener) {
+		if (listener == null) {
+			throw new IllegalArgumentException("listener must not be null");
+		}
+		subscriptions.add(new Subscription(new ListenerInterceptor(listener),
+				listener, LISTENER_EVENTS));
+		rebuild();
+	}
+
+	synchronized void removeListener(ExecutionListener listener) {
+		for (Iterator<Subscription> it = subscriptions.iterator(); it
+				.hasNext();) {
+			Subscription subscription = it.next();
+			if (subscription.listener != null
+					&& subscription.listener.equals(listener)) {
+				it.remove();
+				rebuild();
+				return;
+			}
+		}
+	}
+
+	private void rebuild() {
+		ExecutionInterceptor[][] updated = newInterceptors();
+		for (ExecutionEvent event : EVENTS) {
+			List<ExecutionInterceptor> subscribers = new ArrayList<ExecutionInterceptor>();
+			for (Subscription subscription : subscriptions) {
+				if (subscription.events.contains(event)) {
+					subscribers.add(subscription.interceptor);
+				}
+			}
+			if (!subscribers.isEmpty()) {
+				updated[event.ordinal()] = subscribers
+						.toArray(new ExecutionInterceptor[subscribers.size()]);
+			}
+		}
+		interceptors = updated;
+	}
+
+	boolean isSubscribed(ExecutionEvent event) {
+		return interceptors[event.ordinal()].length != 0;
+	}
+
+	private ExecutionInterceptor[] subscribers(ExecutionEvent event) {
+		return interceptors[event.ordinal()];
+	}
+
+	@Override
+	public void beforeExecute(Statement statement, String sql) {
+		ExecutionInterceptor[] current = subscribers(ExecutionEvent.BEFORE_EXECUTE);
+		for (int i = 0; i < current.length; i++) {
+			current[i].beforeExecute(statement, sql);
+		}
+	}
+
+	@Override
+	public void afterExecute(Statement statement, String sql,
+			long elapsedNanos, long updateCount, Throwable failure) {
+		ExecutionInterceptor[] current = subscribers(ExecutionEvent.AFTER_EXECUTE);
+		for (int i = 0; i < current.length; i++) {
+			current[i].afterExecute(statement, sql, elapsedNanos, updateCount,
+					failure);
+		}
+	}
+
+	@Override
+	public void batchAdded(Statement statement, String sql) {
+		ExecutionInterceptor[] current = subscribers(ExecutionEvent.ADD_BATCH);
+		for (int i = 0; i < current.length; i++) {
+			current[i].batchAdded(statement, sql);
+		}
+	}
+
+	@Override
+	public void beforeExecuteBatch(Statement statement, String sql,
+			int batchSize) {
+		ExecutionInterceptor[] current = subscribers(ExecutionEvent.BEFORE_EXECUTE_BATCH);
+		for (int i = 0; i < current.length; i++) {
+			current[i].beforeExecuteBatch(statement, sql, batchSize);
+		}
+	}
+
+	@Override
+	public void afterExecuteBatch(Statement statement, String sql,
+			int batchSize, int[] updateCounts, long elapsedNanos,
+			Throwable failure) {
+		ExecutionInterceptor[] current = subscribers(ExecutionEvent.AFTER_EXECUTE_BATCH);
+		for (int i = 0; i < current.length; i++) {
+			current[i].afterExecuteBatch(statement, sql, batchSize,
+					updateCounts, elapsedNanos, failure);
+		}
+	}
+
+	@Override
+	public void beforeCommit(Connection connection) {
+		ExecutionInterceptor[] current = subscribers(ExecutionEvent.BEFORE_COMMIT);
+		for (int i = 0; i < current.length; i++) {
+			current[i].beforeCommit(connection);
+		}
+	}
+
+	@Override
+	public void afterCommit(Connection connection, long elapsedNanos,
+			Throwable failure) {
+		ExecutionInterceptor[] current = subscribers(ExecutionEvent.AFTER_COMMIT);
+		for (int i = 0; i < current.length; i++) {
+			current[i].afterCommit(connection, elapsedNanos, failure);
+		}
+	}
+
+	@Override
+	public void beforeRollback(Connection connection) {
+		ExecutionInterceptor[] current = subscribers(ExecutionEvent.BEFORE_ROLLBACK);
+		for (int i = 0; i < current.length; i++) {
+			current[i].beforeRollback(connection);
+		}
+	}
+
+	@Override
+	public void afterRollback(Connection connection, long elapsedNanos,
+			Throwable failure) {
+		ExecutionInterceptor[] current = subscribers(ExecutionEvent.AFTER_ROLLBACK);
+		for (int i = 0; i < current.length; i++) {
+			current[i].afterRollback(connection, elapsedNanos, failure);
+		}
+	}
+
+	@Override
+	public void resultSetClosed(ResultSet resultSet, String sql,
+			long rowCount, long openNanos) {
+		ExecutionInterceptor[] current = subscribers(ExecutionEvent.RESULT_SET_CLOSED);
+		for (int i = 0; i < current.length; i++) {
+			current[i].resultSetClosed(resultSet, sql, rowCount, openNanos);
+		}
+	}
+
+}
@@ -0,0 +1,86 @@
+package com.seboch.jdbc.proxy;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Chooses the fetch size of the queries executed without an explicit one,
+ * see {@link JdbcProxyFactory#setDefaultFetchSize(int, boolean)}.
+ * <p>
+ * When adaptive, the number of rows read from the result sets of each SQL
+ * is remembered, for a bounded number of distinct SQL, and its next
+ * executions fetch just enough rows to read such a result in one round
+ * trip, up to the default fetch size. The remembered count decays by a
+ * quarter on each smaller result, so that a query returning fewer rows
+ * than it used to soon gets a smaller fetch size.
+ */
+final class FetchSizeGovernor {
+
+	/**
+	 * Bound on the number of SQL whose row counts are remembered.
+	 */
+	static final int MAX_STATEMENTS = 4096;
+
+	private final ConcurrentMap<String, AtomicLong> observedRows = new ConcurrentHashMap<String, AtomicLong>();
+
+	private volatile int fetchSize;
+
+	private volatile boolean adaptive;
+
+	void configure(int fetchSize, boolean adaptive) {
+		this.fetchSize = fetchSize;
+		this.adaptive = adaptive;
+		observedRows.clear();
+	}
+
+	int getFetchSize() {
+		return fetchSize;
+	}
+
+	boolean isAdaptive() {
+		return adaptive;
+	}
+
+	/**
+	 * @param sql
+	 *            executed SQL, null if unknown
+	 * @return the fetch size to set before executing sql, 0 to keep the one
+	 *         of the driver
+	 */
+	int fetchSizeFor(String sql) {
+		int defaultFetchSize = fetchSize;
+		if (defaultFetchSize == 0 || !adaptive || sql == null) {
+			return defaultFetchSize;
+		}
+		AtomicLong rows = observedRows.get(sql);
+		if (rows == null) {
+			return defaultFetchSize;
+		}
+		return (int) Math.min(defaultFetchSize, rows.get() + 1);
+	}
+
+	/**
+	 * Records the number of rows read from a result set of sql.
+	 */
+	void rowsRead(String sql, long rowCount) {
+		if (!adaptive || sql == null || fetchSize == 0) {
+			return;
+		}
+		AtomicLong rows = observedRows.get(sql);
+		if (rows == null) {
+			if (observedRows.size() < MAX_STATEMENTS) {
+				rows = observedRows.putIfAbsent(sql, new AtomicLong(rowCount));
+			}
+			if (rows == null) {
+				return;
+			}
+		}
+		long previous;
+		long next;
+		do {
+			previous = rows.get();
+			next = Math.max(rowCount, previous - (previous >> 2));
+		} while (next != previous && !rows.compareAndSet(previous, next));
+	}
+}
@@ -1,19 +1,40 @@
 package com.seboch.jdbc.proxy;
 
 import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
+import java.sql.Array;
 import java.sql.CallableStatement;
 import java.sql.Connection;
+import java.sql.DatabaseMetaData;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import javax.sql.DataSource;
 
-import org.apache.commons.lang3.event.EventListenerSupport;
-
+import com.seboch.jdbc.proxy.execution.ExecutionEvent;
+import com.seboch.jdbc.proxy.execution.ExecutionInterceptor;
+import com.seboch.jdbc.proxy.execution.ExecutionListener;
 import com.seboch.jdbc.proxy.lifecycle.ResourceLifecycleListener;
+import com.seboch.jdbc.proxy.lifecycle.StackFrames;
+import com.seboch.jdbc.proxy.limit.CircuitBreaker;
+import com.seboch.jdbc.proxy.limit.ConcurrencyLimiter;
+import com.seboch.jdbc.proxy.limit.LoadShedException;
+import com.seboch.jdbc.proxy.slowlog.SlowQuery;
+import com.seboch.jdbc.proxy.slowlog.SlowQueryListener;
 
 /**
  * @author sarod
@@ -21,143 +42,1768 @@ import com.seboch.jdbc.proxy.lifecycle.ResourceLifecycleListener;
  */
 public final class JdbcProxyFactory {
 
+	private static final Logger LOGGER = Logger
+			.getLogger(JdbcProxyFactory.class.getName());
+
 	private static final String CLOSE_METHOD = "close";
 
-	private final EventListenerSupport<ResourceLifecycleListener> lifecycleListenerSupport;
+	private static final String NEXT_METHOD = "next";
+
+	private static final String EXECUTE_METHOD_PREFIX = "execute";
+
+	private static final String EXECUTE_QUERY_METHOD = "executeQuery";
+
+	private static final String EXECUTE_METHOD = "execute";
+
+	private static final String SET_FETCH_SIZE_METHOD = "setFetchSize";
+
+	private static final String BATCH_METHOD_SUFFIX = "Batch";
+
+	private static final String ADD_BATCH_METHOD = "addBatch";
+
+	private static final String CLEAR_BATCH_METHOD = "clearBatch";
+
+	private static final String UNWRAP_METHOD = "unwrap";
+
+	private static final String COMMIT_METHOD = "commit";
+
+	private static final String ROLLBACK_METHOD = "rollback";
+
+	/**
+	 * Connection methods executing the updates deferred on the prepared
+	 * statements of the connection, see {@link TransparentBatch}.
+	 */
+	private static final Set<String> CONNECTION_BATCH_FLUSHING_METHODS = new HashSet<String>(
+			Arrays.asList(COMMIT_METHOD, ROLLBACK_METHOD, "setAutoCommit",
+					"setSavepoint", "releaseSavepoint",
+					"setTransactionIsolation", "setReadOnly", "setCatalog",
+					"setSchema", "setHoldability", "getMetaData"));
+
+	/**
+	 * Statement methods executing the updates deferred on the connection,
+	 * along with the execute methods.
+	 */
+	private static final Set<String> STATEMENT_BATCH_FLUSHING_METHODS = new HashSet<String>(
+			Arrays.asList("getResultSet", "getUpdateCount", "getMoreResults",
+					"getGeneratedKeys", ADD_BATCH_METHOD, CLEAR_BATCH_METHOD));
+
+	/**
+	 * Start time returned by the before hooks when no interceptor subscribed
+	 * to the matching after event, so that the call is not timed.
+	 */
+	private static final long NOT_TIMED = Long.MIN_VALUE;
+
+	private final ProxyBackend backend;
+
+	private final ResourceLifecycleDispatcher lifecycleDispatcher = new ResourceLifecycleDispatcher();
+
+	private final ExecutionDispatcher executionDispatcher = new ExecutionDispatcher();
+
+	private volatile boolean lazyConnections;
+
+	private volatile int statementCacheSize;
+
+	private volatile int transparentBatchSize;
+
+	private volatile long transparentBatchDelayNanos;
+
+	private final Set<String> batchedUpdates = Collections
+			.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+	private final AtomicLongArray statementCacheCounters = new AtomicLongArray(
+			StatementCache.COUNTERS);
+
+	private final QueryResultCache queryResultCache = new QueryResultCache();
+
+	private volatile SlowQueryListener slowQueryListener;
+
+	private volatile long slowQueryThresholdNanos;
+
+	private final FetchSizeGovernor fetchSizeGovernor = new FetchSizeGovernor();
+
+	private final Set<String> detachedQueries = Collections
+			.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+	private volatile long resultSetRowLimit;
+
+	private volatile boolean failOnResultSetRowLimit;
+
+	private volatile boolean fastResultSets;
+
+	/**
+	 * Whether a routing data source was proxied, so that executions are
+	 * timed for the replica latencies.
+	 */
+	private volatile boolean routing;
+
+	private volatile ConcurrencyLimiter concurrencyLimiter;
+
+	private volatile CircuitBreaker circuitBreaker;
 
 	class DataSourceInvocationHandler implements InvocationHandler {
 
 		private final DataSource wrappedDataSource;
+		private final ReplicaSet replicaSet;
 
-		public DataSourceInvocationHandler(DataSource wrappedDataSource) {
+		public DataSourceInvocationHandler(DataSource wrappedDataSource,
+				ReplicaSet replicaSet) {
 			this.wrappedDataSource = wrappedDataSource;
+			this.replicaSet = replicaSet;
 		}
 
 		@Override
 		public Object invoke(Object proxy, Method method, Object[] args)
 				throws Throwable {
 			if (Connection.class.isAssignableFrom(method.getReturnType())) {
-				Connection connection = (Connection) method.invoke(
-						wrappedDataSource, args);
-				return proxyConnection(connection);
+				return connect(wrappedDataSource, replicaSet,
+						args == null ? null : new Credentials((String) args[0],
+								(String) args[1]));
 			} else {
-				return method.invoke(wrappedDataSource, args);
+				return forward(method, wrappedDataSource, args);
 			}
 		}
 	}
 
-	class ConnectionInvocationHandler implements InvocationHandler {
+	class ConnectionInvocationHandler extends ResourceNode implements
+			InvocationHandler {
 
 		private final Connection connection;
+		private final StatementCache statementCache;
+		private final TransparentBatch transparentBatch;
+		private final QueryResultCache.Session queryCacheSession;
 
-		public ConnectionInvocationHandler(Connection connection) {
+		public ConnectionInvocationHandler(Connection connection,
+				StatementCache statementCache,
+				TransparentBatch transparentBatch,
+				QueryResultCache.Session queryCacheSession) {
 			this.connection = connection;
+			this.statementCache = statementCache;
+			this.transparentBatch = transparentBatch;
+			this.queryCacheSession = queryCacheSession;
+		}
+
+		@Override
+		Object getResource() {
+			return connection;
+		}
+
+		@Override
+		void fireImplicitlyClosed() {
+			fireConnectionClosed(connection);
+		}
+
+		/**
+		 * @return the cache key of the statement prepared by method, null if
+		 *         it is not cached
+		 */
+		private StatementCache.Key cacheKey(Method method, Object[] args) {
+			if (statementCache == null
+					|| !method.getName().startsWith("prepare")
+					|| args.length == 2 || args[0] == null) {
+				return null;
+			}
+			return new StatementCache.Key((String) args[0], method.getName()
+					.equals("prepareCall"),
+					args.length > 1 ? (Integer) args[1]
+							: ResultSet.TYPE_FORWARD_ONLY,
+					args.length > 2 ? (Integer) args[2]
+							: ResultSet.CONCUR_READ_ONLY,
+					args.length > 3 ? (Integer) args[3]
+							: StatementCache.DEFAULT_HOLDABILITY);
+		}
+
+		/**
+		 * @return true if the updates of the statement returned by method
+		 *         may be deferred to the transparent batch
+		 */
+		private boolean defersUpdates(Method method, Object[] args) {
+			return method.getName().equals("prepareStatement")
+					&& args.length != 2;
 		}
 
 		@Override
 		public Object invoke(Object proxy, Method method, Object[] args)
 				throws Throwable {
+			if (transparentBatch != null
+					&& CONNECTION_BATCH_FLUSHING_METHODS.contains(method
+							.getName())) {
+				transparentBatch.flush();
+			}
 			if (method.getName().equals(CLOSE_METHOD)) {
-				method.invoke(connection, args);
-				lifecycleListenerSupport.fire().connectionClosed(connection);
+				try {
+					if (transparentBatch != null) {
+						transparentBatch.flush();
+					}
+					if (statementCache != null) {
+						statementCache.close();
+					}
+				} finally {
+					forward(method, connection, args);
+					if (queryCacheSession != null) {
+						// some drivers commit on close
+						queryCacheSession.committed();
+					}
+				}
+				if (markClosed()) {
+					closeChildren();
+					fireConnectionClosed(connection);
+				}
 				return null;
 			} else if (Statement.class.isAssignableFrom(method.getReturnType())) {
-				Statement statement = (Statement) method.invoke(connection,
-						args);
-				lifecycleListenerSupport.fire().statementCreated(statement);
-				Class<?>[] interfaces = null;
-				if (statement instanceof CallableStatement) {
-					interfaces = new Class<?>[] { CallableStatement.class };
-				} else if (statement instanceof PreparedStatement) {
-					interfaces = new Class<?>[] { PreparedStatement.class };
-				} else {
-					interfaces = new Class<?>[] { Statement.class };
-				}
-				return (Statement) Proxy.newProxyInstance(getClassLoader(),
-						interfaces, new StatementInvocationHandler(statement));
+				StatementCache.Key key = cacheKey(method, args);
+				Statement statement = key == null ? null : statementCache
+						.take(key);
+				if (statement == null) {
+					statement = (Statement) forward(method, connection, args);
+				}
+				String sql = method.getName().startsWith("prepare") ? (String) args[0]
+						: null;
+				return proxyStatement(statement, (Connection) proxy, sql,
+						statementCache, key, transparentBatch,
+						defersUpdates(method, args), queryCacheSession);
+			} else if (method.getName().equals("setCatalog")
+					|| method.getName().equals("setSchema")
+					|| method.getName().equals("setHoldability")) {
+				forward(method, connection, args);
+				if (statementCache != null) {
+					// idle statements may depend on the previous value
+					statementCache.clear();
+				}
+				return null;
+			} else if (method.getName().equals(COMMIT_METHOD)) {
+				long start = beforeCommit(connection);
+				try {
+					forward(method, connection, args);
+				} catch (Throwable e) {
+					throw commitFailed(connection, start, e);
+				}
+				afterCommit(connection, start);
+				if (queryCacheSession != null) {
+					queryCacheSession.committed();
+				}
+				return null;
+			} else if (method.getName().equals(ROLLBACK_METHOD)) {
+				long start = beforeRollback(connection);
+				try {
+					forward(method, connection, args);
+				} catch (Throwable e) {
+					throw rollbackFailed(connection, start, e);
+				}
+				afterRollback(connection, start);
+				if (queryCacheSession != null && args == null) {
+					queryCacheSession.rolledBack();
+				}
+				return null;
+			} else if (method.getName().equals("setAutoCommit")
+					&& queryCacheSession != null) {
+				forward(method, connection, args);
+				if (Boolean.TRUE.equals(args[0])) {
+					// enabling auto-commit commits the current transaction
+					queryCacheSession.committed();
+				}
+				return null;
+			} else if (method.getName().equals("getMetaData")) {
+				return proxyMetaData(
+						(DatabaseMetaData) forward(method, connection, args),
+						(Connection) proxy);
+			} else if (method.getName().equals(UNWRAP_METHOD)) {
+				return forward(method, connection, args);
 			} else {
-				return method.invoke(connection, args);
+				return proxyObject(forward(method, connection, args), null);
 			}
 		}
 	}
 
-	class ResultSetInvocationHandler implements InvocationHandler {
+	class ResultSetInvocationHandler extends ResourceNode implements
+			InvocationHandler {
 		private final ResultSet resultSet;
+		private final Statement statement;
+		private final String sql;
+		private final long openTime;
+		private final long rowLimit;
+		private long rowCount;
 
-		public ResultSetInvocationHandler(ResultSet resultSet) {
+		public ResultSetInvocationHandler(ResultSet resultSet,
+				Statement statement, String sql, long openTime, long rowLimit) {
 			this.resultSet = resultSet;
+			this.statement = statement;
+			this.sql = sql;
+			this.openTime = openTime;
+			this.rowLimit = rowLimit;
+		}
+
+		@Override
+		Object getResource() {
+			return resultSet;
+		}
+
+		@Override
+		void fireImplicitlyClosed() {
+			fireResultSetClosed(this, resultSet, sql, rowCount, openTime);
 		}
 
 		@Override
 		public Object invoke(Object proxy, Method method, Object[] args)
 				throws Throwable {
 			if (method.getName().equals(CLOSE_METHOD)) {
-				method.invoke(resultSet, args);
-				lifecycleListenerSupport.fire().resultSetClosed(resultSet);
+				forward(method, resultSet, args);
+				if (markClosed()) {
+					fireImplicitlyClosed();
+				}
 				return null;
+			} else if (method.getName().equals(NEXT_METHOD)) {
+				Object hasNext = forward(method, resultSet, args);
+				if (Boolean.TRUE.equals(hasNext)) {
+					rowCount++;
+					if (rowLimit > 0 && rowCount > rowLimit) {
+						rowLimitExceeded(sql, rowLimit, rowCount);
+					}
+				}
+				return hasNext;
+			} else if (method.getName().equals("getStatement")) {
+				// never the driver statement, which would escape the proxies
+				return statement;
+			} else if (method.getName().equals(UNWRAP_METHOD)) {
+				return forward(method, resultSet, args);
 			} else {
-				return method.invoke(resultSet, args);
+				return proxyObject(forward(method, resultSet, args), statement);
 			}
 		}
 	}
 
-	class StatementInvocationHandler implements InvocationHandler {
-		private final Statement statement;
+	class StatementInvocationHandler extends ResourceNode implements
+			InvocationHandler {
+		private Statement statement;
+		private final Connection connection;
+		private final String sql;
+		private int batchSize;
+		private String executedSql;
+		private ResultSet resultSet;
+		private ResultSet resultSetProxy;
+		private StatementCache cache;
+		private StatementCache.Key cacheKey;
+		private StatementSettings settings;
+		private TransparentBatch transparentBatch;
+		private boolean deferUpdates;
+		private QueryResultCache.Session queryCacheSession;
+		private BoundParameters parameters;
+		private boolean fetchSizeSet;
 
-		public StatementInvocationHandler(Statement statement) {
+		public StatementInvocationHandler(Statement statement,
+				Connection connection, String sql) {
 			this.statement = statement;
+			this.connection = connection;
+			this.sql = sql;
+			this.executedSql = sql;
+		}
+
+		@Override
+		Object getResource() {
+			return statement;
+		}
+
+		@Override
+		void fireImplicitlyClosed() {
+			fireStatementClosed(this, statement);
+		}
+
+		private ResultSet proxyResultSet(ResultSet resultSet, Statement proxy) {
+			if (resultSet != this.resultSet || resultSet == null) {
+				this.resultSet = resultSet;
+				this.resultSetProxy = JdbcProxyFactory.this.proxyResultSet(
+						resultSet, proxy, this, executedSql);
+			}
+			return resultSetProxy;
+		}
+
+		private void closeCurrentResultSet() {
+			if (resultSetProxy != null) {
+				nodeOf(resultSetProxy).closeImplicitly();
+				resultSet = null;
+				resultSetProxy = null;
+			}
+		}
+
+		/**
+		 * Executes a query whose results may be cached, see
+		 * {@link QueryResultCache}. The updates deferred on the connection
+		 * have already been executed.
+		 */
+		private Object executeQuery(Object proxy, Method method, Object[] args)
+				throws Throwable {
+			String querySql = args == null ? sql : (String) args[0];
+			Set<String> tables = queryCacheSession.tablesReadBy(querySql);
+			QueryResultCache.Query query = null;
+			if (tables != null && (args != null || parameters != null)) {
+				query = queryCacheSession.lookUp(querySql, tables,
+						args == null ? parameters.values()
+								: StatementWrapper.NO_PARAMETERS);
+			}
+			if (query == null || query.getCachedRows() == null) {
+				executedSql = querySql;
+				closeCurrentResultSet();
+				if (!fetchSizeSet) {
+					governFetchSize(statement, querySql);
+				}
+				long start = beforeExecute(this, statement, querySql);
+				Object result;
+				try {
+					result = forward(method, statement, args);
+				} catch (Throwable e) {
+					throw executeFailed(statement, querySql, start, e);
+				}
+				afterExecute(statement, querySql, start, -1);
+				executed(this, querySql, parameters, start, -1);
+				if (query == null) {
+					return queryResult(querySql, (ResultSet) result,
+							(Statement) proxy);
+				}
+				return cachedResultSet(querySql,
+						query.store((ResultSet) result), (Statement) proxy);
+			}
+			return cachedResultSet(querySql, query.getCachedRows(),
+					(Statement) proxy);
+		}
+
+		private ResultSet cachedResultSet(String querySql, CachedRows rows,
+				Statement proxy) {
+			executedSql = querySql;
+			closeCurrentResultSet();
+			return proxyResultSet(new CachedResultSet(rows), proxy);
+		}
+
+		/**
+		 * @return the proxy of the result set of an executeQuery call, or
+		 *         of a copy of its rows if its results are detached
+		 */
+		private ResultSet queryResult(String querySql, ResultSet resultSet,
+				Statement proxy) throws SQLException {
+			if (resultSet != null && detachesResults(querySql)) {
+				return cachedResultSet(querySql, CachedRows.read(resultSet),
+						proxy);
+			}
+			return proxyResultSet(resultSet, proxy);
+		}
+
+		private void recordParameter(Method method, Object[] args) {
+			if (method.getName().equals("clearParameters")) {
+				parameters.clear();
+			} else if (method.getName().startsWith("set") && args != null
+					&& args.length >= 2 && args[0] instanceof Integer
+					&& method.getDeclaringClass() == PreparedStatement.class) {
+				parameters.set((Integer) args[0], method.getName().equals(
+						"setNull") ? null : args[1]);
+			}
+		}
+
+		/**
+		 * Records the previous value of a setting of the cached statement,
+		 * to restore it when the statement returns to the cache.
+		 */
+		private void recordSetting(Method method) throws SQLException {
+			int setting = StatementSettings.settingOf(method.getName());
+			if (setting != 0) {
+				if (settings == null) {
+					settings = new StatementSettings();
+				}
+				settings.changing(setting, statement);
+			}
 		}
 
 		@Override
 		public Object invoke(Object proxy, Method method, Object[] args)
 				throws Throwable {
+			if (transparentBatch != null) {
+				if (deferUpdates && batchSize == 0 && args == null
+						&& method.getName().equals("executeUpdate")) {
+					closeCurrentResultSet();
+					return transparentBatch.deferUpdate(
+							(PreparedStatement) statement, this, sql);
+				} else if (method.getName().startsWith(EXECUTE_METHOD_PREFIX)
+						|| STATEMENT_BATCH_FLUSHING_METHODS.contains(method
+								.getName())) {
+					transparentBatch.flush();
+				}
+			}
+			if (queryCacheSession != null
+					&& method.getName().equals(EXECUTE_QUERY_METHOD)) {
+				return executeQuery(proxy, method, args);
+			} else if (parameters != null) {
+				recordParameter(method, args);
+			}
+			if (cache != null) {
+				recordSetting(method);
+			}
 			if (method.getName().equals(CLOSE_METHOD)) {
-				method.invoke(statement, args);
-				lifecycleListenerSupport.fire().statementClosed(statement);
+				if (cache == null) {
+					try {
+						if (transparentBatch != null) {
+							transparentBatch.flush(statement);
+						}
+					} finally {
+						forward(method, statement, args);
+						if (markClosed()) {
+							closeChildren();
+							fireStatementClosed(this, statement);
+						}
+					}
+				} else if (markClosed()) {
+					try {
+						cache.release(cacheKey, (PreparedStatement) statement,
+								this, batchSize > 0, settings);
+					} finally {
+						closeChildren();
+						fireStatementClosed(this, statement);
+						statement = StatementCache.CLOSED_STATEMENT;
+					}
+				}
+				return null;
+			} else if (method.getName().equals(ADD_BATCH_METHOD)) {
+				forward(method, statement, args);
+				batchSize++;
+				batchAdded(statement, args == null ? sql : (String) args[0]);
+				return null;
+			} else if (method.getName().equals(CLEAR_BATCH_METHOD)) {
+				forward(method, statement, args);
+				batchSize = 0;
+				return null;
+			} else if (method.getName().endsWith(BATCH_METHOD_SUFFIX)
+					&& method.getName().startsWith(EXECUTE_METHOD_PREFIX)) {
+				int size = batchSize;
+				batchSize = 0;
+				long start = beforeExecuteBatch(this, statement, sql, size);
+				Object updateCounts;
+				try {
+					updateCounts = forward(method, statement, args);
+				} catch (Throwable e) {
+					throw executeBatchFailed(statement, sql, size, start, e);
+				}
+				afterExecuteBatch(statement, sql, size, start,
+						updateCounts instanceof int[] ? (int[]) updateCounts
+								: null);
+				if (queryCacheSession != null) {
+					queryCacheSession.executed(sql);
+				}
+				return updateCounts;
+			} else if (method.getName().startsWith(EXECUTE_METHOD_PREFIX)) {
+				executedSql = args != null && args.length > 0
+						&& args[0] instanceof String ? (String) args[0] : sql;
+				closeCurrentResultSet();
+				if (!fetchSizeSet
+						&& (method.getName().equals(EXECUTE_QUERY_METHOD)
+								|| method.getName().equals(EXECUTE_METHOD))) {
+					governFetchSize(statement, executedSql);
+				}
+				long start = beforeExecute(this, statement, executedSql);
+				Object result;
+				try {
+					result = forward(method, statement, args);
+				} catch (Throwable e) {
+					throw executeFailed(statement, executedSql, start, e);
+				}
+				long updateCount = result instanceof Number ? ((Number) result)
+						.longValue() : -1;
+				afterExecute(statement, executedSql, start, updateCount);
+				executed(this, executedSql, parameters, start, updateCount);
+				if (queryCacheSession != null) {
+					queryCacheSession.executed(executedSql);
+				}
+				if (method.getName().equals(EXECUTE_QUERY_METHOD)) {
+					return queryResult(executedSql, (ResultSet) result,
+							(Statement) proxy);
+				} else if (result instanceof ResultSet) {
+					return proxyResultSet((ResultSet) result,
+							(Statement) proxy);
+				}
+				return result;
+			} else if (method.getName().equals("getMoreResults")) {
+				Object hasResultSet = forward(method, statement, args);
+				int current = args == null ? Statement.CLOSE_CURRENT_RESULT
+						: (Integer) args[0];
+				if (current == Statement.CLOSE_ALL_RESULTS) {
+					closeChildren();
+					resultSet = null;
+					resultSetProxy = null;
+				} else if (current == Statement.CLOSE_CURRENT_RESULT) {
+					closeCurrentResultSet();
+				}
+				return hasResultSet;
+			} else if (method.getName().equals("getConnection")) {
+				return connection;
+			} else if (method.getName().equals(UNWRAP_METHOD)) {
+				return forward(method, statement, args);
+			} else if (method.getName().equals(SET_FETCH_SIZE_METHOD)) {
+				forward(method, statement, args);
+				fetchSizeSet = true;
 				return null;
-			} else if (method.getName().equals("executeQuery")
-					&& ResultSet.class.isAssignableFrom(method.getReturnType())) {
-				ResultSet resultSet = (ResultSet) method
-						.invoke(statement, args);
-				lifecycleListenerSupport.fire().resultSetCreated(resultSet);
-				return (ResultSet) Proxy.newProxyInstance(getClassLoader(),
-						new Class<?>[] { ResultSet.class },
-						new ResultSetInvocationHandler(resultSet));
 			} else {
-				return method.invoke(statement, args);
+				Object result = forward(method, statement, args);
+				if (result instanceof ResultSet) {
+					return proxyResultSet((ResultSet) result,
+							(Statement) proxy);
+				}
+				return proxyObject(result, (Statement) proxy);
+			}
+		}
+	}
+
+	class DatabaseMetaDataInvocationHandler implements InvocationHandler {
+		private final DatabaseMetaData metaData;
+		private final Connection connection;
+
+		public DatabaseMetaDataInvocationHandler(DatabaseMetaData metaData,
+				Connection connection) {
+			this.metaData = metaData;
+			this.connection = connection;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args)
+				throws Throwable {
+			if (method.getName().equals("getConnection")) {
+				return connection;
+			} else if (method.getName().equals(UNWRAP_METHOD)) {
+				return forward(method, metaData, args);
+			}
+			Object result = forward(method, metaData, args);
+			if (result instanceof ResultSet) {
+				return proxyResultSet((ResultSet) result, null,
+						nodeOf(connection), null);
+			}
+			return result;
+		}
+	}
+
+	class ArrayInvocationHandler implements InvocationHandler {
+		private final Array array;
+
+		public ArrayInvocationHandler(Array array) {
+			this.array = array;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args)
+				throws Throwable {
+			if (method.getName().equals(UNWRAP_METHOD)) {
+				return forward(method, array, args);
+			}
+			return proxyObject(forward(method, array, args), null);
+		}
+	}
+
+	/**
+	 * Invokes method on target, rethrowing the exceptions of the target
+	 * itself rather than their {@link InvocationTargetException}.
+	 */
+	private static Object forward(Method method, Object target, Object[] args)
+			throws Throwable {
+		try {
+			return method.invoke(target, args);
+		} catch (InvocationTargetException e) {
+			throw e.getCause();
+		}
+	}
+
+	/**
+	 * @return the {@link ResourceNode} of a proxy created by this class, or
+	 *         null
+	 */
+	static ResourceNode nodeOf(Object proxy) {
+		if (proxy instanceof ResourceNode) {
+			return (ResourceNode) proxy;
+		} else if (proxy != null && Proxy.isProxyClass(proxy.getClass())) {
+			InvocationHandler handler = Proxy.getInvocationHandler(proxy);
+			if (handler instanceof ResourceNode) {
+				return (ResourceNode) handler;
 			}
 		}
+		return null;
 	}
 
 	public JdbcProxyFactory() {
-		lifecycleListenerSupport = new EventListenerSupport<ResourceLifecycleListener>(
-				ResourceLifecycleListener.class);
+		this(ProxyBackend.WRAPPER);
+	}
+
+	public JdbcProxyFactory(ProxyBackend backend) {
+		if (backend == null) {
+			throw new IllegalArgumentException("backend must not be null");
+		}
+		this.backend = backend;
 	}
 
 	private ClassLoader getClassLoader() {
 		return getClass().getClassLoader();
 	}
 
+	public ProxyBackend getBackend() {
+		return backend;
+	}
+
 	public DataSource proxyDatasource(DataSource datasource) {
+		return proxyDatasource(datasource, null);
+	}
+
+	/**
+	 * Proxies a primary data source whose connections read from its replicas
+	 * when they can.
+	 * <p>
+	 * The connections are lazy, see {@link #setLazyConnections(boolean)},
+	 * and are bound to a replica chosen by replicas when their first
+	 * statement only reads: every statement once read-only is set, or a
+	 * query prepared while auto-commit is on. A statement which may write
+	 * takes the primary connection, which then serves all the following
+	 * statements of the connection. Statements created without SQL, like
+	 * createStatement(), only read from a replica when read-only is set. If
+	 * no replica is available, the primary serves the reads. A statement
+	 * created on a replica cannot execute while auto-commit is off, unless
+	 * the connection is read-only, as it would read outside of the
+	 * transaction.
+	 * <p>
+	 * The executions of the routed connections are timed, to measure the
+	 * latency of the replicas.
+	 */
+	public DataSource proxyRoutingDatasource(DataSource primary,
+			ReplicaSet replicas) {
+		if (primary == null) {
+			throw new IllegalArgumentException("primary must not be null");
+		}
+		if (replicas == null) {
+			throw new IllegalArgumentException("replicas must not be null");
+		}
+		routing = true;
+		return proxyDatasource(primary, replicas);
+	}
+
+	private DataSource proxyDatasource(DataSource datasource,
+			ReplicaSet replicaSet) {
+		if (backend == ProxyBackend.WRAPPER) {
+			return new DataSourceWrapper(this, datasource, replicaSet);
+		}
 		return (DataSource) Proxy.newProxyInstance(getClassLoader(),
 				new Class<?>[] { DataSource.class },
-				new DataSourceInvocationHandler(datasource));
+				new DataSourceInvocationHandler(datasource, replicaSet));
+	}
+
+	/**
+	 * @return a proxy of a connection of dataSource, taken when first needed
+	 *         if connections are lazy or routed
+	 * @param replicaSet
+	 *            replicas of dataSource to route the reads to, null if not
+	 *            routing
+	 * @param credentials
+	 *            credentials passed to
+	 *            {@link DataSource#getConnection(String, String)}, null to
+	 *            call {@link DataSource#getConnection()}
+	 */
+	Connection connect(DataSource dataSource, ReplicaSet replicaSet,
+			Credentials credentials) throws SQLException {
+		Connection connection;
+		if (replicaSet != null) {
+			connection = new LazyConnection(this, dataSource, replicaSet,
+					credentials);
+		} else if (lazyConnections) {
+			connection = new LazyConnection(this, dataSource, credentials);
+		} else {
+			connection = getConnection(dataSource, credentials);
+		}
+		return proxyConnection(connection);
+	}
+
+	/**
+	 * Takes a physical connection from dataSource, checked and recorded by
+	 * the circuit breaker if any.
+	 */
+	Connection getConnection(DataSource dataSource, Credentials credentials)
+			throws SQLException {
+		CircuitBreaker breaker = circuitBreaker;
+		if (breaker == null) {
+			return Credentials.getConnection(dataSource, credentials);
+		}
+		breaker.check();
+		Connection connection;
+		try {
+			connection = Credentials.getConnection(dataSource, credentials);
+		} catch (SQLException e) {
+			breaker.record(e);
+			throw e;
+		} catch (RuntimeException e) {
+			breaker.record(e);
+			throw e;
+		}
+		breaker.record(null);
+		return connection;
+	}
+
+	/**
+	 * @return whether the results of sql may be answered by the query result
+	 *         cache
+	 */
+	boolean cachesResultsOf(String sql) {
+		return queryResultCache.caches(sql);
 	}
 
 	public Connection proxyConnection(Connection connection) {
-		lifecycleListenerSupport.fire().connectionCreated(connection);
+		lifecycleDispatcher.connectionCreated(connection);
+		QueryResultCache.Session queryCacheSession = queryResultCache
+				.getMaxEntries() == 0 ? null : queryResultCache
+				.newSession(connection);
+		int batchSize = transparentBatchSize;
+		TransparentBatch transparentBatch = batchSize == 0 ? null
+				: new TransparentBatch(this, batchSize,
+						transparentBatchDelayNanos, queryCacheSession);
+		int cacheSize = statementCacheSize;
+		StatementCache statementCache = cacheSize == 0 ? null
+				: new StatementCache(cacheSize, statementCacheCounters,
+						transparentBatch);
+		if (backend == ProxyBackend.WRAPPER) {
+			return new ConnectionWrapper(this, connection, statementCache,
+					transparentBatch, queryCacheSession);
+		}
 		return (Connection) Proxy.newProxyInstance(getClassLoader(),
 				new Class<?>[] { Connection.class },
-				new ConnectionInvocationHandler(connection));
+				new ConnectionInvocationHandler(connection, statementCache,
+						transparentBatch, queryCacheSession));
+	}
+
+	/**
+	 * Makes the connections of the data sources proxied by this factory lazy:
+	 * the physical connection is only taken from the data source on the first
+	 * statement creation, meta data access or any other call needing it.
+	 * <p>
+	 * Until then, the auto-commit, read-only, transaction isolation, catalog,
+	 * schema, holdability and type map settings are recorded and applied to
+	 * the physical connection when it is taken, commit and rollback do
+	 * nothing, and close() does not touch the data source. Disabled by
+	 * default.
+	 */
+	public void setLazyConnections(boolean lazyConnections) {
+		this.lazyConnections = lazyConnections;
+	}
+
+	public boolean isLazyConnections() {
+		return lazyConnections;
+	}
+
+	/**
+	 * Enables transparent batching of the connections proxied afterwards:
+	 * consecutive executeUpdate() calls on a prepared statement of a SQL
+	 * registered with {@link #batchUpdates(String)} are added to a batch
+	 * instead of being executed, and return
+	 * {@link Statement#SUCCESS_NO_INFO}. The real update counts are
+	 * available from {@link #getDeferredUpdateCounts(Statement)}.
+	 * <p>
+	 * The batch is executed once it holds maxBatchSize updates or its first
+	 * update is older than maxDelay, and before any other statement of the
+	 * connection is executed, before the connection commits, rolls back,
+	 * closes or changes state, and before the statement is read, closed,
+	 * returned to the statement cache or used for an explicit batch. There
+	 * is no timer: maxDelay is checked when the next update is deferred, so
+	 * the updates of a statement left open on an idle connection wait for
+	 * its next use. A batch failure is thrown by the operation which executed
+	 * the batch. Callable statements and statements prepared with generated
+	 * keys options are never batched.
+	 *
+	 * @param maxBatchSize
+	 *            maximum number of updates per batch, 0 to disable
+	 *            transparent batching, which is the default
+	 */
+	public void setTransparentBatching(int maxBatchSize, long maxDelay,
+			TimeUnit unit) {
+		if (maxBatchSize < 0) {
+			throw new IllegalArgumentException(
+					"maxBatchSize must not be negative");
+		}
+		if (maxDelay <= 0) {
+			throw new IllegalArgumentException("maxDelay must be positive");
+		}
+		this.transparentBatchDelayNanos = unit.toNanos(maxDelay);
+		this.transparentBatchSize = maxBatchSize;
+	}
+
+	public int getTransparentBatchSize() {
+		return transparentBatchSize;
+	}
+
+	/**
+	 * Makes the executeUpdate() calls of the statements prepared afterwards
+	 * with exactly sql deferred to the transparent batch, see
+	 * {@link #setTransparentBatching(int, long, TimeUnit)}. Only register the
+	 * updates whose update count is ignored by the application, such as
+	 * inserts, as a deferred update returns
+	 * {@link Statement#SUCCESS_NO_INFO}.
+	 */
+	public void batchUpdates(String sql) {
+		if (sql == null) {
+			throw new IllegalArgumentException("sql must not be null");
+		}
+		batchedUpdates.add(sql);
+	}
+
+	/**
+	 * Stops deferring the updates of sql, for the statements prepared
+	 * afterwards.
+	 */
+	public void unbatchUpdates(String sql) {
+		batchedUpdates.remove(sql);
+	}
+
+	private boolean batchesUpdates(String sql) {
+		return sql != null && !batchedUpdates.isEmpty()
+				&& batchedUpdates.contains(sql);
+	}
+
+	/**
+	 * Executes the updates still deferred on statement, then returns the
+	 * update counts of the last transparent batch executed for it, in the
+	 * order its updates were deferred. After a failed batch, these are the
+	 * counts of its {@link java.sql.BatchUpdateException}, if any.
+	 *
+	 * @param statement
+	 *            prepared statement proxied by this factory
+	 * @return the update counts, null if no batch was executed for
+	 *         statement
+	 */
+	public int[] getDeferredUpdateCounts(Statement statement)
+			throws SQLException {
+		ResourceNode node = nodeOf(statement);
+		if (node == null) {
+			throw new IllegalArgumentException(
+					"statement must be a proxy of this factory");
+		}
+		TransparentBatch transparentBatch = null;
+		if (node instanceof StatementWrapper) {
+			transparentBatch = ((StatementWrapper) node).getTransparentBatch();
+		} else if (node instanceof StatementInvocationHandler) {
+			transparentBatch = ((StatementInvocationHandler) node).transparentBatch;
+		}
+		if (transparentBatch != null) {
+			transparentBatch.flush((Statement) node.getResource());
+		}
+		return node.getBatchUpdateCounts();
+	}
+
+	/**
+	 * Sets the number of idle prepared and callable statements cached per
+	 * connection, 0 to disable the cache, which is the default. Closing a
+	 * cached statement returns it to the cache with its parameters cleared,
+	 * the settings changed on it such as its fetch size are kept.
+	 * <p>
+	 * Only applies to the connections proxied afterwards.
+	 */
+	public void setStatementCacheSize(int statementCacheSize) {
+		if (statementCacheSize < 0) {
+			throw new IllegalArgumentException(
+					"statementCacheSize must not be negative");
+		}
+		this.statementCacheSize = statementCacheSize;
+	}
+
+	public int getStatementCacheSize() {
+		return statementCacheSize;
+	}
+
+	/**
+	 * @return the counters of the statement caches of all the connections
+	 *         proxied by this factory
+	 */
+	public StatementCacheStatistics getStatementCacheStatistics() {
+		return new StatementCacheStatistics(statementCacheCounters);
+	}
+
+	/**
+	 * Enables the caching of the results of the queries registered with
+	 * {@link #cacheQueryResults(String, String...)}, for the connections
+	 * proxied afterwards. Changing the configuration empties the cache.
+	 * <p>
+	 * A cached result is returned as a read-only, scrollable result set
+	 * without executing anything on the connection, and a lazy connection
+	 * does not even take its physical connection for it, see
+	 * {@link #setLazyConnections(boolean)}. Results are evicted in
+	 * LRU order and expire after timeToLive. The statements executed through
+	 * the connections of this factory invalidate the results of the tables
+	 * they write, when executed and again when their transaction commits; a
+	 * connection bypasses the cache for the tables written by its
+	 * uncommitted transaction. Statements whose written table is not
+	 * recognized, such as procedure calls, invalidate all the cached results.
+	 * Writes done outside of this factory are only seen once the results
+	 * expire, or after {@link #invalidateQueryResults(String...)}.
+	 *
+	 * @param maxEntries
+	 *            maximum number of cached results, 0 to disable the cache,
+	 *            which is the default
+	 */
+	public void setQueryResultCache(int maxEntries, long timeToLive,
+			TimeUnit unit) {
+		if (maxEntries < 0) {
+			throw new IllegalArgumentException(
+					"maxEntries must not be negative");
+		}
+		if (timeToLive <= 0) {
+			throw new IllegalArgumentException("timeToLive must be positive");
+		}
+		queryResultCache.configure(maxEntries, unit.toNanos(timeToLive));
+	}
+
+	public int getQueryResultCacheSize() {
+		return queryResultCache.getMaxEntries();
+	}
+
+	/**
+	 * Caches the results of sql, executed by a prepared statement or by
+	 * {@link Statement#executeQuery(String)}, per distinct values of its
+	 * parameters. Results are not cached when a parameter is bound to a
+	 * stream, a LOB or a value of another mutable type.
+	 *
+	 * @param tables
+	 *            tables read by sql, whose writes invalidate its results
+	 */
+	public void cacheQueryResults(String sql, String... tables) {
+		if (sql == null) {
+			throw new IllegalArgumentException("sql must not be null");
+		}
+		if (tables.length == 0) {
+			throw new IllegalArgumentException("tables must not be empty");
+		}
+		queryResultCache.addQuery(sql, tables);
+	}
+
+	/**
+	 * Removes the cached results of the queries reading any of tables, for
+	 * instance after they have been written by another application.
+	 */
+	public void invalidateQueryResults(String... tables) {
+		queryResultCache.invalidate(tables);
+	}
+
+	public QueryResultCacheStatistics getQueryResultCacheStatistics() {
+		return new QueryResultCacheStatistics(queryResultCache.getCounters());
+	}
+
+	/**
+	 * Detaches the results of sql, executed by a prepared statement or by
+	 * {@link Statement#executeQuery(String)}, from the connection: its rows
+	 * are read to the end as soon as it is executed and the driver result
+	 * set is closed right away, releasing its cursor and buffers. The
+	 * application reads a read-only, scrollable copy of the rows instead.
+	 * <p>
+	 * The copy is stored by column, with numbers unboxed and strings
+	 * dictionary encoded, off-heap for large columns. Only detach queries
+	 * whose results fit in memory.
+	 */
+	public void detachQueryResults(String sql) {
+		if (sql == null) {
+			throw new IllegalArgumentException("sql must not be null");
+		}
+		detachedQueries.add(sql);
+	}
+
+	boolean detachesResults(String sql) {
+		return sql != null && !detachedQueries.isEmpty()
+				&& detachedQueries.contains(sql);
+	}
+
+	/**
+	 * Logs the statement executions taking at least threshold to listener,
+	 * with their SQL, the values bound to the parameters of prepared
+	 * statements, their duration, the number of rows they read or updated
+	 * and the call site executing them.
+	 * <p>
+	 * The listener is called on the JDBC calling thread when the rows are
+	 * known, that is when the result set of a query is closed. Wrap it in an
+	 * {@link com.seboch.jdbc.proxy.slowlog.AsyncSlowQueryListener} to write
+	 * the log from a bounded background queue. Only the statements created
+	 * from then on capture their parameters.
+	 *
+	 * @param listener
+	 *            null to disable the slow query log, which is the default
+	 */
+	public void setSlowQueryLog(long threshold, TimeUnit unit,
+			SlowQueryListener listener) {
+		if (threshold < 0) {
+			throw new IllegalArgumentException(
+					"threshold must not be negative");
+		}
+		slowQueryThresholdNanos = unit.toNanos(threshold);
+		slowQueryListener = listener;
+	}
+
+	public long getSlowQueryThresholdNanos() {
+		return slowQueryThresholdNanos;
+	}
+
+	/**
+	 * Sets the fetch size of the statements executing queries without an
+	 * explicit fetch size, so that drivers reading whole results by default
+	 * stream large ones instead. Statements whose fetch size is set by the
+	 * application are left alone.
+	 * <p>
+	 * When adaptive, the fetch size of each query is sized from the number
+	 * of rows read from its previous results, up to fetchSize: small results
+	 * are fetched in a single round trip without the drivers allocating
+	 * buffers for fetchSize rows, large ones by chunks of fetchSize rows.
+	 *
+	 * @param fetchSize
+	 *            0 to keep the fetch size of the driver, which is the
+	 *            default
+	 */
+	public void setDefaultFetchSize(int fetchSize, boolean adaptive) {
+		if (fetchSize < 0) {
+			throw new IllegalArgumentException(
+					"fetchSize must not be negative");
+		}
+		fetchSizeGovernor.configure(fetchSize, adaptive);
+	}
+
+	public int getDefaultFetchSize() {
+		return fetchSizeGovernor.getFetchSize();
+	}
+
+	public boolean isAdaptiveFetchSize() {
+		return fetchSizeGovernor.isAdaptive();
+	}
+
+	/**
+	 * Limits the number of rows read from each result set created from then
+	 * on. Reading the row after the limit either fails with an
+	 * {@link SQLException}, or logs a warning once per result set.
+	 *
+	 * @param maxRows
+	 *            0 for no limit, which is the default
+	 * @param fail
+	 *            true to fail, false to only warn
+	 */
+	public void setResultSetRowLimit(long maxRows, boolean fail) {
+		if (maxRows < 0) {
+			throw new IllegalArgumentException(
+					"maxRows must not be negative");
+		}
+		failOnResultSetRowLimit = fail;
+		resultSetRowLimit = maxRows;
+	}
+
+	public long getResultSetRowLimit() {
+		return resultSetRowLimit;
+	}
+
+	/**
+	 * Makes the {@link ProxyBackend#DYNAMIC_PROXY} backend proxy the result
+	 * sets created afterwards with the delegating class of the
+	 * {@link ProxyBackend#WRAPPER} backend. Its getters are plain forwarding
+	 * methods which the JIT inlines, only next(), close() and getStatement()
+	 * do more, while the dynamic proxies go through reflection on every
+	 * call. Other objects keep their dynamic proxies, and the WRAPPER
+	 * backend always proxies result sets this way. Disabled by default.
+	 */
+	public void setFastResultSets(boolean fastResultSets) {
+		this.fastResultSets = fastResultSets;
+	}
+
+	public boolean isFastResultSets() {
+		return fastResultSets;
+	}
+
+	/**
+	 * Caps the number of statements and batches executing at the same time
+	 * on the connections of this factory, see {@link ConcurrencyLimiter}.
+	 * Use one factory per data source to limit each data source on its own.
+	 *
+	 * @param concurrencyLimiter
+	 *            null for no limit, which is the default
+	 */
+	public void setConcurrencyLimiter(ConcurrencyLimiter concurrencyLimiter) {
+		this.concurrencyLimiter = concurrencyLimiter;
+	}
+
+	public ConcurrencyLimiter getConcurrencyLimiter() {
+		return concurrencyLimiter;
+	}
+
+	/**
+	 * Rejects the connections taken from the data sources proxied by this
+	 * factory and the executions of its statements while circuitBreaker is
+	 * open. Lazy and routed connections are checked when they take their
+	 * physical connection. The connections taken from replicas are not, a
+	 * failing replica is marked down by its {@link ReplicaSet} instead and
+	 * the primary serves its reads.
+	 *
+	 * @param circuitBreaker
+	 *            null for no breaker, which is the default
+	 */
+	public void setCircuitBreaker(CircuitBreaker circuitBreaker) {
+		this.circuitBreaker = circuitBreaker;
+	}
+
+	public CircuitBreaker getCircuitBreaker() {
+		return circuitBreaker;
+	}
+
+	void governFetchSize(Statement statement, String sql)
+			throws SQLException {
+		int fetchSize = fetchSizeGovernor.fetchSizeFor(sql);
+		if (fetchSize > 0) {
+			statement.setFetchSize(fetchSize);
+		}
+	}
+
+	/**
+	 * Called when a result set limited to rowLimit rows reads its
+	 * rowCount-th row.
+	 */
+	void rowLimitExceeded(String sql, long rowLimit, long rowCount)
+			throws SQLException {
+		if (failOnResultSetRowLimit) {
+			throw new SQLException("Result set exceeded the limit of "
+					+ rowLimit + " rows: " + sql);
+		} else if (rowCount == rowLimit + 1
+				&& LOGGER.isLoggable(Level.WARNING)) {
+			LOGGER.warning("Result set exceeded the limit of " + rowLimit
+					+ " rows: " + sql);
+		}
+	}
+
+	<T extends Statement> T proxyStatement(T statement, Connection connection,
+			String sql) {
+		return proxyStatement(statement, connection, sql, null, null, null,
+				false, null);
+	}
+
+	/**
+	 * @param cache
+	 *            cache the statement returns to when closed, along with its
+	 *            cacheKey, both null if the statement is not cached
+	 * @param transparentBatch
+	 *            batch of the connection, executed before the statement is,
+	 *            may be null
+	 * @param deferUpdates
+	 *            true if executeUpdate() is deferred to transparentBatch
+	 * @param queryCacheSession
+	 *            session of the query result cache of the connection, may be
+	 *            null
+	 */
+	@SuppressWarnings("unchecked")
+	<T extends Statement> T proxyStatement(T statement, Connection connection,
+			String sql, StatementCache cache, StatementCache.Key cacheKey,
+			TransparentBatch transparentBatch, boolean deferUpdates,
+			QueryResultCache.Session queryCacheSession) {
+		ResourceNode parent = nodeOf(connection);
+		lifecycleDispatcher.statementCreated(statement,
+				parent == null ? null : parent.getOwningConnection());
+		deferUpdates = deferUpdates && batchesUpdates(sql);
+		T proxy;
+		ResourceNode node;
+		if (backend == ProxyBackend.WRAPPER) {
+			StatementWrapper wrapper;
+			if (statement instanceof CallableStatement) {
+				wrapper = new CallableStatementWrapper(this,
+						(CallableStatement) statement, connection, sql);
+			} else if (statement instanceof PreparedStatement) {
+				wrapper = new PreparedStatementWrapper(this,
+						(PreparedStatement) statement, connection, sql);
+			} else {
+				wrapper = new StatementWrapper(this, statement, connection,
+						sql);
+			}
+			if (cacheKey != null) {
+				wrapper.cacheIn(cache, cacheKey);
+			}
+			if (transparentBatch != null) {
+				wrapper.batchIn(transparentBatch, deferUpdates);
+			}
+			if (queryCacheSession != null) {
+				wrapper.queryCacheIn(queryCacheSession);
+			}
+			if (recordsParameters(statement, sql, queryCacheSession)) {
+				((PreparedStatementWrapper) wrapper).recordParameters();
+			}
+			proxy = (T) wrapper;
+			node = wrapper;
+		} else {
+			Class<?>[] interfaces = null;
+			if (statement instanceof CallableStatement) {
+				interfaces = new Class<?>[] { CallableStatement.class };
+			} else if (statement instanceof PreparedStatement) {
+				interfaces = new Class<?>[] { PreparedStatement.class };
+			} else {
+				interfaces = new Class<?>[] { Statement.class };
+			}
+			StatementInvocationHandler handler = new StatementInvocationHandler(
+					statement, connection, sql);
+			if (cacheKey != null) {
+				handler.cache = cache;
+				handler.cacheKey = cacheKey;
+			}
+			handler.transparentBatch = transparentBatch;
+			handler.deferUpdates = transparentBatch != null && deferUpdates;
+			handler.queryCacheSession = queryCacheSession;
+			if (recordsParameters(statement, sql, queryCacheSession)) {
+				handler.parameters = new BoundParameters();
+			}
+			proxy = (T) Proxy.newProxyInstance(getClassLoader(), interfaces,
+					handler);
+			node = handler;
+		}
+		if (parent != null) {
+			parent.addChild(node);
+		}
+		return proxy;
+	}
+
+	/**
+	 * @return true if the parameters bound to statement must be recorded,
+	 *         as the results of its SQL are cached or slow queries are logged
+	 */
+	private boolean recordsParameters(Statement statement, String sql,
+			QueryResultCache.Session queryCacheSession) {
+		if (!(statement instanceof PreparedStatement)
+				|| statement instanceof CallableStatement) {
+			return false;
+		}
+		return slowQueryListener != null || queryCacheSession != null
+				&& queryCacheSession.tablesReadBy(sql) != null;
+	}
+
+	/**
+	 * @param statement
+	 *            proxied statement which created resultSet, null for the
+	 *            result sets of database meta data and arrays
+	 * @param parent
+	 *            node closing resultSet when it is closed, null if none
+	 */
+	ResultSet proxyResultSet(ResultSet resultSet, Statement statement,
+			ResourceNode parent, String sql) {
+		if (resultSet == null) {
+			return null;
+		}
+		lifecycleDispatcher.resultSetCreated(resultSet,
+				parent == null ? null : parent.getOwningConnection());
+		long openTime = startTime(ExecutionEvent.RESULT_SET_CLOSED);
+		ResultSet proxy;
+		ResourceNode node;
+		if (backend == ProxyBackend.WRAPPER || fastResultSets) {
+			ResultSetWrapper wrapper = new ResultSetWrapper(this, resultSet,
+					statement, sql, openTime, resultSetRowLimit);
+			proxy = wrapper;
+			node = wrapper;
+		} else {
+			ResultSetInvocationHandler handler = new ResultSetInvocationHandler(
+					resultSet, statement, sql, openTime, resultSetRowLimit);
+			proxy = (ResultSet) Proxy.newProxyInstance(getClassLoader(),
+					new Class<?>[] { ResultSet.class }, handler);
+			node = handler;
+		}
+		if (parent != null) {
+			parent.addChild(node);
+			// the rows of a slow execution are counted by its result set
+			node.setSlowExecution(parent.getSlowExecution());
+			parent.setSlowExecution(null);
+		}
+		return proxy;
+	}
+
+	DatabaseMetaData proxyMetaData(DatabaseMetaData metaData,
+			Connection connection) {
+		if (metaData == null) {
+			return null;
+		}
+		if (backend == ProxyBackend.WRAPPER) {
+			return new DatabaseMetaDataWrapper(this, metaData, connection);
+		}
+		return (DatabaseMetaData) Proxy.newProxyInstance(getClassLoader(),
+				new Class<?>[] { DatabaseMetaData.class },
+				new DatabaseMetaDataInvocationHandler(metaData, connection));
+	}
+
+	Array proxyArray(Array array) {
+		if (array == null) {
+			return null;
+		}
+		if (backend == ProxyBackend.WRAPPER) {
+			return new ArrayWrapper(this, array);
+		}
+		return (Array) Proxy.newProxyInstance(getClassLoader(),
+				new Class<?>[] { Array.class }, new ArrayInvocationHandler(
+						array));
+	}
+
+	/**
+	 * @return whether object is one of the usual column values, which are
+	 *         returned as is. Only class tests are used: a failed instanceof
+	 *         of an interface, such as ResultSet, scans the interfaces of the
+	 *         class and costs tens of nanoseconds per getter on Java 8.
+	 */
+	private static boolean isPlainValue(Object object) {
+		return object instanceof String || object instanceof Number
+				|| object instanceof java.util.Date
+				|| object instanceof Boolean || object instanceof byte[];
+	}
+
+	/**
+	 * Proxies the result sets and arrays returned by the getObject methods,
+	 * such as the cursors returned by stored procedures.
+	 */
+	Object proxyObject(Object object, Statement statement) {
+		if (object == null || isPlainValue(object)) {
+			return object;
+		} else if (object instanceof ResultSet) {
+			return proxyResultSet((ResultSet) object, statement,
+					nodeOf(statement), null);
+		} else if (object instanceof Array) {
+			return proxyArray((Array) object);
+		} else {
+			return object;
+		}
+	}
+
+	/**
+	 * Same as {@link #proxyObject(Object, Statement)} for the typed getObject
+	 * methods, the driver object is returned when the requested type is not
+	 * implemented by the proxy.
+	 */
+	<T> T proxyObject(T object, Class<T> type, Statement statement) {
+		if (object == null || isPlainValue(object)) {
+			return object;
+		} else if (object instanceof ResultSet
+				&& type.isAssignableFrom(ResultSet.class)) {
+			return type.cast(proxyResultSet((ResultSet) object, statement,
+					nodeOf(statement), null));
+		} else if (object instanceof Array
+				&& type.isAssignableFrom(Array.class)) {
+			return type.cast(proxyArray((Array) object));
+		} else {
+			return object;
+		}
+	}
+
+	/**
+	 * @return the current time if an interceptor subscribed to afterEvent,
+	 *         {@link #NOT_TIMED} otherwise
+	 */
+	private long startTime(ExecutionEvent afterEvent) {
+		return executionDispatcher.isSubscribed(afterEvent) ? System
+				.nanoTime() : NOT_TIMED;
+	}
+
+	/**
+	 * @param node
+	 *            node of the executed statement
+	 * @throws SQLException
+	 *             if the circuit breaker is open or the concurrency limiter
+	 *             has no room for the execution, or if the statement was
+	 *             routed to a replica before the current transaction
+	 */
+	long beforeExecute(ResourceNode node, Statement statement, String sql)
+			throws SQLException {
+		checkRoute(node, statement);
+		if (admit()) {
+			try {
+				executionDispatcher.beforeExecute(statement, sql);
+			} catch (RuntimeException e) {
+				release(0, e);
+				throw e;
+			}
+			return System.nanoTime();
+		}
+		executionDispatcher.beforeExecute(statement, sql);
+		return slowQueryListener != null || routing ? System.nanoTime()
+				: startTime(ExecutionEvent.AFTER_EXECUTE);
+	}
+
+	void afterExecute(Statement statement, String sql, long start,
+			long updateCount) {
+		if (start != NOT_TIMED) {
+			long elapsedNanos = System.nanoTime() - start;
+			executionDispatcher.afterExecute(statement, sql, elapsedNanos,
+					updateCount, null);
+			release(elapsedNanos, null);
+		}
+	}
+
+	/**
+	 * @throws SQLException
+	 *             if statement was created on the replica of a routed
+	 *             connection which now runs a transaction, see
+	 *             {@link LazyConnection#checkExecutable(Statement)}
+	 */
+	private void checkRoute(ResourceNode node, Statement statement)
+			throws SQLException {
+		if (routing) {
+			Connection connection = node.getOwningConnection();
+			if (connection instanceof LazyConnection) {
+				((LazyConnection) connection).checkExecutable(statement);
+			}
+		}
+	}
+
+	/**
+	 * Checks the circuit breaker and takes room in the concurrency limiter.
+	 *
+	 * @return true if the execution must be timed and released
+	 */
+	private boolean admit() throws SQLException {
+		CircuitBreaker breaker = circuitBreaker;
+		ConcurrencyLimiter limiter = concurrencyLimiter;
+		if (breaker == null && limiter == null) {
+			return false;
+		}
+		if (breaker != null) {
+			breaker.check();
+		}
+		if (limiter != null) {
+			try {
+				limiter.acquire();
+			} catch (LoadShedException e) {
+				if (breaker != null) {
+					// gives the probe back if this call was it
+					breaker.record(e);
+				}
+				throw e;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Ends an execution admitted by {@link #admit()}, the breaker and limiter
+	 * installed since tolerate an execution they did not admit.
+	 */
+	private void release(long elapsedNanos, Throwable failure) {
+		ConcurrencyLimiter limiter = concurrencyLimiter;
+		if (limiter != null) {
+			limiter.release(elapsedNanos, failure);
+		}
+		CircuitBreaker breaker = circuitBreaker;
+		if (breaker != null) {
+			breaker.record(failure);
+		}
+	}
+
+	/**
+	 * Records the execution in the slow query log if it took longer than
+	 * the threshold, and in the latency of the replica of a routed
+	 * connection. An execution which may have returned a result set is
+	 * held by node until the result set is closed, to log the number of rows
+	 * read.
+	 *
+	 * @param node
+	 *            node of the executed statement
+	 * @param parameters
+	 *            values bound to the statement, null if not recorded
+	 * @param updateCount
+	 *            update count of the execution, -1 if it may have returned a
+	 *            result set
+	 */
+	void executed(ResourceNode node, String sql, BoundParameters parameters,
+			long start, long updateCount) {
+		SlowExecution previous = node.getSlowExecution();
+		if (previous != null) {
+			// the result set of the previous execution was never read
+			node.setSlowExecution(null);
+			logSlowQuery(previous, -1);
+		}
+		if (start == NOT_TIMED) {
+			return;
+		}
+		long elapsedNanos = System.nanoTime() - start;
+		if (routing) {
+			Connection connection = node.getOwningConnection();
+			if (connection instanceof LazyConnection) {
+				((LazyConnection) connection).executed(elapsedNanos);
+			}
+		}
+		if (slowQueryListener == null
+				|| elapsedNanos < slowQueryThresholdNanos) {
+			return;
+		}
+		SlowExecution slowExecution = new SlowExecution(sql,
+				parameters == null ? null : parameters.loggedValues(),
+				elapsedNanos, StackFrames.callSite());
+		if (updateCount < 0) {
+			node.setSlowExecution(slowExecution);
+		} else {
+			logSlowQuery(slowExecution, updateCount);
+		}
+	}
+
+	private void logSlowQuery(SlowExecution slowExecution, long rowCount) {
+		SlowQueryListener listener = slowQueryListener;
+		if (listener != null) {
+			SlowQuery slowQuery = slowExecution.toSlowQuery(rowCount);
+			try {
+				listener.slowQuery(slowQuery);
+			} catch (RuntimeException e) {
+				// logging must not fail the JDBC call
+			}
+		}
+	}
+
+	/**
+	 * @return failure, for the caller to rethrow it
+	 */
+	<E extends Throwable> E executeFailed(Statement statement, String sql,
+			long start, E failure) {
+		if (start != NOT_TIMED) {
+			long elapsedNanos = System.nanoTime() - start;
+			executionDispatcher.afterExecute(statement, sql, elapsedNanos, -1,
+					failure);
+			release(elapsedNanos, failure);
+		}
+		return failure;
+	}
+
+	void batchAdded(Statement statement, String sql) {
+		executionDispatcher.batchAdded(statement, sql);
+	}
+
+	/**
+	 * @throws SQLException
+	 *             if the circuit breaker is open or the concurrency limiter
+	 *             has no room for the batch, or if the statement was routed
+	 *             to a replica before the current transaction
+	 */
+	long beforeExecuteBatch(ResourceNode node, Statement statement,
+			String sql, int batchSize) throws SQLException {
+		checkRoute(node, statement);
+		if (admit()) {
+			try {
+				executionDispatcher.beforeExecuteBatch(statement, sql,
+						batchSize);
+			} catch (RuntimeException e) {
+				release(0, e);
+				throw e;
+			}
+			return System.nanoTime();
+		}
+		executionDispatcher.beforeExecuteBatch(statement, sql, batchSize);
+		return startTime(ExecutionEvent.AFTER_EXECUTE_BATCH);
+	}
+
+	void afterExecuteBatch(Statement statement, String sql, int batchSize,
+			long start, int[] updateCounts) {
+		if (start != NOT_TIMED) {
+			long elapsedNanos = System.nanoTime() - start;
+			executionDispatcher.afterExecuteBatch(statement, sql, batchSize,
+					updateCounts, elapsedNanos, null);
+			release(elapsedNanos, null);
+		}
+	}
+
+	<E extends Throwable> E executeBatchFailed(Statement statement,
+			String sql, int batchSize, long start, E failure) {
+		if (start != NOT_TIMED) {
+			long elapsedNanos = System.nanoTime() - start;
+			executionDispatcher.afterExecuteBatch(statement, sql, batchSize,
+					null, elapsedNanos, failure);
+			release(elapsedNanos, failure);
+		}
+		return failure;
+	}
+
+	long beforeCommit(Connection connection) {
+		executionDispatcher.beforeCommit(connection);
+		return startTime(ExecutionEvent.AFTER_COMMIT);
+	}
+
+	void afterCommit(Connection connection, long start) {
+		if (start != NOT_TIMED) {
+			executionDispatcher.afterCommit(connection, System.nanoTime()
+					- start, null);
+		}
+	}
+
+	<E extends Throwable> E commitFailed(Connection connection, long start,
+			E failure) {
+		if (start != NOT_TIMED) {
+			executionDispatcher.afterCommit(connection, System.nanoTime()
+					- start, failure);
+		}
+		return failure;
+	}
+
+	long beforeRollback(Connection connection) {
+		executionDispatcher.beforeRollback(connection);
+		return startTime(ExecutionEvent.AFTER_ROLLBACK);
+	}
+
+	void afterRollback(Connection connection, long start) {
+		if (start != NOT_TIMED) {
+			executionDispatcher.afterRollback(connection, System.nanoTime()
+					- start, null);
+		}
+	}
+
+	<E extends Throwable> E rollbackFailed(Connection connection, long start,
+			E failure) {
+		if (start != NOT_TIMED) {
+			executionDispatcher.afterRollback(connection, System.nanoTime()
+					- start, failure);
+		}
+		return failure;
+	}
+
+	void fireConnectionClosed(Connection connection) {
+		lifecycleDispatcher.connectionClosed(connection);
+	}
+
+	void fireStatementClosed(ResourceNode node, Statement statement) {
+		lifecycleDispatcher.statementClosed(statement);
+		SlowExecution slowExecution = node.getSlowExecution();
+		if (slowExecution != null) {
+			node.setSlowExecution(null);
+			logSlowQuery(slowExecution, -1);
+		}
+	}
+
+	void fireResultSetClosed(ResourceNode node, ResultSet resultSet,
+			String sql, long rowCount, long openTime) {
+		lifecycleDispatcher.resultSetClosed(resultSet);
+		fetchSizeGovernor.rowsRead(sql, rowCount);
+		SlowExecution slowExecution = node.getSlowExecution();
+		if (slowExecution != null) {
+			node.setSlowExecution(null);
+			logSlowQuery(slowExecution, rowCount);
+		}
+		if (openTime != NOT_TIMED) {
+			executionDispatcher.resultSetClosed(resultSet, sql, rowCount,
+					System.nanoTime() - openTime);
+		}
 	}
 
 	public void addResourceLifecycleListener(ResourceLifecycleListener listener) {
-		lifecycleListenerSupport.addListener(listener);
+		lifecycleDispatcher.addListener(listener);
 	}
 
 	public void removeResourceLifecycleListener(
 			ResourceLifecycleListener listener) {
-		lifecycleListenerSupport.removeListener(listener);
+		lifecycleDispatcher.removeListener(listener);
+	}
+
+	public void addExecutionListener(ExecutionListener listener) {
+		executionDispatcher.addListener(listener);
+	}
+
+	public void removeExecutionListener(ExecutionListener listener) {
+		executionDispatcher.removeListener(listener);
+	}
+
+	/**
+	 * Registers interceptor for all the {@link ExecutionEvent}s.
+	 */
+	public void addExecutionInterceptor(ExecutionInterceptor interceptor) {
+		addExecutionInterceptor(interceptor,
+				EnumSet.allOf(ExecutionEvent.class));
+	}
+
+	/**
+	 * Registers interceptor for the given events only, the other callbacks of
+	 * interceptor are never called.
+	 */
+	public void addExecutionInterceptor(ExecutionInterceptor interceptor,
+			Set<ExecutionEvent> events) {
+		executionDispatcher.addInterceptor(interceptor, events);
+	}
+
+	public void removeExecutionInterceptor(ExecutionInterceptor interceptor) {
+		executionDispatcher.removeInterceptor(interceptor);
 	}
 
 }
@@ -0,0 +1,777 @@
+package com.seboch.jdbc.proxy;
+
+import java.sql.Array;
+import java.sql.Blob;
+import java.sql.CallableStatement;
+import java.sql.Clob;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.NClob;
+import java.sql.PreparedStatement;
+import java.sql.SQLClientInfoException;
+import java.sql.SQLException;
+import java.sql.SQLWarning;
+import java.sql.SQLXML;
+import java.sql.Savepoint;
+import java.sql.Statement;
+import java.sql.Struct;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Executor;
+
+import javax.sql.DataSource;
+
+/**
+ * Connection taking its physical connection from a {@link DataSource} only
+ * when it is first needed, see
+ * {@link JdbcProxyFactory#setLazyConnections(boolean)}.
+ * <p>
+ * Until then, the settings of the connection are recorded and answered
+ * from the recorded values, commit and rollback do nothing as nothing was
+ * executed, and close() does not touch the pool. The settings are applied
+ * to the physical connection when it is taken, any other call takes it.
+ * <p>
+ * A lazy connection of a routing data source, see
+ * {@link JdbcProxyFactory#proxyRoutingDatasource(DataSource, ReplicaSet)},
+ * binds a replica connection instead for the statements which only read:
+ * all of them once read-only is set, and the queries while auto-commit is
+ * on, as recorded or by default. Any other statement takes the physical
+ * connection of the primary, which then serves all the following ones so
+ * that they read what was written. The replica connection is set read-only
+ * and receives the other settings like the physical connection.
+ * <p>
+ * The prepared statements whose results may be cached by the
+ * {@link QueryResultCache} are deferred until needed, so that a cache hit
+ * takes no connection, see {@link DeferredPreparedStatement}.
+ * <p>
+ * A statement keeps the connection it was created on. Once a transaction
+ * which may write starts, auto-commit off and not read-only, a statement
+ * created on the replica before cannot execute: it would read outside of
+ * the transaction, so it must be created again.
+ * <p>
+ * Like the connections it stands for, a lazy connection is only used by one
+ * thread at a time and is not synchronized.
+ */
+final class LazyConnection implements Connection {
+
+	private final JdbcProxyFactory factory;
+	private final DataSource dataSource;
+
+	/**
+	 * Replicas of the routing data source, null if not routing.
+	 */
+	private final ReplicaSet replicaSet;
+
+	/**
+	 * Credentials passed to {@link DataSource#getConnection(String, String)},
+	 * null to call {@link DataSource#getConnection()} instead.
+	 */
+	private final Credentials credentials;
+
+	/**
+	 * Physical connection, null until taken.
+	 */
+	private Connection connection;
+	private boolean closed;
+
+	/**
+	 * Replica the connection is bound to and its physical connection, null
+	 * until bound.
+	 */
+	private ReplicaSet.Replica replica;
+	private Connection replicaConnection;
+
+	/**
+	 * Settings recorded before the physical connection was taken, null if
+	 * not set. Auto-commit and read-only are still recorded afterwards, to
+	 * tell whether a transaction runs.
+	 */
+	private Boolean autoCommit;
+	private Boolean readOnly;
+	private Integer transactionIsolation;
+	private String catalog;
+	private String schema;
+	private Integer holdability;
+	private Map<String, Class<?>> typeMap;
+
+	LazyConnection(JdbcProxyFactory factory, DataSource dataSource,
+			Credentials credentials) {
+		this(factory, dataSource, null, credentials);
+	}
+
+	LazyConnection(JdbcProxyFactory factory, DataSource dataSource,
+			ReplicaSet replicaSet, Credentials credentials) {
+		this.factory = factory;
+		this.dataSource = dataSource;
+		this.replicaSet = replicaSet;
+		this.credentials = credentials;
+	}
+
+	private void checkOpen() throws SQLException {
+		if (closed) {
+			throw new SQLException("Connection is closed");
+		}
+	}
+
+	/**
+	 * @return the connection answering the calls which are not statements:
+	 *         the physical connection if taken, else the replica connection
+	 *         if bound, else the one a statement would use
+	 */
+	private Connection physicalConnection() throws SQLException {
+		if (connection != null) {
+			return connection;
+		}
+		if (replicaConnection != null) {
+			return replicaConnection;
+		}
+		return statementConnection(null);
+	}
+
+	/**
+	 * @param sql
+	 *            SQL of the statement, null if unknown
+	 * @return the connection creating a statement: the replica connection if
+	 *         the statement only reads and the physical connection was not
+	 *         taken, the physical connection otherwise
+	 */
+	Connection statementConnection(String sql) throws SQLException {
+		if (connection == null && replicaSet != null) {
+			if (Boolean.TRUE.equals(readOnly)
+					|| (sql != null && !Boolean.FALSE.equals(autoCommit)
+							&& isQuery(sql))) {
+				Connection bound = replicaConnection();
+				if (bound != null) {
+					return bound;
+				}
+			}
+		}
+		return primaryConnection();
+	}
+
+	/**
+	 * @return whether the statement of sql is deferred, see
+	 *         {@link DeferredPreparedStatement}: while no physical connection
+	 *         is taken, if the results of sql may be cached
+	 */
+	private boolean defers(String sql) throws SQLException {
+		checkOpen();
+		return connection == null && factory.cachesResultsOf(sql);
+	}
+
+	/**
+	 * @return whether sql is a plain query, which a replica can run
+	 */
+	static boolean isQuery(String sql) {
+		int length = sql.length();
+		int start = 0;
+		while (start < length
+				&& (Character.isWhitespace(sql.charAt(start)) || sql
+						.charAt(start) == '(')) {
+			start++;
+		}
+		if (!sql.regionMatches(true, start, "SELECT", 0, 6)) {
+			return false;
+		}
+		// locking reads are not served by replicas
+		for (int i = start + 6; i <= length - 10; i++) {
+			if (sql.regionMatches(true, i, "FOR UPDATE", 0, 10)
+					|| sql.regionMatches(true, i, "FOR SHARE", 0, 9)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return the replica connection, bound to a replica chosen by the
+	 *         replica set and set up with the recorded settings on the first
+	 *         call, or null if no replica is available
+	 */
+	private Connection replicaConnection() throws SQLException {
+		if (replicaConnection != null) {
+			return replicaConnection;
+		}
+		checkOpen();
+		ReplicaSet.Replica selected = replicaSet.select();
+		if (selected == null) {
+			return null;
+		}
+		Connection acquired;
+		try {
+			acquired = replicaSet.connect(selected, credentials);
+		} catch (SQLException e) {
+			// the replica is marked down, the primary serves the statement
+			return null;
+		} catch (RuntimeException e) {
+			// marked down as well
+			return null;
+		}
+		try {
+			applySettings(acquired, true);
+		} catch (SQLException e) {
+			closeQuietly(acquired);
+			replicaSet.release(selected);
+			throw e;
+		} catch (RuntimeException e) {
+			closeQuietly(acquired);
+			replicaSet.release(selected);
+			throw e;
+		}
+		replica = selected;
+		replicaConnection = acquired;
+		return acquired;
+	}
+
+	/**
+	 * Records the duration of a statement executed on this connection, a
+	 * latency sample of the bound replica while all the statements run on
+	 * it.
+	 */
+	void executed(long elapsedNanos) {
+		if (replica != null && connection == null) {
+			replica.observed(elapsedNanos);
+		}
+	}
+
+	/**
+	 * Rejects the execution of a statement created on the replica connection
+	 * once a transaction which may write runs, as it would read outside of
+	 * the transaction.
+	 *
+	 * @throws SQLException
+	 *             if statement was created on the replica connection and
+	 *             auto-commit is off on a connection which is not read-only
+	 */
+	void checkExecutable(Statement statement) throws SQLException {
+		if (replicaConnection != null && Boolean.FALSE.equals(autoCommit)
+				&& !Boolean.TRUE.equals(readOnly)
+				&& statement.getConnection() == replicaConnection) {
+			throw new SQLException("Statement was created on a replica "
+					+ "before the transaction started, create it again",
+					"25000");
+		}
+	}
+
+	/**
+	 * Closes the replica connection, if bound.
+	 *
+	 * @param executor
+	 *            executor passed to {@link Connection#abort(Executor)}, null
+	 *            to close the connection normally
+	 */
+	private void releaseReplica(Executor executor) throws SQLException {
+		if (replicaConnection == null) {
+			return;
+		}
+		Connection released = replicaConnection;
+		replicaConnection = null;
+		try {
+			if (executor == null) {
+				released.close();
+			} else {
+				released.abort(executor);
+			}
+		} finally {
+			replicaSet.release(replica);
+			replica = null;
+		}
+	}
+
+	/**
+	 * @return the physical connection, taken from the data source and set up
+	 *         with the recorded settings on the first call
+	 */
+	private Connection primaryConnection() throws SQLException {
+		if (connection != null) {
+			return connection;
+		}
+		checkOpen();
+		// the circuit breaker guards the primary, not the replicas
+		Connection acquired = factory.getConnection(dataSource, credentials);
+		try {
+			applySettings(acquired, false);
+		} catch (SQLException e) {
+			closeQuietly(acquired);
+			throw e;
+		} catch (RuntimeException e) {
+			closeQuietly(acquired);
+			throw e;
+		}
+		connection = acquired;
+		return acquired;
+	}
+
+	/**
+	 * Applies the recorded settings to a connection being taken, a replica
+	 * connection is set read-only whatever the recorded setting.
+	 */
+	private void applySettings(Connection acquired, boolean toReplica)
+			throws SQLException {
+		if (autoCommit != null) {
+			acquired.setAutoCommit(autoCommit);
+		}
+		if (toReplica) {
+			acquired.setReadOnly(true);
+		} else if (readOnly != null) {
+			acquired.setReadOnly(readOnly);
+		}
+		if (transactionIsolation != null) {
+			acquired.setTransactionIsolation(transactionIsolation);
+		}
+		if (catalog != null) {
+			acquired.setCatalog(catalog);
+		}
+		if (schema != null) {
+			acquired.setSchema(schema);
+		}
+		if (holdability != null) {
+			acquired.setHoldability(holdability);
+		}
+		if (typeMap != null) {
+			acquired.setTypeMap(typeMap);
+		}
+	}
+
+	private static void closeQuietly(Connection connection) {
+		try {
+			connection.close();
+		} catch (SQLException e) {
+			// the setup failure is reported instead
+		}
+	}
+
+	@Override
+	public Statement createStatement() throws SQLException {
+		return statementConnection(null).createStatement();
+	}
+
+	@Override
+	public PreparedStatement prepareStatement(String sql) throws SQLException {
+		if (defers(sql)) {
+			return DeferredPreparedStatement.create(this, sql);
+		}
+		return statementConnection(sql).prepareStatement(sql);
+	}
+
+	@Override
+	public CallableStatement prepareCall(String sql) throws SQLException {
+		return statementConnection(null).prepareCall(sql);
+	}
+
+	@Override
+	public String nativeSQL(String sql) throws SQLException {
+		return physicalConnection().nativeSQL(sql);
+	}
+
+	@Override
+	public void setAutoCommit(boolean autoCommit) throws SQLException {
+		if (connection == null) {
+			checkOpen();
+		} else {
+			connection.setAutoCommit(autoCommit);
+		}
+		this.autoCommit = autoCommit;
+		if (replicaConnection != null) {
+			replicaConnection.setAutoCommit(autoCommit);
+		}
+	}
+
+	@Override
+	public boolean getAutoCommit() throws SQLException {
+		if (connection == null && autoCommit != null) {
+			return autoCommit;
+		}
+		return physicalConnection().getAutoCommit();
+	}
+
+	@Override
+	public void commit() throws SQLException {
+		if (connection == null && replicaConnection == null) {
+			// nothing was executed
+			checkOpen();
+		}
+		if (connection != null) {
+			connection.commit();
+		}
+		if (replicaConnection != null && !replicaConnection.getAutoCommit()) {
+			replicaConnection.commit();
+		}
+	}
+
+	@Override
+	public void rollback() throws SQLException {
+		if (connection == null && replicaConnection == null) {
+			checkOpen();
+		}
+		if (connection != null) {
+			connection.rollback();
+		}
+		if (replicaConnection != null && !replicaConnection.getAutoCommit()) {
+			replicaConnection.rollback();
+		}
+	}
+
+	@Override
+	public void close() throws SQLException {
+		closed = true;
+		try {
+			if (connection != null) {
+				connection.close();
+			}
+		} finally {
+			releaseReplica(null);
+		}
+	}
+
+	@Override
+	public boolean isClosed() throws SQLException {
+		return connection == null ? closed : connection.isClosed();
+	}
+
+	@Override
+	public DatabaseMetaData getMetaData() throws SQLException {
+		return physicalConnection().getMetaData();
+	}
+
+	@Override
+	public void setReadOnly(boolean readOnly) throws SQLException {
+		if (connection == null) {
+			checkOpen();
+		} else {
+			connection.setReadOnly(readOnly);
+		}
+		this.readOnly = readOnly;
+	}
+
+	@Override
+	public boolean isReadOnly() throws SQLException {
+		if (connection == null && readOnly != null) {
+			return readOnly;
+		}
+		return physicalConnection().isReadOnly();
+	}
+
+	@Override
+	public void setCatalog(String catalog) throws SQLException {
+		if (connection == null) {
+			checkOpen();
+			this.catalog = catalog;
+		} else {
+			connection.setCatalog(catalog);
+		}
+		if (replicaConnection != null) {
+			replicaConnection.setCatalog(catalog);
+		}
+	}
+
+	@Override
+	public String getCatalog() throws SQLException {
+		if (connection == null && catalog != null) {
+			return catalog;
+		}
+		return physicalConnection().getCatalog();
+	}
+
+	@Override
+	public void setTransactionIsolation(int level) throws SQLException {
+		if (connection == null) {
+			checkOpen();
+			this.transactionIsolation = level;
+		} else {
+			connection.setTransactionIsolation(level);
+		}
+		if (replicaConnection != null) {
+			replicaConnection.setTransactionIsolation(level);
+		}
+	}
+
+	@Override
+	public int getTransactionIsolation() throws SQLException {
+		if (connection == null && transactionIsolation != null) {
+			return transactionIsolation;
+		}
+		return physicalConnection().getTransactionIsolation();
+	}
+
+	@Override
+	public SQLWarning getWarnings() throws SQLException {
+		if (connection == null && replicaConnection == null) {
+			checkOpen();
+			return null;
+		}
+		return physicalConnection().getWarnings();
+	}
+
+	@Override
+	public void clearWarnings() throws SQLException {
+		if (connection == null && replicaConnection == null) {
+			checkOpen();
+		} else {
+			physicalConnection().clearWarnings();
+		}
+	}
+
+	@Override
+	public Statement createStatement(int resultSetType,
+			int resultSetConcurrency) throws SQLException {
+		return statementConnection(null).createStatement(resultSetType,
+				resultSetConcurrency);
+	}
+
+	@Override
+	public PreparedStatement prepareStatement(String sql, int resultSetType,
+			int resultSetConcurrency) throws SQLException {
+		if (defers(sql)) {
+			return DeferredPreparedStatement.create(this, sql, resultSetType,
+					resultSetConcurrency);
+		}
+		return statementConnection(sql).prepareStatement(sql, resultSetType,
+				resultSetConcurrency);
+	}
+
+	@Override
+	public CallableStatement prepareCall(String sql, int resultSetType,
+			int resultSetConcurrency) throws SQLException {
+		return statementConnection(null).prepareCall(sql, resultSetType,
+				resultSetConcurrency);
+	}
+
+	@Override
+	public Map<String, Class<?>> getTypeMap() throws SQLException {
+		if (connection == null && typeMap != null) {
+			return typeMap;
+		}
+		return physicalConnection().getTypeMap();
+	}
+
+	@Override
+	public void setTypeMap(Map<String, Class<?>> map) throws SQLException {
+		if (connection == null) {
+			checkOpen();
+			this.typeMap = map;
+		} else {
+			connection.setTypeMap(map);
+		}
+		if (replicaConnection != null) {
+			replicaConnection.setTypeMap(map);
+		}
+	}
+
+	@Override
+	public void setHoldability(int holdability) throws SQLException {
+		if (connection == null) {
+			checkOpen();
+			this.holdability = holdability;
+		} else {
+			connection.setHoldability(holdability);
+		}
+		if (replicaConnection != null) {
+			replicaConnection.setHoldability(holdability);
+		}
+	}
+
+	@Override
+	public int getHoldability() throws SQLException {
+		if (connection == null && holdability != null) {
+			return holdability;
+		}
+		return physicalConnection().getHoldability();
+	}
+
+	@Override
+	public Savepoint setSavepoint() throws SQLException {
+		return statementConnection(null).setSavepoint();
+	}
+
+	@Override
+	public Savepoint setSavepoint(String name) throws SQLException {
+		return statementConnection(null).setSavepoint(name);
+	}
+
+	@Override
+	public void rollback(Savepoint savepoint) throws SQLException {
+		statementConnection(null).rollback(savepoint);
+	}
+
+	@Override
+	public void releaseSavepoint(Savepoint savepoint) throws SQLException {
+		statementConnection(null).releaseSavepoint(savepoint);
+	}
+
+	@Override
+	public Statement createStatement(int resultSetType,
+			int resultSetConcurrency, int resultSetHoldability)
+			throws SQLException {
+		return statementConnection(null).createStatement(resultSetType,
+				resultSetConcurrency, resultSetHoldability);
+	}
+
+	@Override
+	public PreparedStatement prepareStatement(String sql, int resultSetType,
+			int resultSetConcurrency, int resultSetHoldability)
+			throws SQLException {
+		if (defers(sql)) {
+			return DeferredPreparedStatement.create(this, sql, resultSetType,
+					resultSetConcurrency, resultSetHoldability);
+		}
+		return statementConnection(sql).prepareStatement(sql, resultSetType,
+				resultSetConcurrency, resultSetHoldability);
+	}
+
+	@Override
+	public CallableStatement prepareCall(String sql, int resultSetType,
+			int resultSetConcurrency, int resultSetHoldability)
+			throws SQLException {
+		return statementConnection(null).prepareCall(sql, resultSetType,
+				resultSetConcurrency, resultSetHoldability);
+	}
+
+	@Override
+	public PreparedStatement prepareStatement(String sql, int autoGeneratedKeys)
+			throws SQLException {
+		return statementConnection(sql)
+				.prepareStatement(sql, autoGeneratedKeys);
+	}
+
+	@Override
+	public PreparedStatement prepareStatement(String sql, int[] columnIndexes)
+			throws SQLException {
+		return statementConnection(sql).prepareStatement(sql, columnIndexes);
+	}
+
+	@Override
+	public PreparedStatement prepareStatement(String sql, String[] columnNames)
+			throws SQLException {
+		return statementConnection(sql).prepareStatement(sql, columnNames);
+	}
+
+	@Override
+	public Clob createClob() throws SQLException {
+		return statementConnection(null).createClob();
+	}
+
+	@Override
+	public Blob createBlob() throws SQLException {
+		return statementConnection(null).createBlob();
+	}
+
+	@Override
+	public NClob createNClob() throws SQLException {
+		return statementConnection(null).createNClob();
+	}
+
+	@Override
+	public SQLXML createSQLXML() throws SQLException {
+		return statementConnection(null).createSQLXML();
+	}
+
+	@Override
+	public boolean isValid(int timeout) throws SQLException {
+		return physicalConnection().isValid(timeout);
+	}
+
+	private Connection clientInfoConnection() throws SQLClientInfoException {
+		try {
+			return physicalConnection();
+		} catch (SQLClientInfoException e) {
+			throw e;
+		} catch (SQLException e) {
+			throw new SQLClientInfoException(e.getMessage(), e.getSQLState(),
+					e.getErrorCode(), null, e);
+		}
+	}
+
+	@Override
+	public void setClientInfo(String name, String value)
+			throws SQLClientInfoException {
+		clientInfoConnection().setClientInfo(name, value);
+	}
+
+	@Override
+	public void setClientInfo(Properties properties)
+			throws SQLClientInfoException {
+		clientInfoConnection().setClientInfo(properties);
+	}
+
+	@Override
+	public String getClientInfo(String name) throws SQLException {
+		return physicalConnection().getClientInfo(name);
+	}
+
+	@Override
+	public Properties getClientInfo() throws SQLException {
+		return physicalConnection().getClientInfo();
+	}
+
+	@Override
+	public Array createArrayOf(String typeName, Object[] elements)
+			throws SQLException {
+		return statementConnection(null).createArrayOf(typeName, elements);
+	}
+
+	@Override
+	public Struct createStruct(String typeName, Object[] attributes)
+			throws SQLException {
+		return statementConnection(null).createStruct(typeName, attributes);
+	}
+
+	@Override
+	public void setSchema(String schema) throws SQLException {
+		if (connection == null) {
+			checkOpen();
+			this.schema = schema;
+		} else {
+			connection.setSchema(schema);
+		}
+		if (replicaConnection != null) {
+			replicaConnection.setSchema(schema);
+		}
+	}
+
+	@Override
+	public String getSchema() throws SQLException {
+		if (connection == null && schema != null) {
+			return schema;
+		}
+		return physicalConnection().getSchema();
+	}
+
+	@Override
+	public void abort(Executor executor) throws SQLException {
+		closed = true;
+		try {
+			if (connection != null) {
+				connection.abort(executor);
+			}
+		} finally {
+			releaseReplica(executor);
+		}
+	}
+
+	@Override
+	public void setNetworkTimeout(Executor executor, int milliseconds)
+			throws SQLException {
+		physicalConnection().setNetworkTimeout(executor, milliseconds);
+	}
+
+	@Override
+	public int getNetworkTimeout() throws SQLException {
+		return physicalConnection().getNetworkTimeout();
+	}
+
+	@Override
+	public <T> T unwrap(Class<T> iface) throws SQLException {
+		if (iface.isInstance(this)) {
+			return iface.cast(this);
+		}
+		return physicalConnection().unwrap(iface);
+	}
+
+	@Override
+	public boolean isWrapperFor(Class<?> iface) throws SQLException {
+		return iface.isInstance(this)
+				|| physicalConnection().isWrapperFor(iface);
+	}
+
+}
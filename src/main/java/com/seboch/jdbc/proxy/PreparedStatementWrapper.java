@@ -0,0 +1,555 @@
+package com.seboch.jdbc.proxy;
+
+import java.io.InputStream;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.net.URL;
+import java.sql.Array;
+import java.sql.Blob;
+import java.sql.Clob;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.NClob;
+import java.sql.ParameterMetaData;
+import java.sql.PreparedStatement;
+import java.sql.Ref;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.RowId;
+import java.sql.SQLException;
+import java.sql.SQLXML;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.Calendar;
+
+/**
+ * Delegating {@link PreparedStatement} used by the
+ * {@link ProxyBackend#WRAPPER} backend.
+ */
+class PreparedStatementWrapper extends StatementWrapper implements
+		PreparedStatement {
+
+	private final JdbcProxyFactory factory;
+	private PreparedStatement preparedStatement;
+
+	/**
+	 * Values bound to the parameters, only recorded if the results of the
+	 * statement are cached or slow queries are logged.
+	 */
+	private BoundParameters parameters;
+
+	PreparedStatementWrapper(JdbcProxyFactory factory,
+			PreparedStatement preparedStatement, Connection connection,
+			String sql) {
+		super(factory, preparedStatement, connection, sql);
+		this.factory = factory;
+		this.preparedStatement = preparedStatement;
+	}
+
+	void recordParameters() {
+		parameters = new BoundParameters();
+	}
+
+	@Override
+	BoundParameters getBoundParameters() {
+		return parameters;
+	}
+
+	@Override
+	void detach() {
+		super.detach();
+		preparedStatement = StatementCache.CLOSED_STATEMENT;
+	}
+
+	@Override
+	public ResultSet executeQuery() throws SQLException {
+		QueryResultCache.Query query = parameters == null ? null : lookUpQuery(
+				sql, parameters.values());
+		if (query != null && query.getCachedRows() != null) {
+			return cachedResultSet(sql, query.getCachedRows());
+		}
+		long start = beforeQuery(sql);
+		ResultSet resultSet;
+		try {
+			resultSet = preparedStatement.executeQuery();
+		} catch (SQLException e) {
+			throw factory.executeFailed(preparedStatement, sql, start, e);
+		} catch (RuntimeException e) {
+			throw factory.executeFailed(preparedStatement, sql, start, e);
+		}
+		afterExecute(sql, start, -1);
+		return queryResult(sql, query, resultSet);
+	}
+
+	@Override
+	public int executeUpdate() throws SQLException {
+		if (defersUpdates()) {
+			return deferUpdate();
+		}
+		long start = beforeExecute(sql);
+		int updateCount;
+		try {
+			updateCount = preparedStatement.executeUpdate();
+		} catch (SQLException e) {
+			throw factory.executeFailed(preparedStatement, sql, start, e);
+		} catch (RuntimeException e) {
+			throw factory.executeFailed(preparedStatement, sql, start, e);
+		}
+		afterExecute(sql, start, updateCount);
+		written(sql);
+		return updateCount;
+	}
+
+	@Override
+	public void setNull(int parameterIndex, int sqlType) throws SQLException {
+		preparedStatement.setNull(parameterIndex, sqlType);
+		if (parameters != null) {
+			parameters.set(parameterIndex, null);
+		}
+	}
+
+	@Override
+	public void setBoolean(int parameterIndex, boolean x) throws SQLException {
+		preparedStatement.setBoolean(parameterIndex, x);
+		if (parameters != null) {
+			parameters.set(parameterIndex, x);
+		}
+	}
+
+	@Override
+	public void setByte(int parameterIndex, byte x) throws SQLException {
+		preparedStatement.setByte(parameterIndex, x);
+		if (parameters != null) {
+			parameters.set(parameterIndex, x);
+		}
+	}
+
+	@Override
+	public void setShort(int parameterIndex, short x) throws SQLException {
+		preparedStatement.setShort(parameterIndex, x);
+		if (parameters != null) {
+			parameters.set(parameterIndex, x);
+		}
+	}
+
+	@Override
+	public void setInt(int parameterIndex, int x) throws SQLException {
+		preparedStatement.setInt(parameterIndex, x);
+		if (parameters != null) {
+			parameters.set(parameterIndex, x);
+		}
+	}
+
+	@Override
+	public void setLong(int parameterIndex, long x) throws SQLException {
+		preparedStatement.setLong(parameterIndex, x);
+		if (parameters != null) {
+			parameters.set(parameterIndex, x);
+		}
+	}
+
+	@Override
+	public void setFloat(int parameterIndex, float x) throws SQLException {
+		preparedStatement.setFloat(parameterIndex, x);
+		if (parameters != null) {
+			parameters.set(parameterIndex, x);
+		}
+	}
+
+	@Override
+	public void setDouble(int parameterIndex, double x) throws SQLException {
+		preparedStatement.setDouble(parameterIndex, x);
+		if (parameters != null) {
+			parameters.set(parameterIndex, x);
+		}
+	}
+
+	@Override
+	public void setBigDecimal(int parameterIndex, BigDecimal x)
+			throws SQLException {
+		preparedStatement.setBigDecimal(parameterIndex, x);
+		if (parameters != null) {
+			parameters.set(parameterIndex, x);
+		}
+	}
+
+	@Override
+	public void setString(int parameterIndex, String x) throws SQLException {
+		preparedStatement.setString(parameterIndex, x);
+		if (parameters != null) {
+			parameters.set(parameterIndex, x);
+		}
+	}
+
+	@Override
+	public void setBytes(int parameterIndex, byte[] x) throws SQLException {
+		preparedStatement.setBytes(parameterIndex, x);
+		if (parameters != null) {
+			parameters.set(parameterIndex, x);
+		}
+	}
+
+	@Override
+	public void setDate(int parameterIndex, Date x) throws SQLException {
+		preparedStatement.setDate(parameterIndex, x);
+		if (parameters != null) {
+			parameters.set(parameterIndex, x);
+		}
+	}
+
+	@Override
+	public void setTime(int parameterIndex, Time x) throws SQLException {
+		preparedStatement.setTime(parameterIndex, x);
+		if (parameters != null) {
+			parameters.set(parameterIndex, x);
+		}
+	}
+
+	@Override
+	public void setTimestamp(int parameterIndex, Timestamp x)
+			throws SQLException {
+		preparedStatement.setTimestamp(parameterIndex, x);
+		if (parameters != null) {
+			parameters.set(parameterIndex, x);
+		}
+	}
+
+	@Override
+	public void setAsciiStream(int parameterIndex, InputStream x, int length)
+			throws SQLException {
+		preparedStatement.setAsciiStream(parameterIndex, x, length);
+		if (parameters != null) {
+			parameters.set(parameterIndex, x);
+		}
+	}
+
+	@Deprecated
+	@Override
+	public void setUnicodeStream(int parameterIndex, InputStream x, int length)
+			throws SQLException {
+		preparedStatement.setUnicodeStream(parameterIndex, x, length);
+		if (parameters != null) {
+			parameters.set(parameterIndex, x);
+		}
+	}
+
+	@Override
+	public void setBinaryStream(int parameterIndex, InputStream x, int length)
+			throws SQLException {
+		preparedStatement.setBinaryStream(parameterIndex, x, length);
+		if (parameters != null) {
+			parameters.set(parameterIndex, x);
+		}
+	}
+
+	@Override
+	public void clearParameters() throws SQLException {
+		preparedStatement.clearParameters();
+		if (parameters != null) {
+			parameters.clear();
+		}
+	}
+
+	@Override
+	public void setObject(int parameterIndex, Object x, int targetSqlType)
+			throws SQLException {
+		preparedStatement.setObject(parameterIndex, x, targetSqlType);
+		if (parameters != null) {
+			parameters.set(parameterIndex, x);
+		}
+	}
+
+	@Override
+	public void setObject(int parameterIndex, Object x) throws SQLException {
+		preparedStatement.setObject(parameterIndex, x);
+		if (parameters != null) {
+			parameters.set(parameterIndex, x);
+		}
+	}
+
+	@Override
+	public boolean execute() throws SQLException {
+		long start = beforeQuery(sql);
+		boolean hasResultSet;
+		try {
+			hasResultSet = preparedStatement.execute();
+		} catch (SQLException e) {
+			throw factory.executeFailed(preparedStatement, sql, start, e);
+		} catch (RuntimeException e) {
+			throw factory.executeFailed(preparedStatement, sql, start, e);
+		}
+		afterExecute(sql, start, -1);
+		written(sql);
+		return hasResultSet;
+	}
+
+	@Override
+	public void addBatch() throws SQLException {
+		flushBatch();
+		preparedStatement.addBatch();
+		addedToBatch(sql);
+	}
+
+	@Override
+	public void setCharacterStream(int parameterIndex, Reader reader,
+			int length) throws SQLException {
+		preparedStatement.setCharacterStream(parameterIndex, reader, length);
+		if (parameters != null) {
+			parameters.set(parameterIndex, reader);
+		}
+	}
+
+	@Override
+	public void setRef(int parameterIndex, Ref x) throws SQLException {
+		preparedStatement.setRef(parameterIndex, x);
+		if (parameters != null) {
+			parameters.set(parameterIndex, x);
+		}
+	}
+
+	@Override
+	public void setBlob(int parameterIndex, Blob x) throws SQLException {
+		preparedStatement.setBlob(parameterIndex, x);
+		if (parameters != null) {
+			parameters.set(parameterIndex, x);
+		}
+	}
+
+	@Override
+	public void setClob(int parameterIndex, Clob x) throws SQLException {
+		preparedStatement.setClob(parameterIndex, x);
+		if (parameters != null) {
+			parameters.set(parameterIndex, x);
+		}
+	}
+
+	@Override
+	public void setArray(int parameterIndex, Array x) throws SQLException {
+		preparedStatement.setArray(parameterIndex, x);
+		if (parameters != null) {
+			parameters.set(parameterIndex, x);
+		}
+	}
+
+	@Override
+	public ResultSetMetaData getMetaData() throws SQLException {
+		return preparedStatement.getMetaData();
+	}
+
+	@Override
+	public void setDate(int parameterIndex, Date x, Calendar cal)
+			throws SQLException {
+		preparedStatement.setDate(parameterIndex, x, cal);
+		if (parameters != null) {
+			parameters.set(parameterIndex, x);
+		}
+	}
+
+	@Override
+	public void setTime(int parameterIndex, Time x, Calendar cal)
+			throws SQLException {
+		preparedStatement.setTime(parameterIndex, x, cal);
+		if (parameters != null) {
+			parameters.set(parameterIndex, x);
+		}
+	}
+
+	@Override
+	public void setTimestamp(int parameterIndex, Timestamp x, Calendar cal)
+			throws SQLException {
+		preparedStatement.setTimestamp(parameterIndex, x, cal);
+		if (parameters != null) {
+			parameters.set(parameterIndex, x);
+		}
+	}
+
+	@Override
+	public void setNull(int parameterIndex, int sqlType, String typeName)
+			throws SQLException {
+		preparedStatement.setNull(parameterIndex, sqlType, typeName);
+		if (parameters != null) {
+			parameters.set(parameterIndex, null);
+		}
+	}
+
+	@Override
+	public void setURL(int parameterIndex, URL x) throws SQLException {
+		preparedStatement.setURL(parameterIndex, x);
+		if (parameters != null) {
+			parameters.set(parameterIndex, x);
+		}
+	}
+
+	@Override
+	public ParameterMetaData getParameterMetaData() throws SQLException {
+		return preparedStatement.getParameterMetaData();
+	}
+
+	@Override
+	public void setRowId(int parameterIndex, RowId x) throws SQLException {
+		preparedStatement.setRowId(parameterIndex, x);
+		if (parameters != null) {
+			parameters.set(parameterIndex, x);
+		}
+	}
+
+	@Override
+	public void setNString(int parameterIndex, String value) throws SQLException {
+		preparedStatement.setNString(parameterIndex, value);
+		if (parameters != null) {
+			parameters.set(parameterIndex, value);
+		}
+	}
+
+	@Override
+	public void setNCharacterStream(int parameterIndex, Reader value,
+			long length) throws SQLException {
+		preparedStatement.setNCharacterStream(parameterIndex, value, length);
+		if (parameters != null) {
+			parameters.set(parameterIndex, value);
+		}
+	}
+
+	@Override
+	public void setNClob(int parameterIndex, NClob value) throws SQLException {
+		preparedStatement.setNClob(parameterIndex, value);
+		if (parameters != null) {
+			parameters.set(parameterIndex, value);
+		}
+	}
+
+	@Override
+	public void setClob(int parameterIndex, Reader reader, long length)
+			throws SQLException {
+		preparedStatement.setClob(parameterIndex, reader, length);
+		if (parameters != null) {
+			parameters.set(parameterIndex, reader);
+		}
+	}
+
+	@Override
+	public void setBlob(int parameterIndex, InputStream inputStream,
+			long length) throws SQLException {
+		preparedStatement.setBlob(parameterIndex, inputStream, length);
+		if (parameters != null) {
+			parameters.set(parameterIndex, inputStream);
+		}
+	}
+
+	@Override
+	public void setNClob(int parameterIndex, Reader reader, long length)
+			throws SQLException {
+		preparedStatement.setNClob(parameterIndex, reader, length);
+		if (parameters != null) {
+			parameters.set(parameterIndex, reader);
+		}
+	}
+
+	@Override
+	public void setSQLXML(int parameterIndex, SQLXML xmlObject)
+			throws SQLException {
+		preparedStatement.setSQLXML(parameterIndex, xmlObject);
+		if (parameters != null) {
+			parameters.set(parameterIndex, xmlObject);
+		}
+	}
+
+	@Override
+	public void setObject(int parameterIndex, Object x, int targetSqlType,
+			int scaleOrLength) throws SQLException {
+		preparedStatement.setObject(parameterIndex, x, targetSqlType,
+				scaleOrLength);
+		if (parameters != null) {
+			parameters.set(parameterIndex, x);
+		}
+	}
+
+	@Override
+	public void setAsciiStream(int parameterIndex, InputStream x, long length)
+			throws SQLException {
+		preparedStatement.setAsciiStream(parameterIndex, x, length);
+		if (parameters != null) {
+			parameters.set(parameterIndex, x);
+		}
+	}
+
+	@Override
+	public void setBinaryStream(int parameterIndex, InputStream x, long length)
+			throws SQLException {
+		preparedStatement.setBinaryStream(parameterIndex, x, length);
+		if (parameters != null) {
+			parameters.set(parameterIndex, x);
+		}
+	}
+
+	@Override
+	public void setCharacterStream(int parameterIndex, Reader reader,
+			long length) throws SQLException {
+		preparedStatement.setCharacterStream(parameterIndex, reader, length);
+		if (parameters != null) {
+			parameters.set(parameterIndex, reader);
+		}
+	}
+
+	@Override
+	public void setAsciiStream(int parameterIndex, InputStream x)
+			throws SQLException {
+		preparedStatement.setAsciiStream(parameterIndex, x);
+		if (parameters != null) {
+			parameters.set(parameterIndex, x);
+		}
+	}
+
+	@Override
+	public void setBinaryStream(int parameterIndex, InputStream x)
+			throws SQLException {
+		preparedStatement.setBinaryStream(parameterIndex, x);
+		if (parameters != null) {
+			parameters.set(parameterIndex, x);
+		}
+	}
+
+	@Override
+	public void setCharacterStream(int parameterIndex, Reader reader)
+			throws SQLException {
+		preparedStatement.setCharacterStream(parameterIndex, reader);
+		if (parameters != null) {
+			parameters.set(parameterIndex, reader);
+		}
+	}
+
+	@Override
+	public void setNCharacterStream(int parameterIndex, Reader value)
+			throws SQLException {
+		preparedStatement.setNCharacterStream(parameterIndex, value);
+		if (parameters != null) {
+			parameters.set(parameterIndex, value);
+		}
+	}
+
+	@Override
+	public void setClob(int parameterIndex, Reader reader) throws SQLException {
+		preparedStatement.setClob(parameterIndex, reader);
+		if (parameters != null) {
+			parameters.set(parameterIndex, reader);
+		}
+	}
+
+	@Override
+	public void setBlob(int parameterIndex, InputStream inputStream)
+			throws SQLException {
+		preparedStatement.setBlob(parameterIndex, inputStream);
+		if (parameters != null) {
+			parameters.set(parameterIndex, inputStream);
+		}
+	}
+
+	@Override
+	public void setNClob(int parameterIndex, Reader reader) throws SQLException {
+		preparedStatement.setNClob(parameterIndex, reader);
+		if (parameters != null) {
+			parameters.set(parameterIndex, reader);
+		}
+	}
+
+}
@@ -0,0 +1,19 @@
+package com.seboch.jdbc.proxy;
+
+/**
+ * Strategy used by {@link JdbcProxyFactory} to build its proxies.
+ */
+public enum ProxyBackend {
+
+	/**
+	 * Plain delegating classes: forwarding methods are direct calls to the
+	 * wrapped object, only lifecycle methods are intercepted.
+	 */
+	WRAPPER,
+
+	/**
+	 * {@link java.lang.reflect.Proxy} based proxies, every call goes through
+	 * an {@link java.lang.reflect.InvocationHandler}.
+	 */
+	DYNAMIC_PROXY
+}
@@ -0,0 +1,373 @@
+package com.seboch.jdbc.proxy;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Cache of the results of the read-mostly queries of a factory, keyed by SQL
+ * and bound parameters, see
+ * {@link JdbcProxyFactory#cacheQueryResults(String, String...)}.
+ * <p>
+ * Entries are evicted in LRU order and expire after a time to live. The
+ * statements executed through the factory invalidate the entries of the
+ * tables they write, once when executed and once more when their
+ * transaction commits. A connection also bypasses the cache for the tables
+ * written by its uncommitted transaction, see {@link Session}.
+ * <p>
+ * Thread safe, shared by all the connections of the factory. The entries
+ * are guarded by a lock which is never held while calling the driver.
+ */
+final class QueryResultCache {
+
+	static final int HITS = 0;
+	static final int MISSES = 1;
+	static final int EVICTIONS = 2;
+	static final int INVALIDATIONS = 3;
+	static final int COUNTERS = 4;
+
+	private static final Pattern SELECT = Pattern.compile("^\\s*SELECT\\b",
+			Pattern.CASE_INSENSITIVE);
+
+	private static final Pattern WRITE = Pattern.compile(
+			"^\\s*(?:INSERT\\s+(?:INTO\\s+)?|UPDATE\\s+|DELETE\\s+(?:FROM\\s+)?"
+					+ "|MERGE\\s+INTO\\s+|REPLACE\\s+(?:INTO\\s+)?"
+					+ "|TRUNCATE\\s+(?:TABLE\\s+)?)([\\w$.\"`\\[\\]]+)",
+			Pattern.CASE_INSENSITIVE);
+
+	static final class Key {
+
+		private final String sql;
+		private final Object[] parameters;
+		private final int hash;
+
+		Key(String sql, Object[] parameters) {
+			this.sql = sql;
+			this.parameters = parameters;
+			this.hash = 31 * sql.hashCode() + Arrays.deepHashCode(parameters);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			} else if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) obj;
+			return hash == other.hash && sql.equals(other.sql)
+					&& Arrays.deepEquals(parameters, other.parameters);
+		}
+	}
+
+	private static final class Entry {
+
+		private final CachedRows rows;
+		private final Set<String> tables;
+		private final long expirationTime;
+
+		Entry(CachedRows rows, Set<String> tables, long expirationTime) {
+			this.rows = rows;
+			this.tables = tables;
+			this.expirationTime = expirationTime;
+		}
+	}
+
+	/**
+	 * Lookup of one execution of a cached query: holds the cached rows on a
+	 * hit, stores the rows read from the database on a miss.
+	 */
+	final class Query {
+
+		private final Key key;
+		private final Set<String> tables;
+		private final long generation;
+		private final CachedRows cachedRows;
+
+		Query(Key key, Set<String> tables, long generation,
+				CachedRows cachedRows) {
+			this.key = key;
+			this.tables = tables;
+			this.generation = generation;
+			this.cachedRows = cachedRows;
+		}
+
+		/**
+		 * @return the cached rows, null on a miss
+		 */
+		CachedRows getCachedRows() {
+			return cachedRows;
+		}
+
+		/**
+		 * Reads and closes resultSet, caching its rows unless an
+		 * invalidation happened since the lookup, as they may be stale.
+		 */
+		CachedRows store(ResultSet resultSet) throws SQLException {
+			CachedRows rows = CachedRows.read(resultSet);
+			if (rows.isCacheable()) {
+				put(key, generation, new Entry(rows, tables, System.nanoTime()
+						+ timeToLiveNanos));
+			}
+			return rows;
+		}
+	}
+
+	/**
+	 * View of the cache from one connection, which records the tables
+	 * written by its uncommitted transaction.
+	 * <p>
+	 * Like the resource graph, a session is only used by the thread using
+	 * the connection and is not synchronized.
+	 */
+	final class Session {
+
+		private final Connection connection;
+		private final Set<String> uncommittedTables = new HashSet<String>();
+
+		Session(Connection connection) {
+			this.connection = connection;
+		}
+
+		/**
+		 * @return the tables read by sql if its results are cached, null
+		 *         otherwise
+		 */
+		Set<String> tablesReadBy(String sql) {
+			return sql == null ? null : queries.get(sql);
+		}
+
+		/**
+		 * @param tables
+		 *            tables read by sql, see {@link #tablesReadBy(String)}
+		 * @param parameters
+		 *            parameters bound to the statement, null if they could
+		 *            not be recorded
+		 * @return the lookup of the execution, null if the cache must be
+		 *         bypassed
+		 */
+		Query lookUp(String sql, Set<String> tables, Object[] parameters) {
+			if (parameters == null || maxEntries == 0
+					|| !Collections.disjoint(uncommittedTables, tables)) {
+				return null;
+			}
+			Key key = new Key(sql, parameters);
+			long generation = invalidationGeneration.get();
+			return new Query(key, tables, generation, get(key));
+		}
+
+		/**
+		 * Invalidates the entries of the tables written by sql, once it has
+		 * been executed.
+		 *
+		 * @param sql
+		 *            executed SQL, null if unknown
+		 */
+		void executed(String sql) throws SQLException {
+			if (queries.isEmpty() || sql != null
+					&& SELECT.matcher(sql).find()) {
+				return;
+			}
+			Set<String> tables = cachedTablesWrittenBy(sql);
+			if (tables.isEmpty()) {
+				return;
+			}
+			invalidate(tables);
+			if (!connection.getAutoCommit()) {
+				uncommittedTables.addAll(tables);
+			}
+		}
+
+		/**
+		 * Invalidates the entries of the tables written by the transaction,
+		 * once it has been committed.
+		 */
+		void committed() {
+			if (!uncommittedTables.isEmpty()) {
+				invalidate(uncommittedTables);
+				uncommittedTables.clear();
+			}
+		}
+
+		void rolledBack() {
+			uncommittedTables.clear();
+		}
+	}
+
+	/**
+	 * Tables read by each cached query, in upper case.
+	 */
+	private final Map<String, Set<String>> queries = new ConcurrentHashMap<String, Set<String>>();
+
+	/**
+	 * Guards entries. A {@link ReentrantLock} rather than a monitor, as a
+	 * contended monitor pins the carrier of a virtual thread.
+	 */
+	private final ReentrantLock lock = new ReentrantLock();
+
+	private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<Key, Entry>(
+			16, 0.75f, true);
+
+	private final AtomicLong invalidationGeneration = new AtomicLong();
+
+	private final AtomicLongArray counters = new AtomicLongArray(COUNTERS);
+
+	private volatile int maxEntries;
+
+	private volatile long timeToLiveNanos;
+
+	/**
+	 * @param maxEntries
+	 *            maximum number of cached results, 0 to disable the cache
+	 */
+	void configure(int maxEntries, long timeToLiveNanos) {
+		lock.lock();
+		try {
+			this.maxEntries = maxEntries;
+			this.timeToLiveNanos = timeToLiveNanos;
+			entries.clear();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	int getMaxEntries() {
+		return maxEntries;
+	}
+
+	/**
+	 * @return whether the results of sql may be cached
+	 */
+	boolean caches(String sql) {
+		return maxEntries != 0 && sql != null && queries.containsKey(sql);
+	}
+
+	void addQuery(String sql, String... tables) {
+		Set<String> names = new HashSet<String>();
+		for (String table : tables) {
+			names.add(normalize(table));
+		}
+		queries.put(sql, Collections.unmodifiableSet(names));
+	}
+
+	Session newSession(Connection connection) {
+		return new Session(connection);
+	}
+
+	private CachedRows get(Key key) {
+		Entry entry;
+		lock.lock();
+		try {
+			entry = entries.get(key);
+			if (entry != null
+					&& entry.expirationTime - System.nanoTime() <= 0) {
+				entries.remove(key);
+				entry = null;
+			}
+		} finally {
+			lock.unlock();
+		}
+		counters.incrementAndGet(entry == null ? MISSES : HITS);
+		return entry == null ? null : entry.rows;
+	}
+
+	private void put(Key key, long generation, Entry entry) {
+		lock.lock();
+		try {
+			if (generation != invalidationGeneration.get() || maxEntries == 0) {
+				return;
+			}
+			entries.put(key, entry);
+			if (entries.size() > maxEntries) {
+				Iterator<Entry> eldest = entries.values().iterator();
+				eldest.next();
+				eldest.remove();
+				counters.incrementAndGet(EVICTIONS);
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Removes the entries reading any of tables.
+	 */
+	void invalidate(Set<String> tables) {
+		lock.lock();
+		try {
+			invalidationGeneration.incrementAndGet();
+			for (Iterator<Entry> it = entries.values().iterator(); it
+					.hasNext();) {
+				if (!Collections.disjoint(it.next().tables, tables)) {
+					it.remove();
+					counters.incrementAndGet(INVALIDATIONS);
+				}
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	void invalidate(String... tables) {
+		Set<String> names = new HashSet<String>();
+		for (String table : tables) {
+			names.add(normalize(table));
+		}
+		invalidate(names);
+	}
+
+	/**
+	 * @return the cached tables sql may write, all of them if sql is null or
+	 *         is not a recognized INSERT, UPDATE, DELETE, MERGE or TRUNCATE
+	 */
+	private Set<String> cachedTablesWrittenBy(String sql) {
+		String written = sql == null ? null : tableWrittenBy(sql);
+		Set<String> tables = new HashSet<String>();
+		for (Set<String> read : queries.values()) {
+			if (written == null) {
+				tables.addAll(read);
+			} else if (read.contains(written)) {
+				tables.add(written);
+				break;
+			}
+		}
+		return tables;
+	}
+
+	/**
+	 * @return the unqualified upper case name of the table written by sql,
+	 *         null if not recognized
+	 */
+	static String tableWrittenBy(String sql) {
+		Matcher matcher = WRITE.matcher(sql);
+		return matcher.find() ? normalize(matcher.group(1)) : null;
+	}
+
+	private static String normalize(String table) {
+		String name = table.substring(table.lastIndexOf('.') + 1);
+		return name.replaceAll("[\"`\\[\\]]", "").toUpperCase(Locale.ROOT);
+	}
+
+	AtomicLongArray getCounters() {
+		return counters;
+	}
+}
@@ -0,0 +1,64 @@
+package com.seboch.jdbc.proxy;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Immutable counters of the query result cache of a
+ * {@link JdbcProxyFactory}, see
+ * {@link JdbcProxyFactory#setQueryResultCache(int, long, java.util.concurrent.TimeUnit)}.
+ */
+public final class QueryResultCacheStatistics {
+
+	private final long hitCount;
+	private final long missCount;
+	private final long evictionCount;
+	private final long invalidationCount;
+
+	QueryResultCacheStatistics(AtomicLongArray counters) {
+		this.hitCount = counters.get(QueryResultCache.HITS);
+		this.missCount = counters.get(QueryResultCache.MISSES);
+		this.evictionCount = counters.get(QueryResultCache.EVICTIONS);
+		this.invalidationCount = counters.get(QueryResultCache.INVALIDATIONS);
+	}
+
+	/**
+	 * @return number of queries answered from the cache
+	 */
+	public long getHitCount() {
+		return hitCount;
+	}
+
+	/**
+	 * @return number of cached queries executed by the database, because
+	 *         their result was not cached or had expired
+	 */
+	public long getMissCount() {
+		return missCount;
+	}
+
+	/**
+	 * @return number of results removed to make room in a full cache
+	 */
+	public long getEvictionCount() {
+		return evictionCount;
+	}
+
+	/**
+	 * @return number of results removed because a statement wrote one of
+	 *         the tables they read
+	 */
+	public long getInvalidationCount() {
+		return invalidationCount;
+	}
+
+	public double getHitRatio() {
+		long total = hitCount + missCount;
+		return total == 0 ? 0 : (double) hitCount / total;
+	}
+
+	@Override
+	public String toString() {
+		return "hits=" + hitCount + ", misses=" + missCount + ", evictions="
+				+ evictionCount + ", invalidations=" + invalidationCount;
+	}
+}
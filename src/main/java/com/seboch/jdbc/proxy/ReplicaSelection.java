@@ -0,0 +1,21 @@
+package com.seboch.jdbc.proxy;
+
+/**
+ * Strategy used by a {@link ReplicaSet} to choose the replica of a read
+ * connection among the healthy ones.
+ */
+public enum ReplicaSelection {
+
+	/**
+	 * The replica with the fewest connections bound to it, ties are spread
+	 * in turn.
+	 */
+	LEAST_OUTSTANDING,
+
+	/**
+	 * The replica whose observed statement latency, weighted by the number
+	 * of connections bound to it, is the lowest. A replica without observed
+	 * latency is chosen first, to measure it.
+	 */
+	LATENCY_WEIGHTED
+}
@@ -0,0 +1,257 @@
+package com.seboch.jdbc.proxy;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.sql.DataSource;
+
+/**
+ * Read replicas of a primary database, among which the connections of a
+ * routing data source choose where to read, see
+ * {@link JdbcProxyFactory#proxyRoutingDatasource(DataSource, ReplicaSet)}.
+ * <p>
+ * A replica whose connection cannot be taken is marked down and is not
+ * chosen again before the retry delay has elapsed, the next connection taken
+ * from it then probes it. {@link #checkHealth()} validates every replica and
+ * is meant to be called periodically by the application.
+ * <p>
+ * The latency of a replica is a moving average of the durations of the
+ * statements executed on the connections bound to it, as timed by the
+ * proxies, and of the health checks. Updates are not atomic, concurrent
+ * samples may be lost.
+ */
+public final class ReplicaSet {
+
+	static final long DEFAULT_RETRY_DELAY_NANOS = TimeUnit.SECONDS
+			.toNanos(30);
+
+	/**
+	 * Timeout of {@link Connection#isValid(int)} in health checks.
+	 */
+	static final int VALIDATION_TIMEOUT_SECONDS = 5;
+
+	/**
+	 * Replica and its routing state.
+	 */
+	static final class Replica {
+
+		private final DataSource dataSource;
+
+		/**
+		 * Number of open connections bound to the replica.
+		 */
+		private final AtomicInteger outstanding = new AtomicInteger();
+
+		private final AtomicLong connectionCount = new AtomicLong();
+
+		private final AtomicLong failureCount = new AtomicLong();
+
+		/**
+		 * Moving average of the latency in nanoseconds, 0 until observed.
+		 */
+		private volatile long latencyNanos;
+
+		private volatile boolean down;
+
+		private volatile long downSince;
+
+		Replica(DataSource dataSource) {
+			this.dataSource = dataSource;
+		}
+
+		private boolean isAvailable(long now, long retryDelayNanos) {
+			return !down || now - downSince >= retryDelayNanos;
+		}
+
+		private void markDown() {
+			failureCount.incrementAndGet();
+			downSince = System.nanoTime();
+			down = true;
+		}
+
+		void observed(long elapsedNanos) {
+			long latency = latencyNanos;
+			// the first sample seeds the average, then each one weighs a
+			// quarter
+			latencyNanos = latency == 0 ? Math.max(1, elapsedNanos) : Math
+					.max(1, latency + ((elapsedNanos - latency) >> 2));
+		}
+	}
+
+	private final ReplicaSelection selection;
+
+	private final Replica[] replicas;
+
+	/**
+	 * Rotates the first replica considered, to spread the ties.
+	 */
+	private final AtomicInteger nextReplica = new AtomicInteger();
+
+	private volatile long retryDelayNanos = DEFAULT_RETRY_DELAY_NANOS;
+
+	public ReplicaSet(ReplicaSelection selection, DataSource... replicas) {
+		if (selection == null) {
+			throw new IllegalArgumentException("selection must not be null");
+		}
+		if (replicas == null || replicas.length == 0) {
+			throw new IllegalArgumentException("replicas must not be empty");
+		}
+		this.selection = selection;
+		this.replicas = new Replica[replicas.length];
+		for (int i = 0; i < replicas.length; i++) {
+			if (replicas[i] == null) {
+				throw new IllegalArgumentException(
+						"replicas must not contain null");
+			}
+			this.replicas[i] = new Replica(replicas[i]);
+		}
+	}
+
+	public ReplicaSelection getSelection() {
+		return selection;
+	}
+
+	/**
+	 * Sets the delay after which a replica marked down is tried again, 30
+	 * seconds by default.
+	 */
+	public void setRetryDelay(long retryDelay, TimeUnit unit) {
+		if (retryDelay < 0) {
+			throw new IllegalArgumentException(
+					"retryDelay must not be negative");
+		}
+		if (unit == null) {
+			throw new IllegalArgumentException("unit must not be null");
+		}
+		this.retryDelayNanos = unit.toNanos(retryDelay);
+	}
+
+	public long getRetryDelayNanos() {
+		return retryDelayNanos;
+	}
+
+	/**
+	 * Takes a connection from every replica and validates it, marking the
+	 * replica down if that fails and up otherwise. The duration of a
+	 * successful check is a latency sample.
+	 */
+	public void checkHealth() {
+		for (Replica replica : replicas) {
+			long start = System.nanoTime();
+			Connection connection = null;
+			boolean valid;
+			try {
+				connection = replica.dataSource.getConnection();
+				valid = connection.isValid(VALIDATION_TIMEOUT_SECONDS);
+			} catch (SQLException e) {
+				valid = false;
+			} catch (RuntimeException e) {
+				valid = false;
+			} finally {
+				if (connection != null) {
+					try {
+						connection.close();
+					} catch (SQLException e) {
+						// the validation result stands
+					}
+				}
+			}
+			if (valid) {
+				replica.observed(System.nanoTime() - start);
+				replica.down = false;
+			} else {
+				replica.markDown();
+			}
+		}
+	}
+
+	/**
+	 * @return the current state of the replicas, in construction order
+	 */
+	public List<ReplicaStatistics> getStatistics() {
+		List<ReplicaStatistics> statistics = new ArrayList<ReplicaStatistics>(
+				replicas.length);
+		for (Replica replica : replicas) {
+			statistics.add(new ReplicaStatistics(replica.dataSource,
+					!replica.down, replica.outstanding.get(),
+					replica.latencyNanos, replica.connectionCount.get(),
+					replica.failureCount.get()));
+		}
+		return Collections.unmodifiableList(statistics);
+	}
+
+	/**
+	 * @return the replica a new read connection should be bound to, null if
+	 *         all are down
+	 */
+	Replica select() {
+		long now = System.nanoTime();
+		long retryDelay = retryDelayNanos;
+		int count = replicas.length;
+		int first = (nextReplica.getAndIncrement() & Integer.MAX_VALUE)
+				% count;
+		Replica selected = null;
+		long selectedScore = Long.MAX_VALUE;
+		for (int i = 0; i < count; i++) {
+			Replica replica = replicas[(first + i) % count];
+			if (replica.isAvailable(now, retryDelay)) {
+				long score = score(replica);
+				if (score < selectedScore) {
+					selected = replica;
+					selectedScore = score;
+				}
+			}
+		}
+		return selected;
+	}
+
+	private long score(Replica replica) {
+		long outstanding = replica.outstanding.get();
+		if (selection == ReplicaSelection.LEAST_OUTSTANDING) {
+			return outstanding;
+		}
+		long latency = replica.latencyNanos;
+		return latency == 0 ? -1 : (outstanding + 1) * latency;
+	}
+
+	/**
+	 * Takes a connection from replica and binds it, the replica is marked
+	 * down if that fails.
+	 *
+	 * @param credentials
+	 *            credentials passed to
+	 *            {@link DataSource#getConnection(String, String)}, null to
+	 *            call {@link DataSource#getConnection()}
+	 */
+	Connection connect(Replica replica, Credentials credentials)
+			throws SQLException {
+		Connection connection;
+		try {
+			connection = Credentials.getConnection(replica.dataSource,
+					credentials);
+		} catch (SQLException e) {
+			replica.markDown();
+			throw e;
+		} catch (RuntimeException e) {
+			replica.markDown();
+			throw e;
+		}
+		replica.down = false;
+		replica.connectionCount.incrementAndGet();
+		replica.outstanding.incrementAndGet();
+		return connection;
+	}
+
+	/**
+	 * Unbinds a connection taken from replica, once closed.
+	 */
+	void release(Replica replica) {
+		replica.outstanding.decrementAndGet();
+	}
+}
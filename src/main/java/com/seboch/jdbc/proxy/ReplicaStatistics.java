@@ -0,0 +1,77 @@
+package com.seboch.jdbc.proxy;
+
+import javax.sql.DataSource;
+
+/**
+ * Immutable state of a replica of a {@link ReplicaSet}, see
+ * {@link ReplicaSet#getStatistics()}.
+ */
+public final class ReplicaStatistics {
+
+	private final DataSource dataSource;
+	private final boolean healthy;
+	private final int outstandingConnections;
+	private final long latencyNanos;
+	private final long connectionCount;
+	private final long failureCount;
+
+	ReplicaStatistics(DataSource dataSource, boolean healthy,
+			int outstandingConnections, long latencyNanos,
+			long connectionCount, long failureCount) {
+		this.dataSource = dataSource;
+		this.healthy = healthy;
+		this.outstandingConnections = outstandingConnections;
+		this.latencyNanos = latencyNanos;
+		this.connectionCount = connectionCount;
+		this.failureCount = failureCount;
+	}
+
+	public DataSource getDataSource() {
+		return dataSource;
+	}
+
+	/**
+	 * @return false if the replica was marked down by a failure since its
+	 *         last successful connection or health check
+	 */
+	public boolean isHealthy() {
+		return healthy;
+	}
+
+	/**
+	 * @return number of open connections bound to the replica
+	 */
+	public int getOutstandingConnections() {
+		return outstandingConnections;
+	}
+
+	/**
+	 * @return moving average of the observed latency in nanoseconds, 0 if
+	 *         none was observed yet
+	 */
+	public long getLatencyNanos() {
+		return latencyNanos;
+	}
+
+	/**
+	 * @return number of connections bound to the replica so far
+	 */
+	public long getConnectionCount() {
+		return connectionCount;
+	}
+
+	/**
+	 * @return number of failed connections and health checks
+	 */
+	public long getFailureCount() {
+		return failureCount;
+	}
+
+	@Override
+	public String toString() {
+		return "healthy=" + healthy + ", outstanding="
+				+ outstandingConnections + ", latencyNanos=" + latencyNanos
+				+ ", connections=" + connectionCount + ", failures="
+				+ failureCount;
+	}
+}
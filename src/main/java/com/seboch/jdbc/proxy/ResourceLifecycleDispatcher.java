@@ -0,0 +1,127 @@
+package com.seboch.jdbc.proxy;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+import com.seboch.jdbc.proxy.lifecycle.OwnedResourceLifecycleListener;
+import com.seboch.jdbc.proxy.lifecycle.ResourceLifecycleListener;
+
+/**
+ * Fans lifecycle events out to the registered listeners.
+ * <p>
+ * Listeners are kept in a copy-on-write array: registration is rare, firing
+ * an event only reads a volatile field and calls the listeners directly, so
+ * nothing is allocated and nothing is done when no listener is registered.
+ */
+final class ResourceLifecycleDispatcher implements
+		OwnedResourceLifecycleListener {
+
+	private static final ResourceLifecycleListener[] NO_LISTENERS = new ResourceLifecycleListener[0];
+
+	private volatile ResourceLifecycleListener[] listeners = NO_LISTENERS;
+
+	synchronized void addListener(ResourceLifecycleListener listener) {
+		if (listener == null) {
+			throw new IllegalArgumentException("listener must not be null");
+		}
+		ResourceLifecycleListener[] current = listeners;
+		ResourceLifecycleListener[] updated = new ResourceLifecycleListener[current.length + 1];
+		System.arraycopy(current, 0, updated, 0, current.length);
+		updated[current.length] = listener;
+		listeners = updated;
+	}
+
+	synchronized void removeListener(ResourceLifecycleListener listener) {
+		ResourceLifecycleListener[] current = listeners;
+		for (int i = 0; i < current.length; i++) {
+			if (current[i].equals(listener)) {
+				if (current.length == 1) {
+					listeners = NO_LISTENERS;
+				} else {
+					ResourceLifecycleListener[] updated = new ResourceLifecycleListener[current.length - 1];
+					System.arraycopy(current, 0, updated, 0, i);
+					System.arraycopy(current, i + 1, updated, i,
+							current.length - i - 1);
+					listeners = updated;
+				}
+				return;
+			}
+		}
+	}
+
+	@Override
+	public void connectionCreated(Connection connection) {
+		ResourceLifecycleListener[] current = listeners;
+		for (int i = 0; i < current.length; i++) {
+			current[i].connectionCreated(connection);
+		}
+	}
+
+	@Override
+	public void connectionClosed(Connection connection) {
+		ResourceLifecycleListener[] current = listeners;
+		for (int i = 0; i < current.length; i++) {
+			current[i].connectionClosed(connection);
+		}
+	}
+
+	@Override
+	public void statementCreated(Statement statement) {
+		ResourceLifecycleListener[] current = listeners;
+		for (int i = 0; i < current.length; i++) {
+			current[i].statementCreated(statement);
+		}
+	}
+
+	@Override
+	public void statementCreated(Statement statement, Connection connection) {
+		ResourceLifecycleListener[] current = listeners;
+		for (int i = 0; i < current.length; i++) {
+			if (current[i] instanceof OwnedResourceLifecycleListener) {
+				((OwnedResourceLifecycleListener) current[i]).statementCreated(
+						statement, connection);
+			} else {
+				current[i].statementCreated(statement);
+			}
+		}
+	}
+
+	@Override
+	public void statementClosed(Statement statement) {
+		ResourceLifecycleListener[] current = listeners;
+		for (int i = 0; i < current.length; i++) {
+			current[i].statementClosed(statement);
+		}
+	}
+
+	@Override
+	public void resultSetCreated(ResultSet resultSet) {
+		ResourceLifecycleListener[] current = listeners;
+		for (int i = 0; i < current.length; i++) {
+			current[i].resultSetCreated(resultSet);
+		}
+	}
+
+	@Override
+	public void resultSetCreated(ResultSet resultSet, Connection connection) {
+		ResourceLifecycleListener[] current = listeners;
+		for (int i = 0; i < current.length; i++) {
+			if (current[i] instanceof OwnedResourceLifecycleListener) {
+				((OwnedResourceLifecycleListener) current[i]).resultSetCreated(
+						resultSet, connection);
+			} else {
+				current[i].resultSetCreated(resultSet);
+			}
+		}
+	}
+
+	@Override
+	public void resultSetClosed(ResultSet resultSet) {
+		ResourceLifecycleListener[] current = listeners;
+		for (int i = 0; i < current.length; i++) {
+			current[i].resultSetClosed(resultSet);
+		}
+	}
+
+}
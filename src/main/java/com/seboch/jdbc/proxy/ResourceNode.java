@@ -0,0 +1,167 @@
+package com.seboch.jdbc.proxy;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Node of the graph of the open resources of a connection: a connection
+ * owns its statements and the result sets of its meta data, a statement owns
+ * its result sets.
+ * <p>
+ * Closing a node closes its remaining children in the same pass, firing
+ * their close events, as the driver closes them implicitly. Nodes are the
+ * wrappers and invocation handlers themselves so the graph allocates nothing
+ * but the children arrays.
+ * <p>
+ * Like the JDBC objects it mirrors, the graph of a connection is only
+ * modified by the thread using the connection and is not synchronized.
+ */
+abstract class ResourceNode {
+
+	private static final ResourceNode[] NO_CHILDREN = new ResourceNode[0];
+
+	private ResourceNode parent;
+	private int index;
+	private ResourceNode[] children = NO_CHILDREN;
+	private int childCount;
+	private boolean closed;
+	private SlowExecution slowExecution;
+	private int[] batchUpdateCounts;
+
+	/**
+	 * @return the driver object of this node
+	 */
+	abstract Object getResource();
+
+	/**
+	 * Fires the close events of this node, closed implicitly by the close of
+	 * its parent.
+	 */
+	abstract void fireImplicitlyClosed();
+
+	/**
+	 * @return the driver connection owning this node, or null
+	 */
+	final Connection getOwningConnection() {
+		ResourceNode node = this;
+		while (node.parent != null) {
+			node = node.parent;
+		}
+		Object resource = node.getResource();
+		return resource instanceof Connection ? (Connection) resource : null;
+	}
+
+	/**
+	 * @return the slow execution whose rows are not known yet, see
+	 *         {@link SlowExecution}, or null
+	 */
+	final SlowExecution getSlowExecution() {
+		return slowExecution;
+	}
+
+	final void setSlowExecution(SlowExecution slowExecution) {
+		this.slowExecution = slowExecution;
+	}
+
+	/**
+	 * @return the update counts of the last transparent batch executed for
+	 *         this statement node, see {@link TransparentBatch}, or null
+	 */
+	final int[] getBatchUpdateCounts() {
+		return batchUpdateCounts;
+	}
+
+	final void setBatchUpdateCounts(int[] batchUpdateCounts) {
+		this.batchUpdateCounts = batchUpdateCounts;
+	}
+
+	final void addChild(ResourceNode child) {
+		if (closed) {
+			return;
+		}
+		if (childCount == children.length) {
+			ResourceNode[] grown = new ResourceNode[Math.max(4,
+					children.length << 1)];
+			System.arraycopy(children, 0, grown, 0, childCount);
+			children = grown;
+		}
+		child.parent = this;
+		child.index = childCount;
+		children[childCount++] = child;
+	}
+
+	/**
+	 * Marks this node closed and detaches it from its parent.
+	 * 
+	 * @return false if the node was already closed, so that close events are
+	 *         only fired once
+	 */
+	final boolean markClosed() {
+		if (closed) {
+			return false;
+		}
+		closed = true;
+		if (parent != null) {
+			parent.removeChild(this);
+		}
+		return true;
+	}
+
+	private void removeChild(ResourceNode child) {
+		int last = --childCount;
+		if (child.index != last) {
+			ResourceNode moved = children[last];
+			children[child.index] = moved;
+			moved.index = child.index;
+		}
+		children[last] = null;
+		child.parent = null;
+		if (childCount == 0 && children.length > 16) {
+			children = NO_CHILDREN;
+		}
+	}
+
+	/**
+	 * Closes this node, as its parent was closed, then its children.
+	 */
+	final void closeImplicitly() {
+		if (markClosed()) {
+			closeChildren();
+			fireImplicitlyClosed();
+		}
+	}
+
+	/**
+	 * Implicitly closes the remaining children of this node.
+	 */
+	final void closeChildren() {
+		while (childCount > 0) {
+			children[childCount - 1].closeImplicitly();
+		}
+	}
+
+	/**
+	 * Closes the driver result sets of the remaining children, then
+	 * implicitly closes the children. Used by the statements which stay open
+	 * on the driver side when closed, see {@link StatementCache}.
+	 */
+	final void closeChildResultSets() throws SQLException {
+		SQLException failure = null;
+		while (childCount > 0) {
+			ResourceNode child = children[childCount - 1];
+			Object resource = child.getResource();
+			if (resource instanceof ResultSet) {
+				try {
+					((ResultSet) resource).close();
+				} catch (SQLException e) {
+					failure = e;
+				}
+			}
+			child.closeImplicitly();
+		}
+		if (failure != null) {
+			throw failure;
+		}
+	}
+}
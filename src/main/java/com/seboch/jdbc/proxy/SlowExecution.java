@@ -0,0 +1,37 @@
+package com.seboch.jdbc.proxy;
+
+import com.seboch.jdbc.proxy.slowlog.SlowQuery;
+
+/**
+ * Execution slower than the threshold of the slow query log, logged once
+ * the number of rows it returned is known: when its result set is closed,
+ * or right away for an update.
+ * <p>
+ * Held by the {@link ResourceNode} of the statement until its result set is
+ * proxied, then by the node of the result set.
+ */
+final class SlowExecution {
+
+	private final String sql;
+	private final Object[] parameters;
+	private final long elapsedNanos;
+	private final StackTraceElement callSite;
+	private final long executionTime = System.currentTimeMillis();
+
+	SlowExecution(String sql, Object[] parameters, long elapsedNanos,
+			StackTraceElement callSite) {
+		this.sql = sql;
+		this.parameters = parameters;
+		this.elapsedNanos = elapsedNanos;
+		this.callSite = callSite;
+	}
+
+	/**
+	 * @param rowCount
+	 *            rows read or updated by the execution, -1 if unknown
+	 */
+	SlowQuery toSlowQuery(long rowCount) {
+		return new SlowQuery(sql, parameters, elapsedNanos, rowCount,
+				callSite, executionTime);
+	}
+}
@@ -0,0 +1,242 @@
+package com.seboch.jdbc.proxy;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * LRU cache of the idle prepared and callable statements of one connection.
+ * <p>
+ * A statement taken from the cache is handed out in a new proxy, and its
+ * logical close returns it to the cache instead of closing it: its result
+ * sets are closed, its parameters cleared and the settings changed by the
+ * application, like the maximum number of rows or the query timeout,
+ * restored. Lifecycle listeners see the logical statements, so idle
+ * statements are not tracked as open.
+ * <p>
+ * Like the resource graph, the cache is only used by the thread using the
+ * connection and is not synchronized.
+ */
+final class StatementCache {
+
+	/**
+	 * Holdability of the statements prepared without one, which use the
+	 * holdability of the connection.
+	 */
+	static final int DEFAULT_HOLDABILITY = 0;
+
+	static final int HITS = 0;
+	static final int MISSES = 1;
+	static final int EVICTIONS = 2;
+	static final int COUNTERS = 3;
+
+	/**
+	 * Statement swapped into the proxies of recycled statements, so that a
+	 * statement used after close() fails instead of using the driver
+	 * statement handed out again.
+	 */
+	static final CallableStatement CLOSED_STATEMENT = (CallableStatement) Proxy
+			.newProxyInstance(StatementCache.class.getClassLoader(),
+					new Class<?>[] { CallableStatement.class },
+					new InvocationHandler() {
+						@Override
+						public Object invoke(Object proxy, Method method,
+								Object[] args) throws Throwable {
+							String name = method.getName();
+							if (name.equals("close")) {
+								return null;
+							} else if (name.equals("isClosed")) {
+								return true;
+							} else if (name.equals("equals")) {
+								return proxy == args[0];
+							} else if (name.equals("hashCode")) {
+								return System.identityHashCode(proxy);
+							} else if (name.equals("toString")) {
+								return "ClosedStatement";
+							}
+							throw new SQLException("Statement is closed");
+						}
+					});
+
+	static final class Key {
+
+		private final String sql;
+		private final boolean callable;
+		private final int resultSetType;
+		private final int resultSetConcurrency;
+		private final int resultSetHoldability;
+		private final int hash;
+
+		Key(String sql, boolean callable, int resultSetType,
+				int resultSetConcurrency, int resultSetHoldability) {
+			this.sql = sql;
+			this.callable = callable;
+			this.resultSetType = resultSetType;
+			this.resultSetConcurrency = resultSetConcurrency;
+			this.resultSetHoldability = resultSetHoldability;
+			int h = sql.hashCode();
+			h = 31 * h + (callable ? 1 : 0);
+			h = 31 * h + resultSetType;
+			h = 31 * h + resultSetConcurrency;
+			this.hash = 31 * h + resultSetHoldability;
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			} else if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) obj;
+			return hash == other.hash && callable == other.callable
+					&& resultSetType == other.resultSetType
+					&& resultSetConcurrency == other.resultSetConcurrency
+					&& resultSetHoldability == other.resultSetHoldability
+					&& sql.equals(other.sql);
+		}
+	}
+
+	private final int maxSize;
+	private final AtomicLongArray counters;
+	private final TransparentBatch transparentBatch;
+	private final LinkedHashMap<Key, PreparedStatement> idle;
+	private boolean closed;
+
+	/**
+	 * @param counters
+	 *            hit, miss and eviction counters shared by the caches of a
+	 *            factory
+	 * @param transparentBatch
+	 *            batch of the connection, executed before the statement
+	 *            holding it is released or closed, may be null
+	 */
+	StatementCache(int maxSize, AtomicLongArray counters,
+			TransparentBatch transparentBatch) {
+		this.maxSize = maxSize;
+		this.counters = counters;
+		this.transparentBatch = transparentBatch;
+		this.idle = new LinkedHashMap<Key, PreparedStatement>(16, 0.75f, true);
+	}
+
+	/**
+	 * @return the idle statement cached for key, removed from the cache, or
+	 *         null
+	 */
+	PreparedStatement take(Key key) {
+		PreparedStatement statement = idle.remove(key);
+		counters.incrementAndGet(statement == null ? MISSES : HITS);
+		return statement;
+	}
+
+	/**
+	 * Returns a logically closed statement to the cache, closing the least
+	 * recently used statement if the cache is full. The statement is closed
+	 * instead if it can not be reset or if the cache is closed.
+	 *
+	 * @param node
+	 *            node of the statement proxy, whose result sets are closed
+	 * @param clearBatch
+	 *            true if the statement has a pending batch
+	 * @param settings
+	 *            settings changed by the application, null if none
+	 */
+	void release(Key key, PreparedStatement statement, ResourceNode node,
+			boolean clearBatch, StatementSettings settings)
+			throws SQLException {
+		if (closed) {
+			close(statement);
+			return;
+		}
+		try {
+			if (transparentBatch != null) {
+				// idle statements do not hold deferred updates
+				transparentBatch.flush(statement);
+			}
+			node.closeChildResultSets();
+			statement.clearParameters();
+			if (clearBatch) {
+				statement.clearBatch();
+			}
+			if (settings != null) {
+				settings.restore(statement);
+			}
+		} catch (SQLException e) {
+			closeQuietly(statement);
+			throw e;
+		}
+		PreparedStatement replaced = idle.put(key, statement);
+		if (replaced != null) {
+			// the same SQL was prepared twice, only one statement is kept
+			counters.incrementAndGet(EVICTIONS);
+			close(replaced);
+		} else if (idle.size() > maxSize) {
+			Iterator<PreparedStatement> eldest = idle.values().iterator();
+			PreparedStatement evicted = eldest.next();
+			eldest.remove();
+			counters.incrementAndGet(EVICTIONS);
+			close(evicted);
+		}
+	}
+
+	/**
+	 * Closes the idle statements, for instance when the schema of the
+	 * connection changes.
+	 */
+	void clear() throws SQLException {
+		List<PreparedStatement> statements = new ArrayList<PreparedStatement>(
+				idle.values());
+		idle.clear();
+		SQLException failure = null;
+		for (PreparedStatement statement : statements) {
+			try {
+				close(statement);
+			} catch (SQLException e) {
+				failure = e;
+			}
+		}
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	/**
+	 * Closes the idle statements, the statements released afterwards are
+	 * closed too.
+	 */
+	void close() throws SQLException {
+		closed = true;
+		clear();
+	}
+
+	private void close(PreparedStatement statement) throws SQLException {
+		try {
+			if (transparentBatch != null) {
+				transparentBatch.flush(statement);
+			}
+		} finally {
+			statement.close();
+		}
+	}
+
+	private void closeQuietly(PreparedStatement statement) {
+		try {
+			close(statement);
+		} catch (SQLException e) {
+			// the reset failure is reported instead
+		}
+	}
+}
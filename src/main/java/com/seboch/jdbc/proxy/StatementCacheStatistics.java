@@ -0,0 +1,53 @@
+package com.seboch.jdbc.proxy;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Immutable counters of the statement caches of a {@link JdbcProxyFactory},
+ * see {@link JdbcProxyFactory#setStatementCacheSize(int)}.
+ */
+public final class StatementCacheStatistics {
+
+	private final long hitCount;
+	private final long missCount;
+	private final long evictionCount;
+
+	StatementCacheStatistics(AtomicLongArray counters) {
+		this.hitCount = counters.get(StatementCache.HITS);
+		this.missCount = counters.get(StatementCache.MISSES);
+		this.evictionCount = counters.get(StatementCache.EVICTIONS);
+	}
+
+	/**
+	 * @return number of statements prepared from the cache
+	 */
+	public long getHitCount() {
+		return hitCount;
+	}
+
+	/**
+	 * @return number of statements prepared by the driver, because the cache
+	 *         had no idle statement for them
+	 */
+	public long getMissCount() {
+		return missCount;
+	}
+
+	/**
+	 * @return number of idle statements closed to make room in a full cache
+	 */
+	public long getEvictionCount() {
+		return evictionCount;
+	}
+
+	public double getHitRatio() {
+		long total = hitCount + missCount;
+		return total == 0 ? 0 : (double) hitCount / total;
+	}
+
+	@Override
+	public String toString() {
+		return "hits=" + hitCount + ", misses=" + missCount + ", evictions="
+				+ evictionCount;
+	}
+}
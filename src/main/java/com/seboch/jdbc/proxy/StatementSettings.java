@@ -0,0 +1,125 @@
+package com.seboch.jdbc.proxy;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Settings of a cached statement changed by the application, with the
+ * values they had before, so that the next borrower of the statement does
+ * not inherit them, see {@link StatementCache}.
+ * <p>
+ * The previous value of a setting is read from the driver on its first
+ * change only, nothing is read for the statements whose settings are left
+ * alone.
+ */
+final class StatementSettings {
+
+	static final int MAX_ROWS = 1;
+	static final int QUERY_TIMEOUT = 1 << 1;
+	static final int FETCH_SIZE = 1 << 2;
+	static final int FETCH_DIRECTION = 1 << 3;
+	static final int MAX_FIELD_SIZE = 1 << 4;
+	static final int POOLABLE = 1 << 5;
+	static final int ESCAPE_PROCESSING = 1 << 6;
+
+	/**
+	 * Settings changed so far, as a mask of the constants above.
+	 */
+	private int changed;
+
+	private int maxRows;
+	private int queryTimeout;
+	private int fetchSize;
+	private int fetchDirection;
+	private int maxFieldSize;
+	private boolean poolable;
+
+	/**
+	 * @return the setting changed by the statement method named methodName,
+	 *         or 0
+	 */
+	static int settingOf(String methodName) {
+		if (!methodName.startsWith("set")) {
+			return 0;
+		} else if (methodName.equals("setMaxRows")) {
+			return MAX_ROWS;
+		} else if (methodName.equals("setQueryTimeout")) {
+			return QUERY_TIMEOUT;
+		} else if (methodName.equals("setFetchSize")) {
+			return FETCH_SIZE;
+		} else if (methodName.equals("setFetchDirection")) {
+			return FETCH_DIRECTION;
+		} else if (methodName.equals("setMaxFieldSize")) {
+			return MAX_FIELD_SIZE;
+		} else if (methodName.equals("setPoolable")) {
+			return POOLABLE;
+		} else if (methodName.equals("setEscapeProcessing")) {
+			return ESCAPE_PROCESSING;
+		}
+		return 0;
+	}
+
+	/**
+	 * Records the value of setting before the application changes it, if
+	 * not recorded yet.
+	 */
+	void changing(int setting, Statement statement) throws SQLException {
+		if ((changed & setting) != 0) {
+			return;
+		}
+		switch (setting) {
+		case MAX_ROWS:
+			maxRows = statement.getMaxRows();
+			break;
+		case QUERY_TIMEOUT:
+			queryTimeout = statement.getQueryTimeout();
+			break;
+		case FETCH_SIZE:
+			fetchSize = statement.getFetchSize();
+			break;
+		case FETCH_DIRECTION:
+			fetchDirection = statement.getFetchDirection();
+			break;
+		case MAX_FIELD_SIZE:
+			maxFieldSize = statement.getMaxFieldSize();
+			break;
+		case POOLABLE:
+			poolable = statement.isPoolable();
+			break;
+		case ESCAPE_PROCESSING:
+			// no getter, escape processing is on by default
+			break;
+		default:
+			throw new IllegalArgumentException("Unknown setting " + setting);
+		}
+		changed |= setting;
+	}
+
+	/**
+	 * Restores the settings changed on statement.
+	 */
+	void restore(Statement statement) throws SQLException {
+		if ((changed & MAX_ROWS) != 0) {
+			statement.setMaxRows(maxRows);
+		}
+		if ((changed & QUERY_TIMEOUT) != 0) {
+			statement.setQueryTimeout(queryTimeout);
+		}
+		if ((changed & FETCH_SIZE) != 0) {
+			statement.setFetchSize(fetchSize);
+		}
+		if ((changed & FETCH_DIRECTION) != 0) {
+			statement.setFetchDirection(fetchDirection);
+		}
+		if ((changed & MAX_FIELD_SIZE) != 0) {
+			statement.setMaxFieldSize(maxFieldSize);
+		}
+		if ((changed & POOLABLE) != 0) {
+			statement.setPoolable(poolable);
+		}
+		if ((changed & ESCAPE_PROCESSING) != 0) {
+			statement.setEscapeProcessing(true);
+		}
+		changed = 0;
+	}
+}
@@ -0,0 +1,664 @@
+package com.seboch.jdbc.proxy;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLWarning;
+import java.sql.Statement;
+import java.util.Set;
+
+/**
+ * Delegating {@link Statement} used by the {@link ProxyBackend#WRAPPER}
+ * backend.
+ */
+class StatementWrapper extends ResourceNode implements Statement {
+
+	static final Object[] NO_PARAMETERS = new Object[0];
+
+	private final JdbcProxyFactory factory;
+	private Statement statement;
+
+	/**
+	 * Proxied connection which created this statement.
+	 */
+	private final Connection connection;
+
+	/**
+	 * SQL the statement was prepared with, null for plain statements.
+	 */
+	final String sql;
+
+	/**
+	 * Number of addBatch calls since the last execution or clear of the
+	 * batch.
+	 */
+	private int batchSize;
+
+	/**
+	 * SQL of the last execution, for the result sets obtained after it.
+	 */
+	private String executedSql;
+
+	/**
+	 * Last result set returned by the driver and its proxy, returned again
+	 * when the driver returns the same result set.
+	 */
+	private ResultSet resultSet;
+	private ResultSet resultSetProxy;
+
+	/**
+	 * Cache the statement returns to when closed, null if not cached.
+	 */
+	private StatementCache cache;
+	private StatementCache.Key cacheKey;
+
+	/**
+	 * Settings of the cached statement changed by the application, null if
+	 * none.
+	 */
+	private StatementSettings settings;
+
+	/**
+	 * Batch executeUpdate() is deferred to, null if updates are not
+	 * deferred.
+	 */
+	private TransparentBatch transparentBatch;
+	private boolean deferUpdates;
+
+	/**
+	 * Session of the query result cache, null if results are not cached.
+	 */
+	private QueryResultCache.Session queryCacheSession;
+
+	/**
+	 * True once the application set the fetch size, which is then no longer
+	 * governed by the factory.
+	 */
+	private boolean fetchSizeSet;
+
+	StatementWrapper(JdbcProxyFactory factory, Statement statement,
+			Connection connection, String sql) {
+		this.factory = factory;
+		this.statement = statement;
+		this.connection = connection;
+		this.sql = sql;
+		this.executedSql = sql;
+	}
+
+	@Override
+	Object getResource() {
+		return statement;
+	}
+
+	@Override
+	void fireImplicitlyClosed() {
+		factory.fireStatementClosed(this, statement);
+	}
+
+	void cacheIn(StatementCache cache, StatementCache.Key cacheKey) {
+		this.cache = cache;
+		this.cacheKey = cacheKey;
+	}
+
+	void batchIn(TransparentBatch transparentBatch, boolean deferUpdates) {
+		this.transparentBatch = transparentBatch;
+		this.deferUpdates = deferUpdates;
+	}
+
+	/**
+	 * @return the batch of the connection, null if updates are not batched
+	 */
+	TransparentBatch getTransparentBatch() {
+		return transparentBatch;
+	}
+
+	void queryCacheIn(QueryResultCache.Session queryCacheSession) {
+		this.queryCacheSession = queryCacheSession;
+	}
+
+	/**
+	 * @param parameters
+	 *            values bound to the statement, null if not recorded
+	 * @return the lookup of executedSql in the query result cache, null if
+	 *         its results are not cached
+	 */
+	QueryResultCache.Query lookUpQuery(String executedSql, Object[] parameters)
+			throws SQLException {
+		if (queryCacheSession == null) {
+			return null;
+		}
+		Set<String> tables = queryCacheSession.tablesReadBy(executedSql);
+		if (tables == null) {
+			return null;
+		}
+		// the cached rows must reflect the updates deferred on the connection
+		flushBatch();
+		return queryCacheSession.lookUp(executedSql, tables, parameters);
+	}
+
+	/**
+	 * @return a proxy of a result set over the given rows, the current result
+	 *         set being closed as on an execution
+	 */
+	ResultSet cachedResultSet(String executedSql, CachedRows rows) {
+		this.executedSql = executedSql;
+		closeCurrentResultSet();
+		return proxyResultSet(new CachedResultSet(rows));
+	}
+
+	/**
+	 * @param query
+	 *            lookup of the execution in the query result cache, null if
+	 *            its results are not cached
+	 * @return the proxy of the result set returned by the execution of
+	 *         executedSql, or of a copy of its rows if they are cached or
+	 *         detached
+	 */
+	ResultSet queryResult(String executedSql, QueryResultCache.Query query,
+			ResultSet resultSet) throws SQLException {
+		if (query != null) {
+			return cachedResultSet(executedSql, query.store(resultSet));
+		} else if (resultSet != null && factory.detachesResults(executedSql)) {
+			return cachedResultSet(executedSql, CachedRows.read(resultSet));
+		}
+		return proxyResultSet(resultSet);
+	}
+
+	/**
+	 * Invalidates the cached query results of the tables written by
+	 * executedSql, null if unknown.
+	 */
+	void written(String executedSql) throws SQLException {
+		if (queryCacheSession != null) {
+			queryCacheSession.executed(executedSql);
+		}
+	}
+
+	/**
+	 * @return true if executeUpdate() is deferred to the transparent batch,
+	 *         which is not done while the application builds its own batch
+	 */
+	boolean defersUpdates() {
+		return deferUpdates && batchSize == 0;
+	}
+
+	int deferUpdate() throws SQLException {
+		closeCurrentResultSet();
+		return transparentBatch.deferUpdate((PreparedStatement) statement,
+				this, sql);
+	}
+
+	/**
+	 * Executes the updates deferred on the connection, if any.
+	 */
+	void flushBatch() throws SQLException {
+		if (transparentBatch != null) {
+			transparentBatch.flush();
+		}
+	}
+
+	/**
+	 * Swaps the driver statement for a closed one, once the driver statement
+	 * has been returned to the cache and may be handed out again.
+	 */
+	void detach() {
+		statement = StatementCache.CLOSED_STATEMENT;
+	}
+
+	long beforeExecute(String executedSql) throws SQLException {
+		flushBatch();
+		this.executedSql = executedSql;
+		// executing a statement closes its current result set
+		closeCurrentResultSet();
+		return factory.beforeExecute(this, statement, executedSql);
+	}
+
+	/**
+	 * Same as {@link #beforeExecute(String)} for the executions which may
+	 * return a result set, whose fetch size is governed by the factory.
+	 */
+	long beforeQuery(String executedSql) throws SQLException {
+		if (!fetchSizeSet) {
+			factory.governFetchSize(statement, executedSql);
+		}
+		return beforeExecute(executedSql);
+	}
+
+	void afterExecute(String executedSql, long start, long updateCount) {
+		factory.afterExecute(statement, executedSql, start, updateCount);
+		factory.executed(this, executedSql, getBoundParameters(), start,
+				updateCount);
+	}
+
+	/**
+	 * @return the values bound to the statement, null if not recorded
+	 */
+	BoundParameters getBoundParameters() {
+		return null;
+	}
+
+	ResultSet proxyResultSet(ResultSet resultSet) {
+		if (resultSet != this.resultSet || resultSet == null) {
+			this.resultSet = resultSet;
+			this.resultSetProxy = factory.proxyResultSet(resultSet, this,
+					this, executedSql);
+		}
+		return resultSetProxy;
+	}
+
+	private void closeCurrentResultSet() {
+		if (resultSetProxy != null) {
+			JdbcProxyFactory.nodeOf(resultSetProxy).closeImplicitly();
+			resultSet = null;
+			resultSetProxy = null;
+		}
+	}
+
+	@Override
+	public ResultSet executeQuery(String sql) throws SQLException {
+		QueryResultCache.Query query = lookUpQuery(sql, NO_PARAMETERS);
+		if (query != null && query.getCachedRows() != null) {
+			return cachedResultSet(sql, query.getCachedRows());
+		}
+		long start = beforeQuery(sql);
+		ResultSet resultSet;
+		try {
+			resultSet = statement.executeQuery(sql);
+		} catch (SQLException e) {
+			throw factory.executeFailed(statement, sql, start, e);
+		} catch (RuntimeException e) {
+			throw factory.executeFailed(statement, sql, start, e);
+		}
+		afterExecute(sql, start, -1);
+		return queryResult(sql, query, resultSet);
+	}
+
+	@Override
+	public int executeUpdate(String sql) throws SQLException {
+		long start = beforeExecute(sql);
+		int updateCount;
+		try {
+			updateCount = statement.executeUpdate(sql);
+		} catch (SQLException e) {
+			throw factory.executeFailed(statement, sql, start, e);
+		} catch (RuntimeException e) {
+			throw factory.executeFailed(statement, sql, start, e);
+		}
+		afterExecute(sql, start, updateCount);
+		written(sql);
+		return updateCount;
+	}
+
+	@Override
+	public void close() throws SQLException {
+		if (cache == null) {
+			try {
+				if (transparentBatch != null) {
+					transparentBatch.flush(statement);
+				}
+			} finally {
+				statement.close();
+				if (markClosed()) {
+					closeChildren();
+					factory.fireStatementClosed(this, statement);
+				}
+			}
+		} else if (markClosed()) {
+			try {
+				cache.release(cacheKey, (PreparedStatement) statement, this,
+						batchSize > 0, settings);
+			} finally {
+				closeChildren();
+				factory.fireStatementClosed(this, statement);
+				detach();
+			}
+		}
+	}
+
+	/**
+	 * Records the previous value of a setting of a cached statement, to
+	 * restore it when the statement returns to the cache.
+	 */
+	private void changing(int setting) throws SQLException {
+		if (cache != null) {
+			if (settings == null) {
+				settings = new StatementSettings();
+			}
+			settings.changing(setting, statement);
+		}
+	}
+
+	@Override
+	public int getMaxFieldSize() throws SQLException {
+		return statement.getMaxFieldSize();
+	}
+
+	@Override
+	public void setMaxFieldSize(int max) throws SQLException {
+		changing(StatementSettings.MAX_FIELD_SIZE);
+		statement.setMaxFieldSize(max);
+	}
+
+	@Override
+	public int getMaxRows() throws SQLException {
+		return statement.getMaxRows();
+	}
+
+	@Override
+	public void setMaxRows(int max) throws SQLException {
+		changing(StatementSettings.MAX_ROWS);
+		statement.setMaxRows(max);
+	}
+
+	@Override
+	public void setEscapeProcessing(boolean enable) throws SQLException {
+		changing(StatementSettings.ESCAPE_PROCESSING);
+		statement.setEscapeProcessing(enable);
+	}
+
+	@Override
+	public int getQueryTimeout() throws SQLException {
+		return statement.getQueryTimeout();
+	}
+
+	@Override
+	public void setQueryTimeout(int seconds) throws SQLException {
+		changing(StatementSettings.QUERY_TIMEOUT);
+		statement.setQueryTimeout(seconds);
+	}
+
+	@Override
+	public void cancel() throws SQLException {
+		statement.cancel();
+	}
+
+	@Override
+	public SQLWarning getWarnings() throws SQLException {
+		return statement.getWarnings();
+	}
+
+	@Override
+	public void clearWarnings() throws SQLException {
+		statement.clearWarnings();
+	}
+
+	@Override
+	public void setCursorName(String name) throws SQLException {
+		statement.setCursorName(name);
+	}
+
+	@Override
+	public boolean execute(String sql) throws SQLException {
+		long start = beforeQuery(sql);
+		boolean hasResultSet;
+		try {
+			hasResultSet = statement.execute(sql);
+		} catch (SQLException e) {
+			throw factory.executeFailed(statement, sql, start, e);
+		} catch (RuntimeException e) {
+			throw factory.executeFailed(statement, sql, start, e);
+		}
+		afterExecute(sql, start, -1);
+		written(sql);
+		return hasResultSet;
+	}
+
+	@Override
+	public ResultSet getResultSet() throws SQLException {
+		flushBatch();
+		return proxyResultSet(statement.getResultSet());
+	}
+
+	@Override
+	public int getUpdateCount() throws SQLException {
+		flushBatch();
+		return statement.getUpdateCount();
+	}
+
+	@Override
+	public boolean getMoreResults() throws SQLException {
+		flushBatch();
+		boolean hasResultSet = statement.getMoreResults();
+		closeCurrentResultSet();
+		return hasResultSet;
+	}
+
+	@Override
+	public void setFetchDirection(int direction) throws SQLException {
+		changing(StatementSettings.FETCH_DIRECTION);
+		statement.setFetchDirection(direction);
+	}
+
+	@Override
+	public int getFetchDirection() throws SQLException {
+		return statement.getFetchDirection();
+	}
+
+	@Override
+	public void setFetchSize(int rows) throws SQLException {
+		changing(StatementSettings.FETCH_SIZE);
+		statement.setFetchSize(rows);
+		fetchSizeSet = true;
+	}
+
+	@Override
+	public int getFetchSize() throws SQLException {
+		return statement.getFetchSize();
+	}
+
+	@Override
+	public int getResultSetConcurrency() throws SQLException {
+		return statement.getResultSetConcurrency();
+	}
+
+	@Override
+	public int getResultSetType() throws SQLException {
+		return statement.getResultSetType();
+	}
+
+	@Override
+	public void addBatch(String sql) throws SQLException {
+		flushBatch();
+		statement.addBatch(sql);
+		addedToBatch(sql);
+	}
+
+	void addedToBatch(String batchSql) {
+		batchSize++;
+		factory.batchAdded(statement, batchSql);
+	}
+
+	@Override
+	public void clearBatch() throws SQLException {
+		flushBatch();
+		statement.clearBatch();
+		batchSize = 0;
+	}
+
+	@Override
+	public int[] executeBatch() throws SQLException {
+		flushBatch();
+		int size = batchSize;
+		batchSize = 0;
+		long start = factory.beforeExecuteBatch(this, statement, sql, size);
+		int[] updateCounts;
+		try {
+			updateCounts = statement.executeBatch();
+		} catch (SQLException e) {
+			throw factory.executeBatchFailed(statement, sql, size, start, e);
+		} catch (RuntimeException e) {
+			throw factory.executeBatchFailed(statement, sql, size, start, e);
+		}
+		factory.afterExecuteBatch(statement, sql, size, start, updateCounts);
+		written(sql);
+		return updateCounts;
+	}
+
+	@Override
+	public Connection getConnection() throws SQLException {
+		return connection;
+	}
+
+	@Override
+	public boolean getMoreResults(int current) throws SQLException {
+		flushBatch();
+		boolean hasResultSet = statement.getMoreResults(current);
+		if (current == CLOSE_ALL_RESULTS) {
+			closeChildren();
+			resultSet = null;
+			resultSetProxy = null;
+		} else if (current == CLOSE_CURRENT_RESULT) {
+			closeCurrentResultSet();
+		}
+		return hasResultSet;
+	}
+
+	@Override
+	public ResultSet getGeneratedKeys() throws SQLException {
+		flushBatch();
+		return proxyResultSet(statement.getGeneratedKeys());
+	}
+
+	@Override
+	public int executeUpdate(String sql, int autoGeneratedKeys)
+			throws SQLException {
+		long start = beforeExecute(sql);
+		int updateCount;
+		try {
+			updateCount = statement.executeUpdate(sql, autoGeneratedKeys);
+		} catch (SQLException e) {
+			throw factory.executeFailed(statement, sql, start, e);
+		} catch (RuntimeException e) {
+			throw factory.executeFailed(statement, sql, start, e);
+		}
+		afterExecute(sql, start, updateCount);
+		written(sql);
+		return updateCount;
+	}
+
+	@Override
+	public int executeUpdate(String sql, int[] columnIndexes)
+			throws SQLException {
+		long start = beforeExecute(sql);
+		int updateCount;
+		try {
+			updateCount = statement.executeUpdate(sql, columnIndexes);
+		} catch (SQLException e) {
+			throw factory.executeFailed(statement, sql, start, e);
+		} catch (RuntimeException e) {
+			throw factory.executeFailed(statement, sql, start, e);
+		}
+		afterExecute(sql, start, updateCount);
+		written(sql);
+		return updateCount;
+	}
+
+	@Override
+	public int executeUpdate(String sql, String[] columnNames)
+			throws SQLException {
+		long start = beforeExecute(sql);
+		int updateCount;
+		try {
+			updateCount = statement.executeUpdate(sql, columnNames);
+		} catch (SQLException e) {
+			throw factory.executeFailed(statement, sql, start, e);
+		} catch (RuntimeException e) {
+			throw factory.executeFailed(statement, sql, start, e);
+		}
+		afterExecute(sql, start, updateCount);
+		written(sql);
+		return updateCount;
+	}
+
+	@Override
+	public boolean execute(String sql, int autoGeneratedKeys)
+			throws SQLException {
+		long start = beforeQuery(sql);
+		boolean hasResultSet;
+		try {
+			hasResultSet = statement.execute(sql, autoGeneratedKeys);
+		} catch (SQLException e) {
+			throw factory.executeFailed(statement, sql, start, e);
+		} catch (RuntimeException e) {
+			throw factory.executeFailed(statement, sql, start, e);
+		}
+		afterExecute(sql, start, -1);
+		written(sql);
+		return hasResultSet;
+	}
+
+	@Override
+	public boolean execute(String sql, int[] columnIndexes) throws SQLException {
+		long start = beforeQuery(sql);
+		boolean hasResultSet;
+		try {
+			hasResultSet = statement.execute(sql, columnIndexes);
+		} catch (SQLException e) {
+			throw factory.executeFailed(statement, sql, start, e);
+		} catch (RuntimeException e) {
+			throw factory.executeFailed(statement, sql, start, e);
+		}
+		afterExecute(sql, start, -1);
+		written(sql);
+		return hasResultSet;
+	}
+
+	@Override
+	public boolean execute(String sql, String[] columnNames) throws SQLException {
+		long start = beforeQuery(sql);
+		boolean hasResultSet;
+		try {
+			hasResultSet = statement.execute(sql, columnNames);
+		} catch (SQLException e) {
+			throw factory.executeFailed(statement, sql, start, e);
+		} catch (RuntimeException e) {
+			throw factory.executeFailed(statement, sql, start, e);
+		}
+		afterExecute(sql, start, -1);
+		written(sql);
+		return hasResultSet;
+	}
+
+	@Override
+	public int getResultSetHoldability() throws SQLException {
+		return statement.getResultSetHoldability();
+	}
+
+	@Override
+	public boolean isClosed() throws SQLException {
+		return statement.isClosed();
+	}
+
+	@Override
+	public void setPoolable(boolean poolable) throws SQLException {
+		changing(StatementSettings.POOLABLE);
+		statement.setPoolable(poolable);
+	}
+
+	@Override
+	public boolean isPoolable() throws SQLException {
+		return statement.isPoolable();
+	}
+
+	@Override
+	public void closeOnCompletion() throws SQLException {
+		statement.closeOnCompletion();
+	}
+
+	@Override
+	public boolean isCloseOnCompletion() throws SQLException {
+		return statement.isCloseOnCompletion();
+	}
+
+	@Override
+	public <T> T unwrap(Class<T> iface) throws SQLException {
+		return statement.unwrap(iface);
+	}
+
+	@Override
+	public boolean isWrapperFor(Class<?> iface) throws SQLException {
+		return statement.isWrapperFor(iface);
+	}
+
+}
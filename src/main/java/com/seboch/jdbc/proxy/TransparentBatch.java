@@ -0,0 +1,130 @@
+package com.seboch.jdbc.proxy;
+
+import java.sql.BatchUpdateException;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Batch of the executeUpdate() calls deferred on the prepared statements of
+ * one connection, see
+ * {@link JdbcProxyFactory#setTransparentBatching(int, long, java.util.concurrent.TimeUnit)}.
+ * <p>
+ * Updates are only deferred for one statement at a time: deferring an
+ * update of another statement executes the pending batch first. The batch
+ * is also executed when it is full, when its first update is older than
+ * the maximum delay, before any statement of the connection is executed,
+ * before the connection commits, rolls back or changes state, and before
+ * the statement holding it is closed or returned to the statement cache.
+ * There is no timer, the delay is checked when the next update is deferred.
+ * The update counts of an executed batch are kept on the node of the
+ * statement proxy, see {@link ResourceNode#getBatchUpdateCounts()}.
+ * <p>
+ * Like the resource graph, the batch is only used by the thread using the
+ * connection and is not synchronized.
+ */
+final class TransparentBatch {
+
+	private final JdbcProxyFactory factory;
+	private final int maxSize;
+	private final long maxDelayNanos;
+
+	/**
+	 * Session of the query result cache, null if results are not cached.
+	 */
+	private final QueryResultCache.Session queryCacheSession;
+
+	/**
+	 * Driver statement holding the deferred updates, null if none.
+	 */
+	private PreparedStatement statement;
+	private ResourceNode node;
+	private String sql;
+	private int size;
+	private long firstUpdateTime;
+
+	TransparentBatch(JdbcProxyFactory factory, int maxSize,
+			long maxDelayNanos, QueryResultCache.Session queryCacheSession) {
+		this.factory = factory;
+		this.maxSize = maxSize;
+		this.maxDelayNanos = maxDelayNanos;
+		this.queryCacheSession = queryCacheSession;
+	}
+
+	/**
+	 * Adds the current parameters of statement to the batch instead of
+	 * executing it.
+	 *
+	 * @param node
+	 *            node of the statement proxy, receiving the update counts
+	 * @return {@link Statement#SUCCESS_NO_INFO}, as the update count is not
+	 *         known until the batch is executed
+	 */
+	int deferUpdate(PreparedStatement statement, ResourceNode node,
+			String sql) throws SQLException {
+		if (this.statement != statement) {
+			flush();
+		}
+		statement.addBatch();
+		long now = System.nanoTime();
+		if (size++ == 0) {
+			this.statement = statement;
+			this.node = node;
+			this.sql = sql;
+			firstUpdateTime = now;
+		}
+		factory.batchAdded(statement, sql);
+		if (size >= maxSize || now - firstUpdateTime >= maxDelayNanos) {
+			flush();
+		}
+		return Statement.SUCCESS_NO_INFO;
+	}
+
+	/**
+	 * Executes the deferred updates, the failure of the batch is thrown to
+	 * the caller whatever the operation which triggered it.
+	 */
+	void flush() throws SQLException {
+		PreparedStatement statement = this.statement;
+		if (statement == null) {
+			return;
+		}
+		ResourceNode node = this.node;
+		String sql = this.sql;
+		int size = this.size;
+		// a batch rejected by the concurrency limiter stays deferred
+		long start = factory.beforeExecuteBatch(node, statement, sql, size);
+		this.statement = null;
+		this.node = null;
+		this.sql = null;
+		this.size = 0;
+		int[] updateCounts;
+		try {
+			updateCounts = statement.executeBatch();
+		} catch (BatchUpdateException e) {
+			node.setBatchUpdateCounts(e.getUpdateCounts());
+			throw factory.executeBatchFailed(statement, sql, size, start, e);
+		} catch (SQLException e) {
+			node.setBatchUpdateCounts(null);
+			throw factory.executeBatchFailed(statement, sql, size, start, e);
+		} catch (RuntimeException e) {
+			node.setBatchUpdateCounts(null);
+			throw factory.executeBatchFailed(statement, sql, size, start, e);
+		}
+		node.setBatchUpdateCounts(updateCounts);
+		factory.afterExecuteBatch(statement, sql, size, start, updateCounts);
+		if (queryCacheSession != null) {
+			queryCacheSession.executed(sql);
+		}
+	}
+
+	/**
+	 * Executes the deferred updates if they belong to statement, before it is
+	 * closed or returned to the statement cache.
+	 */
+	void flush(Statement statement) throws SQLException {
+		if (this.statement == statement) {
+			flush();
+		}
+	}
+}
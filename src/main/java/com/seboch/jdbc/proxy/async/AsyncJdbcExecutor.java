@@ -0,0 +1,115 @@
+package com.seboch.jdbc.proxy.async;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import javax.sql.DataSource;
+
+/**
+ * Runs JDBC work on an {@link Executor}, each task taking a connection from
+ * a data source, typically one proxied by a
+ * {@link com.seboch.jdbc.proxy.JdbcProxyFactory}, and closing it when done.
+ * <p>
+ * With a virtual thread per task executor, blocking JDBC calls only park
+ * the virtual thread: the proxies never call the driver while holding a
+ * monitor, so they do not pin its carrier. Structured concurrency callers
+ * can fork the tasks returned by {@link #task(ConnectionCallback)} instead
+ * of submitting them.
+ * <p>
+ * {@link #newThreadPerTaskExecutor()} creates a virtual thread per task
+ * executor on Java 21 and later, from the Java 21 classes of the
+ * multi-release jar.
+ */
+public class AsyncJdbcExecutor {
+
+	private final DataSource dataSource;
+	private final Executor executor;
+
+	public AsyncJdbcExecutor(DataSource dataSource, Executor executor) {
+		if (dataSource == null) {
+			throw new IllegalArgumentException("dataSource must not be null");
+		}
+		if (executor == null) {
+			throw new IllegalArgumentException("executor must not be null");
+		}
+		this.dataSource = dataSource;
+		this.executor = executor;
+	}
+
+	/**
+	 * @return a new executor running each task on its own virtual thread on
+	 *         Java 21 and later, or on a new or idle daemon thread before.
+	 *         The caller shuts it down.
+	 */
+	public static ExecutorService newThreadPerTaskExecutor() {
+		return TaskExecutors.newThreadPerTaskExecutor();
+	}
+
+	/**
+	 * @return a task running callback with a connection of the data source,
+	 *         on the calling thread
+	 */
+	public <T> Callable<T> task(final ConnectionCallback<T> callback) {
+		if (callback == null) {
+			throw new IllegalArgumentException("callback must not be null");
+		}
+		return new Callable<T>() {
+			@Override
+			public T call() throws SQLException {
+				Connection connection = dataSource.getConnection();
+				try {
+					return callback.doInConnection(connection);
+				} finally {
+					connection.close();
+				}
+			}
+		};
+	}
+
+	/**
+	 * Runs callback on the executor with a connection of the data source.
+	 * 
+	 * @return the result of callback, the {@link SQLException}s it throws
+	 *         being the cause of the
+	 *         {@link java.util.concurrent.ExecutionException}
+	 */
+	public <T> Future<T> submit(ConnectionCallback<T> callback) {
+		FutureTask<T> future = new FutureTask<T>(task(callback));
+		executor.execute(future);
+		return future;
+	}
+
+	/**
+	 * Executes an update on the executor, binding parameters with
+	 * {@link PreparedStatement#setObject(int, Object)}.
+	 * 
+	 * @return the update count
+	 */
+	public Future<Integer> executeUpdate(final String sql,
+			final Object... parameters) {
+		if (sql == null) {
+			throw new IllegalArgumentException("sql must not be null");
+		}
+		return submit(new ConnectionCallback<Integer>() {
+			@Override
+			public Integer doInConnection(Connection connection)
+					throws SQLException {
+				PreparedStatement statement = connection.prepareStatement(sql);
+				try {
+					for (int i = 0; i < parameters.length; i++) {
+						statement.setObject(i + 1, parameters[i]);
+					}
+					return statement.executeUpdate();
+				} finally {
+					statement.close();
+				}
+			}
+		});
+	}
+}
@@ -0,0 +1,18 @@
+package com.seboch.jdbc.proxy.async;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Work done with a connection by an {@link AsyncJdbcExecutor}.
+ */
+public interface ConnectionCallback<T> {
+
+	/**
+	 * @param connection
+	 *            connection closed once the callback returns, which must not
+	 *            escape it
+	 */
+	public T doInConnection(Connection connection) throws SQLException;
+
+}
@@ -0,0 +1,33 @@
+package com.seboch.jdbc.proxy.async;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates the executors of {@link AsyncJdbcExecutor}. The multi-release jar
+ * replaces this class on Java 21 and later by a version using virtual
+ * threads, see src/main/java21.
+ */
+final class TaskExecutors {
+
+	private TaskExecutors() {
+	}
+
+	/**
+	 * @return an executor running each task on a new or idle daemon thread
+	 */
+	static ExecutorService newThreadPerTaskExecutor() {
+		final AtomicInteger threadCount = new AtomicInteger();
+		return Executors.newCachedThreadPool(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable task) {
+				Thread thread = new Thread(task, "jdbc-proxy-async-"
+						+ threadCount.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+}
@@ -0,0 +1,17 @@
+package com.seboch.jdbc.proxy.execution;
+
+/**
+ * Events an {@link ExecutionInterceptor} may subscribe to, one per callback.
+ */
+public enum ExecutionEvent {
+	BEFORE_EXECUTE,
+	AFTER_EXECUTE,
+	ADD_BATCH,
+	BEFORE_EXECUTE_BATCH,
+	AFTER_EXECUTE_BATCH,
+	BEFORE_COMMIT,
+	AFTER_COMMIT,
+	BEFORE_ROLLBACK,
+	AFTER_ROLLBACK,
+	RESULT_SET_CLOSED
+}
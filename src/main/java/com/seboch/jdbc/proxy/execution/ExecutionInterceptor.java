@@ -0,0 +1,79 @@
+package com.seboch.jdbc.proxy.execution;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+/**
+ * Intercepts the statement executions, batches and transaction ends going
+ * through the proxies of a {@link com.seboch.jdbc.proxy.JdbcProxyFactory}.
+ * <p>
+ * An interceptor is only called for the {@link ExecutionEvent}s it has been
+ * registered for, see
+ * {@link com.seboch.jdbc.proxy.JdbcProxyFactory#addExecutionInterceptor(ExecutionInterceptor, java.util.Set)}
+ * . Events nobody subscribed to are not timed nor dispatched. Callbacks run
+ * on the JDBC calling thread, with the wrapped driver objects, and an
+ * exception thrown by a before callback aborts the call.
+ */
+public interface ExecutionInterceptor {
+
+	/**
+	 * @param sql
+	 *            SQL about to be executed, null for a batch of a plain
+	 *            statement
+	 */
+	public void beforeExecute(Statement statement, String sql);
+
+	/**
+	 * @param updateCount
+	 *            update count returned by executeUpdate, -1 when the execution
+	 *            returned a result set or an unknown result
+	 * @param failure
+	 *            exception thrown by the driver, null on success
+	 */
+	public void afterExecute(Statement statement, String sql,
+			long elapsedNanos, long updateCount, Throwable failure);
+
+	/**
+	 * @param sql
+	 *            SQL added to the batch of a plain statement, or the SQL of a
+	 *            prepared statement whose parameters were added
+	 */
+	public void batchAdded(Statement statement, String sql);
+
+	/**
+	 * @param batchSize
+	 *            number of addBatch calls since the last execution or clear
+	 *            of the batch
+	 */
+	public void beforeExecuteBatch(Statement statement, String sql,
+			int batchSize);
+
+	/**
+	 * @param updateCounts
+	 *            update counts returned by the driver, null on failure
+	 */
+	public void afterExecuteBatch(Statement statement, String sql,
+			int batchSize, int[] updateCounts, long elapsedNanos,
+			Throwable failure);
+
+	public void beforeCommit(Connection connection);
+
+	public void afterCommit(Connection connection, long elapsedNanos,
+			Throwable failure);
+
+	public void beforeRollback(Connection connection);
+
+	public void afterRollback(Connection connection, long elapsedNanos,
+			Throwable failure);
+
+	/**
+	 * @param rowCount
+	 *            number of rows returned by {@link ResultSet#next()}
+	 * @param openNanos
+	 *            time elapsed between the result set creation and its close
+	 */
+	public void resultSetClosed(ResultSet resultSet, String sql,
+			long rowCount, long openNanos);
+
+}
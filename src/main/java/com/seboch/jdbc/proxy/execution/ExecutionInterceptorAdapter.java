@@ -0,0 +1,56 @@
+package com.seboch.jdbc.proxy.execution;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+public class ExecutionInterceptorAdapter implements ExecutionInterceptor {
+
+	@Override
+	public void beforeExecute(Statement statement, String sql) {
+	}
+
+	@Override
+	public void afterExecute(Statement statement, String sql,
+			long elapsedNanos, long updateCount, Throwable failure) {
+	}
+
+	@Override
+	public void batchAdded(Statement statement, String sql) {
+	}
+
+	@Override
+	public void beforeExecuteBatch(Statement statement, String sql,
+			int batchSize) {
+	}
+
+	@Override
+	public void afterExecuteBatch(Statement statement, String sql,
+			int batchSize, int[] updateCounts, long elapsedNanos,
+			Throwable failure) {
+	}
+
+	@Override
+	public void beforeCommit(Connection connection) {
+	}
+
+	@Override
+	public void afterCommit(Connection connection, long elapsedNanos,
+			Throwable failure) {
+	}
+
+	@Override
+	public void beforeRollback(Connection connection) {
+	}
+
+	@Override
+	public void afterRollback(Connection connection, long elapsedNanos,
+			Throwable failure) {
+	}
+
+	@Override
+	public void resultSetClosed(ResultSet resultSet, String sql,
+			long rowCount, long openNanos) {
+	}
+
+}
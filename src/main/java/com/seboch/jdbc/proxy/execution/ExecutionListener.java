@@ -0,0 +1,36 @@
+package com.seboch.jdbc.proxy.execution;
+
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+/**
+ * Notified of the statement executions and result set reads going through
+ * the proxies of a {@link com.seboch.jdbc.proxy.JdbcProxyFactory}. This is
+ * a simpler view of the events of {@link ExecutionInterceptor}.
+ * <p>
+ * Callbacks run on the JDBC calling thread and receive the wrapped driver
+ * objects, like {@link com.seboch.jdbc.proxy.lifecycle.ResourceLifecycleListener}.
+ */
+public interface ExecutionListener {
+
+	/**
+	 * @param sql
+	 *            executed SQL, null for a batch of a plain statement
+	 * @param failure
+	 *            exception thrown by the driver, null on success
+	 */
+	public void statementExecuted(Statement statement, String sql,
+			long elapsedNanos, Throwable failure);
+
+	/**
+	 * @param sql
+	 *            SQL of the query which returned the result set
+	 * @param rowCount
+	 *            number of rows returned by {@link ResultSet#next()}
+	 * @param openNanos
+	 *            time elapsed between the result set creation and its close
+	 */
+	public void resultSetClosed(ResultSet resultSet, String sql,
+			long rowCount, long openNanos);
+
+}
@@ -0,0 +1,231 @@
+package com.seboch.jdbc.proxy.journal;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.seboch.jdbc.proxy.execution.ExecutionListener;
+import com.seboch.jdbc.proxy.lifecycle.ResourceLifecycleListener;
+
+/**
+ * Records the lifecycle and execution events of the proxies as compact
+ * binary records in a memory-mapped ring file, for post-mortem analysis
+ * with {@link JournalReader}. Register it as both a
+ * {@link ResourceLifecycleListener} and an {@link ExecutionListener}.
+ * <p>
+ * The file holds a header and a fixed number of fixed-size slots, and each
+ * event overwrites the oldest slot: recording allocates nothing and the
+ * file keeps the latest events. As the mapped pages belong to the operating
+ * system, the events recorded before a crash of the JVM are still in the
+ * file.
+ * <p>
+ * Resources are identified by their identity hash code, which may collide,
+ * and SQL by its {@link String#hashCode()} and its first characters. A slot
+ * overwritten concurrently by two events, which needs a full turn of the
+ * ring in between, may be lost.
+ */
+public final class EventJournal implements ResourceLifecycleListener,
+		ExecutionListener, Closeable {
+
+	static final int MAGIC = 0x4A444A31;
+
+	static final int HEADER_SIZE = 64;
+
+	static final int SLOT_SIZE = 128;
+
+	// header layout
+	static final int HEADER_SLOT_SIZE = 4;
+	static final int HEADER_SLOT_COUNT = 8;
+	static final int HEADER_START_MILLIS = 16;
+
+	// slot layout, a slot holds its sequence number plus one, 0 when empty
+	static final int SEQUENCE = 0;
+	static final int NANOS = 8;
+	static final int THREAD_ID = 16;
+	static final int ELAPSED_NANOS = 24;
+	static final int ROW_COUNT = 32;
+	static final int OBJECT_ID = 40;
+	static final int SQL_HASH = 44;
+	static final int TYPE = 48;
+	static final int FLAGS = 49;
+	static final int SQL_LENGTH = 50;
+	static final int SQL = 56;
+
+	/**
+	 * Number of SQL characters kept, as ISO-8859-1 bytes.
+	 */
+	static final int SQL_CAPACITY = SLOT_SIZE - SQL;
+
+	static final int FLAG_FAILED = 1;
+	static final int FLAG_SQL = 2;
+	static final int FLAG_TRUNCATED = 4;
+
+	private static final JournalEventType[] TYPES = JournalEventType.values();
+
+	private final RandomAccessFile file;
+
+	private final MappedByteBuffer buffer;
+
+	private final int slotCount;
+
+	private final long startNanos;
+
+	private final AtomicLong sequence = new AtomicLong();
+
+	private volatile boolean closed;
+
+	/**
+	 * Creates the journal file, replacing any previous content.
+	 *
+	 * @param slotCount
+	 *            number of events kept
+	 */
+	public EventJournal(File journalFile, int slotCount) throws IOException {
+		if (journalFile == null) {
+			throw new IllegalArgumentException("journalFile must not be null");
+		}
+		if (slotCount <= 0
+				|| slotCount > (Integer.MAX_VALUE - HEADER_SIZE) / SLOT_SIZE) {
+			throw new IllegalArgumentException("slotCount out of range: "
+					+ slotCount);
+		}
+		this.slotCount = slotCount;
+		int size = HEADER_SIZE + slotCount * SLOT_SIZE;
+		file = new RandomAccessFile(journalFile, "rw");
+		try {
+			// truncating first clears the slots of a previous journal
+			file.setLength(0);
+			file.setLength(size);
+			buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE,
+					0, size);
+		} catch (IOException e) {
+			file.close();
+			throw e;
+		}
+		startNanos = System.nanoTime();
+		buffer.putInt(0, MAGIC);
+		buffer.putInt(HEADER_SLOT_SIZE, SLOT_SIZE);
+		buffer.putInt(HEADER_SLOT_COUNT, slotCount);
+		buffer.putLong(HEADER_START_MILLIS, System.currentTimeMillis());
+	}
+
+	public int getSlotCount() {
+		return slotCount;
+	}
+
+	/**
+	 * @return number of events recorded since the journal was created
+	 */
+	public long getEventCount() {
+		return sequence.get();
+	}
+
+	private void record(JournalEventType type, Object resource, String sql,
+			long elapsedNanos, long rowCount, boolean failed) {
+		if (closed) {
+			return;
+		}
+		long number = sequence.getAndIncrement();
+		int slot = HEADER_SIZE + (int) (number % slotCount) * SLOT_SIZE;
+		MappedByteBuffer slots = buffer;
+		slots.putLong(slot + SEQUENCE, 0);
+		slots.putLong(slot + NANOS, System.nanoTime() - startNanos);
+		slots.putLong(slot + THREAD_ID, Thread.currentThread().getId());
+		slots.putLong(slot + ELAPSED_NANOS, elapsedNanos);
+		slots.putLong(slot + ROW_COUNT, rowCount);
+		slots.putInt(slot + OBJECT_ID, System.identityHashCode(resource));
+		slots.put(slot + TYPE, (byte) type.ordinal());
+		int flags = failed ? FLAG_FAILED : 0;
+		int length = 0;
+		if (sql != null) {
+			flags |= FLAG_SQL;
+			length = Math.min(sql.length(), SQL_CAPACITY);
+			if (length < sql.length()) {
+				flags |= FLAG_TRUNCATED;
+			}
+			for (int i = 0; i < length; i++) {
+				char c = sql.charAt(i);
+				slots.put(slot + SQL + i, c < 256 ? (byte) c : (byte) '?');
+			}
+		}
+		slots.putInt(slot + SQL_HASH, sql == null ? 0 : sql.hashCode());
+		slots.put(slot + FLAGS, (byte) flags);
+		slots.putShort(slot + SQL_LENGTH, (short) length);
+		slots.putLong(slot + SEQUENCE, number + 1);
+	}
+
+	static JournalEventType type(int ordinal) {
+		return ordinal >= 0 && ordinal < TYPES.length ? TYPES[ordinal] : null;
+	}
+
+	@Override
+	public void connectionCreated(Connection connection) {
+		record(JournalEventType.CONNECTION_CREATED, connection, null, 0, 0,
+				false);
+	}
+
+	@Override
+	public void connectionClosed(Connection connection) {
+		record(JournalEventType.CONNECTION_CLOSED, connection, null, 0, 0,
+				false);
+	}
+
+	@Override
+	public void statementCreated(Statement statement) {
+		record(JournalEventType.STATEMENT_CREATED, statement, null, 0, 0,
+				false);
+	}
+
+	@Override
+	public void statementClosed(Statement statement) {
+		record(JournalEventType.STATEMENT_CLOSED, statement, null, 0, 0,
+				false);
+	}
+
+	@Override
+	public void resultSetCreated(ResultSet resultSet) {
+		record(JournalEventType.RESULT_SET_CREATED, resultSet, null, 0, 0,
+				false);
+	}
+
+	@Override
+	public void resultSetClosed(ResultSet resultSet) {
+		record(JournalEventType.RESULT_SET_CLOSED, resultSet, null, 0, 0,
+				false);
+	}
+
+	@Override
+	public void statementExecuted(Statement statement, String sql,
+			long elapsedNanos, Throwable failure) {
+		record(JournalEventType.STATEMENT_EXECUTED, statement, sql,
+				elapsedNanos, 0, failure != null);
+	}
+
+	@Override
+	public void resultSetClosed(ResultSet resultSet, String sql,
+			long rowCount, long openNanos) {
+		record(JournalEventType.RESULT_SET_READ, resultSet, sql, openNanos,
+				rowCount, false);
+	}
+
+	/**
+	 * Stops recording and flushes the journal to the file. The mapping
+	 * itself is released when the journal is garbage collected.
+	 */
+	@Override
+	public void close() throws IOException {
+		closed = true;
+		try {
+			buffer.force();
+		} finally {
+			file.close();
+		}
+	}
+}
@@ -0,0 +1,151 @@
+package com.seboch.jdbc.proxy.journal;
+
+/**
+ * Immutable event read from an {@link EventJournal} file, see
+ * {@link JournalReader}.
+ */
+public final class JournalEvent {
+
+	private final long sequence;
+	private final long timeMillis;
+	private final long nanos;
+	private final long threadId;
+	private final JournalEventType type;
+	private final int objectId;
+	private final long elapsedNanos;
+	private final long rowCount;
+	private final int sqlHash;
+	private final String sql;
+	private final boolean sqlTruncated;
+	private final boolean failed;
+
+	JournalEvent(long sequence, long timeMillis, long nanos, long threadId,
+			JournalEventType type, int objectId, long elapsedNanos,
+			long rowCount, int sqlHash, String sql, boolean sqlTruncated,
+			boolean failed) {
+		this.sequence = sequence;
+		this.timeMillis = timeMillis;
+		this.nanos = nanos;
+		this.threadId = threadId;
+		this.type = type;
+		this.objectId = objectId;
+		this.elapsedNanos = elapsedNanos;
+		this.rowCount = rowCount;
+		this.sqlHash = sqlHash;
+		this.sql = sql;
+		this.sqlTruncated = sqlTruncated;
+		this.failed = failed;
+	}
+
+	/**
+	 * @return the position of the event among all the events recorded by
+	 *         the journal
+	 */
+	public long getSequence() {
+		return sequence;
+	}
+
+	/**
+	 * @return the wall clock time of the event, in milliseconds since the
+	 *         epoch
+	 */
+	public long getTimeMillis() {
+		return timeMillis;
+	}
+
+	/**
+	 * @return the time of the event, in nanoseconds since the creation of
+	 *         the journal
+	 */
+	public long getNanos() {
+		return nanos;
+	}
+
+	public long getThreadId() {
+		return threadId;
+	}
+
+	public JournalEventType getType() {
+		return type;
+	}
+
+	/**
+	 * @return the identity hash code of the resource
+	 */
+	public int getObjectId() {
+		return objectId;
+	}
+
+	/**
+	 * @return the duration of a {@link JournalEventType#STATEMENT_EXECUTED}
+	 *         execution, or the time a
+	 *         {@link JournalEventType#RESULT_SET_READ} result set was open, 0
+	 *         for the other events
+	 */
+	public long getElapsedNanos() {
+		return elapsedNanos;
+	}
+
+	/**
+	 * @return the number of rows of a
+	 *         {@link JournalEventType#RESULT_SET_READ} result set, 0 for the
+	 *         other events
+	 */
+	public long getRowCount() {
+		return rowCount;
+	}
+
+	/**
+	 * @return the {@link String#hashCode()} of the full SQL, 0 without SQL
+	 */
+	public int getSqlHash() {
+		return sqlHash;
+	}
+
+	/**
+	 * @return the first characters of the SQL, null for the events without
+	 *         SQL
+	 */
+	public String getSql() {
+		return sql;
+	}
+
+	/**
+	 * @return whether {@link #getSql()} is only the start of the SQL
+	 */
+	public boolean isSqlTruncated() {
+		return sqlTruncated;
+	}
+
+	/**
+	 * @return whether the execution failed
+	 */
+	public boolean isFailed() {
+		return failed;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		builder.append(type).append(" #")
+				.append(Integer.toHexString(objectId)).append(" thread=")
+				.append(threadId);
+		if (type == JournalEventType.STATEMENT_EXECUTED
+				|| type == JournalEventType.RESULT_SET_READ) {
+			builder.append(" elapsedNanos=").append(elapsedNanos);
+		}
+		if (type == JournalEventType.RESULT_SET_READ) {
+			builder.append(" rows=").append(rowCount);
+		}
+		if (failed) {
+			builder.append(" failed");
+		}
+		if (sql != null) {
+			builder.append(" sql=").append(sql);
+			if (sqlTruncated) {
+				builder.append("...");
+			}
+		}
+		return builder.toString();
+	}
+}
@@ -0,0 +1,60 @@
+package com.seboch.jdbc.proxy.journal;
+
+import com.seboch.jdbc.proxy.lifecycle.ResourceType;
+
+/**
+ * Kinds of events recorded by an {@link EventJournal}.
+ */
+public enum JournalEventType {
+
+	CONNECTION_CREATED(ResourceType.CONNECTION),
+
+	CONNECTION_CLOSED(ResourceType.CONNECTION),
+
+	STATEMENT_CREATED(ResourceType.STATEMENT),
+
+	STATEMENT_CLOSED(ResourceType.STATEMENT),
+
+	RESULT_SET_CREATED(ResourceType.RESULT_SET),
+
+	RESULT_SET_CLOSED(ResourceType.RESULT_SET),
+
+	/**
+	 * Execution of a statement, with its duration.
+	 */
+	STATEMENT_EXECUTED(ResourceType.STATEMENT),
+
+	/**
+	 * Read result set, with its row count and the time it was open.
+	 */
+	RESULT_SET_READ(ResourceType.RESULT_SET);
+
+	private final ResourceType resourceType;
+
+	private JournalEventType(ResourceType resourceType) {
+		this.resourceType = resourceType;
+	}
+
+	/**
+	 * @return the type of the resource the event is about
+	 */
+	public ResourceType getResourceType() {
+		return resourceType;
+	}
+
+	/**
+	 * @return whether the event opens its resource
+	 */
+	public boolean isCreation() {
+		return this == CONNECTION_CREATED || this == STATEMENT_CREATED
+				|| this == RESULT_SET_CREATED;
+	}
+
+	/**
+	 * @return whether the event closes its resource
+	 */
+	public boolean isClose() {
+		return this == CONNECTION_CLOSED || this == STATEMENT_CLOSED
+				|| this == RESULT_SET_CLOSED;
+	}
+}
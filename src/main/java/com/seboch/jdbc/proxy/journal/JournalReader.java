@@ -0,0 +1,187 @@
+package com.seboch.jdbc.proxy.journal;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads the files written by {@link EventJournal}, including the journal of
+ * a crashed JVM, and turns them into timelines and leak reports.
+ * <p>
+ * Also a command line tool:
+ *
+ * <pre>
+ * java com.seboch.jdbc.proxy.journal.JournalReader &lt;journal&gt; [timeline|leaks]
+ * </pre>
+ */
+public final class JournalReader {
+
+	private static final Comparator<JournalEvent> SEQUENCE_ORDER = new Comparator<JournalEvent>() {
+		@Override
+		public int compare(JournalEvent event1, JournalEvent event2) {
+			long sequence1 = event1.getSequence();
+			long sequence2 = event2.getSequence();
+			return sequence1 < sequence2 ? -1 : (sequence1 == sequence2 ? 0
+					: 1);
+		}
+	};
+
+	private JournalReader() {
+	}
+
+	/**
+	 * @return the events of the journal file, oldest first
+	 * @throws IOException
+	 *             if the file cannot be read or is not a journal
+	 */
+	public static List<JournalEvent> read(File journalFile) throws IOException {
+		byte[] content;
+		RandomAccessFile file = new RandomAccessFile(journalFile, "r");
+		try {
+			if (file.length() < EventJournal.HEADER_SIZE) {
+				throw new IOException("Not a journal: " + journalFile);
+			}
+			content = new byte[(int) Math.min(file.length(),
+					Integer.MAX_VALUE)];
+			file.readFully(content);
+		} finally {
+			file.close();
+		}
+		ByteBuffer buffer = ByteBuffer.wrap(content);
+		int slotSize = buffer.getInt(EventJournal.HEADER_SLOT_SIZE);
+		if (buffer.getInt(0) != EventJournal.MAGIC
+				|| slotSize != EventJournal.SLOT_SIZE) {
+			throw new IOException("Not a journal: " + journalFile);
+		}
+		int slotCount = Math.min(buffer.getInt(EventJournal.HEADER_SLOT_COUNT),
+				(content.length - EventJournal.HEADER_SIZE) / slotSize);
+		long startMillis = buffer.getLong(EventJournal.HEADER_START_MILLIS);
+		List<JournalEvent> events = new ArrayList<JournalEvent>(slotCount);
+		for (int i = 0; i < slotCount; i++) {
+			JournalEvent event = readSlot(buffer, EventJournal.HEADER_SIZE + i
+					* slotSize, startMillis);
+			if (event != null) {
+				events.add(event);
+			}
+		}
+		Collections.sort(events, SEQUENCE_ORDER);
+		return events;
+	}
+
+	/**
+	 * @return the event of the slot, null if the slot is empty or was being
+	 *         written
+	 */
+	private static JournalEvent readSlot(ByteBuffer buffer, int slot,
+			long startMillis) {
+		long sequence = buffer.getLong(slot + EventJournal.SEQUENCE);
+		JournalEventType type = EventJournal.type(buffer.get(slot
+				+ EventJournal.TYPE));
+		if (sequence == 0 || type == null) {
+			return null;
+		}
+		int flags = buffer.get(slot + EventJournal.FLAGS);
+		String sql = null;
+		if ((flags & EventJournal.FLAG_SQL) != 0) {
+			int length = Math.min(buffer.getShort(slot
+					+ EventJournal.SQL_LENGTH), EventJournal.SQL_CAPACITY);
+			int start = slot + EventJournal.SQL;
+			char[] chars = new char[Math.max(0, length)];
+			for (int i = 0; i < chars.length; i++) {
+				chars[i] = (char) (buffer.get(start + i) & 0xFF);
+			}
+			sql = new String(chars);
+		}
+		long nanos = buffer.getLong(slot + EventJournal.NANOS);
+		return new JournalEvent(sequence - 1, startMillis + nanos / 1000000,
+				nanos, buffer.getLong(slot + EventJournal.THREAD_ID), type,
+				buffer.getInt(slot + EventJournal.OBJECT_ID),
+				buffer.getLong(slot + EventJournal.ELAPSED_NANOS),
+				buffer.getLong(slot + EventJournal.ROW_COUNT),
+				buffer.getInt(slot + EventJournal.SQL_HASH), sql,
+				(flags & EventJournal.FLAG_TRUNCATED) != 0,
+				(flags & EventJournal.FLAG_FAILED) != 0);
+	}
+
+	/**
+	 * @param events
+	 *            events in sequence order, as returned by {@link #read(File)}
+	 * @return the creation events of the resources which are not closed at
+	 *         the end of events, oldest first. The resources created before
+	 *         the oldest event kept by the ring are not known.
+	 */
+	public static List<JournalEvent> findLeaks(List<JournalEvent> events) {
+		Map<Long, JournalEvent> open = new LinkedHashMap<Long, JournalEvent>();
+		for (JournalEvent event : events) {
+			JournalEventType type = event.getType();
+			if (type.isCreation() || type.isClose()) {
+				Long key = Long.valueOf(((long) type.getResourceType()
+						.ordinal() << 32) | (event.getObjectId() & 0xFFFFFFFFL));
+				if (type.isCreation()) {
+					open.put(key, event);
+				} else {
+					open.remove(key);
+				}
+			}
+		}
+		return new ArrayList<JournalEvent>(open.values());
+	}
+
+	/**
+	 * Prints one line per event, with its wall clock time.
+	 */
+	public static void printTimeline(List<JournalEvent> events,
+			PrintStream out) {
+		SimpleDateFormat format = new SimpleDateFormat(
+				"yyyy-MM-dd HH:mm:ss.SSS");
+		for (JournalEvent event : events) {
+			out.println(format.format(new Date(event.getTimeMillis())) + " "
+					+ event);
+		}
+	}
+
+	/**
+	 * Prints the resources left open, then their count by type.
+	 */
+	public static void printLeaks(List<JournalEvent> events, PrintStream out) {
+		List<JournalEvent> leaks = findLeaks(events);
+		printTimeline(leaks, out);
+		int[] counts = new int[JournalEventType.values().length];
+		for (JournalEvent leak : leaks) {
+			counts[leak.getType().ordinal()]++;
+		}
+		for (JournalEventType type : JournalEventType.values()) {
+			if (counts[type.ordinal()] > 0) {
+				out.println(type.getResourceType() + " left open: "
+						+ counts[type.ordinal()]);
+			}
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length == 0 || args.length > 2
+				|| (args.length == 2 && !"timeline".equals(args[1]) && !"leaks"
+						.equals(args[1]))) {
+			System.err
+					.println("Usage: JournalReader <journal> [timeline|leaks]");
+			System.exit(2);
+			return;
+		}
+		List<JournalEvent> events = read(new File(args[0]));
+		if (args.length == 2 && "leaks".equals(args[1])) {
+			printLeaks(events, System.out);
+		} else {
+			printTimeline(events, System.out);
+		}
+	}
+}
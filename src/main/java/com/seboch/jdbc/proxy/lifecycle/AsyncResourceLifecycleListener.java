@@ -0,0 +1,265 @@
+package com.seboch.jdbc.proxy.lifecycle;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * {@link ResourceLifecycleListener} handing events over to another listener
+ * running on a dedicated daemon thread.
+ * <p>
+ * Events are published into a bounded lock-free ring buffer so that a slow
+ * listener never adds latency to the JDBC calling thread. When the buffer is
+ * full the event is dropped and counted, see {@link #getDroppedEvents()}.
+ * <p>
+ * The delegate runs on the dispatch thread, so it must not look at the
+ * stack of the calling thread. Do not wrap an {@link OpenResourceTracker}:
+ * its creation stacks and call sites would point at the dispatch thread
+ * instead of the code which created the resources. Register the tracker
+ * directly instead.
+ */
+public class AsyncResourceLifecycleListener implements
+		OwnedResourceLifecycleListener {
+
+	private static final int CONNECTION_CREATED = 0;
+	private static final int CONNECTION_CLOSED = 1;
+	private static final int STATEMENT_CREATED = 2;
+	private static final int STATEMENT_CLOSED = 3;
+	private static final int RESULT_SET_CREATED = 4;
+	private static final int RESULT_SET_CLOSED = 5;
+
+	private static final long MIN_IDLE_PARK_NANOS = TimeUnit.MICROSECONDS
+			.toNanos(100);
+
+	/**
+	 * Longest park of the idle dispatch thread. Publishers wake it up, the
+	 * timeout only bounds the delay of a wake up lost to a publication
+	 * racing with the thread going to sleep.
+	 */
+	private static final long MAX_IDLE_PARK_NANOS = TimeUnit.MILLISECONDS
+			.toNanos(50);
+
+	private final ResourceLifecycleListener delegate;
+
+	private final int mask;
+	private final int[] eventTypes;
+	private final Object[] resources;
+	private final Connection[] owners;
+	private final AtomicLongArray sequences;
+	private final AtomicLong tail = new AtomicLong();
+	private long head;
+
+	private final AtomicLong droppedEvents = new AtomicLong();
+
+	private final Thread dispatchThread;
+	private volatile boolean running = true;
+
+	/**
+	 * Whether the dispatch thread is parked, or about to, waiting for
+	 * events.
+	 */
+	private volatile boolean sleeping;
+
+	public AsyncResourceLifecycleListener(ResourceLifecycleListener delegate) {
+		this(delegate, 8192);
+	}
+
+	/**
+	 * @param capacity
+	 *            ring buffer size, rounded up to the next power of two
+	 */
+	public AsyncResourceLifecycleListener(ResourceLifecycleListener delegate,
+			int capacity) {
+		if (delegate == null) {
+			throw new IllegalArgumentException("delegate must not be null");
+		}
+		if (capacity < 1) {
+			throw new IllegalArgumentException("capacity must be positive");
+		}
+		this.delegate = delegate;
+		int size = Integer.highestOneBit(capacity);
+		if (size < capacity) {
+			size <<= 1;
+		}
+		mask = size - 1;
+		eventTypes = new int[size];
+		resources = new Object[size];
+		owners = new Connection[size];
+		sequences = new AtomicLongArray(size);
+		for (int i = 0; i < size; i++) {
+			sequences.set(i, i);
+		}
+		dispatchThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				dispatchLoop();
+			}
+		}, "jdbc-proxy-lifecycle-dispatcher");
+		dispatchThread.setDaemon(true);
+		dispatchThread.start();
+	}
+
+	private void publish(int eventType, Object resource, Connection owner) {
+		long position = tail.get();
+		int index;
+		while (true) {
+			index = (int) (position & mask);
+			long difference = sequences.get(index) - position;
+			if (difference == 0) {
+				if (tail.compareAndSet(position, position + 1)) {
+					break;
+				}
+				position = tail.get();
+			} else if (difference < 0) {
+				droppedEvents.incrementAndGet();
+				return;
+			} else {
+				position = tail.get();
+			}
+		}
+		eventTypes[index] = eventType;
+		resources[index] = resource;
+		owners[index] = owner;
+		sequences.lazySet(index, position + 1);
+		if (sleeping) {
+			LockSupport.unpark(dispatchThread);
+		}
+	}
+
+	private boolean dispatchNext() {
+		int index = (int) (head & mask);
+		if (sequences.get(index) != head + 1) {
+			return false;
+		}
+		int eventType = eventTypes[index];
+		Object resource = resources[index];
+		Connection owner = owners[index];
+		resources[index] = null;
+		owners[index] = null;
+		sequences.lazySet(index, head + mask + 1);
+		head++;
+		try {
+			dispatch(eventType, resource, owner);
+		} catch (RuntimeException e) {
+			// a failing listener must not kill the dispatch thread
+		}
+		return true;
+	}
+
+	private void dispatch(int eventType, Object resource, Connection owner) {
+		switch (eventType) {
+		case CONNECTION_CREATED:
+			delegate.connectionCreated((Connection) resource);
+			break;
+		case CONNECTION_CLOSED:
+			delegate.connectionClosed((Connection) resource);
+			break;
+		case STATEMENT_CREATED:
+			if (delegate instanceof OwnedResourceLifecycleListener) {
+				((OwnedResourceLifecycleListener) delegate).statementCreated(
+						(Statement) resource, owner);
+			} else {
+				delegate.statementCreated((Statement) resource);
+			}
+			break;
+		case STATEMENT_CLOSED:
+			delegate.statementClosed((Statement) resource);
+			break;
+		case RESULT_SET_CREATED:
+			if (delegate instanceof OwnedResourceLifecycleListener) {
+				((OwnedResourceLifecycleListener) delegate).resultSetCreated(
+						(ResultSet) resource, owner);
+			} else {
+				delegate.resultSetCreated((ResultSet) resource);
+			}
+			break;
+		case RESULT_SET_CLOSED:
+			delegate.resultSetClosed((ResultSet) resource);
+			break;
+		default:
+			throw new IllegalStateException("Unknown event type " + eventType);
+		}
+	}
+
+	private void dispatchLoop() {
+		long parkNanos = MIN_IDLE_PARK_NANOS;
+		while (running) {
+			if (dispatchNext()) {
+				parkNanos = MIN_IDLE_PARK_NANOS;
+				continue;
+			}
+			sleeping = true;
+			// an event published before the flag was seen gets no unpark
+			if (dispatchNext()) {
+				sleeping = false;
+				parkNanos = MIN_IDLE_PARK_NANOS;
+				continue;
+			}
+			LockSupport.parkNanos(this, parkNanos);
+			sleeping = false;
+			parkNanos = Math.min(parkNanos * 2, MAX_IDLE_PARK_NANOS);
+		}
+		while (dispatchNext()) {
+			// drain remaining events
+		}
+	}
+
+	/**
+	 * Stops the dispatch thread once the already published events have been
+	 * delivered.
+	 */
+	public void close() throws InterruptedException {
+		running = false;
+		LockSupport.unpark(dispatchThread);
+		dispatchThread.join();
+	}
+
+	public long getDroppedEvents() {
+		return droppedEvents.get();
+	}
+
+	@Override
+	public void connectionCreated(Connection connection) {
+		publish(CONNECTION_CREATED, connection, null);
+	}
+
+	@Override
+	public void connectionClosed(Connection connection) {
+		publish(CONNECTION_CLOSED, connection, null);
+	}
+
+	@Override
+	public void statementCreated(Statement statement) {
+		publish(STATEMENT_CREATED, statement, null);
+	}
+
+	@Override
+	public void statementCreated(Statement statement, Connection connection) {
+		publish(STATEMENT_CREATED, statement, connection);
+	}
+
+	@Override
+	public void statementClosed(Statement statement) {
+		publish(STATEMENT_CLOSED, statement, null);
+	}
+
+	@Override
+	public void resultSetCreated(ResultSet resultSet) {
+		publish(RESULT_SET_CREATED, resultSet, null);
+	}
+
+	@Override
+	public void resultSetCreated(ResultSet resultSet, Connection connection) {
+		publish(RESULT_SET_CREATED, resultSet, connection);
+	}
+
+	@Override
+	public void resultSetClosed(ResultSet resultSet) {
+		publish(RESULT_SET_CLOSED, resultSet, null);
+	}
+
+}
@@ -0,0 +1,127 @@
+package com.seboch.jdbc.proxy.lifecycle;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Open and close counters of the resources of an
+ * {@link OpenResourceTracker}, per creation call site and resource type.
+ * <p>
+ * Call sites are interned into small integer ids, which index flat arrays
+ * of counters: counting a resource allocates nothing once its call site is
+ * known. At most a fixed number of call sites are interned, the resources
+ * of the other ones are not counted.
+ */
+final class CallSiteCounters {
+
+	static final int MAX_CALL_SITES = 1024;
+
+	private static final int TYPES = ResourceType.values().length;
+
+	/**
+	 * Keyed by identity, as call sites are interned by {@link StackFrames}.
+	 */
+	private final ConcurrentMap<InternedCallSite, Integer> ids = new ConcurrentHashMap<InternedCallSite, Integer>();
+
+	private final AtomicReferenceArray<InternedCallSite> callSites = new AtomicReferenceArray<InternedCallSite>(
+			MAX_CALL_SITES);
+
+	/**
+	 * Guards the interning of new call sites, lookups are lock free.
+	 */
+	private final ReentrantLock idsLock = new ReentrantLock();
+
+	private final AtomicLongArray opened = new AtomicLongArray(MAX_CALL_SITES
+			* TYPES);
+	private final AtomicLongArray closed = new AtomicLongArray(MAX_CALL_SITES
+			* TYPES);
+	private final AtomicLongArray peakOpen = new AtomicLongArray(
+			MAX_CALL_SITES * TYPES);
+
+	/**
+	 * @return the id of callSite, -1 if it is null or if too many call sites
+	 *         are already interned
+	 */
+	int idOf(InternedCallSite callSite) {
+		if (callSite == null) {
+			return -1;
+		}
+		Integer id = ids.get(callSite);
+		if (id != null) {
+			return id;
+		}
+		idsLock.lock();
+		try {
+			id = ids.get(callSite);
+			if (id == null) {
+				int size = ids.size();
+				if (size >= MAX_CALL_SITES) {
+					return -1;
+				}
+				callSites.set(size, callSite);
+				id = size;
+				ids.put(callSite, id);
+			}
+			return id;
+		} finally {
+			idsLock.unlock();
+		}
+	}
+
+	private static int index(int id, ResourceType type) {
+		return id * TYPES + type.ordinal();
+	}
+
+	/**
+	 * Counts a resource created by the call site id.
+	 * 
+	 * @return whether the resource raised the number of open resources of
+	 *         its call site to a new peak
+	 */
+	boolean opened(int id, ResourceType type) {
+		if (id < 0) {
+			return false;
+		}
+		int index = index(id, type);
+		long open = opened.incrementAndGet(index) - closed.get(index);
+		long peak;
+		while (open > (peak = peakOpen.get(index))) {
+			if (peakOpen.compareAndSet(index, peak, open)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	void closed(int id, ResourceType type) {
+		if (id >= 0) {
+			closed.incrementAndGet(index(id, type));
+		}
+	}
+
+	/**
+	 * @return the counters of the call sites which created resources of the
+	 *         given type, in interning order
+	 */
+	List<CallSiteResourceCount> snapshot(ResourceType type) {
+		List<CallSiteResourceCount> counts = new ArrayList<CallSiteResourceCount>();
+		int size = ids.size();
+		for (int id = 0; id < size; id++) {
+			InternedCallSite callSite = callSites.get(id);
+			int index = index(id, type);
+			long closedCount = closed.get(index);
+			long openedCount = opened.get(index);
+			if (callSite != null && openedCount > 0) {
+				counts.add(new CallSiteResourceCount(
+						callSite.getStackTraceElement(), type,
+						openedCount, closedCount, peakOpen.get(index)));
+			}
+		}
+		return counts;
+	}
+}
@@ -0,0 +1,62 @@
+package com.seboch.jdbc.proxy.lifecycle;
+
+/**
+ * Immutable snapshot of the resources of one type created by one call site,
+ * see {@link OpenResourceTracker#setCallSiteAccountingEnabled(boolean)}.
+ */
+public final class CallSiteResourceCount {
+
+	private final StackTraceElement callSite;
+	private final ResourceType type;
+	private final long opened;
+	private final long closed;
+	private final long peakOpen;
+
+	CallSiteResourceCount(StackTraceElement callSite, ResourceType type,
+			long opened, long closed, long peakOpen) {
+		this.callSite = callSite;
+		this.type = type;
+		this.opened = opened;
+		this.closed = closed;
+		this.peakOpen = peakOpen;
+	}
+
+	/**
+	 * @return the first application frame creating the resources
+	 */
+	public StackTraceElement getCallSite() {
+		return callSite;
+	}
+
+	public ResourceType getType() {
+		return type;
+	}
+
+	public long getOpened() {
+		return opened;
+	}
+
+	/**
+	 * @return the number of resources closed or garbage collected
+	 */
+	public long getClosed() {
+		return closed;
+	}
+
+	public long getOpen() {
+		return Math.max(0, opened - closed);
+	}
+
+	/**
+	 * @return the peak number of concurrently open resources
+	 */
+	public long getPeakOpen() {
+		return peakOpen;
+	}
+
+	@Override
+	public String toString() {
+		return callSite + ": " + type + " opened=" + opened + ", closed="
+				+ closed + ", peakOpen=" + peakOpen;
+	}
+}
@@ -0,0 +1,238 @@
+package com.seboch.jdbc.proxy.lifecycle;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.seboch.jdbc.proxy.metrics.Histogram;
+
+/**
+ * Rolling statistics of the connections tracked by an
+ * {@link OpenResourceTracker}, overall and per acquiring call site.
+ * <p>
+ * Memory is bounded: only the top call sites by number of acquisitions are
+ * kept, following the Space-Saving algorithm. A new call site replaces the
+ * least acquired one which has no open connection, and inherits its count
+ * as the error of its own. Hold times and statement counts are recorded in
+ * fixed size histograms.
+ */
+final class ConnectionUsageRecorder {
+
+	private static final long MAX_HOLD_TIME_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+	private static final long MAX_STATEMENTS = 1 << 16;
+
+	static final class Usage {
+
+		private final StackTraceElement callSite;
+		private final long error;
+		private final AtomicLong acquisitions = new AtomicLong();
+		private final AtomicLong totalHoldTimeMillis = new AtomicLong();
+		private final AtomicInteger open = new AtomicInteger();
+		private final AtomicInteger peakOpen = new AtomicInteger();
+		private final Histogram holdTimeMillis = new Histogram(
+				MAX_HOLD_TIME_MILLIS);
+		private final Histogram statements = new Histogram(MAX_STATEMENTS);
+
+		Usage(StackTraceElement callSite, long error) {
+			this.callSite = callSite;
+			this.error = error;
+		}
+
+		private long weight() {
+			return acquisitions.get() + error;
+		}
+
+		private void acquired() {
+			acquisitions.incrementAndGet();
+			int opened = open.incrementAndGet();
+			int peak;
+			while (opened > (peak = peakOpen.get())
+					&& !peakOpen.compareAndSet(peak, opened)) {
+			}
+		}
+
+		private void released(long holdTimeMillis, int statementCount) {
+			open.decrementAndGet();
+			totalHoldTimeMillis.addAndGet(holdTimeMillis);
+			this.holdTimeMillis.record(holdTimeMillis);
+			statements.record(statementCount);
+		}
+
+		private void reset() {
+			acquisitions.set(0);
+			totalHoldTimeMillis.set(0);
+			peakOpen.set(open.get());
+			holdTimeMillis.reset();
+			statements.reset();
+		}
+
+		ConnectionUsageStatistics snapshot() {
+			return new ConnectionUsageStatistics(callSite, acquisitions.get(),
+					totalHoldTimeMillis.get(), open.get(), peakOpen.get(),
+					holdTimeMillis.snapshot(), statements.snapshot());
+		}
+	}
+
+	/**
+	 * Usage of one open connection, released when it is closed or garbage
+	 * collected.
+	 */
+	final class Lease {
+
+		private final Usage callSiteUsage;
+		private final long acquisitionTime = System.nanoTime();
+		private final AtomicInteger statements = new AtomicInteger();
+
+		Lease(Usage callSiteUsage) {
+			this.callSiteUsage = callSiteUsage;
+		}
+
+		void statementCreated() {
+			statements.incrementAndGet();
+		}
+
+		void released() {
+			long holdTimeMillis = TimeUnit.NANOSECONDS.toMillis(System
+					.nanoTime() - acquisitionTime);
+			int statementCount = statements.get();
+			overall.released(holdTimeMillis, statementCount);
+			if (callSiteUsage != null) {
+				callSiteUsage.released(holdTimeMillis, statementCount);
+			}
+		}
+	}
+
+	private final Usage overall = new Usage(null, 0);
+
+	private final ConcurrentMap<StackTraceElement, Usage> callSites = new ConcurrentHashMap<StackTraceElement, Usage>();
+
+	/**
+	 * Guards the insertion and eviction of call sites, lookups are lock
+	 * free.
+	 */
+	private final ReentrantLock callSitesLock = new ReentrantLock();
+
+	private volatile int maxCallSites;
+
+	ConnectionUsageRecorder(int maxCallSites) {
+		this.maxCallSites = maxCallSites;
+	}
+
+	int getMaxCallSites() {
+		return maxCallSites;
+	}
+
+	void setMaxCallSites(int maxCallSites) {
+		this.maxCallSites = maxCallSites;
+	}
+
+	/**
+	 * @param callSite
+	 *            acquiring call site, null if unknown
+	 */
+	Lease acquire(StackTraceElement callSite) {
+		Usage callSiteUsage = callSite == null ? null : usageOf(callSite);
+		overall.acquired();
+		if (callSiteUsage != null) {
+			callSiteUsage.acquired();
+		}
+		return new Lease(callSiteUsage);
+	}
+
+	private Usage usageOf(StackTraceElement callSite) {
+		Usage usage = callSites.get(callSite);
+		if (usage != null) {
+			return usage;
+		}
+		callSitesLock.lock();
+		try {
+			usage = callSites.get(callSite);
+			if (usage != null) {
+				return usage;
+			}
+			long error = 0;
+			if (callSites.size() >= maxCallSites) {
+				Usage evicted = leastAcquiredIdle();
+				if (evicted == null) {
+					return null;
+				}
+				callSites.remove(evicted.callSite);
+				error = evicted.weight();
+			}
+			usage = new Usage(callSite, error);
+			callSites.put(callSite, usage);
+			return usage;
+		} finally {
+			callSitesLock.unlock();
+		}
+	}
+
+	private Usage leastAcquiredIdle() {
+		Usage least = null;
+		for (Usage usage : callSites.values()) {
+			if (usage.open.get() == 0
+					&& (least == null || usage.weight() < least.weight())) {
+				least = usage;
+			}
+		}
+		return least;
+	}
+
+	/**
+	 * Clears the recorded statistics, open connections keep being counted
+	 * and peaks restart from them.
+	 */
+	void reset() {
+		callSitesLock.lock();
+		try {
+			overall.reset();
+			for (Iterator<Usage> it = callSites.values().iterator(); it
+					.hasNext();) {
+				Usage usage = it.next();
+				if (usage.open.get() == 0) {
+					it.remove();
+				} else {
+					usage.reset();
+				}
+			}
+		} finally {
+			callSitesLock.unlock();
+		}
+	}
+
+	ConnectionUsageStatistics getOverall() {
+		return overall.snapshot();
+	}
+
+	/**
+	 * @return the statistics of the tracked call sites, greatest total hold
+	 *         time first
+	 */
+	List<ConnectionUsageStatistics> getByCallSite() {
+		List<ConnectionUsageStatistics> statistics = new ArrayList<ConnectionUsageStatistics>();
+		for (Usage usage : callSites.values()) {
+			statistics.add(usage.snapshot());
+		}
+		Collections.sort(statistics,
+				new Comparator<ConnectionUsageStatistics>() {
+					@Override
+					public int compare(ConnectionUsageStatistics first,
+							ConnectionUsageStatistics second) {
+						long difference = second.getTotalHoldTimeMillis()
+								- first.getTotalHoldTimeMillis();
+						return difference < 0 ? -1 : (difference == 0 ? 0
+								: 1);
+					}
+				});
+		return statistics;
+	}
+}
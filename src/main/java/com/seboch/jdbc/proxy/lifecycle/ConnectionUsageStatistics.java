@@ -0,0 +1,90 @@
+package com.seboch.jdbc.proxy.lifecycle;
+
+import com.seboch.jdbc.proxy.metrics.HistogramSnapshot;
+
+/**
+ * Immutable snapshot of the usage of the connections tracked by an
+ * {@link OpenResourceTracker}, overall or for one acquiring call site, see
+ * {@link OpenResourceTracker#setConnectionUsageStatisticsEnabled(boolean)}.
+ */
+public final class ConnectionUsageStatistics {
+
+	private final StackTraceElement callSite;
+	private final long acquisitions;
+	private final long totalHoldTimeMillis;
+	private final int open;
+	private final int peakOpen;
+	private final HistogramSnapshot holdTimeMillis;
+	private final HistogramSnapshot statementsPerConnection;
+
+	ConnectionUsageStatistics(StackTraceElement callSite, long acquisitions,
+			long totalHoldTimeMillis, int open, int peakOpen,
+			HistogramSnapshot holdTimeMillis,
+			HistogramSnapshot statementsPerConnection) {
+		this.callSite = callSite;
+		this.acquisitions = acquisitions;
+		this.totalHoldTimeMillis = totalHoldTimeMillis;
+		this.open = open;
+		this.peakOpen = peakOpen;
+		this.holdTimeMillis = holdTimeMillis;
+		this.statementsPerConnection = statementsPerConnection;
+	}
+
+	/**
+	 * @return the first application frame acquiring the connections, null
+	 *         for the overall statistics
+	 */
+	public StackTraceElement getCallSite() {
+		return callSite;
+	}
+
+	/**
+	 * @return the number of connections acquired, since the call site is
+	 *         tracked for call site statistics
+	 */
+	public long getAcquisitions() {
+		return acquisitions;
+	}
+
+	/**
+	 * @return the sum of the hold times of the closed connections
+	 */
+	public long getTotalHoldTimeMillis() {
+		return totalHoldTimeMillis;
+	}
+
+	public int getOpen() {
+		return open;
+	}
+
+	/**
+	 * @return the peak number of concurrently open connections
+	 */
+	public int getPeakOpen() {
+		return peakOpen;
+	}
+
+	/**
+	 * @return the time between the creation and the close of the connections
+	 */
+	public HistogramSnapshot getHoldTimeMillis() {
+		return holdTimeMillis;
+	}
+
+	/**
+	 * @return the number of statements created by the closed connections
+	 */
+	public HistogramSnapshot getStatementsPerConnection() {
+		return statementsPerConnection;
+	}
+
+	@Override
+	public String toString() {
+		return (callSite == null ? "all call sites" : callSite.toString())
+				+ ": acquisitions=" + acquisitions + ", open=" + open
+				+ ", peakOpen=" + peakOpen + ", totalHoldTimeMillis="
+				+ totalHoldTimeMillis + ", holdTimeMillis=[" + holdTimeMillis
+				+ "], statementsPerConnection=[" + statementsPerConnection
+				+ "]";
+	}
+}
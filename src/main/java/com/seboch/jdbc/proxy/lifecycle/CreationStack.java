@@ -0,0 +1,49 @@
+package com.seboch.jdbc.proxy.lifecycle;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Creation stack of a tracked resource, either captured eagerly or kept as a
+ * {@link Throwable} whose frames are only materialized on first access.
+ */
+final class CreationStack {
+
+	static final CreationStack EMPTY = new CreationStack(
+			Collections.<StackTraceElement> emptyList());
+
+	private volatile List<StackTraceElement> frames;
+	private final Throwable creationPoint;
+	private final int maxLength;
+
+	CreationStack(List<StackTraceElement> frames) {
+		this.frames = Collections.unmodifiableList(frames);
+		this.creationPoint = null;
+		this.maxLength = frames.size();
+	}
+
+	CreationStack(Throwable creationPoint, int maxLength) {
+		this.creationPoint = creationPoint;
+		this.maxLength = maxLength;
+	}
+
+	/**
+	 * @return the first captured frame, null if no frame was captured or if
+	 *         they are not materialized yet
+	 */
+	StackTraceElement getCapturedCallSite() {
+		List<StackTraceElement> stackTrace = frames;
+		return stackTrace == null || stackTrace.isEmpty() ? null : stackTrace
+				.get(0);
+	}
+
+	List<StackTraceElement> getFrames() {
+		List<StackTraceElement> stackTrace = frames;
+		if (stackTrace == null) {
+			stackTrace = Collections.unmodifiableList(StackFrames.trim(
+					creationPoint.getStackTrace(), maxLength));
+			frames = stackTrace;
+		}
+		return stackTrace;
+	}
+}
@@ -0,0 +1,43 @@
+package com.seboch.jdbc.proxy.lifecycle;
+
+/**
+ * Creation call site of resources, interned by {@link StackFrames} so that
+ * the same frame always yields the same instance: it can key identity maps,
+ * and resolving the call site of a resource allocates nothing once it is
+ * known.
+ * <p>
+ * Its {@link StackTraceElement}, whose line number and file name are costly
+ * to resolve, is only resolved once, when the call site is interned.
+ */
+final class InternedCallSite {
+
+	private final String methodName;
+
+	/**
+	 * Bytecode index of the frame, -1 if unknown.
+	 */
+	private final int byteCodeIndex;
+
+	private final StackTraceElement stackTraceElement;
+
+	InternedCallSite(String methodName, int byteCodeIndex,
+			StackTraceElement stackTraceElement) {
+		this.methodName = methodName;
+		this.byteCodeIndex = byteCodeIndex;
+		this.stackTraceElement = stackTraceElement;
+	}
+
+	boolean isAt(String methodName, int byteCodeIndex) {
+		return this.byteCodeIndex == byteCodeIndex
+				&& this.methodName.equals(methodName);
+	}
+
+	StackTraceElement getStackTraceElement() {
+		return stackTraceElement;
+	}
+
+	@Override
+	public String toString() {
+		return stackTraceElement.toString();
+	}
+}
@@ -0,0 +1,36 @@
+package com.seboch.jdbc.proxy.lifecycle;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.seboch.jdbc.proxy.lifecycle.OpenResourceTracker.CreationInfo;
+
+/**
+ * {@link ResourceLeakSink} logging the suspected leaks as warnings with
+ * {@code java.util.logging}, which the usual logging frameworks can
+ * bridge.
+ */
+public class LoggingResourceLeakSink implements ResourceLeakSink {
+
+	private final Logger logger;
+
+	public LoggingResourceLeakSink() {
+		this(Logger.getLogger(ResourceLeakReporter.class.getName()));
+	}
+
+	public LoggingResourceLeakSink(Logger logger) {
+		if (logger == null) {
+			throw new IllegalArgumentException("logger must not be null");
+		}
+		this.logger = logger;
+	}
+
+	@Override
+	public void leakSuspected(ResourceType type, CreationInfo<?> creationInfo,
+			long occurrences) {
+		if (logger.isLoggable(Level.WARNING)) {
+			logger.warning("Suspected " + type + " leak (" + occurrences
+					+ " occurrences since last report): " + creationInfo);
+		}
+	}
+}
@@ -0,0 +1,60 @@
+package com.seboch.jdbc.proxy.lifecycle;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanNotificationInfo;
+import javax.management.Notification;
+import javax.management.NotificationBroadcasterSupport;
+import javax.management.ObjectName;
+
+import com.seboch.jdbc.proxy.lifecycle.OpenResourceTracker.CreationInfo;
+
+/**
+ * {@link ResourceLeakSink} emitting a JMX notification of type
+ * {@value #LEAK_SUSPECTED} per suspected leak, once registered with
+ * {@link #registerMBean(String)}. The user data of the notification is the
+ * name of the {@link ResourceType}.
+ */
+public class NotifyingResourceLeakSink extends NotificationBroadcasterSupport
+		implements ResourceLeakSink, NotifyingResourceLeakSinkMBean {
+
+	public static final String LEAK_SUSPECTED = "com.seboch.jdbc.proxy.leakSuspected";
+
+	private final AtomicLong sequenceNumber = new AtomicLong();
+
+	public NotifyingResourceLeakSink() {
+		super(new MBeanNotificationInfo(new String[] { LEAK_SUSPECTED },
+				Notification.class.getName(), "Suspected JDBC resource leak"));
+	}
+
+	@Override
+	public void leakSuspected(ResourceType type, CreationInfo<?> creationInfo,
+			long occurrences) {
+		Notification notification = new Notification(LEAK_SUSPECTED, this,
+				sequenceNumber.incrementAndGet(), "Suspected " + type
+						+ " leak (" + occurrences
+						+ " occurrences since last report): " + creationInfo);
+		notification.setUserData(type.name());
+		sendNotification(notification);
+	}
+
+	@Override
+	public long getNotificationCount() {
+		return sequenceNumber.get();
+	}
+
+	/**
+	 * Registers this instance in the platform MBean server under
+	 * {@code com.seboch.jdbc.proxy:type=ResourceLeaks,name=<name>}.
+	 */
+	public ObjectName registerMBean(String name) throws JMException {
+		ObjectName objectName = new ObjectName(
+				"com.seboch.jdbc.proxy:type=ResourceLeaks,name="
+						+ ObjectName.quote(name));
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+				objectName);
+		return objectName;
+	}
+}
@@ -0,0 +1,10 @@
+package com.seboch.jdbc.proxy.lifecycle;
+
+/**
+ * Management interface of {@link NotifyingResourceLeakSink}.
+ */
+public interface NotifyingResourceLeakSinkMBean {
+
+	public long getNotificationCount();
+
+}
@@ -5,34 +5,59 @@ import java.sql.ResultSet;
 import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 
-import com.seboch.jdbc.proxy.JdbcProxyFactory;
-
-public class OpenResourceTracker implements ResourceLifecycleListener {
+public class OpenResourceTracker implements OwnedResourceLifecycleListener {
 
 	public static final class CreationInfo<T> {
 
 		private final T createdObject;
+		private final Class<?> createdObjectType;
+		private final int createdObjectIdentityHashCode;
 		private final long creationTime;
-		private final List<StackTraceElement> creationStackTrace;
+		private final CreationStack creationStack;
+		private final Connection connection;
 
 		public CreationInfo(T createdObject,
 				List<StackTraceElement> creationStackTrace, long creationTime) {
+			this(createdObject, createdObject.getClass(), System
+					.identityHashCode(createdObject), new CreationStack(
+					creationStackTrace), null, creationTime);
+		}
+
+		CreationInfo(T createdObject, Class<?> createdObjectType,
+				int createdObjectIdentityHashCode, CreationStack creationStack,
+				Connection connection, long creationTime) {
 			this.createdObject = createdObject;
+			this.createdObjectType = createdObjectType;
+			this.createdObjectIdentityHashCode = createdObjectIdentityHashCode;
 			this.creationTime = creationTime;
-			this.creationStackTrace = creationStackTrace;
+			this.creationStack = creationStack;
+			this.connection = connection;
 		}
 
+		/**
+		 * @return the created object, or null when the creation info
+		 *         describes a resource garbage collected without having been
+		 *         closed
+		 */
 		public T getCreatedObject() {
 			return createdObject;
 		}
 
+		/**
+		 * @return the connection owning the created statement or result set,
+		 *         null if it is unknown or no longer open
+		 */
+		public Connection getConnection() {
+			return connection;
+		}
+
 		public List<StackTraceElement> getCreationStackTrace() {
-			return Collections.unmodifiableList(creationStackTrace);
+			return creationStack.getFrames();
 		}
 
 		public long getCreationTime() {
@@ -42,9 +67,9 @@ public class OpenResourceTracker implements ResourceLifecycleListener {
 		@Override
 		public String toString() {
 			StringBuilder stringBuilder = new StringBuilder();
-			stringBuilder.append(createdObject.getClass().getSimpleName());
+			stringBuilder.append(createdObjectType.getSimpleName());
 			stringBuilder.append("@");
-			stringBuilder.append(System.identityHashCode(createdObject));
+			stringBuilder.append(createdObjectIdentityHashCode);
 			stringBuilder.append(", created ");
 			stringBuilder
 					.append((System.currentTimeMillis() - getCreationTime()));
@@ -62,102 +87,437 @@ public class OpenResourceTracker implements ResourceLifecycleListener {
 		}
 	}
 
-	// FIXME we should probably use Identify hasmap here
-	private final Map<Connection, CreationInfo<Connection>> openConnections = new ConcurrentHashMap<Connection, CreationInfo<Connection>>();
-	private final Map<Statement, CreationInfo<Statement>> openStatements = new ConcurrentHashMap<Statement, CreationInfo<Statement>>();
-	private final Map<ResultSet, CreationInfo<ResultSet>> openResultSets = new ConcurrentHashMap<ResultSet, CreationInfo<ResultSet>>();
+	private static final int CONCURRENCY_LEVEL = Runtime.getRuntime()
+			.availableProcessors() * 4;
 
-	private int creationStackMaxLength = 20;
+	private final ResourceRegistry<Connection> openConnections = new ResourceRegistry<Connection>(
+			ResourceType.CONNECTION, CONCURRENCY_LEVEL);
+	private final ResourceRegistry<Statement> openStatements = new ResourceRegistry<Statement>(
+			ResourceType.STATEMENT, CONCURRENCY_LEVEL);
+	private final ResourceRegistry<ResultSet> openResultSets = new ResourceRegistry<ResultSet>(
+			ResourceType.RESULT_SET, CONCURRENCY_LEVEL);
 
-	private <T> CreationInfo<T> newCreationInfo(T object) {
-		return new CreationInfo<T>(object, stackTrace(creationStackMaxLength),
-				System.currentTimeMillis());
-	}
+	private volatile ResourceLeakListener resourceLeakListener;
 
-	private List<StackTraceElement> stackTrace(int creationStackMaxLength) {
-		if (creationStackMaxLength == 0) {
-			return Collections.emptyList();
-		} else {
-			StackTraceElement[] stackTrace = Thread.currentThread()
-					.getStackTrace();
+	private volatile int creationStackMaxLength = 20;
 
-			int skippedFirstLines = 1;
-			while (skipStackElement(stackTrace[skippedFirstLines])
-					&& skippedFirstLines < stackTrace.length) {
-				skippedFirstLines++;
+	private volatile StackCapturePolicy stackCapturePolicy = StackCapturePolicy
+			.always();
+
+	private volatile boolean connectionUsageStatisticsEnabled;
+
+	private final ConnectionUsageRecorder connectionUsage = new ConnectionUsageRecorder(
+			32);
+
+	private volatile boolean callSiteAccountingEnabled;
+
+	private final CallSiteCounters callSiteCounters = new CallSiteCounters();
+
+	private <T> void register(ResourceRegistry<T> registry, T object,
+			Connection owner) {
+		if (object != null) {
+			CallSiteCounters counters = null;
+			InternedCallSite callSite = null;
+			int callSiteId = -1;
+			CreationStack creationStack;
+			if (callSiteAccountingEnabled) {
+				counters = callSiteCounters;
+				callSite = StackFrames.internedCallSite();
+				callSiteId = counters.idOf(callSite);
+				boolean newPeak = counters.opened(callSiteId,
+						registry.getType());
+				creationStack = stackCapturePolicy.capture(
+						creationStackMaxLength, callSite, newPeak);
+			} else {
+				creationStack = stackCapturePolicy
+						.capture(creationStackMaxLength);
 			}
-			int upperBound = Math.min(stackTrace.length, creationStackMaxLength
-					+ skippedFirstLines);
-			List<StackTraceElement> stack = new ArrayList<StackTraceElement>(
-					upperBound - skippedFirstLines);
-			for (int i = skippedFirstLines; i < upperBound; i++) {
-				stack.add(stackTrace[i]);
+			ResourceRegistry.Entry<Connection> ownerEntry = owner == null ? null
+					: openConnections.get(owner);
+			ConnectionUsageRecorder.Lease lease = null;
+			if (connectionUsageStatisticsEnabled) {
+				if (registry == openConnections) {
+					lease = connectionUsage.acquire(callSite != null ? callSite
+							.getStackTraceElement() : callSite(creationStack));
+				} else if (registry == openStatements && ownerEntry != null
+						&& ownerEntry.getLease() != null) {
+					ownerEntry.getLease().statementCreated();
+				}
 			}
-			return stack;
+			registry.add(object, creationStack, ownerEntry, lease, counters,
+					callSiteId);
+		}
+		expungeCollectedResources();
+	}
+
+	private static StackTraceElement callSite(CreationStack creationStack) {
+		StackTraceElement callSite = creationStack.getCapturedCallSite();
+		return callSite == null ? StackFrames.callSite() : callSite;
+	}
+
+	private <T> void unregister(ResourceRegistry<T> registry, T object) {
+		if (object != null) {
+			registry.remove(object);
+		}
+	}
+
+	/**
+	 * Reports resources garbage collected without having been closed to the
+	 * {@link ResourceLeakListener} and stops tracking them. This is done
+	 * anyway each time a resource is created or open resources are listed.
+	 */
+	public void expungeCollectedResources() {
+		ResourceLeakListener leakListener = resourceLeakListener;
+		openConnections.expungeCollected(leakListener);
+		openStatements.expungeCollected(leakListener);
+		openResultSets.expungeCollected(leakListener);
+	}
+
+	public ResourceLeakListener getResourceLeakListener() {
+		return resourceLeakListener;
+	}
+
+	public void setResourceLeakListener(
+			ResourceLeakListener resourceLeakListener) {
+		this.resourceLeakListener = resourceLeakListener;
+	}
+
+	public int getCreationStackMaxLength() {
+		return creationStackMaxLength;
+	}
+
+	public void setCreationStackMaxLength(int creationStackMaxLength) {
+		if (creationStackMaxLength < 0) {
+			throw new IllegalArgumentException(
+					"creationStackMaxLength must not be negative");
 		}
+		this.creationStackMaxLength = creationStackMaxLength;
+	}
+
+	public boolean isConnectionUsageStatisticsEnabled() {
+		return connectionUsageStatisticsEnabled;
+	}
+
+	/**
+	 * Enables the recording of the hold time, the number of statements and
+	 * the peak concurrency of the connections created from then on, overall
+	 * and per acquiring call site, see
+	 * {@link #getConnectionUsageStatistics()}. Disabled by default.
+	 * <p>
+	 * The call site is the first frame of the creation stack, resolved
+	 * separately when the {@link StackCapturePolicy} did not capture it.
+	 * Connections garbage collected without having been closed are counted as
+	 * held until then.
+	 */
+	public void setConnectionUsageStatisticsEnabled(
+			boolean connectionUsageStatisticsEnabled) {
+		this.connectionUsageStatisticsEnabled = connectionUsageStatisticsEnabled;
+	}
+
+	public int getConnectionUsageMaxCallSites() {
+		return connectionUsage.getMaxCallSites();
+	}
+
+	/**
+	 * Sets the number of call sites whose connection usage is recorded, 32 by
+	 * default. Only the call sites acquiring the most connections are kept,
+	 * the others are only counted in the overall statistics.
+	 */
+	public void setConnectionUsageMaxCallSites(int maxCallSites) {
+		if (maxCallSites < 0) {
+			throw new IllegalArgumentException(
+					"maxCallSites must not be negative");
+		}
+		connectionUsage.setMaxCallSites(maxCallSites);
+	}
+
+	/**
+	 * @return the usage of all the connections created while the statistics
+	 *         were enabled
+	 */
+	public ConnectionUsageStatistics getConnectionUsageStatistics() {
+		return connectionUsage.getOverall();
+	}
+
+	/**
+	 * @return the usage of the connections of the tracked call sites, greatest
+	 *         total hold time first
+	 */
+	public List<ConnectionUsageStatistics> getConnectionUsageByCallSite() {
+		return connectionUsage.getByCallSite();
+	}
+
+	/**
+	 * Clears the connection usage statistics. The connections still open keep
+	 * being counted, peaks restart from their number.
+	 */
+	public void resetConnectionUsageStatistics() {
+		connectionUsage.reset();
+	}
+
+	public boolean isCallSiteAccountingEnabled() {
+		return callSiteAccountingEnabled;
+	}
+
+	/**
+	 * Enables counting the resources opened and closed by each creation call
+	 * site, see {@link #getResourceCountsByCallSite(ResourceType)}. Disabled
+	 * by default.
+	 * <p>
+	 * The call site is resolved for every resource, by walking the stack up
+	 * to the first application frame only on JDK 9+, and is interned into an
+	 * integer id indexing primitive counters. The walk dominates: on JDK 21
+	 * it adds about 7 microseconds and 1.8 KB of garbage to each resource,
+	 * against 0.2 microseconds for a resource tracked without its stack, so
+	 * measure it before enabling it on a hot path. Use a stack capture policy
+	 * such as {@link StackCapturePolicy#onCallSiteGrowth()}, which reuses the
+	 * call site. Only the first {@value CallSiteCounters#MAX_CALL_SITES} call
+	 * sites are counted.
+	 */
+	public void setCallSiteAccountingEnabled(boolean callSiteAccountingEnabled) {
+		this.callSiteAccountingEnabled = callSiteAccountingEnabled;
+	}
+
+	/**
+	 * @return the counts of the resources of the given type created by each
+	 *         call site since call site accounting was enabled, most open
+	 *         first
+	 */
+	public List<CallSiteResourceCount> getResourceCountsByCallSite(
+			ResourceType type) {
+		expungeCollectedResources();
+		List<CallSiteResourceCount> counts = callSiteCounters.snapshot(type);
+		Collections.sort(counts, new Comparator<CallSiteResourceCount>() {
+			@Override
+			public int compare(CallSiteResourceCount first,
+					CallSiteResourceCount second) {
+				long difference = second.getOpen() - first.getOpen();
+				return difference < 0 ? -1 : (difference == 0 ? 0 : 1);
+			}
+		});
+		return counts;
+	}
+
+	public StackCapturePolicy getStackCapturePolicy() {
+		return stackCapturePolicy;
 	}
 
-	private boolean skipStackElement(StackTraceElement stackTraceElement) {
-		String className = stackTraceElement.getClassName();
-		if (className.equals(OpenResourceTracker.class.getName())) {
-			return true;
-		} else if (className.startsWith(JdbcProxyFactory.class.getName())) {
-			return true;
-		} else if (stackTraceElement.getMethodName().startsWith("invoke")
-				&& stackTraceElement.getClassName().contains("reflect")) {
-			return true;
-		} else if (className.contains("EventListenerSupport")) {
-			return true;
-		} else if (className.startsWith("com.sun.proxy.$Proxy")) {
-			return true;
-		} else {
-			return false;
+	public void setStackCapturePolicy(StackCapturePolicy stackCapturePolicy) {
+		if (stackCapturePolicy == null) {
+			throw new IllegalArgumentException(
+					"stackCapturePolicy must not be null");
 		}
+		this.stackCapturePolicy = stackCapturePolicy;
 	}
 
 	@Override
 	public void connectionCreated(Connection connection) {
-		openConnections.put(connection, newCreationInfo(connection));
+		register(openConnections, connection, null);
 	}
 
 	@Override
 	public void connectionClosed(Connection connection) {
-		openConnections.remove(connection);
+		unregister(openConnections, connection);
 	}
 
 	@Override
 	public void statementCreated(Statement statement) {
-		openStatements.put(statement, newCreationInfo(statement));
+		register(openStatements, statement, null);
+	}
+
+	@Override
+	public void statementCreated(Statement statement, Connection connection) {
+		register(openStatements, statement, connection);
 	}
 
 	@Override
 	public void statementClosed(Statement statement) {
-		openStatements.remove(statement);
+		unregister(openStatements, statement);
 	}
 
 	@Override
 	public void resultSetCreated(ResultSet resultSet) {
-		openResultSets.put(resultSet, newCreationInfo(resultSet));
+		register(openResultSets, resultSet, null);
+	}
+
+	@Override
+	public void resultSetCreated(ResultSet resultSet, Connection connection) {
+		register(openResultSets, resultSet, connection);
 	}
 
 	@Override
 	public void resultSetClosed(ResultSet resultSet) {
-		openResultSets.remove(resultSet);
+		unregister(openResultSets, resultSet);
+	}
+
+	private ResourceRegistry<?> registry(ResourceType type) {
+		switch (type) {
+		case CONNECTION:
+			return openConnections;
+		case STATEMENT:
+			return openStatements;
+		case RESULT_SET:
+			return openResultSets;
+		default:
+			throw new IllegalArgumentException("Unknown resource type " + type);
+		}
+	}
+
+	/**
+	 * @return the number of open resources of the given type, read from
+	 *         counters without scanning the open resources
+	 */
+	public int getOpenCount(ResourceType type) {
+		return registry(type).size();
+	}
+
+	public void visitOpenConnections(OpenResourceVisitor<Connection> visitor) {
+		visitOpenConnections(0, visitor);
+	}
+
+	/**
+	 * Visits the connections open for at least minAgeMillis. Only those
+	 * connections are looked at, younger ones are never scanned.
+	 */
+	public void visitOpenConnections(long minAgeMillis,
+			OpenResourceVisitor<Connection> visitor) {
+		openConnections.visit(maxCreationTime(minAgeMillis), visitor);
+	}
+
+	public void visitOpenStatements(OpenResourceVisitor<Statement> visitor) {
+		visitOpenStatements(0, visitor);
+	}
+
+	/**
+	 * Visits the statements open for at least minAgeMillis. Only those
+	 * statements are looked at, younger ones are never scanned.
+	 */
+	public void visitOpenStatements(long minAgeMillis,
+			OpenResourceVisitor<Statement> visitor) {
+		openStatements.visit(maxCreationTime(minAgeMillis), visitor);
+	}
+
+	public void visitOpenResultSets(OpenResourceVisitor<ResultSet> visitor) {
+		visitOpenResultSets(0, visitor);
+	}
+
+	/**
+	 * Visits the result sets open for at least minAgeMillis. Only those
+	 * result sets are looked at, younger ones are never scanned.
+	 */
+	public void visitOpenResultSets(long minAgeMillis,
+			OpenResourceVisitor<ResultSet> visitor) {
+		openResultSets.visit(maxCreationTime(minAgeMillis), visitor);
+	}
+
+	/**
+	 * @return the resources of the given type open for at least
+	 *         minAgeMillis, oldest first
+	 */
+	public List<CreationInfo<?>> getOpenResourcesOlderThan(ResourceType type,
+			long minAgeMillis) {
+		List<CreationInfo<?>> resources = new ArrayList<CreationInfo<?>>();
+		collect(registry(type), maxCreationTime(minAgeMillis), resources);
+		Collections.sort(resources, new Comparator<CreationInfo<?>>() {
+			@Override
+			public int compare(CreationInfo<?> first, CreationInfo<?> second) {
+				long difference = first.getCreationTime()
+						- second.getCreationTime();
+				return difference < 0 ? -1 : (difference == 0 ? 0 : 1);
+			}
+		});
+		return resources;
+	}
+
+	/**
+	 * Adds to resources the open resources of the given type created after
+	 * minCreationTime and at or before maxCreationTime, in no particular
+	 * order.
+	 */
+	void collectCreatedBetween(ResourceType type, long minCreationTime,
+			long maxCreationTime, List<CreationInfo<?>> resources) {
+		collectCreatedBetween(registry(type), minCreationTime,
+				maxCreationTime, resources);
+	}
+
+	private static <T> void collectCreatedBetween(
+			ResourceRegistry<T> registry, long minCreationTime,
+			long maxCreationTime, final List<CreationInfo<?>> resources) {
+		registry.visitCreatedBetween(minCreationTime, maxCreationTime,
+				new OpenResourceVisitor<T>() {
+					@Override
+					public boolean visit(CreationInfo<T> creationInfo) {
+						resources.add(creationInfo);
+						return true;
+					}
+				});
+	}
+
+	private static <T> void collect(ResourceRegistry<T> registry,
+			long maxCreationTime, final List<CreationInfo<?>> resources) {
+		registry.visit(maxCreationTime, new OpenResourceVisitor<T>() {
+			@Override
+			public boolean visit(CreationInfo<T> creationInfo) {
+				resources.add(creationInfo);
+				return true;
+			}
+		});
+	}
+
+	private static long maxCreationTime(long minAgeMillis) {
+		if (minAgeMillis <= 0) {
+			return Long.MAX_VALUE;
+		}
+		return System.currentTimeMillis() - minAgeMillis;
+	}
+
+	/**
+	 * Groups the open statements and result sets by owning connection, see
+	 * {@link CreationInfo#getConnection()}. Resources whose connection is
+	 * unknown or no longer open are grouped under the null key.
+	 * 
+	 * @return identity keyed map of the connections to their open resources
+	 */
+	public Map<Connection, List<CreationInfo<?>>> getOpenResourcesByConnection() {
+		expungeCollectedResources();
+		List<CreationInfo<?>> resources = new ArrayList<CreationInfo<?>>();
+		collect(openStatements, Long.MAX_VALUE, resources);
+		collect(openResultSets, Long.MAX_VALUE, resources);
+		Map<Connection, List<CreationInfo<?>>> byConnection = new IdentityHashMap<Connection, List<CreationInfo<?>>>();
+		for (CreationInfo<?> resource : resources) {
+			List<CreationInfo<?>> connectionResources = byConnection
+					.get(resource.getConnection());
+			if (connectionResources == null) {
+				connectionResources = new ArrayList<CreationInfo<?>>();
+				byConnection.put(resource.getConnection(), connectionResources);
+			}
+			connectionResources.add(resource);
+		}
+		return byConnection;
 	}
 
+	/**
+	 * @return identity keyed snapshot of the open connections
+	 */
 	public Map<Connection, CreationInfo<Connection>> getOpenConnections() {
-		return new HashMap<Connection, OpenResourceTracker.CreationInfo<Connection>>(
-				openConnections);
+		expungeCollectedResources();
+		return openConnections.snapshot();
 	}
 
+	/**
+	 * @return identity keyed snapshot of the open result sets
+	 */
 	public Map<ResultSet, CreationInfo<ResultSet>> getOpenResultSets() {
-		return new HashMap<ResultSet, OpenResourceTracker.CreationInfo<ResultSet>>(
-				openResultSets);
+		expungeCollectedResources();
+		return openResultSets.snapshot();
 	}
 
+	/**
+	 * @return identity keyed snapshot of the open statements
+	 */
 	public Map<Statement, CreationInfo<Statement>> getOpenStatements() {
-		return new HashMap<Statement, OpenResourceTracker.CreationInfo<Statement>>(
-				openStatements);
+		expungeCollectedResources();
+		return openStatements.snapshot();
 	}
 
 }
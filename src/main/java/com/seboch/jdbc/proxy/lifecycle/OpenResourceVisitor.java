@@ -0,0 +1,19 @@
+package com.seboch.jdbc.proxy.lifecycle;
+
+import com.seboch.jdbc.proxy.lifecycle.OpenResourceTracker.CreationInfo;
+
+/**
+ * Visits the open resources of an {@link OpenResourceTracker} in place,
+ * without copying them.
+ */
+public interface OpenResourceVisitor<T> {
+
+	/**
+	 * Called while part of the tracker is locked, implementations must not
+	 * block.
+	 *
+	 * @return false to stop visiting
+	 */
+	public boolean visit(CreationInfo<T> creationInfo);
+
+}
@@ -0,0 +1,28 @@
+package com.seboch.jdbc.proxy.lifecycle;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+/**
+ * {@link ResourceLifecycleListener} also told which connection owns each
+ * statement and result set. For listeners implementing it, these creation
+ * callbacks are called instead of the single argument ones.
+ */
+public interface OwnedResourceLifecycleListener extends
+		ResourceLifecycleListener {
+
+	/**
+	 * @param connection
+	 *            driver connection which created the statement
+	 */
+	public void statementCreated(Statement statement, Connection connection);
+
+	/**
+	 * @param connection
+	 *            driver connection owning the result set, null for the result
+	 *            sets of arrays
+	 */
+	public void resultSetCreated(ResultSet resultSet, Connection connection);
+
+}
@@ -0,0 +1,18 @@
+package com.seboch.jdbc.proxy.lifecycle;
+
+import com.seboch.jdbc.proxy.lifecycle.OpenResourceTracker.CreationInfo;
+
+/**
+ * Notified by {@link OpenResourceTracker} when a resource has been garbage
+ * collected without having been closed.
+ */
+public interface ResourceLeakListener {
+
+	/**
+	 * @param creationInfo
+	 *            creation information of the leaked resource, its created
+	 *            object is no longer available
+	 */
+	public void resourceLeaked(ResourceType type, CreationInfo<?> creationInfo);
+
+}
@@ -0,0 +1,266 @@
+package com.seboch.jdbc.proxy.lifecycle;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.seboch.jdbc.proxy.lifecycle.OpenResourceTracker.CreationInfo;
+
+/**
+ * Periodically looks for the resources of an {@link OpenResourceTracker}
+ * open for longer than the age threshold of their type, and reports them to
+ * a {@link ResourceLeakSink} from a background daemon thread.
+ * <p>
+ * Each scan only walks the resources created since the previous scan's
+ * cutoff, walking back from the youngest thanks to the creation order kept
+ * by the tracker, so the resources already reported are not walked again
+ * and each resource is reported at most once. Reports are deduplicated by
+ * resource type and creation call site: a call site is reported at most
+ * once per report interval, with the number of resources found since its
+ * previous report.
+ */
+public class ResourceLeakReporter {
+
+	/**
+	 * Bound on the number of call sites remembered for deduplication.
+	 */
+	static final int MAX_CALL_SITES = 4096;
+
+	private static final ResourceType[] TYPES = ResourceType.values();
+
+	private static final class CallSite {
+
+		private final ResourceType type;
+		private final StackTraceElement frame;
+
+		CallSite(ResourceType type, StackTraceElement frame) {
+			this.type = type;
+			this.frame = frame;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * type.hashCode()
+					+ (frame == null ? 0 : frame.hashCode());
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof CallSite)) {
+				return false;
+			}
+			CallSite other = (CallSite) obj;
+			return type == other.type
+					&& (frame == null ? other.frame == null : frame
+							.equals(other.frame));
+		}
+	}
+
+	private static final class Occurrences {
+
+		private long lastReportTime = Long.MIN_VALUE;
+		private long count;
+	}
+
+	private final OpenResourceTracker tracker;
+	private final ResourceLeakSink sink;
+	private final AtomicLongArray ageThresholdsMillis = new AtomicLongArray(
+			TYPES.length);
+	private volatile long reportIntervalMillis = TimeUnit.MINUTES.toMillis(10);
+
+	// guarded by this
+	private final long[] scannedThresholdsMillis = new long[TYPES.length];
+	private final long[] lastMaxCreationTimes = new long[TYPES.length];
+	private final Map<CallSite, Occurrences> occurrences = new HashMap<CallSite, Occurrences>();
+	private ScheduledExecutorService executor;
+
+	public ResourceLeakReporter(OpenResourceTracker tracker,
+			ResourceLeakSink sink) {
+		if (tracker == null) {
+			throw new IllegalArgumentException("tracker must not be null");
+		}
+		if (sink == null) {
+			throw new IllegalArgumentException("sink must not be null");
+		}
+		this.tracker = tracker;
+		this.sink = sink;
+	}
+
+	/**
+	 * Sets the age after which an open resource of the given type is
+	 * suspected to leak, 0 to never report that type, which is the default.
+	 */
+	public void setAgeThreshold(ResourceType type, long age, TimeUnit unit) {
+		if (age < 0) {
+			throw new IllegalArgumentException("age must not be negative");
+		}
+		ageThresholdsMillis.set(type.ordinal(), unit.toMillis(age));
+	}
+
+	public long getAgeThresholdMillis(ResourceType type) {
+		return ageThresholdsMillis.get(type.ordinal());
+	}
+
+	/**
+	 * Sets the minimum time between two reports of the same call site, 10
+	 * minutes by default.
+	 */
+	public void setReportInterval(long interval, TimeUnit unit) {
+		if (interval < 0) {
+			throw new IllegalArgumentException(
+					"interval must not be negative");
+		}
+		reportIntervalMillis = unit.toMillis(interval);
+	}
+
+	public long getReportIntervalMillis() {
+		return reportIntervalMillis;
+	}
+
+	/**
+	 * Starts scanning every period on a dedicated daemon thread.
+	 */
+	public synchronized void start(long period, TimeUnit unit) {
+		if (period <= 0) {
+			throw new IllegalArgumentException("period must be positive");
+		}
+		if (executor != null) {
+			throw new IllegalStateException("Already started");
+		}
+		executor = Executors
+				.newSingleThreadScheduledExecutor(new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable runnable) {
+						Thread thread = new Thread(runnable,
+								"jdbc-proxy-leak-reporter");
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		executor.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					scan();
+				} catch (RuntimeException e) {
+					// a failing sink must not stop the scans
+				}
+			}
+		}, period, period, unit);
+	}
+
+	/**
+	 * Stops the background scans.
+	 */
+	public synchronized void close() {
+		if (executor != null) {
+			executor.shutdownNow();
+			executor = null;
+		}
+	}
+
+	/**
+	 * Looks for the resources open for longer than their age threshold
+	 * since the previous scan and reports them. Called by the background
+	 * thread, may also be called directly.
+	 */
+	public void scan() {
+		List<ResourceType> types = new ArrayList<ResourceType>();
+		List<CreationInfo<?>> found = new ArrayList<CreationInfo<?>>();
+		synchronized (this) {
+			for (ResourceType type : TYPES) {
+				collect(type, types, found);
+			}
+		}
+		Map<CallSite, CreationInfo<?>> lastByCallSite = new LinkedHashMap<CallSite, CreationInfo<?>>();
+		Map<CallSite, Long> countByCallSite = new HashMap<CallSite, Long>();
+		for (int i = 0; i < found.size(); i++) {
+			List<StackTraceElement> stack = found.get(i)
+					.getCreationStackTrace();
+			CallSite callSite = new CallSite(types.get(i),
+					stack.isEmpty() ? null : stack.get(0));
+			CreationInfo<?> last = lastByCallSite.get(callSite);
+			if (last == null
+					|| last.getCreationTime() <= found.get(i)
+							.getCreationTime()) {
+				lastByCallSite.put(callSite, found.get(i));
+			}
+			Long count = countByCallSite.get(callSite);
+			countByCallSite.put(callSite, count == null ? 1 : count + 1);
+		}
+		long now = System.currentTimeMillis();
+		for (Map.Entry<CallSite, CreationInfo<?>> entry : lastByCallSite
+				.entrySet()) {
+			CallSite callSite = entry.getKey();
+			long count = occurred(callSite, countByCallSite.get(callSite), now);
+			if (count > 0) {
+				sink.leakSuspected(callSite.type, entry.getValue(), count);
+			}
+		}
+	}
+
+	private void collect(ResourceType type, List<ResourceType> types,
+			List<CreationInfo<?>> found) {
+		int index = type.ordinal();
+		long thresholdMillis = ageThresholdsMillis.get(index);
+		if (thresholdMillis != scannedThresholdsMillis[index]) {
+			scannedThresholdsMillis[index] = thresholdMillis;
+			lastMaxCreationTimes[index] = Long.MIN_VALUE;
+		}
+		if (thresholdMillis <= 0) {
+			return;
+		}
+		long maxCreationTime = System.currentTimeMillis() - thresholdMillis;
+		int previousCount = found.size();
+		tracker.collectCreatedBetween(type, lastMaxCreationTimes[index],
+				maxCreationTime, found);
+		for (int i = previousCount; i < found.size(); i++) {
+			types.add(type);
+		}
+		lastMaxCreationTimes[index] = maxCreationTime;
+	}
+
+	/**
+	 * @return the occurrences of callSite to report now, 0 if it was reported
+	 *         less than an interval ago
+	 */
+	private synchronized long occurred(CallSite callSite, long count,
+			long now) {
+		Occurrences report = occurrences.get(callSite);
+		if (report == null) {
+			if (occurrences.size() >= MAX_CALL_SITES) {
+				expireOccurrences(now);
+			}
+			report = new Occurrences();
+			if (occurrences.size() < MAX_CALL_SITES) {
+				occurrences.put(callSite, report);
+			}
+		}
+		report.count += count;
+		if (report.lastReportTime == Long.MIN_VALUE
+				|| now - report.lastReportTime >= reportIntervalMillis) {
+			long reported = report.count;
+			report.lastReportTime = now;
+			report.count = 0;
+			return reported;
+		}
+		return 0;
+	}
+
+	private void expireOccurrences(long now) {
+		for (Iterator<Occurrences> it = occurrences.values().iterator(); it
+				.hasNext();) {
+			if (now - it.next().lastReportTime >= reportIntervalMillis) {
+				it.remove();
+			}
+		}
+	}
+}
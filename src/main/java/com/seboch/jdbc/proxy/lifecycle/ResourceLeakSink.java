@@ -0,0 +1,25 @@
+package com.seboch.jdbc.proxy.lifecycle;
+
+import com.seboch.jdbc.proxy.lifecycle.OpenResourceTracker.CreationInfo;
+
+/**
+ * Receives the resources suspected to leak found by a
+ * {@link ResourceLeakReporter}, on its background thread.
+ */
+public interface ResourceLeakSink {
+
+	/**
+	 * Called at most once per report interval for each resource type and
+	 * creation call site.
+	 *
+	 * @param creationInfo
+	 *            creation information of the last resource of the call site
+	 *            found open for longer than the age threshold of its type
+	 * @param occurrences
+	 *            number of resources of the call site found since the
+	 *            previous report, including this one
+	 */
+	public void leakSuspected(ResourceType type, CreationInfo<?> creationInfo,
+			long occurrences);
+
+}
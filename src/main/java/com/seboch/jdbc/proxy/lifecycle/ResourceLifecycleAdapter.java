@@ -4,7 +4,8 @@ import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.Statement;
 
-public class ResourceLifecycleAdapter implements ResourceLifecycleListener {
+public class ResourceLifecycleAdapter implements
+		OwnedResourceLifecycleListener {
 
 	@Override
 	public void connectionCreated(Connection connection) {
@@ -18,6 +19,11 @@ public class ResourceLifecycleAdapter implements ResourceLifecycleListener {
 	public void statementCreated(Statement statement) {
 	}
 
+	@Override
+	public void statementCreated(Statement statement, Connection connection) {
+		statementCreated(statement);
+	}
+
 	@Override
 	public void statementClosed(Statement statement) {
 	}
@@ -26,6 +32,11 @@ public class ResourceLifecycleAdapter implements ResourceLifecycleListener {
 	public void resultSetCreated(ResultSet resultSet) {
 	}
 
+	@Override
+	public void resultSetCreated(ResultSet resultSet, Connection connection) {
+		resultSetCreated(resultSet);
+	}
+
 	@Override
 	public void resultSetClosed(ResultSet resultSet) {
 	}
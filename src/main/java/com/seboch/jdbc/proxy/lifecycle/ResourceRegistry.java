@@ -0,0 +1,423 @@
+package com.seboch.jdbc.proxy.lifecycle;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.sql.Connection;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.seboch.jdbc.proxy.lifecycle.OpenResourceTracker.CreationInfo;
+
+/**
+ * Registry of the open resources of one {@link ResourceType}.
+ * <p>
+ * Resources are keyed by identity, drivers' own equals/hashCode are never
+ * called. The registry is split in independently locked stripes to sustain
+ * high insert/remove rates from many threads, and only holds weak references
+ * so that a resource garbage collected without having been closed does not
+ * stay in memory: it is reported as a leak and removed on the next
+ * {@link #expungeCollected(ResourceLeakListener)}.
+ * <p>
+ * Each stripe also links its entries in creation order, which allows to
+ * visit the oldest resources without scanning the younger ones.
+ */
+final class ResourceRegistry<T> {
+
+	private static final int INITIAL_STRIPE_CAPACITY = 16;
+
+	static final class Entry<T> extends WeakReference<T> {
+
+		private final int hash;
+		private final int identityHashCode;
+		private final Class<?> type;
+		private final long creationTime;
+		private final CreationStack creationStack;
+		private final Reference<Connection> owner;
+		private final ConnectionUsageRecorder.Lease lease;
+		private final CallSiteCounters callSiteCounters;
+		private final int callSiteId;
+		private Entry<T> next;
+		private Entry<T> older;
+		private Entry<T> younger;
+
+		Entry(T referent, ReferenceQueue<? super T> queue,
+				int identityHashCode, CreationStack creationStack,
+				Reference<Connection> owner,
+				ConnectionUsageRecorder.Lease lease,
+				CallSiteCounters callSiteCounters, int callSiteId,
+				long creationTime) {
+			super(referent, queue);
+			this.identityHashCode = identityHashCode;
+			this.hash = spread(identityHashCode);
+			this.type = referent.getClass();
+			this.creationStack = creationStack;
+			this.owner = owner;
+			this.lease = lease;
+			this.callSiteCounters = callSiteCounters;
+			this.callSiteId = callSiteId;
+			this.creationTime = creationTime;
+		}
+
+		/**
+		 * @return the usage of the connection, null if its usage is not
+		 *         recorded
+		 */
+		ConnectionUsageRecorder.Lease getLease() {
+			return lease;
+		}
+
+		/**
+		 * Releases the lease of the resource, which is no longer open, and
+		 * counts it as closed for its call site.
+		 */
+		private void release(ResourceType type) {
+			if (lease != null) {
+				lease.released();
+			}
+			if (callSiteCounters != null) {
+				callSiteCounters.closed(callSiteId, type);
+			}
+		}
+
+		CreationInfo<T> toCreationInfo(T createdObject) {
+			return new CreationInfo<T>(createdObject, type, identityHashCode,
+					creationStack, owner == null ? null : owner.get(),
+					creationTime);
+		}
+	}
+
+	@SuppressWarnings("serial")
+	private static final class Stripe<T> extends ReentrantLock {
+
+		private Entry<T>[] table = newTable(INITIAL_STRIPE_CAPACITY);
+		private volatile int size;
+		private Entry<T> oldest;
+		private Entry<T> youngest;
+		private long lastCreationTime = Long.MIN_VALUE;
+
+		@SuppressWarnings("unchecked")
+		private static <T> Entry<T>[] newTable(int capacity) {
+			return (Entry<T>[]) new Entry<?>[capacity];
+		}
+
+		private int indexFor(int hash, int stripeBits) {
+			return (hash >>> stripeBits) & (table.length - 1);
+		}
+
+		/**
+		 * Creation times are made monotonic within a stripe so that the
+		 * creation order list is also ordered by creation time.
+		 */
+		long creationTime(long now) {
+			if (now > lastCreationTime) {
+				lastCreationTime = now;
+			}
+			return lastCreationTime;
+		}
+
+		void put(Entry<T> entry, int stripeBits) {
+			if (size >= table.length - (table.length >>> 2)) {
+				resize(stripeBits);
+			}
+			int index = indexFor(entry.hash, stripeBits);
+			entry.next = table[index];
+			table[index] = entry;
+			entry.older = youngest;
+			if (youngest == null) {
+				oldest = entry;
+			} else {
+				youngest.younger = entry;
+			}
+			youngest = entry;
+			size++;
+		}
+
+		Entry<T> get(Object object, int hash, int stripeBits) {
+			int index = indexFor(hash, stripeBits);
+			for (Entry<T> entry = table[index]; entry != null; entry = entry.next) {
+				if (entry.hash == hash && entry.get() == object) {
+					return entry;
+				}
+			}
+			return null;
+		}
+
+		Entry<T> remove(Object object, int hash, int stripeBits) {
+			int index = indexFor(hash, stripeBits);
+			Entry<T> previous = null;
+			for (Entry<T> entry = table[index]; entry != null; entry = entry.next) {
+				if (entry.hash == hash && entry.get() == object) {
+					unlink(index, previous, entry);
+					return entry;
+				}
+				previous = entry;
+			}
+			return null;
+		}
+
+		boolean removeEntry(Entry<T> removed, int stripeBits) {
+			int index = indexFor(removed.hash, stripeBits);
+			Entry<T> previous = null;
+			for (Entry<T> entry = table[index]; entry != null; entry = entry.next) {
+				if (entry == removed) {
+					unlink(index, previous, entry);
+					return true;
+				}
+				previous = entry;
+			}
+			return false;
+		}
+
+		private void unlink(int index, Entry<T> previous, Entry<T> entry) {
+			if (previous == null) {
+				table[index] = entry.next;
+			} else {
+				previous.next = entry.next;
+			}
+			entry.next = null;
+			if (entry.older == null) {
+				oldest = entry.younger;
+			} else {
+				entry.older.younger = entry.younger;
+			}
+			if (entry.younger == null) {
+				youngest = entry.older;
+			} else {
+				entry.younger.older = entry.older;
+			}
+			entry.older = null;
+			entry.younger = null;
+			size--;
+		}
+
+		private void resize(int stripeBits) {
+			Entry<T>[] oldTable = table;
+			table = newTable(oldTable.length << 1);
+			for (int i = 0; i < oldTable.length; i++) {
+				Entry<T> entry = oldTable[i];
+				while (entry != null) {
+					Entry<T> next = entry.next;
+					int index = indexFor(entry.hash, stripeBits);
+					entry.next = table[index];
+					table[index] = entry;
+					entry = next;
+				}
+			}
+		}
+
+		boolean visit(long maxCreationTime, OpenResourceVisitor<T> visitor) {
+			for (Entry<T> entry = oldest; entry != null
+					&& entry.creationTime <= maxCreationTime; entry = entry.younger) {
+				T object = entry.get();
+				if (object != null && !visitor.visit(entry.toCreationInfo(object))) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		void visitCreatedBetween(long minCreationTime, long maxCreationTime,
+				OpenResourceVisitor<T> visitor) {
+			for (Entry<T> entry = youngest; entry != null
+					&& entry.creationTime > minCreationTime; entry = entry.older) {
+				T object = entry.get();
+				if (object != null && entry.creationTime <= maxCreationTime) {
+					visitor.visit(entry.toCreationInfo(object));
+				}
+			}
+		}
+	}
+
+	private final ResourceType type;
+	private final ReferenceQueue<T> queue = new ReferenceQueue<T>();
+	private final Stripe<T>[] stripes;
+	private final int stripeBits;
+
+	ResourceRegistry(ResourceType type, int concurrencyLevel) {
+		this.type = type;
+		int bits = 0;
+		while ((1 << bits) < concurrencyLevel && bits < 16) {
+			bits++;
+		}
+		stripeBits = bits;
+		stripes = newStripes(1 << bits);
+		for (int i = 0; i < stripes.length; i++) {
+			stripes[i] = new Stripe<T>();
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> Stripe<T>[] newStripes(int count) {
+		return (Stripe<T>[]) new Stripe<?>[count];
+	}
+
+	private static int spread(int h) {
+		// identity hashes are not uniformly distributed in their low bits
+		h ^= (h >>> 20) ^ (h >>> 12);
+		return h ^ (h >>> 7) ^ (h >>> 4);
+	}
+
+	private Stripe<T> stripeFor(int hash) {
+		return stripes[hash & (stripes.length - 1)];
+	}
+
+	/**
+	 * @param owner
+	 *            weak reference to the connection owning object, may be null
+	 * @param lease
+	 *            usage of object if it is a connection, may be null
+	 * @param callSiteCounters
+	 *            counters to decrement when object is closed, may be null
+	 * @param callSiteId
+	 *            id of the call site creating object in callSiteCounters
+	 */
+	void add(T object, CreationStack creationStack,
+			Reference<Connection> owner, ConnectionUsageRecorder.Lease lease,
+			CallSiteCounters callSiteCounters, int callSiteId) {
+		int identityHashCode = System.identityHashCode(object);
+		int hash = spread(identityHashCode);
+		Stripe<T> stripe = stripeFor(hash);
+		Entry<T> replaced;
+		stripe.lock();
+		try {
+			replaced = stripe.remove(object, hash, stripeBits);
+			Entry<T> entry = new Entry<T>(object, queue, identityHashCode,
+					creationStack, owner, lease, callSiteCounters,
+					callSiteId, stripe.creationTime(System.currentTimeMillis()));
+			stripe.put(entry, stripeBits);
+		} finally {
+			stripe.unlock();
+		}
+		if (replaced != null) {
+			replaced.clear();
+			replaced.release(type);
+		}
+	}
+
+	ResourceType getType() {
+		return type;
+	}
+
+	/**
+	 * @return the entry of object, which is a weak reference to it that is
+	 *         cleared when object is closed, or null if object is not open
+	 */
+	Entry<T> get(T object) {
+		int hash = spread(System.identityHashCode(object));
+		Stripe<T> stripe = stripeFor(hash);
+		stripe.lock();
+		try {
+			return stripe.get(object, hash, stripeBits);
+		} finally {
+			stripe.unlock();
+		}
+	}
+
+	boolean remove(T object) {
+		int hash = spread(System.identityHashCode(object));
+		Stripe<T> stripe = stripeFor(hash);
+		Entry<T> removed;
+		stripe.lock();
+		try {
+			removed = stripe.remove(object, hash, stripeBits);
+		} finally {
+			stripe.unlock();
+		}
+		if (removed != null) {
+			// a cleared reference is never enqueued, so no leak is reported
+			removed.clear();
+			removed.release(type);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Removes the entries of resources garbage collected while still open
+	 * and reports them to leakListener, which may be null.
+	 */
+	void expungeCollected(ResourceLeakListener leakListener) {
+		Object reference;
+		while ((reference = queue.poll()) != null) {
+			@SuppressWarnings("unchecked")
+			Entry<T> entry = (Entry<T>) reference;
+			Stripe<T> stripe = stripeFor(entry.hash);
+			boolean removed;
+			stripe.lock();
+			try {
+				removed = stripe.removeEntry(entry, stripeBits);
+			} finally {
+				stripe.unlock();
+			}
+			if (removed) {
+				entry.release(type);
+			}
+			if (removed && leakListener != null) {
+				leakListener.resourceLeaked(type, entry.toCreationInfo(null));
+			}
+		}
+	}
+
+	/**
+	 * @return the number of open resources, summed over the stripe counters
+	 *         without locking nor scanning
+	 */
+	int size() {
+		int size = 0;
+		for (Stripe<T> stripe : stripes) {
+			size += stripe.size;
+		}
+		return size;
+	}
+
+	/**
+	 * Visits the open resources created at or before maxCreationTime, oldest
+	 * first within each stripe. Each stripe is locked while it is visited so
+	 * the visitor must be quick.
+	 */
+	void visit(long maxCreationTime, OpenResourceVisitor<T> visitor) {
+		for (Stripe<T> stripe : stripes) {
+			stripe.lock();
+			try {
+				if (!stripe.visit(maxCreationTime, visitor)) {
+					return;
+				}
+			} finally {
+				stripe.unlock();
+			}
+		}
+	}
+
+	/**
+	 * Visits the open resources created after minCreationTime and at or
+	 * before maxCreationTime, youngest first within each stripe. Only the
+	 * resources created after minCreationTime are looked at, so that
+	 * repeated scans do not walk the resources left open long ago.
+	 */
+	void visitCreatedBetween(long minCreationTime, long maxCreationTime,
+			OpenResourceVisitor<T> visitor) {
+		for (Stripe<T> stripe : stripes) {
+			stripe.lock();
+			try {
+				stripe.visitCreatedBetween(minCreationTime, maxCreationTime,
+						visitor);
+			} finally {
+				stripe.unlock();
+			}
+		}
+	}
+
+	Map<T, CreationInfo<T>> snapshot() {
+		final Map<T, CreationInfo<T>> snapshot = new IdentityHashMap<T, CreationInfo<T>>();
+		visit(Long.MAX_VALUE, new OpenResourceVisitor<T>() {
+			@Override
+			public boolean visit(CreationInfo<T> creationInfo) {
+				snapshot.put(creationInfo.getCreatedObject(), creationInfo);
+				return true;
+			}
+		});
+		return snapshot;
+	}
+}
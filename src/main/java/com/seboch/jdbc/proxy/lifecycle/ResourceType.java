@@ -0,0 +1,10 @@
+package com.seboch.jdbc.proxy.lifecycle;
+
+/**
+ * Kinds of JDBC resources tracked by {@link OpenResourceTracker}.
+ */
+public enum ResourceType {
+
+	CONNECTION, STATEMENT, RESULT_SET
+
+}
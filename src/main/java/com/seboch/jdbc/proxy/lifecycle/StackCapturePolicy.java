@@ -0,0 +1,263 @@
+package com.seboch.jdbc.proxy.lifecycle;
+
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.seboch.jdbc.proxy.lifecycle.OpenResourceTracker.CreationInfo;
+
+/**
+ * Decides how {@link OpenResourceTracker} captures the creation stack of the
+ * resources it tracks.
+ * <p>
+ * Capturing a stack is by far the most expensive part of leak detection, the
+ * policies below allow to trade stack coverage for tracking cost.
+ */
+public abstract class StackCapturePolicy {
+
+	private static final StackCapturePolicy ALWAYS = new StackCapturePolicy() {
+		@Override
+		CreationStack capture(int maxLength) {
+			return new CreationStack(StackFrames.capture(maxLength));
+		}
+
+		@Override
+		public String toString() {
+			return "always";
+		}
+	};
+
+	private static final StackCapturePolicy NEVER = new StackCapturePolicy() {
+		@Override
+		CreationStack capture(int maxLength) {
+			return CreationStack.EMPTY;
+		}
+
+		@Override
+		public String toString() {
+			return "never";
+		}
+	};
+
+	private static final StackCapturePolicy LAZY = new StackCapturePolicy() {
+		@Override
+		CreationStack capture(int maxLength) {
+			if (maxLength <= 0) {
+				return CreationStack.EMPTY;
+			}
+			return new CreationStack(new Throwable(), maxLength);
+		}
+
+		@Override
+		public String toString() {
+			return "lazy";
+		}
+	};
+
+	static final class EveryNth extends StackCapturePolicy {
+
+		private final int n;
+		private final AtomicLong counter = new AtomicLong();
+
+		EveryNth(int n) {
+			this.n = n;
+		}
+
+		@Override
+		CreationStack capture(int maxLength) {
+			if (counter.getAndIncrement() % n == 0) {
+				return ALWAYS.capture(maxLength);
+			}
+			return CreationStack.EMPTY;
+		}
+
+		@Override
+		public String toString() {
+			return "every " + n + "th";
+		}
+	}
+
+	static final class PerCallSiteRateLimit extends StackCapturePolicy {
+
+		/**
+		 * Bound on the number of tracked call sites, resources created from
+		 * other call sites only record their call site.
+		 */
+		static final int MAX_CALL_SITES = 4096;
+
+		private static final class Budget {
+			private final AtomicLong windowStart;
+			private final AtomicInteger captures = new AtomicInteger();
+
+			Budget(long now) {
+				windowStart = new AtomicLong(now);
+			}
+		}
+
+		private final int capturesPerWindow;
+		private final long windowNanos;
+		private final ConcurrentMap<InternedCallSite, Budget> budgets = new ConcurrentHashMap<InternedCallSite, Budget>();
+
+		PerCallSiteRateLimit(int capturesPerWindow, long windowNanos) {
+			this.capturesPerWindow = capturesPerWindow;
+			this.windowNanos = windowNanos;
+		}
+
+		@Override
+		CreationStack capture(int maxLength) {
+			if (maxLength <= 0) {
+				return CreationStack.EMPTY;
+			}
+			InternedCallSite callSite = StackFrames.internedCallSite();
+			if (callSite == null) {
+				return CreationStack.EMPTY;
+			}
+			if (tryAcquire(callSite)) {
+				return ALWAYS.capture(maxLength);
+			}
+			return new CreationStack(Collections.singletonList(callSite
+					.getStackTraceElement()));
+		}
+
+		private boolean tryAcquire(InternedCallSite callSite) {
+			long now = System.nanoTime();
+			Budget budget = budgets.get(callSite);
+			if (budget == null) {
+				if (budgets.size() >= MAX_CALL_SITES) {
+					return false;
+				}
+				Budget newBudget = new Budget(now);
+				budget = budgets.putIfAbsent(callSite, newBudget);
+				if (budget == null) {
+					budget = newBudget;
+				}
+			}
+			long windowStart = budget.windowStart.get();
+			if (now - windowStart >= windowNanos
+					&& budget.windowStart.compareAndSet(windowStart, now)) {
+				budget.captures.set(0);
+			}
+			return budget.captures.incrementAndGet() <= capturesPerWindow;
+		}
+
+		@Override
+		public String toString() {
+			return capturesPerWindow + " per "
+					+ TimeUnit.NANOSECONDS.toMillis(windowNanos)
+					+ "ms and call site";
+		}
+	}
+
+	private static final StackCapturePolicy ON_CALL_SITE_GROWTH = new StackCapturePolicy() {
+		@Override
+		CreationStack capture(int maxLength) {
+			return capture(maxLength, StackFrames.internedCallSite(), false);
+		}
+
+		@Override
+		CreationStack capture(int maxLength, InternedCallSite callSite,
+				boolean newPeak) {
+			if (maxLength <= 0) {
+				return CreationStack.EMPTY;
+			} else if (newPeak) {
+				return ALWAYS.capture(maxLength);
+			} else if (callSite == null) {
+				return CreationStack.EMPTY;
+			}
+			return new CreationStack(Collections.singletonList(callSite
+					.getStackTraceElement()));
+		}
+
+		@Override
+		public String toString() {
+			return "on call site growth";
+		}
+	};
+
+	StackCapturePolicy() {
+	}
+
+	abstract CreationStack capture(int maxLength);
+
+	/**
+	 * Called instead of {@link #capture(int)} when call site accounting is
+	 * enabled.
+	 * 
+	 * @param callSite
+	 *            first application frame, null if unknown
+	 * @param newPeak
+	 *            whether the resource raised the number of open resources
+	 *            of its call site to a new peak
+	 */
+	CreationStack capture(int maxLength, InternedCallSite callSite,
+			boolean newPeak) {
+		return capture(maxLength);
+	}
+
+	/**
+	 * Captures the creation stack of every resource.
+	 */
+	public static StackCapturePolicy always() {
+		return ALWAYS;
+	}
+
+	/**
+	 * Never captures creation stacks.
+	 */
+	public static StackCapturePolicy never() {
+		return NEVER;
+	}
+
+	/**
+	 * Captures the creation stack of one resource out of n, the others have
+	 * an empty creation stack.
+	 */
+	public static StackCapturePolicy everyNth(int n) {
+		if (n < 1) {
+			throw new IllegalArgumentException("n must be positive");
+		}
+		return n == 1 ? ALWAYS : new EveryNth(n);
+	}
+
+	/**
+	 * Captures at most capturesPerWindow creation stacks per window and per
+	 * call site. Resources over budget only record their call site, which is
+	 * resolved without materializing the whole stack on JDK 9+.
+	 */
+	public static StackCapturePolicy perCallSiteRateLimit(
+			int capturesPerWindow, long window, TimeUnit unit) {
+		if (capturesPerWindow < 0) {
+			throw new IllegalArgumentException(
+					"capturesPerWindow must not be negative");
+		}
+		if (window <= 0) {
+			throw new IllegalArgumentException("window must be positive");
+		}
+		return new PerCallSiteRateLimit(capturesPerWindow, unit.toNanos(window));
+	}
+
+	/**
+	 * Only records the call site of the resources, and the creation stack of
+	 * those raising the number of open resources of their call site to a new
+	 * peak, which a leaking call site keeps doing while the others soon stop.
+	 * Peaks are only known when
+	 * {@link OpenResourceTracker#setCallSiteAccountingEnabled(boolean) call
+	 * site accounting} is enabled, otherwise only call sites are recorded.
+	 */
+	public static StackCapturePolicy onCallSiteGrowth() {
+		return ON_CALL_SITE_GROWTH;
+	}
+
+	/**
+	 * Only records a {@link Throwable} at creation time, its frames are
+	 * materialized when {@link CreationInfo#getCreationStackTrace()} is
+	 * called, typically when a leak is reported.
+	 */
+	public static StackCapturePolicy lazy() {
+		return LAZY;
+	}
+
+}
@@ -0,0 +1,384 @@
+package com.seboch.jdbc.proxy.lifecycle;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+import com.seboch.jdbc.proxy.JdbcProxyFactory;
+
+/**
+ * Stack capture helpers shared by the {@link StackCapturePolicy}
+ * implementations.
+ * <p>
+ * On JDK 9+ frames are read with {@code java.lang.StackWalker}, which stops
+ * as soon as enough frames have been seen instead of materializing the whole
+ * stack. The library still targets Java 8, so the walker is resolved once
+ * into method handles, which the JIT inlines like direct calls. On Java 8
+ * {@link Throwable#getStackTrace()} is used instead.
+ * <p>
+ * Call sites are interned per declaring class, method and bytecode index,
+ * through a table cached per class which also knows whether the class
+ * belongs to jdbc-proxy. Looking up a known call site therefore neither
+ * allocates nor resolves a {@link StackTraceElement}.
+ */
+public final class StackFrames {
+
+	private static final String PROXY_PACKAGE = JdbcProxyFactory.class
+			.getName().substring(0,
+					JdbcProxyFactory.class.getName().lastIndexOf('.') + 1);
+
+	/**
+	 * Bound on the number of call sites interned on Java 8, where they are
+	 * keyed by their stack trace element.
+	 */
+	static final int MAX_FALLBACK_CALL_SITES = 4096;
+
+	/**
+	 * StackWalker.walk(Function) bound to a walker retaining the class
+	 * references, (Function) Object.
+	 */
+	private static final MethodHandle WALK;
+	/** StackFrame.getDeclaringClass(), (Object) Class. */
+	private static final MethodHandle FRAME_DECLARING_CLASS;
+	/** StackFrame.getMethodName(), (Object) String. */
+	private static final MethodHandle FRAME_METHOD_NAME;
+	/** StackFrame.getByteCodeIndex(), (Object) int. */
+	private static final MethodHandle FRAME_BYTE_CODE_INDEX;
+	/** StackFrame.toStackTraceElement(), (Object) StackTraceElement. */
+	private static final MethodHandle FRAME_TO_STACK_TRACE_ELEMENT;
+
+	static {
+		MethodHandle walk = null;
+		MethodHandle frameDeclaringClass = null;
+		MethodHandle frameMethodName = null;
+		MethodHandle frameByteCodeIndex = null;
+		MethodHandle frameToStackTraceElement = null;
+		try {
+			MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+			Class<?> stackWalkerClass = Class.forName("java.lang.StackWalker");
+			Class<?> stackFrameClass = Class
+					.forName("java.lang.StackWalker$StackFrame");
+			Class<?> optionClass = Class
+					.forName("java.lang.StackWalker$Option");
+			Object retainClassReference = retainClassReference(optionClass);
+			Object stackWalker = lookup.findStatic(stackWalkerClass,
+					"getInstance",
+					MethodType.methodType(stackWalkerClass, optionClass))
+					.invoke(retainClassReference);
+			walk = lookup.findVirtual(stackWalkerClass, "walk",
+					MethodType.methodType(Object.class, Function.class))
+					.bindTo(stackWalker);
+			frameDeclaringClass = lookup.findVirtual(stackFrameClass,
+					"getDeclaringClass", MethodType.methodType(Class.class))
+					.asType(MethodType.methodType(Class.class, Object.class));
+			frameMethodName = lookup.findVirtual(stackFrameClass,
+					"getMethodName", MethodType.methodType(String.class))
+					.asType(MethodType.methodType(String.class, Object.class));
+			frameByteCodeIndex = lookup.findVirtual(stackFrameClass,
+					"getByteCodeIndex", MethodType.methodType(int.class))
+					.asType(MethodType.methodType(int.class, Object.class));
+			frameToStackTraceElement = lookup.findVirtual(stackFrameClass,
+					"toStackTraceElement",
+					MethodType.methodType(StackTraceElement.class)).asType(
+					MethodType.methodType(StackTraceElement.class,
+							Object.class));
+		} catch (Throwable e) {
+			// pre JDK 9, fall back to Throwable.getStackTrace()
+			walk = null;
+		}
+		WALK = walk;
+		FRAME_DECLARING_CLASS = frameDeclaringClass;
+		FRAME_METHOD_NAME = frameMethodName;
+		FRAME_BYTE_CODE_INDEX = frameByteCodeIndex;
+		FRAME_TO_STACK_TRACE_ELEMENT = frameToStackTraceElement;
+	}
+
+	private static Object retainClassReference(Class<?> optionClass) {
+		for (Object option : optionClass.getEnumConstants()) {
+			if (((Enum<?>) option).name().equals("RETAIN_CLASS_REFERENCE")) {
+				return option;
+			}
+		}
+		throw new IllegalStateException("No RETAIN_CLASS_REFERENCE option");
+	}
+
+	/**
+	 * Call sites of the frames of a class, and whether the class belongs to
+	 * jdbc-proxy.
+	 */
+	private static final class ClassCallSites {
+
+		private static final InternedCallSite[] NONE = new InternedCallSite[0];
+
+		private final boolean framework;
+
+		/**
+		 * Whether the class is a reflection class, whose invoke methods are
+		 * framework frames.
+		 */
+		private final boolean reflection;
+
+		/**
+		 * Interned call sites, copied on write.
+		 */
+		private volatile InternedCallSite[] callSites = NONE;
+
+		ClassCallSites(Class<?> type) {
+			String className = type.getName();
+			framework = StackFrames.isFrameworkFrame(className, "");
+			reflection = !framework && className.contains("reflect");
+		}
+
+		boolean isFrameworkFrame(Object frame) throws Throwable {
+			return framework
+					|| (reflection && ((String) FRAME_METHOD_NAME
+							.invokeExact(frame)).startsWith("invoke"));
+		}
+
+		InternedCallSite callSite(Object frame) throws Throwable {
+			String methodName = (String) FRAME_METHOD_NAME.invokeExact(frame);
+			int byteCodeIndex = (int) FRAME_BYTE_CODE_INDEX.invokeExact(frame);
+			for (InternedCallSite callSite : callSites) {
+				if (callSite.isAt(methodName, byteCodeIndex)) {
+					return callSite;
+				}
+			}
+			return intern(methodName, byteCodeIndex, frame);
+		}
+
+		private synchronized InternedCallSite intern(String methodName,
+				int byteCodeIndex, Object frame) throws Throwable {
+			InternedCallSite[] current = callSites;
+			for (InternedCallSite callSite : current) {
+				if (callSite.isAt(methodName, byteCodeIndex)) {
+					return callSite;
+				}
+			}
+			InternedCallSite callSite = new InternedCallSite(methodName,
+					byteCodeIndex,
+					(StackTraceElement) FRAME_TO_STACK_TRACE_ELEMENT
+							.invokeExact(frame));
+			InternedCallSite[] updated = Arrays.copyOf(current,
+					current.length + 1);
+			updated[current.length] = callSite;
+			callSites = updated;
+			return callSite;
+		}
+	}
+
+	private static final ClassValue<ClassCallSites> CLASS_CALL_SITES = new ClassValue<ClassCallSites>() {
+		@Override
+		protected ClassCallSites computeValue(Class<?> type) {
+			return new ClassCallSites(type);
+		}
+	};
+
+	/**
+	 * Call sites interned on Java 8.
+	 */
+	private static final ConcurrentMap<StackTraceElement, InternedCallSite> FALLBACK_CALL_SITES = new ConcurrentHashMap<StackTraceElement, InternedCallSite>();
+
+	/**
+	 * Returns the call site of the first application frame of a walk,
+	 * shared by every call as it keeps no state.
+	 */
+	private static final Function<Stream<?>, Object> CALL_SITE = new Function<Stream<?>, Object>() {
+		@Override
+		public Object apply(Stream<?> frames) {
+			try {
+				Iterator<?> iterator = frames.iterator();
+				while (iterator.hasNext()) {
+					Object frame = iterator.next();
+					ClassCallSites classCallSites = CLASS_CALL_SITES
+							.get((Class<?>) FRAME_DECLARING_CLASS
+									.invokeExact(frame));
+					if (!classCallSites.isFrameworkFrame(frame)) {
+						return classCallSites.callSite(frame);
+					}
+				}
+				return null;
+			} catch (Throwable e) {
+				throw propagate(e);
+			}
+		}
+	};
+
+	/**
+	 * Collects at most maxLength frames of a walk, starting at the first
+	 * application frame.
+	 */
+	private static final class Collector implements
+			Function<Stream<?>, Object> {
+
+		private final int maxLength;
+
+		Collector(int maxLength) {
+			this.maxLength = maxLength;
+		}
+
+		@Override
+		public Object apply(Stream<?> frames) {
+			List<StackTraceElement> stack = new ArrayList<StackTraceElement>(
+					Math.min(maxLength, 32));
+			try {
+				Iterator<?> iterator = frames.iterator();
+				boolean skipping = true;
+				while (iterator.hasNext() && stack.size() < maxLength) {
+					Object frame = iterator.next();
+					if (skipping
+							&& CLASS_CALL_SITES.get(
+									(Class<?>) FRAME_DECLARING_CLASS
+											.invokeExact(frame))
+									.isFrameworkFrame(frame)) {
+						continue;
+					}
+					skipping = false;
+					stack.add((StackTraceElement) FRAME_TO_STACK_TRACE_ELEMENT
+							.invokeExact(frame));
+				}
+			} catch (Throwable e) {
+				throw propagate(e);
+			}
+			return stack;
+		}
+	}
+
+	private StackFrames() {
+	}
+
+	/**
+	 * @return up to maxLength frames of the current thread, starting at the
+	 *         first frame which does not belong to jdbc-proxy or to the
+	 *         reflection machinery
+	 */
+	@SuppressWarnings("unchecked")
+	static List<StackTraceElement> capture(int maxLength) {
+		if (maxLength <= 0) {
+			return Collections.emptyList();
+		}
+		if (WALK != null) {
+			return (List<StackTraceElement>) walk(new Collector(maxLength));
+		}
+		return trim(new Throwable().getStackTrace(), maxLength);
+	}
+
+	/**
+	 * @return the first frame of the current thread which does not belong to
+	 *         jdbc-proxy or to the reflection machinery, or null
+	 */
+	public static StackTraceElement callSite() {
+		if (WALK != null) {
+			InternedCallSite callSite = (InternedCallSite) walk(CALL_SITE);
+			return callSite == null ? null : callSite.getStackTraceElement();
+		}
+		List<StackTraceElement> frames = trim(new Throwable().getStackTrace(),
+				1);
+		return frames.isEmpty() ? null : frames.get(0);
+	}
+
+	/**
+	 * @return the interned call site of the first frame of the current
+	 *         thread which does not belong to jdbc-proxy or to the reflection
+	 *         machinery, or null if unknown
+	 */
+	static InternedCallSite internedCallSite() {
+		if (WALK != null) {
+			return (InternedCallSite) walk(CALL_SITE);
+		}
+		StackTraceElement frame = callSite();
+		if (frame == null) {
+			return null;
+		}
+		InternedCallSite callSite = FALLBACK_CALL_SITES.get(frame);
+		if (callSite == null) {
+			if (FALLBACK_CALL_SITES.size() >= MAX_FALLBACK_CALL_SITES) {
+				return null;
+			}
+			InternedCallSite interned = new InternedCallSite(
+					frame.getMethodName(), -1, frame);
+			callSite = FALLBACK_CALL_SITES.putIfAbsent(frame, interned);
+			if (callSite == null) {
+				callSite = interned;
+			}
+		}
+		return callSite;
+	}
+
+	private static Object walk(Function<Stream<?>, Object> function) {
+		try {
+			return (Object) WALK.invokeExact(function);
+		} catch (Throwable e) {
+			throw propagate(e);
+		}
+	}
+
+	/**
+	 * The walker and the frame accessors throw no checked exception.
+	 */
+	private static RuntimeException propagate(Throwable e) {
+		if (e instanceof Error) {
+			throw (Error) e;
+		} else if (e instanceof RuntimeException) {
+			return (RuntimeException) e;
+		}
+		return new IllegalStateException(e);
+	}
+
+	static List<StackTraceElement> trim(StackTraceElement[] stackTrace,
+			int maxLength) {
+		int skippedFirstLines = 0;
+		while (skippedFirstLines < stackTrace.length
+				&& isFrameworkFrame(stackTrace[skippedFirstLines])) {
+			skippedFirstLines++;
+		}
+		int upperBound = Math.min(stackTrace.length, maxLength
+				+ skippedFirstLines);
+		List<StackTraceElement> stack = new ArrayList<StackTraceElement>(
+				Math.max(0, upperBound - skippedFirstLines));
+		for (int i = skippedFirstLines; i < upperBound; i++) {
+			stack.add(stackTrace[i]);
+		}
+		return stack;
+	}
+
+	static boolean isFrameworkFrame(StackTraceElement stackTraceElement) {
+		return isFrameworkFrame(stackTraceElement.getClassName(),
+				stackTraceElement.getMethodName());
+	}
+
+	static boolean isFrameworkFrame(String className, String methodName) {
+		if (isClassOrNested(className, OpenResourceTracker.class)
+				|| isClassOrNested(className, StackCapturePolicy.class)
+				|| isClassOrNested(className, StackFrames.class)
+				|| className.equals(Thread.class.getName())) {
+			return true;
+		} else if (className.startsWith(PROXY_PACKAGE)
+				&& className.indexOf('.', PROXY_PACKAGE.length()) < 0) {
+			// JdbcProxyFactory and its wrappers
+			return true;
+		} else if (methodName.startsWith("invoke")
+				&& className.contains("reflect")) {
+			return true;
+		} else if (className.contains(".$Proxy")) {
+			return true;
+		} else {
+			return false;
+		}
+	}
+
+	private static boolean isClassOrNested(String className, Class<?> type) {
+		String typeName = type.getName();
+		return className.startsWith(typeName)
+				&& (className.length() == typeName.length() || className
+						.charAt(typeName.length()) == '$');
+	}
+}
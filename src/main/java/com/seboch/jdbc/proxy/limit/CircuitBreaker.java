@@ -0,0 +1,223 @@
+package com.seboch.jdbc.proxy.limit;
+
+import java.sql.SQLException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Rejects connections and statements while the database fails, see
+ * {@link com.seboch.jdbc.proxy.JdbcProxyFactory#setCircuitBreaker(CircuitBreaker)}
+ * .
+ * <p>
+ * The breaker counts calls and failures over a fixed window. It opens when
+ * the failure rate of a window with enough calls reaches the threshold, and
+ * then rejects every call with a {@link LoadShedException} for the open
+ * duration. After it, one call at a time is let through as a probe: a
+ * success closes the breaker, a failure opens it again. Only the probe
+ * decides, the calls let through before the breaker opened and ending later
+ * are ignored. The probe is told apart by its thread, as a JDBC call is
+ * checked, executed and recorded by the calling thread.
+ * <p>
+ * Only the failures pointing at the database or the network count:
+ * transient and recoverable exceptions, connection exceptions and the SQL
+ * states of class 08. A constraint violation or a syntax error does not.
+ * The state is kept in atomic fields, without locks.
+ */
+public final class CircuitBreaker {
+
+	/**
+	 * State of a {@link CircuitBreaker}.
+	 */
+	public enum State {
+		/** Calls go through. */
+		CLOSED,
+		/** Calls are rejected. */
+		OPEN,
+		/** One call at a time probes the database. */
+		HALF_OPEN
+	}
+
+	private static final State[] STATES = State.values();
+
+	private final double failureRateThreshold;
+	private final int minimumCalls;
+	private final long windowNanos;
+	private final long openNanos;
+
+	private final AtomicInteger state = new AtomicInteger(
+			State.CLOSED.ordinal());
+
+	/**
+	 * Calls of the window in the high half, failures in the low half.
+	 */
+	private final AtomicLong counts = new AtomicLong();
+
+	private final AtomicLong windowStart = new AtomicLong(System.nanoTime());
+
+	/**
+	 * Time the breaker opened, or of the last probe while half open.
+	 */
+	private final AtomicLong openedAt = new AtomicLong();
+
+	/**
+	 * Thread running the probe while half open, null once recorded.
+	 */
+	private final AtomicReference<Thread> probe = new AtomicReference<Thread>();
+
+	private final AtomicLong rejectedCount = new AtomicLong();
+
+	/**
+	 * @param failureRateThreshold
+	 *            failure rate, greater than 0 and at most 1, opening the
+	 *            breaker
+	 * @param minimumCalls
+	 *            calls of a window needed to open the breaker
+	 * @param window
+	 *            duration over which failures are counted
+	 * @param openDuration
+	 *            duration the breaker stays open, and between two probes
+	 */
+	public CircuitBreaker(double failureRateThreshold, int minimumCalls,
+			long window, long openDuration, TimeUnit unit) {
+		if (!(failureRateThreshold > 0 && failureRateThreshold <= 1)) {
+			throw new IllegalArgumentException(
+					"failureRateThreshold must be in (0, 1]");
+		}
+		if (minimumCalls < 1) {
+			throw new IllegalArgumentException("minimumCalls must be positive");
+		}
+		if (window <= 0 || openDuration <= 0) {
+			throw new IllegalArgumentException("durations must be positive");
+		}
+		if (unit == null) {
+			throw new IllegalArgumentException("unit must not be null");
+		}
+		this.failureRateThreshold = failureRateThreshold;
+		this.minimumCalls = minimumCalls;
+		this.windowNanos = unit.toNanos(window);
+		this.openNanos = unit.toNanos(openDuration);
+	}
+
+	public State getState() {
+		return STATES[state.get()];
+	}
+
+	/**
+	 * @return the number of calls rejected so far
+	 */
+	public long getRejectedCount() {
+		return rejectedCount.get();
+	}
+
+	/**
+	 * Lets a call through or rejects it.
+	 *
+	 * @throws LoadShedException
+	 *             if the breaker is open, or half open with a probe running
+	 */
+	public void check() throws LoadShedException {
+		int current = state.get();
+		if (current == State.CLOSED.ordinal()) {
+			return;
+		}
+		long opened = openedAt.get();
+		long now = System.nanoTime();
+		// a single caller wins the probe of each open period
+		if (now - opened >= openNanos && openedAt.compareAndSet(opened, now)) {
+			// a probe which never recorded is replaced
+			probe.set(Thread.currentThread());
+			state.compareAndSet(current, State.HALF_OPEN.ordinal());
+			return;
+		}
+		rejectedCount.incrementAndGet();
+		throw new LoadShedException("Circuit breaker open", true);
+	}
+
+	/**
+	 * Records the outcome of a call let through by {@link #check()}, on the
+	 * thread which made the call.
+	 *
+	 * @param failure
+	 *            exception thrown by the call, null on success. A
+	 *            {@link LoadShedException} records a call shed after the
+	 *            check, which is not counted, a shed probe lets the next
+	 *            call probe
+	 */
+	public void record(Throwable failure) {
+		int current = state.get();
+		if (current == State.HALF_OPEN.ordinal()) {
+			if (!probe.compareAndSet(Thread.currentThread(), null)) {
+				// not the probe
+				return;
+			}
+			if (failure instanceof LoadShedException) {
+				openedAt.set(System.nanoTime() - openNanos);
+			} else if (isFailure(failure)) {
+				open(current);
+			} else if (state.compareAndSet(current, State.CLOSED.ordinal())) {
+				resetWindow(System.nanoTime());
+			}
+			return;
+		}
+		if (current == State.OPEN.ordinal()
+				|| failure instanceof LoadShedException) {
+			return;
+		}
+		boolean failed = isFailure(failure);
+		long now = System.nanoTime();
+		long start = windowStart.get();
+		if (now - start >= windowNanos && windowStart.compareAndSet(start, now)) {
+			counts.set(0);
+		}
+		long updated = counts.addAndGet(failed ? (1L << 32) + 1 : 1L << 32);
+		if (failed) {
+			long calls = updated >>> 32;
+			long failures = updated & 0xFFFFFFFFL;
+			if (calls >= minimumCalls
+					&& failures >= failureRateThreshold * calls) {
+				open(current);
+			}
+		}
+	}
+
+	private void open(int expected) {
+		openedAt.set(System.nanoTime());
+		if (state.compareAndSet(expected, State.OPEN.ordinal())) {
+			resetWindow(System.nanoTime());
+		}
+	}
+
+	private void resetWindow(long now) {
+		windowStart.set(now);
+		counts.set(0);
+	}
+
+	/**
+	 * @return whether failure counts toward opening the breaker
+	 */
+	static boolean isFailure(Throwable failure) {
+		if (failure == null || failure instanceof LoadShedException) {
+			return false;
+		}
+		if (failure instanceof SQLTransientException
+				|| failure instanceof SQLRecoverableException
+				|| failure instanceof SQLNonTransientConnectionException) {
+			return true;
+		}
+		if (failure instanceof SQLException) {
+			String sqlState = ((SQLException) failure).getSQLState();
+			return sqlState != null && sqlState.startsWith("08");
+		}
+		return false;
+	}
+
+	@Override
+	public String toString() {
+		return "state=" + getState() + ", rejected=" + rejectedCount.get();
+	}
+}
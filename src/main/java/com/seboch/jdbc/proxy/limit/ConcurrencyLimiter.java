@@ -0,0 +1,243 @@
+package com.seboch.jdbc.proxy.limit;
+
+import java.sql.SQLTimeoutException;
+import java.sql.SQLTransientConnectionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Adaptive limit of the number of statements executing at the same time,
+ * see
+ * {@link com.seboch.jdbc.proxy.JdbcProxyFactory#setConcurrencyLimiter(ConcurrencyLimiter)}
+ * .
+ * <p>
+ * The limit follows a gradient algorithm: each execution compares its
+ * latency with the long term average latency. While the database answers
+ * as fast as usual the limit grows by about its square root, when the
+ * latency rises the limit shrinks in proportion, down to half of it per
+ * sample. Timeouts and lost connections shrink it by a tenth. Changes are
+ * smoothed and the limit stays between its minimum and maximum.
+ * <p>
+ * A statement over the limit waits at most the maximum wait for another
+ * one to complete, then is rejected with a {@link LoadShedException}.
+ * Admission and release are lock-free: the number of executing statements
+ * is a compare-and-set counter and the limit estimates are plain volatile
+ * fields, whose concurrent updates may lose samples.
+ */
+public final class ConcurrencyLimiter {
+
+	/**
+	 * Weight of a new limit in the smoothed one.
+	 */
+	private static final double SMOOTHING = 0.2;
+
+	/**
+	 * Weight of a sample in the long term average latency.
+	 */
+	private static final double LONG_TERM_WEIGHT = 1.0 / 100;
+
+	/**
+	 * Latency increase, relative to the long term average, tolerated
+	 * before the limit shrinks.
+	 */
+	private static final double TOLERANCE = 1.5;
+
+	private static final double BACKOFF_RATIO = 0.9;
+
+	/**
+	 * Longest park of a waiting thread between two admission attempts, so
+	 * that a wake up lost to a thread which stopped waiting costs little.
+	 */
+	private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS
+			.toNanos(1);
+
+	private final int minLimit;
+	private final int maxLimit;
+	private final long maxWaitNanos;
+
+	private final AtomicInteger inFlight = new AtomicInteger();
+
+	private final ConcurrentLinkedQueue<Thread> waiters = new ConcurrentLinkedQueue<Thread>();
+
+	private final AtomicLong rejectedCount = new AtomicLong();
+
+	private volatile double limit;
+
+	/**
+	 * Long term average latency in nanoseconds, 0 until the first sample.
+	 */
+	private volatile double longTermLatency;
+
+	/**
+	 * @param maxWait
+	 *            longest wait of a statement over the limit, 0 to reject it
+	 *            at once
+	 */
+	public ConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit,
+			long maxWait, TimeUnit unit) {
+		if (minLimit < 1) {
+			throw new IllegalArgumentException("minLimit must be positive");
+		}
+		if (maxLimit < minLimit) {
+			throw new IllegalArgumentException(
+					"maxLimit must not be less than minLimit");
+		}
+		if (initialLimit < minLimit || initialLimit > maxLimit) {
+			throw new IllegalArgumentException(
+					"initialLimit must be between minLimit and maxLimit");
+		}
+		if (maxWait < 0) {
+			throw new IllegalArgumentException("maxWait must not be negative");
+		}
+		if (unit == null) {
+			throw new IllegalArgumentException("unit must not be null");
+		}
+		this.minLimit = minLimit;
+		this.maxLimit = maxLimit;
+		this.maxWaitNanos = unit.toNanos(maxWait);
+		this.limit = initialLimit;
+	}
+
+	/**
+	 * @return the current limit
+	 */
+	public int getLimit() {
+		return (int) limit;
+	}
+
+	/**
+	 * @return the number of statements executing
+	 */
+	public int getInFlight() {
+		return inFlight.get();
+	}
+
+	/**
+	 * @return the number of statements waiting for the limit
+	 */
+	public int getWaiting() {
+		return waiters.size();
+	}
+
+	/**
+	 * @return the number of statements rejected so far
+	 */
+	public long getRejectedCount() {
+		return rejectedCount.get();
+	}
+
+	/**
+	 * Admits a statement, waiting for room if the limit is reached.
+	 *
+	 * @throws LoadShedException
+	 *             if there was no room within the maximum wait, or the
+	 *             waiting thread was interrupted
+	 */
+	public void acquire() throws LoadShedException {
+		if (tryAcquire() || (maxWaitNanos > 0 && await())) {
+			return;
+		}
+		rejectedCount.incrementAndGet();
+		throw new LoadShedException("Concurrency limit of " + getLimit()
+				+ " statements reached", false);
+	}
+
+	private boolean tryAcquire() {
+		int current;
+		do {
+			current = inFlight.get();
+			if (current >= (int) limit) {
+				return false;
+			}
+		} while (!inFlight.compareAndSet(current, current + 1));
+		return true;
+	}
+
+	private boolean await() {
+		Thread thread = Thread.currentThread();
+		long deadline = System.nanoTime() + maxWaitNanos;
+		waiters.add(thread);
+		try {
+			while (true) {
+				if (tryAcquire()) {
+					return true;
+				}
+				long remaining = deadline - System.nanoTime();
+				if (remaining <= 0 || thread.isInterrupted()) {
+					return false;
+				}
+				LockSupport.parkNanos(this,
+						Math.min(remaining, MAX_PARK_NANOS));
+			}
+		} finally {
+			waiters.remove(thread);
+		}
+	}
+
+	/**
+	 * Releases the room of a statement admitted by {@link #acquire()} and
+	 * adapts the limit to its outcome.
+	 *
+	 * @param failure
+	 *            exception thrown by the execution, null on success
+	 */
+	public void release(long latencyNanos, Throwable failure) {
+		int current;
+		do {
+			current = inFlight.get();
+			// stays consistent if the limiter was installed mid-execution
+			if (current == 0) {
+				break;
+			}
+		} while (!inFlight.compareAndSet(current, current - 1));
+		if (failure == null) {
+			adapt(latencyNanos, current);
+		} else if (isOverload(failure)) {
+			setLimit(limit * BACKOFF_RATIO);
+		}
+		Thread waiter = waiters.peek();
+		if (waiter != null) {
+			LockSupport.unpark(waiter);
+		}
+	}
+
+	/**
+	 * @return whether failure shows that the database is overloaded
+	 */
+	static boolean isOverload(Throwable failure) {
+		return failure instanceof SQLTimeoutException
+				|| failure instanceof SQLTransientConnectionException;
+	}
+
+	private void adapt(long latencyNanos, int inFlightCount) {
+		double latency = Math.max(1, latencyNanos);
+		double longTerm = longTermLatency;
+		longTerm = longTerm == 0 ? latency : longTerm
+				+ (latency - longTerm) * LONG_TERM_WEIGHT;
+		longTermLatency = longTerm;
+		double current = limit;
+		double gradient = Math.max(0.5,
+				Math.min(1.0, TOLERANCE * longTerm / latency));
+		double next = current * gradient;
+		// only grow a limit which is used, not one the application is far
+		// below
+		if (inFlightCount * 2 >= current) {
+			next += Math.sqrt(current);
+		}
+		setLimit(current * (1 - SMOOTHING) + next * SMOOTHING);
+	}
+
+	private void setLimit(double next) {
+		limit = Math.max(minLimit, Math.min(maxLimit, next));
+	}
+
+	@Override
+	public String toString() {
+		return "limit=" + getLimit() + ", inFlight=" + inFlight.get()
+				+ ", waiting=" + waiters.size() + ", rejected="
+				+ rejectedCount.get();
+	}
+}
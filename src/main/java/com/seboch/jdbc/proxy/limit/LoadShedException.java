@@ -0,0 +1,38 @@
+package com.seboch.jdbc.proxy.limit;
+
+import java.sql.SQLTransientException;
+
+/**
+ * Thrown instead of calling the database when a {@link ConcurrencyLimiter}
+ * has no room for a statement or a {@link CircuitBreaker} is open. Nothing
+ * was executed, the call may be retried later.
+ */
+public class LoadShedException extends SQLTransientException {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * SQL state of a statement rejected by the limiter.
+	 */
+	public static final String LIMIT_EXCEEDED_STATE = "HYT00";
+
+	/**
+	 * SQL state of a call rejected by an open circuit breaker.
+	 */
+	public static final String CIRCUIT_OPEN_STATE = "08001";
+
+	private final boolean circuitOpen;
+
+	public LoadShedException(String reason, boolean circuitOpen) {
+		super(reason, circuitOpen ? CIRCUIT_OPEN_STATE : LIMIT_EXCEEDED_STATE);
+		this.circuitOpen = circuitOpen;
+	}
+
+	/**
+	 * @return true if the call was rejected by an open circuit breaker,
+	 *         false if by the concurrency limiter
+	 */
+	public boolean isCircuitOpen() {
+		return circuitOpen;
+	}
+}
@@ -0,0 +1,88 @@
+package com.seboch.jdbc.proxy.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free log-linear histogram of non negative long values.
+ * <p>
+ * Like an HdrHistogram, each power of two range is split in
+ * {@value #SUB_BUCKETS} linear sub buckets, so a recorded value is known
+ * within about 3% whatever its magnitude. Recording is a single atomic
+ * increment and never allocates.
+ */
+public final class Histogram {
+
+	private static final int SUB_BUCKET_BITS = 5;
+	static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	private final long maxValue;
+	private final AtomicLongArray counts;
+
+	/**
+	 * @param maxValue
+	 *            greater values are recorded as maxValue
+	 */
+	public Histogram(long maxValue) {
+		if (maxValue < SUB_BUCKETS) {
+			throw new IllegalArgumentException("maxValue must be at least "
+					+ SUB_BUCKETS);
+		}
+		this.maxValue = maxValue;
+		this.counts = new AtomicLongArray(indexFor(maxValue) + 1);
+	}
+
+	static int indexFor(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+		return (shift + 1) * SUB_BUCKETS + (int) (value >>> shift)
+				- SUB_BUCKETS;
+	}
+
+	/**
+	 * @return the smallest value recorded in the bucket at index
+	 */
+	static long lowestValueAt(int index) {
+		if (index < SUB_BUCKETS) {
+			return index;
+		}
+		int shift = index / SUB_BUCKETS - 1;
+		long subBucket = index % SUB_BUCKETS + SUB_BUCKETS;
+		return subBucket << shift;
+	}
+
+	/**
+	 * @return the greatest value recorded in the bucket at index
+	 */
+	static long highestValueAt(int index) {
+		return lowestValueAt(index + 1) - 1;
+	}
+
+	public void record(long value) {
+		if (value < 0) {
+			value = 0;
+		} else if (value > maxValue) {
+			value = maxValue;
+		}
+		counts.incrementAndGet(indexFor(value));
+	}
+
+	public void reset() {
+		for (int i = 0; i < counts.length(); i++) {
+			counts.set(i, 0);
+		}
+	}
+
+	/**
+	 * Buckets are read one by one while values are being recorded, the
+	 * snapshot may thus miss the values recorded during the copy.
+	 */
+	public HistogramSnapshot snapshot() {
+		long[] copy = new long[counts.length()];
+		for (int i = 0; i < copy.length; i++) {
+			copy[i] = counts.get(i);
+		}
+		return new HistogramSnapshot(copy);
+	}
+}
@@ -0,0 +1,118 @@
+package com.seboch.jdbc.proxy.metrics;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * Immutable summary of a {@link Histogram}. Values are approximated by their
+ * bucket, see {@link Histogram}.
+ */
+public final class HistogramSnapshot {
+
+	private final long count;
+	private final long min;
+	private final long max;
+	private final double mean;
+	private final long median;
+	private final long percentile90;
+	private final long percentile99;
+	private final long percentile999;
+
+	HistogramSnapshot(long[] counts) {
+		long total = 0;
+		double sum = 0;
+		int lowest = -1;
+		int highest = -1;
+		for (int i = 0; i < counts.length; i++) {
+			if (counts[i] != 0) {
+				if (lowest < 0) {
+					lowest = i;
+				}
+				highest = i;
+				total += counts[i];
+				sum += counts[i] * (double) midValueAt(i);
+			}
+		}
+		this.count = total;
+		this.min = lowest < 0 ? 0 : Histogram.lowestValueAt(lowest);
+		this.max = highest < 0 ? 0 : Histogram.highestValueAt(highest);
+		this.mean = total == 0 ? 0 : sum / total;
+		this.median = percentile(counts, total, 0.5);
+		this.percentile90 = percentile(counts, total, 0.9);
+		this.percentile99 = percentile(counts, total, 0.99);
+		this.percentile999 = percentile(counts, total, 0.999);
+	}
+
+	@ConstructorProperties({ "count", "min", "max", "mean", "median",
+			"percentile90", "percentile99", "percentile999" })
+	public HistogramSnapshot(long count, long min, long max, double mean,
+			long median, long percentile90, long percentile99,
+			long percentile999) {
+		this.count = count;
+		this.min = min;
+		this.max = max;
+		this.mean = mean;
+		this.median = median;
+		this.percentile90 = percentile90;
+		this.percentile99 = percentile99;
+		this.percentile999 = percentile999;
+	}
+
+	private static long midValueAt(int index) {
+		long lowest = Histogram.lowestValueAt(index);
+		return lowest + (Histogram.highestValueAt(index) - lowest) / 2;
+	}
+
+	private static long percentile(long[] counts, long total, double quantile) {
+		if (total == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(total * quantile));
+		long seen = 0;
+		for (int i = 0; i < counts.length; i++) {
+			seen += counts[i];
+			if (seen >= rank) {
+				return Histogram.highestValueAt(i);
+			}
+		}
+		return Histogram.highestValueAt(counts.length - 1);
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public long getMin() {
+		return min;
+	}
+
+	public long getMax() {
+		return max;
+	}
+
+	public double getMean() {
+		return mean;
+	}
+
+	public long getMedian() {
+		return median;
+	}
+
+	public long getPercentile90() {
+		return percentile90;
+	}
+
+	public long getPercentile99() {
+		return percentile99;
+	}
+
+	public long getPercentile999() {
+		return percentile999;
+	}
+
+	@Override
+	public String toString() {
+		return "count=" + count + ", min=" + min + ", median=" + median
+				+ ", p90=" + percentile90 + ", p99=" + percentile99
+				+ ", p999=" + percentile999 + ", max=" + max;
+	}
+}
@@ -0,0 +1,149 @@
+package com.seboch.jdbc.proxy.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import com.seboch.jdbc.proxy.execution.ExecutionListener;
+
+/**
+ * {@link ExecutionListener} recording, per normalized SQL, the execution time
+ * of statements and the row count and open time of result sets.
+ * <p>
+ * SQL is normalized by replacing its literals by {@code ?}, so that queries
+ * built by concatenation share their metrics. The normalized form of each raw
+ * SQL is cached, recording an execution of a known SQL is then a map lookup
+ * plus an atomic increment. Both the number of normalized and raw SQL are
+ * bounded: once {@link #MAX_STATEMENTS} normalized SQL are known, the others
+ * are recorded under {@link #OTHER_SQL}.
+ * <p>
+ * Register it with
+ * {@link com.seboch.jdbc.proxy.JdbcProxyFactory#addExecutionListener(ExecutionListener)}
+ * and expose it to JMX with {@link #registerMBean(String)}.
+ */
+public class JdbcMetrics implements ExecutionListener, JdbcMetricsMXBean {
+
+	static final int MAX_STATEMENTS = 1000;
+
+	static final int MAX_RAW_SQL = 10 * MAX_STATEMENTS;
+
+	/**
+	 * Normalized SQL under which are recorded the executions of SQL not
+	 * tracked individually.
+	 */
+	public static final String OTHER_SQL = "<other>";
+
+	/**
+	 * Normalized SQL under which are recorded the batches of plain
+	 * statements, which have no single SQL.
+	 */
+	public static final String BATCH_SQL = "<batch>";
+
+	private final ConcurrentMap<String, StatementMetrics> byNormalizedSql = new ConcurrentHashMap<String, StatementMetrics>();
+
+	private final ConcurrentMap<String, StatementMetrics> byRawSql = new ConcurrentHashMap<String, StatementMetrics>();
+
+	private final StatementMetrics other = new StatementMetrics(OTHER_SQL);
+
+	private StatementMetrics metricsFor(String sql) {
+		if (sql == null) {
+			sql = BATCH_SQL;
+		}
+		StatementMetrics metrics = byRawSql.get(sql);
+		if (metrics != null) {
+			return metrics;
+		}
+		String normalizedSql = SqlNormalizer.normalize(sql);
+		metrics = byNormalizedSql.get(normalizedSql);
+		if (metrics == null) {
+			if (byNormalizedSql.size() >= MAX_STATEMENTS) {
+				metrics = other;
+			} else {
+				StatementMetrics newMetrics = new StatementMetrics(
+						normalizedSql);
+				metrics = byNormalizedSql.putIfAbsent(normalizedSql,
+						newMetrics);
+				if (metrics == null) {
+					metrics = newMetrics;
+				}
+			}
+		}
+		if (byRawSql.size() < MAX_RAW_SQL) {
+			byRawSql.putIfAbsent(sql, metrics);
+		}
+		return metrics;
+	}
+
+	@Override
+	public void statementExecuted(Statement statement, String sql,
+			long elapsedNanos, Throwable failure) {
+		metricsFor(sql).executed(elapsedNanos, failure);
+	}
+
+	@Override
+	public void resultSetClosed(ResultSet resultSet, String sql,
+			long rowCount, long openNanos) {
+		metricsFor(sql).resultSetClosed(rowCount, openNanos);
+	}
+
+	/**
+	 * @return the metrics of the given SQL, which is normalized first, or
+	 *         null if it has not been executed
+	 */
+	public StatementMetricsSnapshot getStatementMetrics(String sql) {
+		StatementMetrics metrics = byNormalizedSql.get(SqlNormalizer
+				.normalize(sql));
+		return metrics == null ? null : metrics.snapshot();
+	}
+
+	@Override
+	public List<StatementMetricsSnapshot> getStatementMetrics() {
+		List<StatementMetricsSnapshot> snapshots = new ArrayList<StatementMetricsSnapshot>(
+				byNormalizedSql.size() + 1);
+		for (StatementMetrics metrics : byNormalizedSql.values()) {
+			snapshots.add(metrics.snapshot());
+		}
+		StatementMetricsSnapshot otherSnapshot = other.snapshot();
+		if (otherSnapshot.getExecutionTimes().getCount() != 0
+				|| otherSnapshot.getRowCounts().getCount() != 0) {
+			snapshots.add(otherSnapshot);
+		}
+		return snapshots;
+	}
+
+	@Override
+	public int getStatementCount() {
+		return byNormalizedSql.size();
+	}
+
+	/**
+	 * Forgets all the recorded metrics and SQL.
+	 */
+	@Override
+	public void reset() {
+		byRawSql.clear();
+		byNormalizedSql.clear();
+		other.reset();
+	}
+
+	/**
+	 * Registers this instance in the platform MBean server under
+	 * {@code com.seboch.jdbc.proxy:type=JdbcMetrics,name=<name>}.
+	 */
+	public ObjectName registerMBean(String name) throws JMException {
+		ObjectName objectName = new ObjectName(
+				"com.seboch.jdbc.proxy:type=JdbcMetrics,name="
+						+ ObjectName.quote(name));
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+				objectName);
+		return objectName;
+	}
+
+}
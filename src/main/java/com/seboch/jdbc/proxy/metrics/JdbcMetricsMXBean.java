@@ -0,0 +1,16 @@
+package com.seboch.jdbc.proxy.metrics;
+
+import java.util.List;
+
+/**
+ * Management interface of {@link JdbcMetrics}.
+ */
+public interface JdbcMetricsMXBean {
+
+	public List<StatementMetricsSnapshot> getStatementMetrics();
+
+	public int getStatementCount();
+
+	public void reset();
+
+}
@@ -0,0 +1,99 @@
+package com.seboch.jdbc.proxy.metrics;
+
+/**
+ * Reduces SQL to a shape shared by all the executions of the same query:
+ * string and numeric literals are replaced by {@code ?}, runs of whitespace
+ * by a single space and lists of parameters such as {@code IN (?, ?, ?)} by
+ * {@code (?)}.
+ */
+final class SqlNormalizer {
+
+	private SqlNormalizer() {
+	}
+
+	static String normalize(String sql) {
+		StringBuilder normalized = new StringBuilder(sql.length());
+		int length = sql.length();
+		int i = 0;
+		while (i < length) {
+			char c = sql.charAt(i);
+			if (c == '\'') {
+				i = skipQuoted(sql, i);
+				appendParameter(normalized);
+			} else if (Character.isWhitespace(c)) {
+				while (i < length && Character.isWhitespace(sql.charAt(i))) {
+					i++;
+				}
+				if (normalized.length() != 0 && i < length) {
+					normalized.append(' ');
+				}
+			} else if (isDigit(c) && !isIdentifierPart(normalized)) {
+				while (i < length
+						&& (isDigit(sql.charAt(i)) || sql.charAt(i) == '.')) {
+					i++;
+				}
+				appendParameter(normalized);
+			} else if (c == '?') {
+				appendParameter(normalized);
+				i++;
+			} else if (c == '"' || c == '`') {
+				int end = sql.indexOf(c, i + 1);
+				end = end < 0 ? length : end + 1;
+				normalized.append(sql, i, end);
+				i = end;
+			} else {
+				normalized.append(c);
+				i++;
+			}
+		}
+		return normalized.toString();
+	}
+
+	private static int skipQuoted(String sql, int start) {
+		int i = start + 1;
+		while (i < sql.length()) {
+			if (sql.charAt(i) == '\'') {
+				if (i + 1 < sql.length() && sql.charAt(i + 1) == '\'') {
+					i += 2;
+					continue;
+				}
+				return i + 1;
+			}
+			i++;
+		}
+		return i;
+	}
+
+	/**
+	 * Appends a parameter placeholder, folding "?, ?" into a single "?" so
+	 * that lists of different lengths share their normalized form.
+	 */
+	private static void appendParameter(StringBuilder normalized) {
+		int end = normalized.length();
+		if (end >= 2 && normalized.charAt(end - 1) == ' '
+				&& normalized.charAt(end - 2) == ',') {
+			end -= 2;
+		} else if (end >= 1 && normalized.charAt(end - 1) == ',') {
+			end -= 1;
+		}
+		if (end != normalized.length() && end >= 1
+				&& normalized.charAt(end - 1) == '?') {
+			normalized.setLength(end);
+		} else {
+			normalized.append('?');
+		}
+	}
+
+	private static boolean isDigit(char c) {
+		return c >= '0' && c <= '9';
+	}
+
+	private static boolean isIdentifierPart(StringBuilder normalized) {
+		if (normalized.length() == 0) {
+			return false;
+		}
+		char previous = normalized.charAt(normalized.length() - 1);
+		return Character.isLetterOrDigit(previous) || previous == '_'
+				|| previous == '$';
+	}
+}
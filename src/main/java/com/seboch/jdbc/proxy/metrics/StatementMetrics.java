@@ -0,0 +1,48 @@
+package com.seboch.jdbc.proxy.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Metrics of one normalized SQL.
+ */
+final class StatementMetrics {
+
+	private static final long MAX_NANOS = TimeUnit.HOURS.toNanos(1);
+	private static final long MAX_ROWS = Integer.MAX_VALUE;
+
+	private final String sql;
+	private final Histogram executionNanos = new Histogram(MAX_NANOS);
+	private final AtomicLong failures = new AtomicLong();
+	private final Histogram rowCounts = new Histogram(MAX_ROWS);
+	private final Histogram resultSetOpenNanos = new Histogram(MAX_NANOS);
+
+	StatementMetrics(String sql) {
+		this.sql = sql;
+	}
+
+	void executed(long elapsedNanos, Throwable failure) {
+		executionNanos.record(elapsedNanos);
+		if (failure != null) {
+			failures.incrementAndGet();
+		}
+	}
+
+	void resultSetClosed(long rowCount, long openNanos) {
+		rowCounts.record(rowCount);
+		resultSetOpenNanos.record(openNanos);
+	}
+
+	void reset() {
+		executionNanos.reset();
+		failures.set(0);
+		rowCounts.reset();
+		resultSetOpenNanos.reset();
+	}
+
+	StatementMetricsSnapshot snapshot() {
+		return new StatementMetricsSnapshot(sql, executionNanos.snapshot(),
+				failures.get(), rowCounts.snapshot(),
+				resultSetOpenNanos.snapshot());
+	}
+}
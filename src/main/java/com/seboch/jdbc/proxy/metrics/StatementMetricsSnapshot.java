@@ -0,0 +1,62 @@
+package com.seboch.jdbc.proxy.metrics;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * Immutable metrics of one normalized SQL. Times are in nanoseconds.
+ */
+public final class StatementMetricsSnapshot {
+
+	private final String sql;
+	private final HistogramSnapshot executionTimes;
+	private final long failureCount;
+	private final HistogramSnapshot rowCounts;
+	private final HistogramSnapshot resultSetOpenTimes;
+
+	@ConstructorProperties({ "sql", "executionTimes", "failureCount",
+			"rowCounts", "resultSetOpenTimes" })
+	public StatementMetricsSnapshot(String sql,
+			HistogramSnapshot executionTimes, long failureCount,
+			HistogramSnapshot rowCounts, HistogramSnapshot resultSetOpenTimes) {
+		this.sql = sql;
+		this.executionTimes = executionTimes;
+		this.failureCount = failureCount;
+		this.rowCounts = rowCounts;
+		this.resultSetOpenTimes = resultSetOpenTimes;
+	}
+
+	/**
+	 * @return the normalized SQL, see {@link JdbcMetrics}
+	 */
+	public String getSql() {
+		return sql;
+	}
+
+	public HistogramSnapshot getExecutionTimes() {
+		return executionTimes;
+	}
+
+	public long getFailureCount() {
+		return failureCount;
+	}
+
+	/**
+	 * @return the number of rows read from each closed result set
+	 */
+	public HistogramSnapshot getRowCounts() {
+		return rowCounts;
+	}
+
+	/**
+	 * @return the time between the creation and the close of each result set
+	 */
+	public HistogramSnapshot getResultSetOpenTimes() {
+		return resultSetOpenTimes;
+	}
+
+	@Override
+	public String toString() {
+		return sql + " [executions: " + executionTimes + ", failures: "
+				+ failureCount + ", rows: " + rowCounts + "]";
+	}
+}
@@ -0,0 +1,95 @@
+package com.seboch.jdbc.proxy.slowlog;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link SlowQueryListener} handing the slow queries over to another listener
+ * running on a dedicated daemon thread.
+ * <p>
+ * Slow queries wait in a bounded queue. When it is full, for instance when
+ * the database slows every query down, they are dropped and counted, see
+ * {@link #getDroppedQueries()}, so that logging never blocks the JDBC
+ * calling thread.
+ */
+public class AsyncSlowQueryListener implements SlowQueryListener {
+
+	private static final long IDLE_POLL_MILLIS = 100;
+
+	private final SlowQueryListener delegate;
+	private final BlockingQueue<SlowQuery> queue;
+	private final AtomicLong droppedQueries = new AtomicLong();
+	private final Thread writerThread;
+	private volatile boolean running = true;
+
+	public AsyncSlowQueryListener(SlowQueryListener delegate) {
+		this(delegate, 1024);
+	}
+
+	public AsyncSlowQueryListener(SlowQueryListener delegate, int capacity) {
+		if (delegate == null) {
+			throw new IllegalArgumentException("delegate must not be null");
+		}
+		if (capacity < 1) {
+			throw new IllegalArgumentException("capacity must be positive");
+		}
+		this.delegate = delegate;
+		this.queue = new ArrayBlockingQueue<SlowQuery>(capacity);
+		writerThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				writeLoop();
+			}
+		}, "jdbc-proxy-slow-query-log");
+		writerThread.setDaemon(true);
+		writerThread.start();
+	}
+
+	@Override
+	public void slowQuery(SlowQuery slowQuery) {
+		if (!queue.offer(slowQuery)) {
+			droppedQueries.incrementAndGet();
+		}
+	}
+
+	private void write(SlowQuery slowQuery) {
+		try {
+			delegate.slowQuery(slowQuery);
+		} catch (RuntimeException e) {
+			// a failing listener must not kill the writer thread
+		}
+	}
+
+	private void writeLoop() {
+		while (running) {
+			try {
+				SlowQuery slowQuery = queue.poll(IDLE_POLL_MILLIS,
+						TimeUnit.MILLISECONDS);
+				if (slowQuery != null) {
+					write(slowQuery);
+				}
+			} catch (InterruptedException e) {
+				return;
+			}
+		}
+		SlowQuery slowQuery;
+		while ((slowQuery = queue.poll()) != null) {
+			write(slowQuery);
+		}
+	}
+
+	/**
+	 * Stops the writer thread once the queued slow queries have been
+	 * written.
+	 */
+	public void close() throws InterruptedException {
+		running = false;
+		writerThread.join();
+	}
+
+	public long getDroppedQueries() {
+		return droppedQueries.get();
+	}
+}
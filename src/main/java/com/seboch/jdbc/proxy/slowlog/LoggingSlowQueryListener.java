@@ -0,0 +1,31 @@
+package com.seboch.jdbc.proxy.slowlog;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * {@link SlowQueryListener} logging the slow queries as warnings with
+ * {@code java.util.logging}.
+ */
+public class LoggingSlowQueryListener implements SlowQueryListener {
+
+	private final Logger logger;
+
+	public LoggingSlowQueryListener() {
+		this(Logger.getLogger(SlowQuery.class.getName()));
+	}
+
+	public LoggingSlowQueryListener(Logger logger) {
+		if (logger == null) {
+			throw new IllegalArgumentException("logger must not be null");
+		}
+		this.logger = logger;
+	}
+
+	@Override
+	public void slowQuery(SlowQuery slowQuery) {
+		if (logger.isLoggable(Level.WARNING)) {
+			logger.warning("Slow query " + slowQuery);
+		}
+	}
+}
@@ -0,0 +1,104 @@
+package com.seboch.jdbc.proxy.slowlog;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Immutable record of a statement execution slower than the threshold of the
+ * slow query log, see
+ * {@link com.seboch.jdbc.proxy.JdbcProxyFactory#setSlowQueryLog(long, TimeUnit, SlowQueryListener)}
+ * .
+ */
+public final class SlowQuery {
+
+	private final String sql;
+	private final List<Object> parameters;
+	private final long elapsedNanos;
+	private final long rowCount;
+	private final StackTraceElement callSite;
+	private final long executionTime;
+
+	/**
+	 * @param parameters
+	 *            values bound to the parameters, in parameter order, null if
+	 *            they were not captured
+	 */
+	public SlowQuery(String sql, Object[] parameters, long elapsedNanos,
+			long rowCount, StackTraceElement callSite, long executionTime) {
+		this.sql = sql;
+		this.parameters = parameters == null ? null : Collections
+				.unmodifiableList(Arrays.asList(parameters.clone()));
+		this.elapsedNanos = elapsedNanos;
+		this.rowCount = rowCount;
+		this.callSite = callSite;
+		this.executionTime = executionTime;
+	}
+
+	/**
+	 * @return the executed SQL, null for the batch of a plain statement
+	 */
+	public String getSql() {
+		return sql;
+	}
+
+	/**
+	 * @return the values bound to the parameters of a prepared statement,
+	 *         null for other statements. Values which are not recorded, such
+	 *         as streams and LOBs, are replaced by a placeholder naming their
+	 *         type.
+	 */
+	public List<Object> getParameters() {
+		return parameters;
+	}
+
+	/**
+	 * @return the duration of the execute call
+	 */
+	public long getElapsedNanos() {
+		return elapsedNanos;
+	}
+
+	/**
+	 * @return the number of rows read from the result set of a query, the
+	 *         update count of an update, -1 if unknown
+	 */
+	public long getRowCount() {
+		return rowCount;
+	}
+
+	/**
+	 * @return the first application frame executing the statement, null if
+	 *         unknown
+	 */
+	public StackTraceElement getCallSite() {
+		return callSite;
+	}
+
+	/**
+	 * @return the time at which the execution ended, in milliseconds since
+	 *         the epoch
+	 */
+	public long getExecutionTime() {
+		return executionTime;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder stringBuilder = new StringBuilder();
+		stringBuilder.append(TimeUnit.NANOSECONDS.toMillis(elapsedNanos))
+				.append("ms");
+		if (rowCount >= 0) {
+			stringBuilder.append(", ").append(rowCount).append(" rows");
+		}
+		stringBuilder.append(": ").append(sql);
+		if (parameters != null) {
+			stringBuilder.append(" ").append(parameters);
+		}
+		if (callSite != null) {
+			stringBuilder.append("\n\tat ").append(callSite);
+		}
+		return stringBuilder.toString();
+	}
+}
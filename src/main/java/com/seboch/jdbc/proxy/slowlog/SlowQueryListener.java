@@ -0,0 +1,14 @@
+package com.seboch.jdbc.proxy.slowlog;
+
+/**
+ * Notified of the executions slower than the threshold of the slow query
+ * log.
+ * <p>
+ * Called on the JDBC calling thread, wrap the listener in an
+ * {@link AsyncSlowQueryListener} to write the log from a background thread.
+ */
+public interface SlowQueryListener {
+
+	public void slowQuery(SlowQuery slowQuery);
+
+}
@@ -0,0 +1,21 @@
+package com.seboch.jdbc.proxy.async;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Java 21 version of the executors of {@link AsyncJdbcExecutor}, using
+ * virtual threads.
+ */
+final class TaskExecutors {
+
+	private TaskExecutors() {
+	}
+
+	/**
+	 * @return an executor running each task on a new virtual thread
+	 */
+	static ExecutorService newThreadPerTaskExecutor() {
+		return Executors.newVirtualThreadPerTaskExecutor();
+	}
+}
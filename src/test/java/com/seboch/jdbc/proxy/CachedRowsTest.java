@@ -0,0 +1,156 @@
+package com.seboch.jdbc.proxy;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class CachedRowsTest {
+
+	/**
+	 * @return a result set whose values are read from rows
+	 */
+	private static ResultSet resultSet(final Object[][] rows)
+			throws SQLException {
+		ResultSetMetaData metaData = mock(ResultSetMetaData.class);
+		when(metaData.getColumnCount()).thenReturn(rows[0].length);
+		when(metaData.getColumnLabel(anyInt())).thenAnswer(
+				new Answer<String>() {
+					@Override
+					public String answer(InvocationOnMock invocation) {
+						return "C" + invocation.getArguments()[0];
+					}
+				});
+		ResultSet resultSet = mock(ResultSet.class);
+		when(resultSet.getMetaData()).thenReturn(metaData);
+		final int[] row = { -1 };
+		when(resultSet.next()).thenAnswer(new Answer<Boolean>() {
+			@Override
+			public Boolean answer(InvocationOnMock invocation) {
+				return ++row[0] < rows.length;
+			}
+		});
+		when(resultSet.getObject(anyInt())).thenAnswer(new Answer<Object>() {
+			@Override
+			public Object answer(InvocationOnMock invocation) {
+				return rows[row[0]][(Integer) invocation.getArguments()[0] - 1];
+			}
+		});
+		return resultSet;
+	}
+
+	@Test
+	public void testColumnarStorage() throws SQLException {
+		CachedRows rows = CachedRows.read(resultSet(new Object[][] {
+				{ 1, null, "FR", 1.5f, 1, null, new BigDecimal("1.10") },
+				{ 2, 2L, "IT", null, 2L, null, null },
+				{ null, 3L, "FR", 2.5f, 3, null, BigDecimal.ONE } }));
+
+		assertEquals(3, rows.getRowCount());
+		assertTrue(rows.getColumn(0) instanceof CachedRows.IntegralColumn);
+		assertTrue(rows.getColumn(1) instanceof CachedRows.IntegralColumn);
+		assertTrue(rows.getColumn(2) instanceof CachedRows.StringColumn);
+		assertTrue(rows.getColumn(3) instanceof CachedRows.FloatingColumn);
+		// mixed classes and other types are kept as objects
+		assertTrue(rows.getColumn(4) instanceof CachedRows.ObjectColumn);
+		assertTrue(rows.getColumn(5) instanceof CachedRows.ObjectColumn);
+		assertTrue(rows.getColumn(6) instanceof CachedRows.ObjectColumn);
+
+		ResultSet resultSet = new CachedResultSet(rows);
+		assertTrue(resultSet.next());
+		assertEquals(1, resultSet.getObject(1));
+		assertEquals(0, resultSet.getLong(2));
+		assertTrue(resultSet.wasNull());
+		assertEquals("FR", resultSet.getString("c3"));
+		assertEquals(1.5f, resultSet.getObject(4));
+		assertEquals(1, resultSet.getObject(5));
+		assertNull(resultSet.getObject(6));
+		assertEquals(new BigDecimal("1.10"), resultSet.getBigDecimal(7));
+
+		assertTrue(resultSet.next());
+		assertEquals("2", resultSet.getString(1));
+		assertEquals(2L, resultSet.getObject(2));
+		assertEquals(0, resultSet.getDouble(4), 0);
+		assertTrue(resultSet.wasNull());
+		assertEquals(2L, resultSet.getObject(5));
+
+		assertTrue(resultSet.next());
+		assertEquals(0, resultSet.getInt(1));
+		assertTrue(resultSet.wasNull());
+		assertEquals(3, resultSet.getInt(2));
+		assertFalse(resultSet.wasNull());
+		assertEquals(2, resultSet.getInt(4));
+		assertEquals(1, resultSet.getInt(7));
+		assertFalse(resultSet.next());
+	}
+
+	@Test
+	public void testMutableValuesAreCopied() throws SQLException {
+		Timestamp timestamp = new Timestamp(1000);
+		timestamp.setNanos(5);
+		byte[] bytes = { 1, 2 };
+		CachedRows rows = CachedRows.read(resultSet(new Object[][] { {
+				timestamp, bytes } }));
+		timestamp.setNanos(6);
+		bytes[0] = 9;
+
+		ResultSet reader = new CachedResultSet(rows);
+		assertTrue(reader.next());
+		reader.getTimestamp(1).setNanos(7);
+		((Timestamp) reader.getObject(1)).setTime(0);
+		reader.getBytes(2)[0] = 8;
+		((byte[]) reader.getObject(2))[1] = 8;
+
+		ResultSet other = new CachedResultSet(rows);
+		assertTrue(other.next());
+		Timestamp cached = other.getTimestamp(1);
+		assertEquals(1000, cached.getTime());
+		assertEquals(5, cached.getNanos());
+		assertArrayEquals(new byte[] { 1, 2 }, other.getBytes(2));
+	}
+
+	@Test
+	public void testBoundDatesAreCopiedWhenRead() {
+		BoundParameters parameters = new BoundParameters();
+		Timestamp timestamp = new Timestamp(1000);
+		parameters.set(1, timestamp);
+		Object[] values = parameters.values();
+		timestamp.setNanos(42);
+		assertEquals(new Timestamp(1000), values[0]);
+		// binding keeps a reference, the driver sees the same value
+		Object[] logged = parameters.loggedValues();
+		assertEquals(timestamp, logged[0]);
+		assertNotSame(timestamp, logged[0]);
+	}
+
+	@Test
+	public void testLargeColumnsAreOffHeap() throws SQLException {
+		Object[][] values = new Object[CachedRows.OFF_HEAP_THRESHOLD / 4][];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = new Object[] { (long) i, "value " + (i % 10) };
+		}
+		CachedRows rows = CachedRows.read(resultSet(values));
+
+		assertEquals(values.length, rows.getRowCount());
+		ResultSet resultSet = new CachedResultSet(rows);
+		assertTrue(resultSet.absolute(values.length));
+		assertEquals(values.length - 1, resultSet.getLong(1));
+		assertEquals("value " + ((values.length - 1) % 10),
+				resultSet.getString(2));
+		// strings are shared through the dictionary
+		assertTrue(resultSet.absolute(1));
+		String first = resultSet.getString(2);
+		assertTrue(resultSet.absolute(11));
+		assertSame(first, resultSet.getString(2));
+	}
+}
@@ -3,31 +3,71 @@ package com.seboch.jdbc.proxy;
 import static org.junit.Assert.*;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.isNull;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
 
+import java.io.ByteArrayInputStream;
+import java.sql.Array;
+import java.sql.BatchUpdateException;
 import java.sql.CallableStatement;
 import java.sql.Connection;
+import java.sql.DatabaseMetaData;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import javax.sql.DataSource;
 
 import org.junit.Before;
 import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+import org.mockito.InOrder;
 
 import com.seboch.jdbc.proxy.JdbcProxyFactory;
+import com.seboch.jdbc.proxy.execution.ExecutionEvent;
+import com.seboch.jdbc.proxy.execution.ExecutionInterceptor;
+import com.seboch.jdbc.proxy.execution.ExecutionListener;
 import com.seboch.jdbc.proxy.lifecycle.ResourceLifecycleListener;
+import com.seboch.jdbc.proxy.limit.CircuitBreaker;
+import com.seboch.jdbc.proxy.limit.ConcurrencyLimiter;
+import com.seboch.jdbc.proxy.limit.LoadShedException;
+import com.seboch.jdbc.proxy.slowlog.SlowQuery;
+import com.seboch.jdbc.proxy.slowlog.SlowQueryListener;
 
+@RunWith(Parameterized.class)
 public class JdbcProxyFactoryTest {
 
+	@Parameters
+	public static Collection<Object[]> backends() {
+		List<Object[]> backends = new ArrayList<Object[]>();
+		for (ProxyBackend backend : ProxyBackend.values()) {
+			backends.add(new Object[] { backend });
+		}
+		return backends;
+	}
+
+	private final ProxyBackend backend;
 	private DataSource mockDatasource;
 	private Connection mockConnection;
 	private PreparedStatement mockPreparedStatement;
@@ -37,6 +77,10 @@ public class JdbcProxyFactoryTest {
 	private ResourceLifecycleListener mockListener;
 	private JdbcProxyFactory proxyFactory;
 
+	public JdbcProxyFactoryTest(ProxyBackend backend) {
+		this.backend = backend;
+	}
+
 	@Before
 	public void setup() throws SQLException {
 		mockDatasource = mock(DataSource.class);
@@ -86,7 +130,7 @@ public class JdbcProxyFactoryTest {
 		when(mockPreparedStatement.executeQuery()).thenReturn(mockResultSet);
 
 		mockListener = mock(ResourceLifecycleListener.class);
-		proxyFactory = new JdbcProxyFactory();
+		proxyFactory = new JdbcProxyFactory(backend);
 	}
 
 	@Test
@@ -194,4 +238,897 @@ public class JdbcProxyFactoryTest {
 		verify(mockListener).resultSetClosed(mockResultSet);
 	}
 
+	@Test
+	public void testStatementProxyInterfaces() throws SQLException {
+		Connection connection = proxyFactory.proxyDatasource(mockDatasource)
+				.getConnection();
+
+		Statement statement = connection.createStatement();
+		assertFalse(statement instanceof PreparedStatement);
+
+		PreparedStatement preparedStatement = connection
+				.prepareStatement("Truc");
+		assertFalse(preparedStatement instanceof CallableStatement);
+
+		CallableStatement callableStatement = connection.prepareCall("Truc");
+		assertNotSame(mockCallableStatement, callableStatement);
+	}
+
+	@Test
+	public void testForwarding() throws SQLException {
+		when(mockResultSet.getString(1)).thenReturn("value");
+		when(mockResultSet.getLong("id")).thenReturn(42L);
+		when(mockPreparedStatement.executeUpdate()).thenReturn(3);
+
+		Connection connection = proxyFactory.proxyDatasource(mockDatasource)
+				.getConnection();
+		PreparedStatement statement = connection.prepareStatement("Truc");
+		statement.setInt(1, 7);
+		verify(mockPreparedStatement).setInt(1, 7);
+		assertEquals(3, statement.executeUpdate());
+
+		ResultSet resultSet = statement.executeQuery();
+		assertEquals("value", resultSet.getString(1));
+		assertEquals(42L, resultSet.getLong("id"));
+	}
+
+	@Test
+	public void testExecutionListener() throws SQLException {
+		ExecutionListener executionListener = mock(ExecutionListener.class);
+		when(mockResultSet.next()).thenReturn(true, true, false);
+		SQLException failure = new SQLException("failed");
+		when(mockStatement.executeUpdate("Bidule")).thenThrow(failure);
+
+		proxyFactory.addExecutionListener(executionListener);
+		Connection connection = proxyFactory.proxyDatasource(mockDatasource)
+				.getConnection();
+		PreparedStatement preparedStatement = connection
+				.prepareStatement("Truc");
+		ResultSet resultSet = preparedStatement.executeQuery();
+		verify(executionListener).statementExecuted(eq(mockPreparedStatement),
+				eq("Truc"), anyLong(), (Throwable) isNull());
+
+		while (resultSet.next()) {
+		}
+		resultSet.close();
+		verify(executionListener).resultSetClosed(eq(mockResultSet),
+				eq("Truc"), eq(2L), anyLong());
+
+		Statement statement = connection.createStatement();
+		try {
+			statement.executeUpdate("Bidule");
+			fail();
+		} catch (SQLException e) {
+			assertSame(failure, e);
+		}
+		verify(executionListener).statementExecuted(eq(mockStatement),
+				eq("Bidule"), anyLong(), eq(failure));
+
+		proxyFactory.removeExecutionListener(executionListener);
+		preparedStatement.executeQuery();
+		verifyNoMoreInteractions(executionListener);
+	}
+
+	@Test
+	public void testExecutionInterceptor() throws SQLException {
+		ExecutionInterceptor interceptor = mock(ExecutionInterceptor.class);
+		int[] updateCounts = new int[] { 1, 1 };
+		when(mockPreparedStatement.executeBatch()).thenReturn(updateCounts);
+		SQLException failure = new SQLException("failed");
+		doThrow(failure).when(mockConnection).rollback();
+
+		proxyFactory.addExecutionInterceptor(interceptor, EnumSet.of(
+				ExecutionEvent.ADD_BATCH, ExecutionEvent.AFTER_EXECUTE_BATCH,
+				ExecutionEvent.BEFORE_COMMIT, ExecutionEvent.AFTER_ROLLBACK));
+		Connection connection = proxyFactory.proxyDatasource(mockDatasource)
+				.getConnection();
+		PreparedStatement statement = connection.prepareStatement("Truc");
+		statement.addBatch();
+		statement.addBatch();
+		verify(interceptor, times(2)).batchAdded(
+				mockPreparedStatement, "Truc");
+		assertSame(updateCounts, statement.executeBatch());
+		verify(interceptor).afterExecuteBatch(eq(mockPreparedStatement),
+				eq("Truc"), eq(2), eq(updateCounts), anyLong(),
+				(Throwable) isNull());
+
+		connection.commit();
+		verify(interceptor).beforeCommit(mockConnection);
+		try {
+			connection.rollback();
+			fail();
+		} catch (SQLException e) {
+			assertSame(failure, e);
+		}
+		verify(interceptor).afterRollback(eq(mockConnection), anyLong(),
+				eq(failure));
+
+		statement.executeUpdate();
+		verifyNoMoreInteractions(interceptor);
+
+		proxyFactory.removeExecutionInterceptor(interceptor);
+		statement.addBatch();
+		verifyNoMoreInteractions(interceptor);
+	}
+
+	@Test
+	public void testAllResultSetsAreTracked() throws SQLException {
+		ResultSet generatedKeys = mock(ResultSet.class);
+		ResultSet cursor = mock(ResultSet.class);
+		ResultSet tables = mock(ResultSet.class);
+		ResultSet arrayResultSet = mock(ResultSet.class);
+		Array array = mock(Array.class);
+		DatabaseMetaData metaData = mock(DatabaseMetaData.class);
+		when(mockStatement.execute("Truc")).thenReturn(true);
+		when(mockStatement.getResultSet()).thenReturn(mockResultSet);
+		when(mockStatement.getGeneratedKeys()).thenReturn(generatedKeys);
+		when(mockCallableStatement.getObject(1)).thenReturn(cursor);
+		when(mockConnection.getMetaData()).thenReturn(metaData);
+		when(metaData.getTables(null, null, "%", null)).thenReturn(tables);
+		when(mockResultSet.getArray(1)).thenReturn(array);
+		when(array.getResultSet()).thenReturn(arrayResultSet);
+
+		proxyFactory.addResourceLifecycleListener(mockListener);
+		Connection connection = proxyFactory.proxyDatasource(mockDatasource)
+				.getConnection();
+
+		Statement statement = connection.createStatement();
+		assertSame(connection, statement.getConnection());
+		assertTrue(statement.execute("Truc"));
+		ResultSet resultSet = statement.getResultSet();
+		assertNotSame(mockResultSet, resultSet);
+		assertSame(resultSet, statement.getResultSet());
+		assertSame(statement, resultSet.getStatement());
+		verify(mockListener).resultSetCreated(mockResultSet);
+
+		assertNotSame(generatedKeys, statement.getGeneratedKeys());
+		verify(mockListener).resultSetCreated(generatedKeys);
+
+		CallableStatement callableStatement = connection.prepareCall("Truc");
+		ResultSet cursorProxy = (ResultSet) callableStatement.getObject(1);
+		assertNotSame(cursor, cursorProxy);
+		assertSame(callableStatement, cursorProxy.getStatement());
+		verify(mockListener).resultSetCreated(cursor);
+
+		DatabaseMetaData metaDataProxy = connection.getMetaData();
+		assertSame(connection, metaDataProxy.getConnection());
+		when(tables.getStatement()).thenReturn(mockStatement);
+		assertNotSame(tables, metaDataProxy.getTables(null, null, "%", null));
+		verify(mockListener).resultSetCreated(tables);
+		assertNull(metaDataProxy.getTables(null, null, "%", null)
+				.getStatement());
+
+		assertNotSame(arrayResultSet, resultSet.getArray(1).getResultSet());
+		verify(mockListener).resultSetCreated(arrayResultSet);
+	}
+
+	@Test
+	public void testCascadingClose() throws SQLException {
+		ResultSet nextResultSet = mock(ResultSet.class);
+		when(mockStatement.execute("Truc")).thenReturn(true);
+		when(mockStatement.getResultSet()).thenReturn(mockResultSet,
+				nextResultSet);
+
+		proxyFactory.addResourceLifecycleListener(mockListener);
+		Connection connection = proxyFactory.proxyDatasource(mockDatasource)
+				.getConnection();
+		Statement statement = connection.createStatement();
+		statement.execute("Truc");
+		statement.getResultSet();
+		statement.getMoreResults();
+		verify(mockListener).resultSetClosed(mockResultSet);
+
+		statement.getResultSet();
+		PreparedStatement preparedStatement = connection
+				.prepareStatement("Truc");
+		preparedStatement.executeQuery();
+		connection.close();
+		verify(mockListener).resultSetClosed(nextResultSet);
+		verify(mockListener, times(2)).resultSetClosed(mockResultSet);
+		verify(mockListener).statementClosed(mockStatement);
+		verify(mockListener).statementClosed(mockPreparedStatement);
+		verify(mockListener).connectionClosed(mockConnection);
+
+		statement.close();
+		connection.close();
+		verify(mockListener).statementClosed(mockStatement);
+		verify(mockListener).connectionClosed(mockConnection);
+	}
+
+	@Test
+	public void testStatementCache() throws SQLException {
+		proxyFactory.setStatementCacheSize(1);
+		proxyFactory.addResourceLifecycleListener(mockListener);
+		Connection connection = proxyFactory.proxyDatasource(mockDatasource)
+				.getConnection();
+
+		PreparedStatement statement = connection.prepareStatement("Truc");
+		statement.executeQuery();
+		statement.close();
+		verify(mockResultSet).close();
+		verify(mockPreparedStatement).clearParameters();
+		verify(mockPreparedStatement, never()).close();
+		verify(mockListener).resultSetClosed(mockResultSet);
+		verify(mockListener).statementClosed(mockPreparedStatement);
+		assertTrue(statement.isClosed());
+		try {
+			statement.executeQuery();
+			fail("A closed statement must not be usable");
+		} catch (SQLException e) {
+			// expected
+		}
+
+		PreparedStatement reused = connection.prepareStatement("Truc");
+		assertNotSame(statement, reused);
+		verify(mockConnection).prepareStatement("Truc");
+		verify(mockListener, times(2)).statementCreated(mockPreparedStatement);
+		reused.close();
+
+		connection.prepareStatement("Machin",
+				ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_READ_ONLY)
+				.close();
+		verify(mockPreparedStatement).close();
+		StatementCacheStatistics statistics = proxyFactory
+				.getStatementCacheStatistics();
+		assertEquals(1, statistics.getHitCount());
+		assertEquals(2, statistics.getMissCount());
+		assertEquals(1, statistics.getEvictionCount());
+
+		connection.close();
+		verify(mockPreparedStatement, times(2)).close();
+	}
+
+	@Test
+	public void testStatementCacheRestoresSettings() throws SQLException {
+		proxyFactory.setStatementCacheSize(1);
+		when(mockPreparedStatement.getQueryTimeout()).thenReturn(30);
+		Connection connection = proxyFactory.proxyDatasource(mockDatasource)
+				.getConnection();
+
+		PreparedStatement statement = connection.prepareStatement("Truc");
+		statement.setMaxRows(1);
+		statement.setMaxRows(2);
+		statement.setQueryTimeout(5);
+		statement.setEscapeProcessing(false);
+		statement.close();
+		verify(mockPreparedStatement).getMaxRows();
+		verify(mockPreparedStatement).setMaxRows(0);
+		verify(mockPreparedStatement).setQueryTimeout(30);
+		verify(mockPreparedStatement).setEscapeProcessing(true);
+		verify(mockPreparedStatement, never()).setFetchSize(anyInt());
+
+		// a statement whose settings are left alone is not touched
+		connection.prepareStatement("Truc").close();
+		verify(mockPreparedStatement, times(3)).setMaxRows(anyInt());
+		verify(mockPreparedStatement, times(2)).setQueryTimeout(anyInt());
+		connection.close();
+	}
+
+	@Test
+	public void testTransparentBatching() throws SQLException {
+		when(mockPreparedStatement.executeBatch()).thenReturn(
+				new int[] { 1, 1 });
+		proxyFactory.setTransparentBatching(3, 1, TimeUnit.MINUTES);
+		proxyFactory.batchUpdates("Truc");
+		Connection connection = proxyFactory.proxyDatasource(mockDatasource)
+				.getConnection();
+		PreparedStatement statement = connection.prepareStatement("Truc");
+
+		assertEquals(Statement.SUCCESS_NO_INFO, statement.executeUpdate());
+		assertEquals(Statement.SUCCESS_NO_INFO, statement.executeUpdate());
+		verify(mockPreparedStatement, times(2)).addBatch();
+		verify(mockPreparedStatement, never()).executeUpdate();
+		verify(mockPreparedStatement, never()).executeBatch();
+
+		connection.commit();
+		InOrder inOrder = inOrder(mockPreparedStatement, mockConnection);
+		inOrder.verify(mockPreparedStatement).executeBatch();
+		inOrder.verify(mockConnection).commit();
+		assertArrayEquals(new int[] { 1, 1 },
+				proxyFactory.getDeferredUpdateCounts(statement));
+
+		statement.executeUpdate();
+		statement.executeUpdate();
+		statement.executeUpdate();
+		verify(mockPreparedStatement, times(2)).executeBatch();
+
+		BatchUpdateException failure = new BatchUpdateException();
+		doThrow(failure).when(mockPreparedStatement).executeBatch();
+		statement.executeUpdate();
+		try {
+			connection.createStatement().executeQuery("Truc");
+			fail("The batch failure must be thrown");
+		} catch (BatchUpdateException e) {
+			assertSame(failure, e);
+		}
+		verify(mockStatement, never()).executeQuery("Truc");
+	}
+
+	@Test
+	public void testTransparentBatchingIsOptInPerSql() throws SQLException {
+		when(mockPreparedStatement.executeUpdate()).thenReturn(1);
+		when(mockPreparedStatement.executeBatch()).thenReturn(new int[] { 0 });
+		proxyFactory.setTransparentBatching(10, 1, TimeUnit.MINUTES);
+		proxyFactory.setStatementCacheSize(5);
+		proxyFactory.batchUpdates("Bidule");
+		Connection connection = proxyFactory.proxyDatasource(mockDatasource)
+				.getConnection();
+
+		PreparedStatement statement = connection.prepareStatement("Truc");
+		assertEquals(1, statement.executeUpdate());
+		verify(mockPreparedStatement, never()).addBatch();
+		assertNull(proxyFactory.getDeferredUpdateCounts(statement));
+		statement.close();
+
+		statement = connection.prepareStatement("Bidule");
+		assertEquals(Statement.SUCCESS_NO_INFO, statement.executeUpdate());
+		assertArrayEquals(new int[] { 0 },
+				proxyFactory.getDeferredUpdateCounts(statement));
+		verify(mockPreparedStatement).executeBatch();
+
+		// a statement returned to the cache does not keep deferred updates
+		statement = connection.prepareStatement("Bidule");
+		statement.executeUpdate();
+		statement.close();
+		verify(mockPreparedStatement, times(2)).executeBatch();
+	}
+
+	@Test
+	public void testQueryResultCache() throws SQLException {
+		ResultSetMetaData metaData = mock(ResultSetMetaData.class);
+		when(metaData.getColumnCount()).thenReturn(1);
+		when(metaData.getColumnLabel(1)).thenReturn("NAME");
+		when(mockResultSet.getMetaData()).thenReturn(metaData);
+		when(mockResultSet.next()).thenReturn(true, false, true, false, true,
+				false);
+		when(mockResultSet.getObject(1)).thenReturn("France");
+		proxyFactory.setQueryResultCache(10, 1, TimeUnit.MINUTES);
+		proxyFactory.cacheQueryResults("Truc", "country");
+		Connection connection = proxyFactory.proxyDatasource(mockDatasource)
+				.getConnection();
+		PreparedStatement statement = connection.prepareStatement("Truc");
+
+		statement.setInt(1, 33);
+		ResultSet resultSet = statement.executeQuery();
+		assertTrue(resultSet.next());
+		assertEquals("France", resultSet.getString("name"));
+		assertFalse(resultSet.next());
+		verify(mockResultSet).close();
+
+		statement.setInt(1, 33);
+		resultSet = statement.executeQuery();
+		assertTrue(resultSet.next());
+		assertEquals("France", resultSet.getString(1));
+		verify(mockPreparedStatement, times(1)).executeQuery();
+
+		statement.setInt(1, 34);
+		statement.executeQuery();
+		verify(mockPreparedStatement, times(2)).executeQuery();
+
+		// the uncommitted transaction bypasses the cache
+		connection.createStatement().executeUpdate(
+				"UPDATE Country SET name = 'Francia'");
+		statement.setInt(1, 33);
+		statement.executeQuery();
+		verify(mockPreparedStatement, times(3)).executeQuery();
+
+		connection.commit();
+		statement.setInt(1, 33);
+		statement.executeQuery();
+		verify(mockPreparedStatement, times(4)).executeQuery();
+
+		QueryResultCacheStatistics statistics = proxyFactory
+				.getQueryResultCacheStatistics();
+		assertEquals(1, statistics.getHitCount());
+		assertEquals(3, statistics.getMissCount());
+		assertEquals(2, statistics.getInvalidationCount());
+	}
+
+	@Test
+	public void testQueryResultCacheWithLazyConnections() throws SQLException {
+		ResultSetMetaData metaData = mock(ResultSetMetaData.class);
+		when(metaData.getColumnCount()).thenReturn(1);
+		when(metaData.getColumnLabel(1)).thenReturn("NAME");
+		when(mockResultSet.getMetaData()).thenReturn(metaData);
+		when(mockResultSet.next()).thenReturn(true, false);
+		when(mockResultSet.getObject(1)).thenReturn("France");
+		proxyFactory.setLazyConnections(true);
+		proxyFactory.setQueryResultCache(10, 1, TimeUnit.MINUTES);
+		proxyFactory.cacheQueryResults("Truc", "country");
+		DataSource dataSource = proxyFactory.proxyDatasource(mockDatasource);
+		Connection connection = dataSource.getConnection();
+		PreparedStatement statement = connection.prepareStatement("Truc");
+		statement.setFetchSize(20);
+		statement.setInt(1, 33);
+		statement.executeQuery();
+		verify(mockPreparedStatement).setFetchSize(20);
+		verify(mockPreparedStatement).setInt(1, 33);
+		connection.close();
+		verify(mockDatasource, times(1)).getConnection();
+
+		// a hit takes no connection
+		connection = dataSource.getConnection();
+		statement = connection.prepareStatement("Truc");
+		statement.setInt(1, 33);
+		ResultSet resultSet = statement.executeQuery();
+		assertTrue(resultSet.next());
+		assertEquals("France", resultSet.getString(1));
+		statement.close();
+		connection.close();
+		verify(mockDatasource, times(1)).getConnection();
+		verify(mockPreparedStatement, times(1)).executeQuery();
+
+		// a miss does
+		connection = dataSource.getConnection();
+		statement = connection.prepareStatement("Truc");
+		statement.setInt(1, 34);
+		statement.executeQuery();
+		verify(mockDatasource, times(2)).getConnection();
+		verify(mockPreparedStatement).setInt(1, 34);
+		verify(mockPreparedStatement, times(2)).executeQuery();
+	}
+
+	@Test
+	public void testDetachQueryResults() throws SQLException {
+		ResultSetMetaData metaData = mock(ResultSetMetaData.class);
+		when(metaData.getColumnCount()).thenReturn(1);
+		when(metaData.getColumnLabel(1)).thenReturn("ID");
+		when(mockResultSet.getMetaData()).thenReturn(metaData);
+		when(mockResultSet.next()).thenReturn(true, true, false);
+		when(mockResultSet.getObject(1)).thenReturn(7L, 8L);
+		proxyFactory.addResourceLifecycleListener(mockListener);
+		proxyFactory.detachQueryResults("Truc");
+		Connection connection = proxyFactory.proxyDatasource(mockDatasource)
+				.getConnection();
+
+		ResultSet resultSet = connection.prepareStatement("Truc")
+				.executeQuery();
+		verify(mockResultSet).close();
+		verify(mockListener, never()).resultSetCreated(mockResultSet);
+		assertTrue(resultSet.next());
+		assertEquals(7, resultSet.getInt("id"));
+		assertTrue(resultSet.next());
+		assertEquals(8L, resultSet.getObject(1));
+		assertFalse(resultSet.next());
+
+		// other queries keep their driver result set
+		resultSet = connection.createStatement().executeQuery("Machin");
+		assertNull(resultSet);
+		when(mockStatement.executeQuery("Machin")).thenReturn(mockResultSet);
+		connection.createStatement().executeQuery("Machin");
+		verify(mockListener).resultSetCreated(mockResultSet);
+	}
+
+	@Test
+	public void testLazyConnection() throws SQLException {
+		proxyFactory.setLazyConnections(true);
+		DataSource proxiedDs = proxyFactory.proxyDatasource(mockDatasource);
+		Connection connection = proxiedDs.getConnection();
+		connection.setAutoCommit(false);
+		connection.setReadOnly(true);
+		assertFalse(connection.getAutoCommit());
+		connection.commit();
+		connection.close();
+		assertTrue(connection.isClosed());
+		verify(mockDatasource, never()).getConnection();
+
+		connection = proxiedDs.getConnection();
+		connection.setAutoCommit(false);
+		connection.prepareStatement("Truc");
+		InOrder inOrder = inOrder(mockDatasource, mockConnection);
+		inOrder.verify(mockDatasource).getConnection();
+		inOrder.verify(mockConnection).setAutoCommit(false);
+		inOrder.verify(mockConnection).prepareStatement("Truc");
+		verify(mockConnection, never()).setReadOnly(true);
+		connection.close();
+		verify(mockConnection).close();
+	}
+
+	@Test
+	public void testLazyConnectionWithoutUser() throws SQLException {
+		proxyFactory.setLazyConnections(true);
+		when(mockDatasource.getConnection(null, "secret")).thenReturn(
+				mockConnection);
+		Connection connection = proxyFactory.proxyDatasource(mockDatasource)
+				.getConnection(null, "secret");
+		verify(mockDatasource, never()).getConnection(null, "secret");
+		connection.prepareStatement("Truc");
+		verify(mockDatasource).getConnection(null, "secret");
+		verify(mockDatasource, never()).getConnection();
+		connection.close();
+	}
+
+	/**
+	 * @return a replica data source whose connections prepare
+	 *         mockPreparedStatement
+	 */
+	private static DataSource replica(Connection connection)
+			throws SQLException {
+		DataSource replica = mock(DataSource.class);
+		when(replica.getConnection()).thenReturn(connection);
+		when(connection.prepareStatement(anyString())).thenReturn(
+				mock(PreparedStatement.class));
+		when(connection.createStatement()).thenReturn(mock(Statement.class));
+		when(connection.getAutoCommit()).thenReturn(true);
+		return replica;
+	}
+
+	@Test
+	public void testRoutingDatasource() throws SQLException {
+		Connection firstReplica = mock(Connection.class);
+		Connection secondReplica = mock(Connection.class);
+		ReplicaSet replicas = new ReplicaSet(
+				ReplicaSelection.LEAST_OUTSTANDING, replica(firstReplica),
+				replica(secondReplica));
+		DataSource proxiedDs = proxyFactory.proxyRoutingDatasource(
+				mockDatasource, replicas);
+
+		// an auto-commit query and a read-only connection read from replicas
+		Connection reader = proxiedDs.getConnection();
+		reader.prepareStatement(" select * from Truc").executeQuery();
+		Connection readOnly = proxiedDs.getConnection();
+		readOnly.setReadOnly(true);
+		readOnly.createStatement();
+		verify(mockDatasource, never()).getConnection();
+		verify(firstReplica).setReadOnly(true);
+		verify(secondReplica).setReadOnly(true);
+		List<ReplicaStatistics> statistics = replicas.getStatistics();
+		assertEquals(1, statistics.get(0).getOutstandingConnections());
+		assertEquals(1, statistics.get(1).getOutstandingConnections());
+		assertTrue(statistics.get(0).getLatencyNanos() > 0
+				|| statistics.get(1).getLatencyNanos() > 0);
+
+		// a write binds the primary, which then serves the reads
+		reader.prepareStatement("UPDATE Truc SET a = 1");
+		reader.prepareStatement("SELECT * FROM Truc");
+		verify(mockConnection).prepareStatement("UPDATE Truc SET a = 1");
+		verify(mockConnection).prepareStatement("SELECT * FROM Truc");
+		reader.close();
+		readOnly.close();
+		verify(mockConnection).close();
+		verify(firstReplica).close();
+		verify(secondReplica).close();
+		for (ReplicaStatistics replica : replicas.getStatistics()) {
+			assertEquals(0, replica.getOutstandingConnections());
+			assertEquals(1, replica.getConnectionCount());
+		}
+
+		// a transaction and a locking read stay on the primary
+		Connection writer = proxiedDs.getConnection();
+		writer.setAutoCommit(false);
+		writer.prepareStatement("SELECT * FROM Truc");
+		writer.close();
+		Connection locking = proxiedDs.getConnection();
+		locking.prepareStatement("SELECT * FROM Truc FOR UPDATE");
+		locking.close();
+		verify(mockConnection, times(2)).prepareStatement("SELECT * FROM Truc");
+		verify(mockConnection).prepareStatement(
+				"SELECT * FROM Truc FOR UPDATE");
+	}
+
+	@Test
+	public void testRoutingDatasourceHealth() throws SQLException {
+		Connection replicaConnection = mock(Connection.class);
+		DataSource replica = replica(replicaConnection);
+		when(replica.getConnection()).thenThrow(new SQLException("down"))
+				.thenReturn(replicaConnection);
+		when(replicaConnection.isValid(anyInt())).thenReturn(true);
+		ReplicaSet replicas = new ReplicaSet(
+				ReplicaSelection.LATENCY_WEIGHTED, replica);
+		replicas.setRetryDelay(1, TimeUnit.DAYS);
+		DataSource proxiedDs = proxyFactory.proxyRoutingDatasource(
+				mockDatasource, replicas);
+
+		// the primary serves the reads while the replica is down
+		Connection connection = proxiedDs.getConnection();
+		connection.prepareStatement("SELECT 1");
+		verify(mockConnection).prepareStatement("SELECT 1");
+		connection.close();
+		ReplicaStatistics statistics = replicas.getStatistics().get(0);
+		assertFalse(statistics.isHealthy());
+		assertEquals(1, statistics.getFailureCount());
+		connection = proxiedDs.getConnection();
+		connection.prepareStatement("SELECT 2");
+		verify(mockConnection).prepareStatement("SELECT 2");
+		connection.close();
+
+		replicas.checkHealth();
+		statistics = replicas.getStatistics().get(0);
+		assertTrue(statistics.isHealthy());
+		assertTrue(statistics.getLatencyNanos() > 0);
+		connection = proxiedDs.getConnection();
+		connection.prepareStatement("SELECT 3");
+		verify(replicaConnection).prepareStatement("SELECT 3");
+		connection.close();
+	}
+
+	@Test
+	public void testReplicaStatementInTransaction() throws SQLException {
+		Connection replicaConnection = mock(Connection.class);
+		ReplicaSet replicas = new ReplicaSet(
+				ReplicaSelection.LEAST_OUTSTANDING, replica(replicaConnection));
+		PreparedStatement replicaStatement = mock(PreparedStatement.class);
+		when(replicaConnection.prepareStatement("SELECT * FROM Truc"))
+				.thenReturn(replicaStatement);
+		when(replicaStatement.getConnection()).thenReturn(replicaConnection);
+		Connection connection = proxyFactory.proxyRoutingDatasource(
+				mockDatasource, replicas).getConnection();
+		PreparedStatement statement = connection
+				.prepareStatement("SELECT * FROM Truc");
+		statement.executeQuery();
+
+		// the statement would read outside of the transaction
+		connection.setAutoCommit(false);
+		connection.prepareStatement("UPDATE Truc SET a = 1").executeUpdate();
+		try {
+			statement.executeQuery();
+			fail();
+		} catch (SQLException e) {
+			assertEquals("25000", e.getSQLState());
+		}
+		verify(replicaStatement).executeQuery();
+
+		// it reads from the replica again once back to auto-commit
+		connection.setAutoCommit(true);
+		statement.executeQuery();
+		verify(replicaStatement, times(2)).executeQuery();
+		connection.close();
+	}
+
+	@Test
+	public void testReplicaFailingWithRuntimeException() throws SQLException {
+		DataSource replica = mock(DataSource.class);
+		when(replica.getConnection()).thenThrow(
+				new IllegalStateException("pool closed"));
+		ReplicaSet replicas = new ReplicaSet(
+				ReplicaSelection.LEAST_OUTSTANDING, replica);
+		Connection connection = proxyFactory.proxyRoutingDatasource(
+				mockDatasource, replicas).getConnection();
+		connection.prepareStatement("SELECT 1");
+		verify(mockConnection).prepareStatement("SELECT 1");
+		ReplicaStatistics statistics = replicas.getStatistics().get(0);
+		assertFalse(statistics.isHealthy());
+		assertEquals(1, statistics.getFailureCount());
+		connection.close();
+	}
+
+	@Test
+	public void testFastResultSets() throws SQLException {
+		proxyFactory.setFastResultSets(true);
+		proxyFactory.addResourceLifecycleListener(mockListener);
+		when(mockResultSet.next()).thenReturn(true, false);
+		when(mockResultSet.getLong(1)).thenReturn(42L);
+		Connection connection = proxyFactory.proxyDatasource(mockDatasource)
+				.getConnection();
+		Statement statement = connection.createStatement();
+		ResultSet resultSet = statement.executeQuery("Truc");
+
+		assertTrue(resultSet instanceof ResultSetWrapper);
+		assertTrue(resultSet.next());
+		assertEquals(42L, resultSet.getLong(1));
+		assertSame(statement, resultSet.getStatement());
+		statement.close();
+		verify(mockListener).resultSetClosed(mockResultSet);
+	}
+
+	@Test
+	public void testConcurrencyLimit() throws SQLException {
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 1, 1, 0,
+				TimeUnit.MILLISECONDS);
+		proxyFactory.setConcurrencyLimiter(limiter);
+		Connection connection = proxyFactory.proxyDatasource(mockDatasource)
+				.getConnection();
+		Statement statement = connection.createStatement();
+		// another execution in flight
+		limiter.acquire();
+		try {
+			statement.executeUpdate("Truc");
+			fail();
+		} catch (LoadShedException e) {
+			assertFalse(e.isCircuitOpen());
+		}
+		verify(mockStatement, never()).executeUpdate("Truc");
+		limiter.release(0, null);
+
+		statement.executeUpdate("Truc");
+		statement.addBatch("Bidule");
+		statement.executeBatch();
+		verify(mockStatement).executeUpdate("Truc");
+		verify(mockStatement).executeBatch();
+		assertEquals(0, limiter.getInFlight());
+		assertEquals(1, limiter.getRejectedCount());
+	}
+
+	@Test
+	public void testCircuitBreaker() throws SQLException {
+		CircuitBreaker breaker = new CircuitBreaker(0.5, 2, 1, 1,
+				TimeUnit.MINUTES);
+		proxyFactory.setCircuitBreaker(breaker);
+		DataSource dataSource = proxyFactory.proxyDatasource(mockDatasource);
+		when(mockDatasource.getConnection()).thenThrow(
+				new SQLTransientConnectionException("down"));
+		for (int i = 0; i < 2; i++) {
+			try {
+				dataSource.getConnection();
+				fail();
+			} catch (SQLTransientConnectionException e) {
+				// expected
+			}
+		}
+		assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+		try {
+			dataSource.getConnection();
+			fail();
+		} catch (LoadShedException e) {
+			assertTrue(e.isCircuitOpen());
+		}
+		verify(mockDatasource, times(2)).getConnection();
+	}
+
+	@Test
+	public void testCircuitBreakerWithLazyConnections() throws SQLException {
+		CircuitBreaker breaker = new CircuitBreaker(0.5, 1, 1,
+				TimeUnit.MINUTES.toMillis(1), TimeUnit.MILLISECONDS);
+		proxyFactory.setCircuitBreaker(breaker);
+		proxyFactory.setLazyConnections(true);
+		DataSource dataSource = proxyFactory.proxyDatasource(mockDatasource);
+		when(mockDatasource.getConnection()).thenThrow(
+				new SQLTransientConnectionException("pool timeout"));
+		Connection connection = dataSource.getConnection();
+		try {
+			connection.createStatement();
+			fail();
+		} catch (SQLTransientConnectionException e) {
+			// expected
+		}
+		assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+		try {
+			dataSource.getConnection().createStatement();
+			fail();
+		} catch (LoadShedException e) {
+			assertTrue(e.isCircuitOpen());
+		}
+		verify(mockDatasource).getConnection();
+	}
+
+	@Test
+	public void testProbeShedByConcurrencyLimit() throws Exception {
+		CircuitBreaker breaker = new CircuitBreaker(0.5, 1, 1, 50,
+				TimeUnit.MILLISECONDS);
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 1, 1, 0,
+				TimeUnit.MILLISECONDS);
+		proxyFactory.setCircuitBreaker(breaker);
+		proxyFactory.setConcurrencyLimiter(limiter);
+		Statement statement = proxyFactory.proxyDatasource(mockDatasource)
+				.getConnection().createStatement();
+		breaker.record(new SQLTransientConnectionException());
+		assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+		Thread.sleep(60);
+
+		limiter.acquire();
+		try {
+			statement.executeUpdate("Truc");
+			fail();
+		} catch (LoadShedException e) {
+			assertFalse(e.isCircuitOpen());
+		}
+		limiter.release(0, null);
+		// the shed probe did not hold the breaker open
+		statement.executeUpdate("Truc");
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+	}
+
+	@Test
+	public void testSlowQueryLog() throws SQLException {
+		final List<SlowQuery> slowQueries = new ArrayList<SlowQuery>();
+		proxyFactory.setSlowQueryLog(0, TimeUnit.MILLISECONDS,
+				new SlowQueryListener() {
+					@Override
+					public void slowQuery(SlowQuery slowQuery) {
+						slowQueries.add(slowQuery);
+					}
+				});
+		when(mockResultSet.next()).thenReturn(true, true, false);
+		when(mockPreparedStatement.executeUpdate()).thenReturn(3);
+		Connection connection = proxyFactory.proxyDatasource(mockDatasource)
+				.getConnection();
+		PreparedStatement statement = connection.prepareStatement("Truc");
+		statement.setInt(1, 42);
+		statement.setBinaryStream(2, new ByteArrayInputStream(new byte[0]));
+		ResultSet resultSet = statement.executeQuery();
+		while (resultSet.next()) {
+		}
+		assertTrue(slowQueries.isEmpty());
+		resultSet.close();
+
+		assertEquals(1, slowQueries.size());
+		SlowQuery slowQuery = slowQueries.get(0);
+		assertEquals("Truc", slowQuery.getSql());
+		assertEquals(2, slowQuery.getRowCount());
+		assertEquals(42, slowQuery.getParameters().get(0));
+		assertEquals("<ByteArrayInputStream>", slowQuery.getParameters()
+				.get(1).toString());
+		assertNotNull(slowQuery.getCallSite());
+
+		statement.clearParameters();
+		assertEquals(3, statement.executeUpdate());
+		assertEquals(2, slowQueries.size());
+		assertEquals(3, slowQueries.get(1).getRowCount());
+		assertTrue(slowQueries.get(1).getParameters().isEmpty());
+
+		proxyFactory.setSlowQueryLog(1, TimeUnit.HOURS,
+				new SlowQueryListener() {
+					@Override
+					public void slowQuery(SlowQuery slowQuery) {
+						fail("Fast query logged " + slowQuery);
+					}
+				});
+		statement.executeUpdate();
+	}
+
+	@Test
+	public void testDefaultFetchSize() throws SQLException {
+		proxyFactory.setDefaultFetchSize(100, true);
+		when(mockResultSet.next()).thenReturn(true, true, true, false);
+		Connection connection = proxyFactory.proxyDatasource(mockDatasource)
+				.getConnection();
+		PreparedStatement statement = connection.prepareStatement("Truc");
+		ResultSet resultSet = statement.executeQuery();
+		verify(mockPreparedStatement).setFetchSize(100);
+		while (resultSet.next()) {
+		}
+		resultSet.close();
+
+		// the next executions fetch the 3 rows read in one round trip
+		statement.execute();
+		verify(mockPreparedStatement).setFetchSize(4);
+		statement.executeUpdate();
+		verify(mockPreparedStatement, times(2)).setFetchSize(anyInt());
+
+		// an explicit fetch size is kept
+		statement.setFetchSize(10);
+		statement.executeQuery();
+		verify(mockPreparedStatement).setFetchSize(10);
+		verify(mockPreparedStatement, times(3)).setFetchSize(anyInt());
+
+		proxyFactory.setDefaultFetchSize(0, false);
+		connection.createStatement().executeQuery("Truc");
+		verify(mockStatement, never()).setFetchSize(anyInt());
+	}
+
+	@Test
+	public void testResultSetRowLimit() throws SQLException {
+		when(mockResultSet.next()).thenReturn(true, true, true, false);
+		Connection connection = proxyFactory.proxyDatasource(mockDatasource)
+				.getConnection();
+		proxyFactory.setResultSetRowLimit(3, true);
+		ResultSet resultSet = connection.createStatement().executeQuery(
+				"Truc");
+		while (resultSet.next()) {
+		}
+
+		when(mockResultSet.next()).thenReturn(true);
+		resultSet = connection.createStatement().executeQuery("Truc");
+		assertTrue(resultSet.next());
+		assertTrue(resultSet.next());
+		assertTrue(resultSet.next());
+		try {
+			resultSet.next();
+			fail("The row limit must be enforced");
+		} catch (SQLException e) {
+			assertTrue(e.getMessage().contains("3 rows"));
+		}
+
+		proxyFactory.setResultSetRowLimit(2, false);
+		resultSet = connection.createStatement().executeQuery("Truc");
+		for (int i = 0; i < 5; i++) {
+			assertTrue(resultSet.next());
+		}
+	}
+
+	@Test
+	public void testDefaultBackend() {
+		assertEquals(ProxyBackend.WRAPPER, new JdbcProxyFactory().getBackend());
+	}
+
 }
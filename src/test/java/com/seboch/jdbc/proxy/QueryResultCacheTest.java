@@ -0,0 +1,22 @@
+package com.seboch.jdbc.proxy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+public class QueryResultCacheTest {
+
+	@Test
+	public void testTableWrittenBy() {
+		assertEquals("COUNTRY",
+				QueryResultCache.tableWrittenBy("insert into country values (?)"));
+		assertEquals("COUNTRY", QueryResultCache
+				.tableWrittenBy("UPDATE ref.\"Country\" SET name = ?"));
+		assertEquals("COUNTRY",
+				QueryResultCache.tableWrittenBy("  delete Country where id = ?"));
+		assertEquals("COUNTRY",
+				QueryResultCache.tableWrittenBy("TRUNCATE TABLE [country]"));
+		assertNull(QueryResultCache.tableWrittenBy("{call refresh_countries}"));
+	}
+}
@@ -0,0 +1,87 @@
+package com.seboch.jdbc.proxy.async;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+
+import javax.sql.DataSource;
+
+import org.junit.Test;
+
+public class AsyncJdbcExecutorTest {
+
+	@Test
+	public void testSubmit() throws Exception {
+		DataSource mockDataSource = mock(DataSource.class);
+		Connection mockConnection = mock(Connection.class);
+		PreparedStatement mockStatement = mock(PreparedStatement.class);
+		when(mockDataSource.getConnection()).thenReturn(mockConnection);
+		when(mockConnection.prepareStatement("UPDATE T SET X = ?"))
+				.thenReturn(mockStatement);
+		when(mockStatement.executeUpdate()).thenReturn(3);
+		ExecutorService executor = AsyncJdbcExecutor
+				.newThreadPerTaskExecutor();
+		try {
+			AsyncJdbcExecutor asyncExecutor = new AsyncJdbcExecutor(
+					mockDataSource, executor);
+			assertEquals(Integer.valueOf(3),
+					asyncExecutor.executeUpdate("UPDATE T SET X = ?", 42)
+							.get());
+			verify(mockStatement).setObject(1, 42);
+			verify(mockStatement).close();
+			verify(mockConnection).close();
+
+			final SQLException failure = new SQLException();
+			try {
+				asyncExecutor.submit(new ConnectionCallback<Object>() {
+					@Override
+					public Object doInConnection(Connection connection)
+							throws SQLException {
+						throw failure;
+					}
+				}).get();
+				fail("The failure must be thrown");
+			} catch (ExecutionException e) {
+				assertSame(failure, e.getCause());
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Runs {@link PinningStress} in a child JVM traced with
+	 * -Djdk.tracePinnedThreads, which prints the stack of a virtual thread
+	 * blocking while it holds a monitor. The proxies must never do so.
+	 */
+	@Test
+	public void testConcurrentQueriesDoNotPin() throws Exception {
+		String java = System.getProperty("java.home") + File.separator
+				+ "bin" + File.separator + "java";
+		ProcessBuilder builder = new ProcessBuilder(java,
+				"-Djdk.tracePinnedThreads=full", "-cp",
+				System.getProperty("java.class.path"),
+				PinningStress.class.getName());
+		builder.redirectErrorStream(true);
+		Process process = builder.start();
+		ByteArrayOutputStream trace = new ByteArrayOutputStream();
+		InputStream output = process.getInputStream();
+		byte[] buffer = new byte[4096];
+		int read;
+		while ((read = output.read(buffer)) != -1) {
+			trace.write(buffer, 0, read);
+		}
+		assertEquals(trace.toString(), 0, process.waitFor());
+		assertFalse(trace.toString(), trace.toString().contains("<== monitors"));
+	}
+}
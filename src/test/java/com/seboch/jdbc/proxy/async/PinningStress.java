@@ -0,0 +1,167 @@
+package com.seboch.jdbc.proxy.async;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.DataSource;
+
+import com.seboch.jdbc.proxy.JdbcProxyFactory;
+import com.seboch.jdbc.proxy.lifecycle.OpenResourceTracker;
+
+/**
+ * Runs many concurrent queries through the proxies and their shared caches,
+ * on virtual threads when the JVM has them, see
+ * {@link AsyncJdbcExecutorTest#testConcurrentQueriesDoNotPin()}. Exits with
+ * status 1 if a query returns a wrong result.
+ */
+public final class PinningStress {
+
+	private static final String QUERY = "SELECT X FROM T WHERE ID = ?";
+
+	private PinningStress() {
+	}
+
+	public static void main(String[] args) throws Exception {
+		JdbcProxyFactory factory = new JdbcProxyFactory();
+		factory.setStatementCacheSize(4);
+		factory.setQueryResultCache(16, 1, TimeUnit.MINUTES);
+		factory.cacheQueryResults(QUERY, "T");
+		factory.addResourceLifecycleListener(new OpenResourceTracker());
+		DataSource dataSource = factory.proxyDatasource(blockingDataSource());
+
+		ExecutorService executor = threadPerTaskExecutor();
+		boolean failed = false;
+		try {
+			AsyncJdbcExecutor asyncExecutor = new AsyncJdbcExecutor(
+					dataSource, executor);
+			List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+			for (int i = 0; i < 1000; i++) {
+				final int id = i % 32;
+				results.add(asyncExecutor
+						.submit(new ConnectionCallback<Integer>() {
+							@Override
+							public Integer doInConnection(
+									Connection connection)
+									throws SQLException {
+								PreparedStatement statement = connection
+										.prepareStatement(QUERY);
+								statement.setInt(1, id);
+								ResultSet resultSet = statement
+										.executeQuery();
+								resultSet.next();
+								int value = resultSet.getInt(1);
+								statement.close();
+								return value;
+							}
+						}));
+			}
+			for (Future<Integer> result : results) {
+				failed |= result.get().intValue() != 1;
+			}
+		} finally {
+			executor.shutdown();
+		}
+		System.exit(failed ? 1 : 0);
+	}
+
+	private static ExecutorService threadPerTaskExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod(
+					"newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (Exception e) {
+			// pre JDK 21
+			return Executors.newCachedThreadPool();
+		}
+	}
+
+	/**
+	 * @return a data source whose queries block for a millisecond and return
+	 *         a single row holding 1
+	 */
+	private static DataSource blockingDataSource() {
+		return (DataSource) fake(DataSource.class, new Answer() {
+			@Override
+			public Object answer(Method method) {
+				return method.getName().equals("getConnection") ? fake(
+						Connection.class, new Answer() {
+							@Override
+							public Object answer(Method method) {
+								return method.getName().equals(
+										"prepareStatement") ? fake(
+										PreparedStatement.class,
+										new StatementAnswer()) : null;
+							}
+						}) : null;
+			}
+		});
+	}
+
+	private interface Answer {
+		Object answer(Method method) throws Exception;
+	}
+
+	private static final class StatementAnswer implements Answer {
+		@Override
+		public Object answer(Method method) throws Exception {
+			if (method.getName().equals("executeQuery")) {
+				Thread.sleep(1);
+				return fake(ResultSet.class, new Answer() {
+					private int rows = 1;
+
+					@Override
+					public Object answer(Method method) {
+						if (method.getName().equals("next")) {
+							return rows-- > 0;
+						} else if (method.getName().equals("getMetaData")) {
+							return fake(ResultSetMetaData.class, new Answer() {
+								@Override
+								public Object answer(Method method) {
+									return method.getReturnType() == String.class ? "X"
+											: method.getName().equals(
+													"getColumnCount") ? 1
+													: null;
+								}
+							});
+						}
+						return method.getName().equals("getObject") ? 1 : null;
+					}
+				});
+			}
+			return null;
+		}
+	}
+
+	private static Object fake(Class<?> type, final Answer answer) {
+		return Proxy.newProxyInstance(PinningStress.class
+				.getClassLoader(), new Class<?>[] { type },
+				new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method,
+							Object[] args) throws Throwable {
+						Object result = answer.answer(method);
+						Class<?> returnType = method.getReturnType();
+						if (result != null || !returnType.isPrimitive()
+								|| returnType == void.class) {
+							return result;
+						} else if (returnType == boolean.class) {
+							return false;
+						} else if (returnType == long.class) {
+							return 0L;
+						}
+						return 0;
+					}
+				});
+	}
+}
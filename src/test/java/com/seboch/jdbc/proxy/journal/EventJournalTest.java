@@ -0,0 +1,95 @@
+package com.seboch.jdbc.proxy.journal;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class EventJournalTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testTimelineAndLeaks() throws IOException {
+		File file = folder.newFile("journal.bin");
+		EventJournal journal = new EventJournal(file, 16);
+		Connection connection = mock(Connection.class);
+		Statement statement = mock(Statement.class);
+		ResultSet resultSet = mock(ResultSet.class);
+		journal.connectionCreated(connection);
+		journal.statementCreated(statement);
+		journal.statementExecuted(statement, "SELECT 1", 1500, null);
+		journal.resultSetCreated(resultSet);
+		journal.resultSetClosed(resultSet, "SELECT 1", 3, 2000);
+		journal.resultSetClosed(resultSet);
+		journal.statementExecuted(statement,
+				"UPDATE Truc SET Machin = '\u00e9\u20ac'", 700,
+				new SQLException());
+		journal.connectionClosed(connection);
+		journal.close();
+
+		List<JournalEvent> events = JournalReader.read(file);
+		assertEquals(8, events.size());
+		assertEquals(JournalEventType.CONNECTION_CREATED, events.get(0)
+				.getType());
+		JournalEvent execution = events.get(2);
+		assertEquals(JournalEventType.STATEMENT_EXECUTED, execution.getType());
+		assertEquals(System.identityHashCode(statement),
+				execution.getObjectId());
+		assertEquals(Thread.currentThread().getId(), execution.getThreadId());
+		assertEquals(1500, execution.getElapsedNanos());
+		assertEquals("SELECT 1", execution.getSql());
+		assertEquals("SELECT 1".hashCode(), execution.getSqlHash());
+		JournalEvent read = events.get(4);
+		assertEquals(3, read.getRowCount());
+		assertEquals(2000, read.getElapsedNanos());
+		JournalEvent failed = events.get(6);
+		assertTrue(failed.isFailed());
+		assertEquals("UPDATE Truc SET Machin = '\u00e9?'", failed.getSql());
+
+		// only the statement was not closed
+		List<JournalEvent> leaks = JournalReader.findLeaks(events);
+		assertEquals(1, leaks.size());
+		assertEquals(JournalEventType.STATEMENT_CREATED, leaks.get(0)
+				.getType());
+	}
+
+	@Test
+	public void testRingKeepsLatestEvents() throws IOException {
+		File file = folder.newFile("journal.bin");
+		EventJournal journal = new EventJournal(file, 4);
+		Statement statement = mock(Statement.class);
+		StringBuilder sql = new StringBuilder();
+		for (int i = 0; i < 10; i++) {
+			sql.append("SELECT ").append(i).append(' ');
+		}
+		for (int i = 0; i < 6; i++) {
+			journal.statementExecuted(statement, sql.toString(), i, null);
+		}
+		assertEquals(6, journal.getEventCount());
+		// read without closing, as after a crash
+		List<JournalEvent> events = JournalReader.read(file);
+		journal.close();
+
+		assertEquals(4, events.size());
+		for (int i = 0; i < 4; i++) {
+			assertEquals(i + 2, events.get(i).getSequence());
+			assertEquals(i + 2, events.get(i).getElapsedNanos());
+		}
+		assertTrue(events.get(0).isSqlTruncated());
+		assertEquals(EventJournal.SQL_CAPACITY, events.get(0).getSql()
+				.length());
+		assertTrue(sql.toString().startsWith(events.get(0).getSql()));
+	}
+}
@@ -0,0 +1,92 @@
+package com.seboch.jdbc.proxy.lifecycle;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.mockito.InOrder;
+
+public class AsyncResourceLifecycleListenerTest {
+
+	@Test
+	public void testEventsAreDeliveredInOrder() throws InterruptedException {
+		ResourceLifecycleListener mockListener = mock(ResourceLifecycleListener.class);
+		Connection connection = mock(Connection.class);
+		Statement statement = mock(Statement.class);
+		ResultSet resultSet = mock(ResultSet.class);
+
+		AsyncResourceLifecycleListener listener = new AsyncResourceLifecycleListener(
+				mockListener, 16);
+		listener.connectionCreated(connection);
+		listener.statementCreated(statement);
+		listener.resultSetCreated(resultSet);
+		listener.resultSetClosed(resultSet);
+		listener.statementClosed(statement);
+		listener.connectionClosed(connection);
+		listener.close();
+
+		InOrder inOrder = inOrder(mockListener);
+		inOrder.verify(mockListener).connectionCreated(connection);
+		inOrder.verify(mockListener).statementCreated(statement);
+		inOrder.verify(mockListener).resultSetCreated(resultSet);
+		inOrder.verify(mockListener).resultSetClosed(resultSet);
+		inOrder.verify(mockListener).statementClosed(statement);
+		inOrder.verify(mockListener).connectionClosed(connection);
+		assertEquals(0, listener.getDroppedEvents());
+	}
+
+	@Test
+	public void testEventsAreDroppedWhenFull() throws InterruptedException {
+		final CountDownLatch blocked = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		ResourceLifecycleListener slowListener = new ResourceLifecycleAdapter() {
+			@Override
+			public void connectionCreated(Connection connection) {
+				blocked.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		};
+
+		AsyncResourceLifecycleListener listener = new AsyncResourceLifecycleListener(
+				slowListener, 4);
+		listener.connectionCreated(mock(Connection.class));
+		assertTrue(blocked.await(5, TimeUnit.SECONDS));
+
+		for (int i = 0; i < 10; i++) {
+			listener.connectionClosed(mock(Connection.class));
+		}
+		release.countDown();
+		listener.close();
+
+		assertEquals(6, listener.getDroppedEvents());
+	}
+
+	@Test
+	public void testIdleDispatcherIsWokenUp() throws InterruptedException {
+		final CountDownLatch delivered = new CountDownLatch(1);
+		AsyncResourceLifecycleListener listener = new AsyncResourceLifecycleListener(
+				new ResourceLifecycleAdapter() {
+					@Override
+					public void connectionCreated(Connection connection) {
+						delivered.countDown();
+					}
+				}, 4);
+		// long enough for the dispatch thread to back off to its longest park
+		Thread.sleep(200);
+		listener.connectionCreated(mock(Connection.class));
+		assertTrue(delivered.await(5, TimeUnit.SECONDS));
+		listener.close();
+	}
+
+}
@@ -4,11 +4,17 @@ import static org.junit.Assert.*;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import javax.sql.DataSource;
 
@@ -108,6 +114,368 @@ public class OpenResourceTrackerTest {
 		checkStack(creationInfo.getCreationStackTrace());
 	}
 
+	@Test
+	public void testLazyStackCapture() {
+		tracker.setStackCapturePolicy(StackCapturePolicy.lazy());
+		Connection mockConnection = mock(Connection.class);
+
+		tracker.connectionCreated(mockConnection);
+
+		CreationInfo<Connection> creationInfo = tracker.getOpenConnections()
+				.get(mockConnection);
+		checkStack(creationInfo.getCreationStackTrace());
+		assertTrue(creationInfo.getCreationStackTrace().size() <= tracker
+				.getCreationStackMaxLength());
+	}
+
+	@Test
+	public void testEveryNthStackCapture() {
+		tracker.setStackCapturePolicy(StackCapturePolicy.everyNth(3));
+		Statement[] statements = new Statement[6];
+		for (int i = 0; i < statements.length; i++) {
+			statements[i] = mock(Statement.class);
+			tracker.statementCreated(statements[i]);
+		}
+
+		for (int i = 0; i < statements.length; i++) {
+			List<StackTraceElement> stack = tracker.getOpenStatements()
+					.get(statements[i]).getCreationStackTrace();
+			if (i % 3 == 0) {
+				checkStack(stack);
+			} else {
+				assertTrue(stack.isEmpty());
+			}
+		}
+	}
+
+	@Test
+	public void testPerCallSiteRateLimitStackCapture() {
+		tracker.setStackCapturePolicy(StackCapturePolicy.perCallSiteRateLimit(
+				2, 1, TimeUnit.HOURS));
+		ResultSet[] resultSets = new ResultSet[4];
+		for (int i = 0; i < resultSets.length; i++) {
+			resultSets[i] = mock(ResultSet.class);
+			tracker.resultSetCreated(resultSets[i]);
+		}
+
+		for (int i = 0; i < resultSets.length; i++) {
+			List<StackTraceElement> stack = tracker.getOpenResultSets()
+					.get(resultSets[i]).getCreationStackTrace();
+			checkStack(stack);
+			if (i < 2) {
+				assertTrue(stack.size() > 1);
+			} else {
+				// only the call site is recorded once the budget is exhausted
+				assertEquals(1, stack.size());
+			}
+		}
+	}
+
+	@Test
+	public void testNoStackCapture() {
+		tracker.setStackCapturePolicy(StackCapturePolicy.never());
+		Connection mockConnection = mock(Connection.class);
+
+		tracker.connectionCreated(mockConnection);
+
+		assertTrue(tracker.getOpenConnections().get(mockConnection)
+				.getCreationStackTrace().isEmpty());
+	}
+
+	@Test
+	public void testCreationStackMaxLength() {
+		tracker.setCreationStackMaxLength(2);
+		Connection mockConnection = mock(Connection.class);
+
+		tracker.connectionCreated(mockConnection);
+
+		List<StackTraceElement> stack = tracker.getOpenConnections()
+				.get(mockConnection).getCreationStackTrace();
+		checkStack(stack);
+		assertEquals(2, stack.size());
+	}
+
+	@Test
+	public void testResourcesAreTrackedByIdentity() {
+		Connection connection = equalToEverythingConnection();
+		Connection otherConnection = equalToEverythingConnection();
+
+		tracker.connectionCreated(connection);
+		tracker.connectionCreated(otherConnection);
+		assertEquals(2, tracker.getOpenConnections().size());
+
+		tracker.connectionClosed(otherConnection);
+		assertEquals(1, tracker.getOpenConnections().size());
+		assertSame(connection, tracker.getOpenConnections().get(connection)
+				.getCreatedObject());
+	}
+
+	@Test
+	public void testCollectedResourceIsReportedAsLeak()
+			throws InterruptedException {
+		final List<CreationInfo<?>> leaks = new ArrayList<CreationInfo<?>>();
+		tracker.setResourceLeakListener(new ResourceLeakListener() {
+			@Override
+			public void resourceLeaked(ResourceType type,
+					CreationInfo<?> creationInfo) {
+				assertEquals(ResourceType.CONNECTION, type);
+				leaks.add(creationInfo);
+			}
+		});
+		Connection closedConnection = equalToEverythingConnection();
+		tracker.connectionCreated(closedConnection);
+		tracker.connectionClosed(closedConnection);
+		closedConnection = null;
+		tracker.connectionCreated(equalToEverythingConnection());
+
+		for (int i = 0; i < 50 && leaks.isEmpty(); i++) {
+			System.gc();
+			Thread.sleep(10);
+			tracker.expungeCollectedResources();
+		}
+
+		assertEquals(1, leaks.size());
+		assertNull(leaks.get(0).getCreatedObject());
+		checkStack(leaks.get(0).getCreationStackTrace());
+		assertTrue(tracker.getOpenConnections().isEmpty());
+	}
+
+	@Test
+	public void testOpenCounts() {
+		Statement mockStatement = mock(Statement.class);
+		tracker.connectionCreated(mock(Connection.class));
+		tracker.statementCreated(mockStatement);
+		tracker.statementCreated(mock(Statement.class));
+		tracker.statementClosed(mockStatement);
+
+		assertEquals(1, tracker.getOpenCount(ResourceType.CONNECTION));
+		assertEquals(1, tracker.getOpenCount(ResourceType.STATEMENT));
+		assertEquals(0, tracker.getOpenCount(ResourceType.RESULT_SET));
+	}
+
+	@Test
+	public void testConnectionUsageStatistics() {
+		Connection mockConnection = mock(Connection.class);
+		Connection mockConnection2 = mock(Connection.class);
+		tracker.connectionCreated(mock(Connection.class));
+		tracker.setConnectionUsageStatisticsEnabled(true);
+		tracker.setConnectionUsageMaxCallSites(1);
+
+		tracker.connectionCreated(mockConnection);
+		tracker.statementCreated(mock(Statement.class), mockConnection);
+		tracker.statementCreated(mock(Statement.class), mockConnection);
+		tracker.connectionCreated(mockConnection2);
+		tracker.connectionClosed(mockConnection);
+		tracker.connectionClosed(mockConnection2);
+
+		ConnectionUsageStatistics overall = tracker
+				.getConnectionUsageStatistics();
+		assertEquals(2, overall.getAcquisitions());
+		assertEquals(0, overall.getOpen());
+		assertEquals(2, overall.getPeakOpen());
+		assertEquals(2, overall.getHoldTimeMillis().getCount());
+		assertEquals(2, overall.getStatementsPerConnection().getMax());
+
+		// the second call site is not tracked while the first one is in use
+		List<ConnectionUsageStatistics> byCallSite = tracker
+				.getConnectionUsageByCallSite();
+		assertEquals(1, byCallSite.size());
+		ConnectionUsageStatistics callSite = byCallSite.get(0);
+		assertEquals(getClass().getName(), callSite.getCallSite()
+				.getClassName());
+		assertEquals(1, callSite.getAcquisitions());
+		assertEquals(1, callSite.getPeakOpen());
+		assertEquals(2, callSite.getStatementsPerConnection().getMin());
+
+		tracker.connectionCreated(mockConnection2);
+		byCallSite = tracker.getConnectionUsageByCallSite();
+		assertEquals(1, byCallSite.size());
+		assertFalse(callSite.getCallSite().equals(
+				byCallSite.get(0).getCallSite()));
+
+		tracker.resetConnectionUsageStatistics();
+		overall = tracker.getConnectionUsageStatistics();
+		assertEquals(0, overall.getAcquisitions());
+		assertEquals(1, overall.getPeakOpen());
+	}
+
+	@Test
+	public void testCallSiteAccounting() {
+		tracker.setCallSiteAccountingEnabled(true);
+		tracker.setStackCapturePolicy(StackCapturePolicy.onCallSiteGrowth());
+		Statement[] leaked = new Statement[3];
+		for (int i = 0; i < leaked.length; i++) {
+			leaked[i] = mock(Statement.class);
+			tracker.statementCreated(leaked[i]);
+			tracker.statementClosed(createStatement());
+		}
+
+		List<CallSiteResourceCount> counts = tracker
+				.getResourceCountsByCallSite(ResourceType.STATEMENT);
+		assertEquals(2, counts.size());
+		CallSiteResourceCount leaking = counts.get(0);
+		assertEquals(getClass().getName(), leaking.getCallSite()
+				.getClassName());
+		assertEquals(3, leaking.getOpened());
+		assertEquals(0, leaking.getClosed());
+		assertEquals(3, leaking.getPeakOpen());
+		CallSiteResourceCount balanced = counts.get(1);
+		assertEquals(3, balanced.getOpened());
+		assertEquals(3, balanced.getClosed());
+		assertEquals(0, balanced.getOpen());
+		assertEquals(1, balanced.getPeakOpen());
+		assertTrue(tracker.getResourceCountsByCallSite(
+				ResourceType.CONNECTION).isEmpty());
+
+		// each leaked statement raised the peak of its call site
+		for (Statement statement : leaked) {
+			List<StackTraceElement> stack = tracker.getOpenStatements()
+					.get(statement).getCreationStackTrace();
+			checkStack(stack);
+			assertTrue(stack.size() > 1);
+		}
+
+		// a balanced call site only records itself once its peak is reached
+		Statement statement = createStatement();
+		List<StackTraceElement> stack = tracker.getOpenStatements()
+				.get(statement).getCreationStackTrace();
+		assertEquals(1, stack.size());
+		checkStack(stack);
+	}
+
+	@Test
+	public void testCallSitesAreInterned() {
+		InternedCallSite first = internedCallSite();
+		InternedCallSite second = internedCallSite();
+		assertSame(first, second);
+		assertEquals("internedCallSite", first.getStackTraceElement()
+				.getMethodName());
+		assertNotSame(first, StackFrames.internedCallSite());
+	}
+
+	private static InternedCallSite internedCallSite() {
+		return StackFrames.internedCallSite();
+	}
+
+	@Test
+	public void testVisitOpenResources() {
+		final List<ResultSet> visited = new ArrayList<ResultSet>();
+		ResultSet mockResultSet = mock(ResultSet.class);
+		tracker.resultSetCreated(mockResultSet);
+		tracker.resultSetCreated(mock(ResultSet.class));
+
+		tracker.visitOpenResultSets(new OpenResourceVisitor<ResultSet>() {
+			@Override
+			public boolean visit(CreationInfo<ResultSet> creationInfo) {
+				visited.add(creationInfo.getCreatedObject());
+				return false;
+			}
+		});
+		assertEquals(1, visited.size());
+
+		visited.clear();
+		tracker.resultSetClosed(mockResultSet);
+		tracker.visitOpenResultSets(new OpenResourceVisitor<ResultSet>() {
+			@Override
+			public boolean visit(CreationInfo<ResultSet> creationInfo) {
+				visited.add(creationInfo.getCreatedObject());
+				return true;
+			}
+		});
+		assertEquals(1, visited.size());
+		assertNotSame(mockResultSet, visited.get(0));
+	}
+
+	@Test
+	public void testOpenResourcesOlderThan() throws InterruptedException {
+		Connection oldConnection = mock(Connection.class);
+		tracker.connectionCreated(oldConnection);
+		Thread.sleep(50);
+		tracker.connectionCreated(mock(Connection.class));
+
+		List<CreationInfo<?>> oldConnections = tracker
+				.getOpenResourcesOlderThan(ResourceType.CONNECTION, 40);
+		assertEquals(1, oldConnections.size());
+		assertSame(oldConnection, oldConnections.get(0).getCreatedObject());
+		assertEquals(2,
+				tracker.getOpenResourcesOlderThan(ResourceType.CONNECTION, 0)
+						.size());
+	}
+
+	@Test
+	public void testCollectCreatedBetween() throws InterruptedException {
+		Connection oldConnection = mock(Connection.class);
+		tracker.connectionCreated(oldConnection);
+		long oldCreationTime = tracker
+				.getOpenResourcesOlderThan(ResourceType.CONNECTION, 0).get(0)
+				.getCreationTime();
+		Thread.sleep(20);
+		Connection newConnection = mock(Connection.class);
+		tracker.connectionCreated(newConnection);
+		Thread.sleep(20);
+		tracker.connectionCreated(mock(Connection.class));
+		long maxCreationTime = System.currentTimeMillis() - 10;
+
+		List<CreationInfo<?>> resources = new ArrayList<CreationInfo<?>>();
+		tracker.collectCreatedBetween(ResourceType.CONNECTION,
+				oldCreationTime, maxCreationTime, resources);
+		assertEquals(1, resources.size());
+		assertSame(newConnection, resources.get(0).getCreatedObject());
+	}
+
+	@Test
+	public void testOpenResourcesByConnection() throws SQLException {
+		Connection mockConnection = mock(Connection.class);
+		Statement mockStatement = mock(Statement.class);
+		ResultSet mockResultSet = mock(ResultSet.class);
+		DataSource mockDataSource = mock(DataSource.class);
+		when(mockDataSource.getConnection()).thenReturn(mockConnection);
+		when(mockConnection.createStatement()).thenReturn(mockStatement);
+		when(mockStatement.executeQuery("Truc")).thenReturn(mockResultSet);
+		JdbcProxyFactory proxyFactory = new JdbcProxyFactory();
+		proxyFactory.addResourceLifecycleListener(tracker);
+
+		Connection connection = proxyFactory.proxyDatasource(mockDataSource)
+				.getConnection();
+		connection.createStatement().executeQuery("Truc");
+		tracker.statementCreated(mock(Statement.class));
+
+		Map<Connection, List<CreationInfo<?>>> byConnection = tracker
+				.getOpenResourcesByConnection();
+		assertEquals(2, byConnection.size());
+		assertEquals(2, byConnection.get(mockConnection).size());
+		assertSame(mockConnection, byConnection.get(mockConnection).get(0)
+				.getConnection());
+		assertEquals(1, byConnection.get(null).size());
+
+		connection.close();
+		assertEquals(1, tracker.getOpenResourcesByConnection().size());
+		assertEquals(0, tracker.getOpenCount(ResourceType.RESULT_SET));
+	}
+
+	private Connection equalToEverythingConnection() {
+		return (Connection) Proxy.newProxyInstance(getClass()
+				.getClassLoader(), new Class<?>[] { Connection.class },
+				new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method,
+							Object[] args) throws Throwable {
+						if (method.getName().equals("equals")) {
+							return true;
+						} else if (method.getName().equals("hashCode")) {
+							return 0;
+						}
+						return null;
+					}
+				});
+	}
+
+	private Statement createStatement() {
+		Statement statement = mock(Statement.class);
+		tracker.statementCreated(statement);
+		return statement;
+	}
+
 	private void checkStack(List<StackTraceElement> creationStackTrace) {
 		// Assert stack trace start in current class that created elements
 		assertEquals(getClass().getName(), creationStackTrace.get(0)
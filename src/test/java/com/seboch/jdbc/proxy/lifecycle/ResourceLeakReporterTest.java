@@ -0,0 +1,96 @@
+package com.seboch.jdbc.proxy.lifecycle;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.seboch.jdbc.proxy.lifecycle.OpenResourceTracker.CreationInfo;
+
+public class ResourceLeakReporterTest {
+
+	private OpenResourceTracker tracker;
+	private List<CreationInfo<?>> reported;
+	private List<Long> occurrences;
+	private ResourceLeakReporter reporter;
+
+	@Before
+	public void setup() {
+		tracker = new OpenResourceTracker();
+		reported = new ArrayList<CreationInfo<?>>();
+		occurrences = new ArrayList<Long>();
+		reporter = new ResourceLeakReporter(tracker, new ResourceLeakSink() {
+			@Override
+			public void leakSuspected(ResourceType type,
+					CreationInfo<?> creationInfo, long count) {
+				assertEquals(ResourceType.CONNECTION, type);
+				reported.add(creationInfo);
+				occurrences.add(count);
+			}
+		});
+		reporter.setAgeThreshold(ResourceType.CONNECTION, 5,
+				TimeUnit.MILLISECONDS);
+	}
+
+	@Test
+	public void testReportsAreDeduplicatedByCallSite()
+			throws InterruptedException {
+		for (int i = 0; i < 3; i++) {
+			tracker.connectionCreated(mock(Connection.class));
+		}
+		tracker.resultSetCreated(mock(ResultSet.class));
+		Thread.sleep(20);
+
+		reporter.scan();
+		assertEquals(1, reported.size());
+		assertEquals(Long.valueOf(3), occurrences.get(0));
+
+		// already found resources are not counted again
+		reporter.setReportInterval(0, TimeUnit.MILLISECONDS);
+		reporter.scan();
+		assertEquals(1, reported.size());
+
+		Connection leaked = mock(Connection.class);
+		tracker.connectionCreated(leaked);
+		Thread.sleep(20);
+		reporter.scan();
+		assertEquals(2, reported.size());
+		assertSame(leaked, reported.get(1).getCreatedObject());
+		assertEquals(Long.valueOf(1), occurrences.get(1));
+	}
+
+	@Test
+	public void testYoungAndClosedResourcesAreNotReported()
+			throws InterruptedException {
+		Connection closed = mock(Connection.class);
+		tracker.connectionCreated(closed);
+		tracker.connectionClosed(closed);
+		reporter.setAgeThreshold(ResourceType.CONNECTION, 1, TimeUnit.MINUTES);
+		tracker.connectionCreated(mock(Connection.class));
+		Thread.sleep(20);
+
+		reporter.scan();
+		assertTrue(reported.isEmpty());
+	}
+
+	@Test
+	public void testBackgroundScan() throws InterruptedException {
+		tracker.connectionCreated(mock(Connection.class));
+		reporter.start(5, TimeUnit.MILLISECONDS);
+		try {
+			for (int i = 0; i < 200 && reported.isEmpty(); i++) {
+				Thread.sleep(10);
+			}
+		} finally {
+			reporter.close();
+		}
+		assertEquals(1, reported.size());
+	}
+}
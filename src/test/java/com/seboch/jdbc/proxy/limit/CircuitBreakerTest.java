@@ -0,0 +1,82 @@
+package com.seboch.jdbc.proxy.limit;
+
+import static org.junit.Assert.*;
+
+import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.sql.SQLTransientConnectionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class CircuitBreakerTest {
+
+	@Test
+	public void testOpensAndProbes() throws Exception {
+		CircuitBreaker breaker = new CircuitBreaker(0.5, 4, 60000, 50,
+				TimeUnit.MILLISECONDS);
+		breaker.check();
+		breaker.record(null);
+		breaker.record(new SQLIntegrityConstraintViolationException());
+		breaker.record(new SQLTransientConnectionException());
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+		breaker.record(new SQLException("Connection reset", "08S01"));
+		assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+		try {
+			breaker.check();
+			fail();
+		} catch (LoadShedException e) {
+			assertTrue(e.isCircuitOpen());
+			assertEquals(LoadShedException.CIRCUIT_OPEN_STATE,
+					e.getSQLState());
+		}
+		assertEquals(1, breaker.getRejectedCount());
+
+		Thread.sleep(60);
+		breaker.check();
+		assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+		try {
+			breaker.check();
+			fail("a single probe at a time");
+		} catch (LoadShedException e) {
+			// expected
+		}
+		breaker.record(new SQLTransientConnectionException());
+		assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+		Thread.sleep(60);
+		breaker.check();
+		breaker.record(null);
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+		breaker.check();
+	}
+
+	@Test
+	public void testOnlyTheProbeDecides() throws Exception {
+		final CircuitBreaker breaker = new CircuitBreaker(1, 1, 60000, 50,
+				TimeUnit.MILLISECONDS);
+		breaker.check();
+		breaker.record(new SQLTransientConnectionException());
+		assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+		Thread.sleep(60);
+		breaker.check();
+
+		// a call let through before the breaker opened ends
+		Thread late = new Thread() {
+			@Override
+			public void run() {
+				breaker.record(null);
+			}
+		};
+		late.start();
+		late.join();
+		assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+
+		// a shed probe lets the next call probe at once
+		breaker.record(new LoadShedException("shed", false));
+		assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+		breaker.check();
+		breaker.record(null);
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+	}
+}
@@ -0,0 +1,102 @@
+package com.seboch.jdbc.proxy.limit;
+
+import static org.junit.Assert.*;
+
+import java.sql.SQLTimeoutException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class ConcurrencyLimiterTest {
+
+	@Test
+	public void testShedsOverLimit() throws Exception {
+		final ConcurrencyLimiter limiter = new ConcurrencyLimiter(2, 1, 10, 0,
+				TimeUnit.MILLISECONDS);
+		limiter.acquire();
+		limiter.acquire();
+		assertEquals(2, limiter.getInFlight());
+		try {
+			limiter.acquire();
+			fail();
+		} catch (LoadShedException e) {
+			assertFalse(e.isCircuitOpen());
+			assertEquals(LoadShedException.LIMIT_EXCEEDED_STATE,
+					e.getSQLState());
+		}
+		assertEquals(1, limiter.getRejectedCount());
+
+		limiter.release(1000, new SQLTimeoutException());
+		limiter.release(1000, null);
+		assertEquals(0, limiter.getInFlight());
+		// an unmatched release does not make room
+		limiter.release(1000, null);
+		assertEquals(0, limiter.getInFlight());
+	}
+
+	@Test
+	public void testWaitsForRoom() throws Exception {
+		final ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 1, 1, 10,
+				TimeUnit.SECONDS);
+		limiter.acquire();
+		final CountDownLatch admitted = new CountDownLatch(1);
+		Thread waiter = new Thread() {
+			@Override
+			public void run() {
+				try {
+					limiter.acquire();
+					admitted.countDown();
+				} catch (LoadShedException e) {
+					// the test fails on the latch
+				}
+			}
+		};
+		waiter.start();
+		assertFalse(admitted.await(50, TimeUnit.MILLISECONDS));
+		limiter.release(1000, null);
+		assertTrue(admitted.await(5, TimeUnit.SECONDS));
+		waiter.join();
+		assertEquals(1, limiter.getInFlight());
+		assertEquals(0, limiter.getWaiting());
+	}
+
+	@Test
+	public void testAdaptsToLatency() throws Exception {
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter(10, 2, 100, 0,
+				TimeUnit.MILLISECONDS);
+		for (int i = 0; i < 50; i++) {
+			fill(limiter);
+			limiter.release(1000, null);
+			drain(limiter);
+		}
+		int grown = limiter.getLimit();
+		assertTrue(grown > 10);
+		for (int i = 0; i < 50; i++) {
+			limiter.acquire();
+			limiter.release(100000, null);
+		}
+		assertTrue(limiter.getLimit() < grown);
+		for (int i = 0; i < 100; i++) {
+			limiter.acquire();
+			limiter.release(100000, new SQLTimeoutException());
+		}
+		assertEquals(2, limiter.getLimit());
+	}
+
+	private static void fill(ConcurrencyLimiter limiter) {
+		try {
+			while (true) {
+				limiter.acquire();
+			}
+		} catch (LoadShedException e) {
+			// full
+		}
+	}
+
+	private static void drain(ConcurrencyLimiter limiter) {
+		while (limiter.getInFlight() > 0) {
+			limiter.release(1000, null);
+		}
+	}
+}
@@ -0,0 +1,41 @@
+package com.seboch.jdbc.proxy.metrics;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class HistogramTest {
+
+	@Test
+	public void testBucketBounds() {
+		for (long value : new long[] { 0, 1, 31, 32, 33, 63, 64, 65, 1000,
+				123456789L, Long.MAX_VALUE / 2 }) {
+			int index = Histogram.indexFor(value);
+			assertTrue(Histogram.lowestValueAt(index) <= value);
+			assertTrue(Histogram.highestValueAt(index) >= value);
+		}
+		assertEquals(Histogram.indexFor(63) + 1, Histogram.indexFor(64));
+	}
+
+	@Test
+	public void testPercentiles() {
+		Histogram histogram = new Histogram(1000000);
+		for (int i = 1; i <= 1000; i++) {
+			histogram.record(i * 1000L);
+		}
+		histogram.record(-5);
+		histogram.record(5000000);
+
+		HistogramSnapshot snapshot = histogram.snapshot();
+		assertEquals(1002, snapshot.getCount());
+		assertEquals(0, snapshot.getMin());
+		assertEquals(500000, snapshot.getMedian(), 500000 * 0.04);
+		assertEquals(990000, snapshot.getPercentile99(), 990000 * 0.04);
+		assertEquals(1000000, snapshot.getMax(), 1000000 * 0.04);
+		assertEquals(500000, snapshot.getMean(), 500000 * 0.04);
+
+		histogram.reset();
+		assertEquals(0, histogram.snapshot().getCount());
+	}
+
+}
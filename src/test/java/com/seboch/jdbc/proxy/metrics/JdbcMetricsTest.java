@@ -0,0 +1,91 @@
+package com.seboch.jdbc.proxy.metrics;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.lang.management.ManagementFactory;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+
+import org.junit.Test;
+
+import com.seboch.jdbc.proxy.JdbcProxyFactory;
+
+public class JdbcMetricsTest {
+
+	@Test
+	public void testNormalize() {
+		assertEquals("select * from t where id = ? and name in (?)",
+				SqlNormalizer.normalize("select *  from t\n where id = 42 "
+						+ "and name in ('a', 'it''s', 'c')"));
+		assertEquals("select col1 from t2 where x = ?",
+				SqlNormalizer.normalize("select col1 from t2 where x = ?"));
+		assertEquals("select \"a 1\" from t where x > ?",
+				SqlNormalizer.normalize("select \"a 1\" from t where x > 1.5"));
+	}
+
+	@Test
+	public void testRecordsPerNormalizedSql() throws SQLException {
+		Connection mockConnection = mock(Connection.class);
+		Statement mockStatement = mock(Statement.class);
+		ResultSet mockResultSet = mock(ResultSet.class);
+		when(mockConnection.createStatement()).thenReturn(mockStatement);
+		when(mockStatement.executeQuery("select * from t where id = 1"))
+				.thenReturn(mockResultSet);
+		when(mockStatement.executeQuery("select * from t where id = 2"))
+				.thenReturn(mockResultSet);
+		when(mockResultSet.next()).thenReturn(true, false, true, true, false);
+
+		JdbcMetrics metrics = new JdbcMetrics();
+		JdbcProxyFactory factory = new JdbcProxyFactory();
+		factory.addExecutionListener(metrics);
+		Statement statement = factory.proxyConnection(mockConnection)
+				.createStatement();
+		for (int id = 1; id <= 2; id++) {
+			ResultSet resultSet = statement
+					.executeQuery("select * from t where id = " + id);
+			while (resultSet.next()) {
+			}
+			resultSet.close();
+		}
+
+		assertEquals(1, metrics.getStatementCount());
+		StatementMetricsSnapshot snapshot = metrics
+				.getStatementMetrics("select * from t where id = 3");
+		assertEquals("select * from t where id = ?", snapshot.getSql());
+		assertEquals(2, snapshot.getExecutionTimes().getCount());
+		assertEquals(0, snapshot.getFailureCount());
+		assertEquals(2, snapshot.getRowCounts().getCount());
+		assertEquals(1, snapshot.getRowCounts().getMin());
+		assertEquals(2, snapshot.getRowCounts().getMax());
+
+		metrics.reset();
+		assertEquals(0, metrics.getStatementCount());
+	}
+
+	@Test
+	public void testMXBean() throws Exception {
+		JdbcMetrics metrics = new JdbcMetrics();
+		metrics.statementExecuted(null, "delete from t", 1000, null);
+		ObjectName name = metrics.registerMBean("test");
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			CompositeData[] statements = (CompositeData[]) server.getAttribute(
+					name, "StatementMetrics");
+			assertEquals(1, statements.length);
+			assertEquals("delete from t", statements[0].get("sql"));
+			assertEquals(1L, ((CompositeData) statements[0]
+					.get("executionTimes")).get("count"));
+		} finally {
+			server.unregisterMBean(name);
+		}
+	}
+
+}
@@ -0,0 +1,54 @@
+package com.seboch.jdbc.proxy.slowlog;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class AsyncSlowQueryListenerTest {
+
+	@Test
+	public void testSlowQueriesAreDroppedWhenFull() throws InterruptedException {
+		final CountDownLatch blocked = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final List<SlowQuery> written = Collections
+				.synchronizedList(new ArrayList<SlowQuery>());
+		SlowQueryListener slowListener = new SlowQueryListener() {
+			@Override
+			public void slowQuery(SlowQuery slowQuery) {
+				blocked.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				written.add(slowQuery);
+			}
+		};
+
+		AsyncSlowQueryListener listener = new AsyncSlowQueryListener(
+				slowListener, 4);
+		listener.slowQuery(slowQuery());
+		assertTrue(blocked.await(5, TimeUnit.SECONDS));
+
+		for (int i = 0; i < 10; i++) {
+			listener.slowQuery(slowQuery());
+		}
+		release.countDown();
+		listener.close();
+
+		assertEquals(6, listener.getDroppedQueries());
+		assertEquals(5, written.size());
+	}
+
+	private static SlowQuery slowQuery() {
+		return new SlowQuery("SELECT 1", null, 1000, 1, null,
+				System.currentTimeMillis());
+	}
+
+}